@@ -18,8 +18,7 @@
  */
 package org.structr.agent;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,17 +30,23 @@ import org.structr.core.graph.Tx;
 
 /**
  * Abstract base class for all agents.
+ *
+ * Agents of the same type share a blocking task queue that is managed
+ * by the {@link AgentService}. An agent thread blocks on that queue while
+ * it is idle and terminates after {@link #IDLE_TIMEOUT_SECONDS} without
+ * new tasks.
  */
 public abstract class Agent<T> extends Thread implements StatusInfo {
 
 	public static final String AVERAGE_EXECUTION_TIME = "average_execution_time";
 	public static final String EXECUTION_STATUS       = "execution_status";
 	public static final String MAX_QUEUE_SIZE         = "max_queue_size";
+	public static final long IDLE_TIMEOUT_SECONDS     = 30;
 	private static final Logger logger                = LoggerFactory.getLogger(Agent.class.getName());
 
 	private final AtomicBoolean suspended      = new AtomicBoolean(false);
-	private final Queue<Task<T>> taskQueue     = new ConcurrentLinkedQueue<>();
 	private final AtomicBoolean acceptingTasks = new AtomicBoolean(true);
+	private final AtomicBoolean killed         = new AtomicBoolean(false);
 	private AgentService agentService          = null;
 	private long averageExecutionTime          = 0;
 	private int maxAgents                      = 10;
@@ -59,114 +64,45 @@ public abstract class Agent<T> extends Thread implements StatusInfo {
 
 		agentService.notifyAgentStart(this);
 
-		do {
-
-			if (!Services.getInstance().isInitialized()) {
-
-				try { Thread.sleep(100); } catch (InterruptedException i) {}
-
-				// loop until we are stopped
-				continue;
-			}
-
-			while (suspended.get()) {
-
-				Thread.yield();
-
-			}
-
-			final Task<T> currentTask;
-
-			synchronized (taskQueue) {
-
-				currentTask = taskQueue.poll();
-
-			}
-
-			if (currentTask != null) {
-
-				ReturnValue ret = null;
-
-				// only execute process if Service layer is ready
-				// (and not shutting down right now)
-				if (Services.getInstance().isInitialized()) {
-
-					if (createEnclosingTransaction()) {
-
-						try (final Tx tx = StructrApp.getInstance().tx()) {
-
-							ret = processTask(currentTask);
-							tx.success();
-
-						} catch (FrameworkException fex) {
+		try {
 
-							// task processing failed..
-							logger.error("Processing task {} failed: {}", currentTask.getType(), fex.toString());
+			// wait for the service layer to be ready
+			while (!Services.getInstance().awaitInitialization(1, TimeUnit.MINUTES)) {}
 
-						} catch (Throwable t) {
+			while (!killed.get()) {
 
-							// task processing failed..
-							logger.error("Processing task {} failed: {}", currentTask.getType(), t.getMessage());
-						}
+				awaitResume();
 
-					} else {
+				// blocks until a task is available, returns null if this agent should terminate
+				final Task<T> currentTask = agentService.nextTask(this, getIdleTimeout(), TimeUnit.SECONDS);
+				if (currentTask == null) {
 
-						try {
-
-							ret = processTask(currentTask);
-
-						} catch (FrameworkException fex) {
-
-							// task processing failed..
-							logger.error("Processing task {} failed: {}", currentTask.getType(), fex.toString());
-
-						} catch (Throwable t) {
-
-							// task processing failed..
-							logger.error("Processing task {} failed: {}", currentTask.getType(), t.getMessage());
-						}
-					}
+					// queue is empty, quit.
+					break;
 				}
 
-				if (ret != null && Retry.equals(ret) && currentTask.getRetryCount() < 2) {
-
-					// wait some time
-					try { Thread.sleep(2000); } catch (InterruptedException ex) {}
-
-					synchronized (taskQueue) {
-
-						currentTask.incrementRetryCount();
-						taskQueue.add(currentTask);
-					}
-				}
+				execute(currentTask);
+			}
 
-				long endTime = System.nanoTime();
+		} catch (InterruptedException iex) {
 
-				// calc. average execution time
-				averageExecutionTime += endTime;
-				averageExecutionTime /= 2;
+			// agent was killed or the service is shutting down
 
-			} else {
+		} finally {
 
-				// queue is empty, quit.
-				acceptingTasks.set(false);
-			}
+			acceptingTasks.set(false);
 
-		} while (acceptingTasks.get());
-
-		// call beforeShutdown to allow agents to clean up
-		beforeShutdown();
-		agentService.notifyAgentStop(this);
+			// call beforeShutdown to allow agents to clean up
+			beforeShutdown();
+			agentService.notifyAgentStop(this);
+		}
 	}
 
 	public final boolean assignTask(final Task<T> task) {
 
-		if (canHandleMore() && acceptingTasks.get()) {
+		if (acceptingTasks.get() && agentService != null) {
 
-			synchronized (taskQueue) {
-
-				taskQueue.add(task);
-			}
+			agentService.processTask(task);
 
 			return true;
 		}
@@ -178,9 +114,7 @@ public abstract class Agent<T> extends Thread implements StatusInfo {
 
 		// stop accepting tasks
 		acceptingTasks.set(false);
-
-		// clear queue
-		taskQueue.clear();
+		killed.set(true);
 
 		// interrupt running process..
 		// not sure if this works... see Thread.interrupt()'s description!
@@ -197,7 +131,12 @@ public abstract class Agent<T> extends Thread implements StatusInfo {
 	public final void resumeAgent() {
 
 		acceptingTasks.set(true);
-		suspended.set(false);
+
+		synchronized (suspended) {
+
+			suspended.set(false);
+			suspended.notifyAll();
+		}
 	}
 
 	protected void beforeShutdown() {
@@ -205,30 +144,37 @@ public abstract class Agent<T> extends Thread implements StatusInfo {
 		// override me
 	}
 
+	/**
+	 * Indicates whether this agent can handle the current backlog of its
+	 * task type. The agent service starts additional agents (up to its
+	 * limit) only if all idle agents are busy and this method returns false.
+	 *
+	 * @return whether this agent can take more tasks
+	 */
 	protected boolean canHandleMore() {
 
-		int size = 0;
-
-		synchronized (taskQueue) {
-
-			// FIXME: size may not be a constant time operation! slow?
-			size = taskQueue.size();
-		}
-
-		// queue is empty, assume new agent
-		if (size == 0) {
-
-			return true;
+		if (agentService != null) {
 
+			return agentService.getQueueSize(getSupportedTaskType()) < maxQueueSize;
 		}
 
-		return size < maxQueueSize;
+		return true;
 	}
 
 	public boolean createEnclosingTransaction() {
 		return true;
 	}
 
+	/**
+	 * Returns the number of seconds this agent waits for new tasks
+	 * before it terminates.
+	 *
+	 * @return the idle timeout in seconds
+	 */
+	protected long getIdleTimeout() {
+		return IDLE_TIMEOUT_SECONDS;
+	}
+
 	public final int getMaxQueueSize() {
 		return maxQueueSize;
 	}
@@ -279,4 +225,69 @@ public abstract class Agent<T> extends Thread implements StatusInfo {
 	public final boolean isAcceptingTasks() {
 		return acceptingTasks.get();
 	}
+
+	// ----- private methods -----
+	private void execute(final Task<T> currentTask) {
+
+		final long startTime = System.nanoTime();
+		ReturnValue ret      = null;
+
+		if (createEnclosingTransaction()) {
+
+			try (final Tx tx = StructrApp.getInstance().tx()) {
+
+				ret = processTask(currentTask);
+				tx.success();
+
+			} catch (FrameworkException fex) {
+
+				// task processing failed..
+				logger.error("Processing task {} failed: {}", currentTask.getType(), fex.toString());
+
+			} catch (Throwable t) {
+
+				// task processing failed..
+				logger.error("Processing task {} failed: {}", currentTask.getType(), t.getMessage());
+			}
+
+		} else {
+
+			try {
+
+				ret = processTask(currentTask);
+
+			} catch (FrameworkException fex) {
+
+				// task processing failed..
+				logger.error("Processing task {} failed: {}", currentTask.getType(), fex.toString());
+
+			} catch (Throwable t) {
+
+				// task processing failed..
+				logger.error("Processing task {} failed: {}", currentTask.getType(), t.getMessage());
+			}
+		}
+
+		if (ret != null && Retry.equals(ret) && currentTask.getRetryCount() < 2) {
+
+			// re-submitted by the agent service after a delay, this agent continues with the next task
+			agentService.retryTask(currentTask);
+		}
+
+		final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+		// calc. average execution time
+		averageExecutionTime += duration;
+		averageExecutionTime /= 2;
+	}
+
+	private void awaitResume() throws InterruptedException {
+
+		synchronized (suspended) {
+
+			while (suspended.get()) {
+				suspended.wait();
+			}
+		}
+	}
 }
@@ -25,10 +25,15 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +49,11 @@ import org.structr.schema.SchemaService;
 
 /**
  * The agent service main class.
+ *
+ * Incoming tasks are dispatched to a blocking queue per task type. The
+ * agents of that type act as the worker threads of the queue: they block
+ * while the queue is empty, and new agents are started (up to maxAgents)
+ * only when the existing ones are busy and cannot keep up.
  */
 @ServiceDependency(SchemaService.class)
 @StopServiceForMaintenanceMode
@@ -51,12 +61,15 @@ public class AgentService extends Thread implements RunnableService {
 
 	private static final Logger logger = LoggerFactory.getLogger(AgentService.class.getName());
 
-	private final int maxAgents                          = 10;    // TODO: make configurable
-	private final Map<String, List<Agent>> runningAgents = new ConcurrentHashMap<>(10, 0.9f, 8);
-	private final Map<String, Class> agentClassCache     = new ConcurrentHashMap<>(10, 0.9f, 8);
-	private final Queue<Task> taskQueue                  = new ConcurrentLinkedQueue<>();
-	private Set<Class> supportedCommands                 = null;
-	private boolean run                                  = false;
+	private static final long RETRY_DELAY_MILLIS               = 2000;
+	private final int maxAgents                                = 10;    // TODO: make configurable
+	private final Map<String, List<Agent>> runningAgents       = new ConcurrentHashMap<>(10, 0.9f, 8);
+	private final Map<String, PendingTasks> pendingTasks       = new ConcurrentHashMap<>(10, 0.9f, 8);
+	private final Map<String, Class> agentClassCache           = new ConcurrentHashMap<>(10, 0.9f, 8);
+	private final BlockingQueue<Task> taskQueue                = new LinkedBlockingQueue<>();
+	private ScheduledExecutorService retryScheduler            = null;
+	private Set<Class> supportedCommands                       = null;
+	private volatile boolean run                               = false;
 
 	public AgentService() {
 
@@ -69,11 +82,8 @@ public class AgentService extends Thread implements RunnableService {
 
 	public void processTask(Task task) {
 
-		synchronized (taskQueue) {
-
-			taskQueue.add(task);
-			logger.debug("Task {} added to task queue", task);
-		}
+		taskQueue.add(task);
+		logger.debug("Task {} added to task queue", task);
 	}
 
 	@Override
@@ -81,16 +91,29 @@ public class AgentService extends Thread implements RunnableService {
 
 		logger.info("AgentService started");
 
+		final Services servicesInstance = Services.getInstance();
+
+		try {
+
+			// tasks that are submitted during startup are kept in the queue
+			// until the agents of all modules are registered
+			while (run && !servicesInstance.awaitInitialization(1, TimeUnit.MINUTES)) {}
+
+		} catch (InterruptedException iex) {
+			return;
+		}
+
 		while (run) {
 
-			Task nextTask = taskQueue.poll();
-			if (nextTask != null) {
+			try {
 
-				assignNextAgentForTask(nextTask);
-			}
+				// blocks until a task is available
+				assignNextAgentForTask(taskQueue.take());
+
+			} catch (InterruptedException iex) {
 
-			// let others act
-			try { Thread.sleep(10); } catch(Throwable ignore) {}
+				// service was stopped
+			}
 		}
 	}
 
@@ -99,16 +122,29 @@ public class AgentService extends Thread implements RunnableService {
 		List<Agent> agents = getRunningAgentsForTask(agent.getSupportedTaskType());
 
 		synchronized (agents) {
-			agents.add(agent);
+
+			if (!agents.contains(agent)) {
+				agents.add(agent);
+			}
 		}
 	}
 
 	public void notifyAgentStop(Agent agent) {
 
-		List<Agent> agents = getRunningAgentsForTask(agent.getSupportedTaskType());
+		final Class taskClass     = agent.getSupportedTaskType();
+		final PendingTasks queue  = getPendingTasks(taskClass);
+		final List<Agent> agents  = getRunningAgentsForTask(taskClass);
 
 		synchronized (agents) {
+
 			agents.remove(agent);
+
+			// make sure that remaining tasks of a killed agent are processed
+			final Task next = queue.tasks.peek();
+			if (run && next != null && agents.isEmpty()) {
+
+				startAgent(next, agents);
+			}
 		}
 	}
 
@@ -142,13 +178,38 @@ public class AgentService extends Thread implements RunnableService {
 	@Override
 	public void startService() throws Exception {
 
+		retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+
+			final Thread thread = new Thread(r, "AgentServiceRetry");
+			thread.setDaemon(true);
+
+			return thread;
+		});
+
 		run = true;
 		this.start();
 	}
 
 	@Override
 	public void stopService() {
+
 		run = false;
+
+		this.interrupt();
+
+		if (retryScheduler != null) {
+			retryScheduler.shutdownNow();
+		}
+
+		for (final List<Agent> agents : runningAgents.values()) {
+
+			synchronized (agents) {
+
+				for (final Agent agent : agents) {
+					agent.killAgent();
+				}
+			}
+		}
 	}
 
 	@Override
@@ -156,54 +217,125 @@ public class AgentService extends Thread implements RunnableService {
 		return true;
 	}
 
-	private void assignNextAgentForTask(final Task nextTask) {
+	/**
+	 * Returns the next task for the given agent, waiting up to the given
+	 * timeout for a task to become available. A return value of null means
+	 * that the agent has been removed from the list of running agents and
+	 * must terminate.
+	 *
+	 * @param agent the agent
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout argument
+	 * @return the next task or null
+	 * @throws InterruptedException
+	 */
+	Task nextTask(final Agent agent, final long timeout, final TimeUnit unit) throws InterruptedException {
 
-		Class taskClass    = nextTask.getClass();
-		List<Agent> agents = getRunningAgentsForTask(taskClass);
+		final Class taskClass     = agent.getSupportedTaskType();
+		final PendingTasks queue  = getPendingTasks(taskClass);
 
-		// need to synchronize on agents
-		synchronized (agents) {
+		queue.idle.incrementAndGet();
+		try {
+
+			final Task task = queue.tasks.poll(timeout, unit);
+			if (task != null) {
 
-			// find next free agent (agents should be sorted by load, so one
-			// of the first should do..
-			for (Agent agent : agents) {
+				return task;
+			}
 
-				if (agent.assignTask(nextTask)) {
+		} finally {
 
-					// ok, task is assigned
-					logger.debug("Task assigned to agent {} ({})", agent.getName(), agent.hashCode());
+			queue.idle.decrementAndGet();
+		}
 
-					return;
-				}
+		final List<Agent> agents = getRunningAgentsForTask(taskClass);
+
+		// check again while holding the lock, a task may have been dispatched in the meantime
+		synchronized (agents) {
+
+			final Task task = queue.tasks.poll();
+			if (task == null) {
+
+				agents.remove(agent);
 			}
+
+			return task;
+		}
+	}
+
+	/**
+	 * Re-submits the given task after a delay.
+	 *
+	 * @param task the task to retry
+	 */
+	void retryTask(final Task task) {
+
+		task.incrementRetryCount();
+
+		try {
+
+			retryScheduler.schedule(() -> processTask(task), RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+
+		} catch (RejectedExecutionException rex) {
+
+			logger.debug("Unable to retry task {}, service is shutting down", task);
 		}
+	}
+
+	/**
+	 * Returns the number of tasks that are waiting for an agent of the given type.
+	 *
+	 * @param taskClass the task type
+	 * @return the number of tasks
+	 */
+	public int getQueueSize(final Class taskClass) {
+		return getPendingTasks(taskClass).tasks.size();
+	}
+
+	/**
+	 * Dispatches the given task to the queue of its type, starting a new
+	 * agent if necessary. The task is dropped if no agent can be found for
+	 * it, so this method must not be called before the service layer is
+	 * initialized.
+	 *
+	 * @param nextTask the task
+	 */
+	private void assignNextAgentForTask(final Task nextTask) {
+
+		final Class taskClass     = nextTask.getClass();
+		final PendingTasks queue  = getPendingTasks(taskClass);
+		final List<Agent> agents  = getRunningAgentsForTask(taskClass);
 
-		if (agents.size() < maxAgents) {
+		// need to synchronize on agents
+		synchronized (agents) {
 
-			// if we get here, task was not assigned to any agent, need to create a new one.
-			Agent agent = createAgent(nextTask);
+			queue.tasks.add(nextTask);
 
-			if ((agent != null) && agent.assignTask(nextTask)) {
+			// start a new agent only if no agent is waiting for tasks and the existing ones can't keep up
+			if (agents.isEmpty() || (queue.idle.get() == 0 && agents.size() < maxAgents && !agents.get(0).canHandleMore())) {
 
-				agent.start();
+				if (!startAgent(nextTask, agents) && agents.isEmpty()) {
 
-			} else {
+					queue.tasks.remove(nextTask);
 
-				// re-add task..
-				synchronized (taskQueue) {
-					taskQueue.add(nextTask);
+					logger.warn("No agent found for task {}, ignoring.", taskClass.getSimpleName());
 				}
 			}
+		}
+	}
 
-		} else {
+	private boolean startAgent(final Task forTask, final List<Agent> agents) {
 
-			logger.debug("Overall agents limit reached, re-queueing task");
+		final Agent agent = createAgent(forTask);
+		if (agent != null) {
 
-			// re-add task..
-			synchronized (taskQueue) {
-				taskQueue.add(nextTask);
-			}
+			agents.add(agent);
+			agent.start();
+
+			return true;
 		}
+
+		return false;
 	}
 
 	/**
@@ -286,7 +418,14 @@ public class AgentService extends Thread implements RunnableService {
 	 * @return tasks
 	 */
 	public Collection<Task> getTaskQueue() {
-		return (taskQueue);
+
+		final List<Task> tasks = new LinkedList<>(taskQueue);
+
+		for (final PendingTasks queue : pendingTasks.values()) {
+			tasks.addAll(queue.tasks);
+		}
+
+		return tasks;
 	}
 
 	/**
@@ -298,18 +437,11 @@ public class AgentService extends Thread implements RunnableService {
 	}
 
 	private List<Agent> getRunningAgentsForTask(Class taskClass) {
+		return runningAgents.computeIfAbsent(taskClass.getName(), k -> Collections.synchronizedList(new LinkedList<>()));
+	}
 
-		List<Agent> agents = runningAgents.get(taskClass.getName());
-
-		if (agents == null) {
-
-			agents = Collections.synchronizedList(new LinkedList<>());
-
-			// Hashtable is synchronized
-			runningAgents.put(taskClass.getName(), agents);
-		}
-
-		return (agents);
+	private PendingTasks getPendingTasks(final Class taskClass) {
+		return pendingTasks.computeIfAbsent(taskClass.getName(), k -> new PendingTasks());
 	}
 
 	@Override
@@ -332,4 +464,11 @@ public class AgentService extends Thread implements RunnableService {
 	public String getModuleName() {
 		return "agents";
 	}
+
+	// ----- nested classes -----
+	private static class PendingTasks {
+
+		private final BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
+		private final AtomicInteger idle        = new AtomicInteger();
+	}
 }
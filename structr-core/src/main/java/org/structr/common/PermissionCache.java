@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.common;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.structr.api.config.Settings;
+import org.structr.api.util.Cachable;
+import org.structr.api.util.FixedSizeCache;
+
+/**
+ * Concurrent, size-limited cache for the results of permission resolution.
+ *
+ * Each entry records the UUIDs of the nodes and principals that were visited
+ * while its result was resolved, so a modification only invalidates the
+ * entries whose access path contains one of the modified objects. A global
+ * generation counter prevents results that were resolved concurrently with
+ * an invalidation from being stored.
+ */
+public class PermissionCache {
+
+	private static final FixedSizeCache<String, CacheEntry> cache = new FixedSizeCache<>("Permission cache", Settings.PermissionCacheSize.getValue(), true);
+	private static final Map<String, Set<CacheEntry>> dependents  = new ConcurrentHashMap<>();
+	private static final AtomicLong generation                    = new AtomicLong();
+
+	/**
+	 * Returns the current generation, must be called before a permission
+	 * resolution starts.
+	 *
+	 * @return the current generation
+	 */
+	public static long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Returns the result of a top-level permission check of the given
+	 * principal on the given node, or null.
+	 *
+	 * @param nodeId
+	 * @param principalId
+	 * @param permission
+	 *
+	 * @return the cached result or null
+	 */
+	public static Boolean getGranted(final String nodeId, final String principalId, final Permission permission) {
+		return get("granted", nodeId, principalId, permission, null);
+	}
+
+	public static void putGranted(final String nodeId, final String principalId, final Permission permission, final boolean value, final Set<String> dependencies, final long startGeneration) {
+		put("granted", nodeId, principalId, permission, value, dependencies, startGeneration, true);
+	}
+
+	/**
+	 * Returns the intermediate result of a permission resolution for the given
+	 * node and principal, or null. The dependencies of the cached result are
+	 * added to the given set because the caller builds on the result.
+	 *
+	 * @param nodeId
+	 * @param principalId
+	 * @param permission
+	 * @param dependencies
+	 *
+	 * @return the cached result or null
+	 */
+	public static Boolean getResolved(final String nodeId, final String principalId, final Permission permission, final Set<String> dependencies) {
+		return get("resolved", nodeId, principalId, permission, dependencies);
+	}
+
+	public static void putResolved(final String nodeId, final String principalId, final Permission permission, final boolean value, final Set<String> dependencies, final long startGeneration) {
+		put("resolved", nodeId, principalId, permission, value, dependencies, startGeneration, false);
+	}
+
+	public static void invalidate(final String uuid) {
+
+		if (uuid != null) {
+
+			generation.incrementAndGet();
+
+			invalidateDependents(uuid);
+		}
+	}
+
+	public static void invalidate(final Collection<String> uuids) {
+
+		if (!uuids.isEmpty()) {
+
+			generation.incrementAndGet();
+
+			for (final String uuid : uuids) {
+
+				invalidateDependents(uuid);
+			}
+		}
+	}
+
+	public static void invalidateAll() {
+
+		generation.incrementAndGet();
+
+		cache.clear();
+		dependents.clear();
+	}
+
+	public static int size() {
+		return cache.size();
+	}
+
+	// ----- private methods -----
+	private static Boolean get(final String kind, final String nodeId, final String principalId, final Permission permission, final Set<String> dependencies) {
+
+		final CacheEntry entry = cache.get(cacheKey(kind, nodeId, principalId));
+		if (entry != null) {
+
+			final Boolean value = entry.get(permission);
+			if (value != null && dependencies != null) {
+
+				dependencies.addAll(entry.dependencies);
+			}
+
+			return value;
+		}
+
+		return null;
+	}
+
+	private static void put(final String kind, final String nodeId, final String principalId, final Permission permission, final boolean value, final Set<String> dependencies, final long startGeneration, final boolean overwrite) {
+
+		// don't store results that might be based on data that was modified in the meantime
+		if (generation.get() != startGeneration) {
+			return;
+		}
+
+		final String key = cacheKey(kind, nodeId, principalId);
+		CacheEntry entry = cache.get(key);
+
+		if (entry == null) {
+
+			entry = new CacheEntry(key);
+			cache.put(key, entry);
+		}
+
+		entry.set(permission, value, overwrite);
+
+		for (final String uuid : dependencies) {
+
+			if (entry.dependencies.add(uuid)) {
+
+				final CacheEntry dependent = entry;
+
+				dependents.compute(uuid, (k, entries) -> {
+
+					final Set<CacheEntry> set = entries != null ? entries : ConcurrentHashMap.newKeySet();
+
+					set.add(dependent);
+
+					return set;
+				});
+			}
+		}
+
+		// an invalidation might have missed the new entry
+		if (generation.get() != startGeneration) {
+			remove(entry);
+		}
+	}
+
+	private static void invalidateDependents(final String uuid) {
+
+		final Set<CacheEntry> entries = dependents.remove(uuid);
+		if (entries != null) {
+
+			for (final CacheEntry entry : entries) {
+				remove(entry);
+			}
+		}
+	}
+
+	private static void remove(final CacheEntry entry) {
+
+		cache.remove(entry.key);
+		entry.onRemoveFromCache();
+	}
+
+	private static String cacheKey(final String kind, final String nodeId, final String principalId) {
+		return kind + "." + nodeId + "." + principalId;
+	}
+
+	// ----- nested classes -----
+	private static class CacheEntry implements Cachable {
+
+		private final Set<String> dependencies = ConcurrentHashMap.newKeySet();
+		private volatile Boolean accessControl = null;
+		private volatile Boolean delete        = null;
+		private volatile Boolean write         = null;
+		private volatile Boolean read          = null;
+		private String key                     = null;
+
+		public CacheEntry(final String key) {
+			this.key = key;
+		}
+
+		public Boolean get(final Permission permission) {
+
+			if (permission.equals(Permission.read)) {
+				return read;
+			}
+
+			if (permission.equals(Permission.write)) {
+				return write;
+			}
+
+			if (permission.equals(Permission.delete)) {
+				return delete;
+			}
+
+			if (permission.equals(Permission.accessControl)) {
+				return accessControl;
+			}
+
+			return null;
+		}
+
+		public void set(final Permission permission, final boolean value, final boolean overwrite) {
+
+			// without overwrite, a positive result is never replaced
+			if (permission.equals(Permission.read) && (overwrite || read == null || read == false)) {
+				read = value;
+			}
+
+			if (permission.equals(Permission.write) && (overwrite || write == null || write == false)) {
+				write = value;
+			}
+
+			if (permission.equals(Permission.delete) && (overwrite || delete == null || delete == false)) {
+				delete = value;
+			}
+
+			if (permission.equals(Permission.accessControl) && (overwrite || accessControl == null || accessControl == false)) {
+				accessControl = value;
+			}
+		}
+
+		@Override
+		public void onRemoveFromCache() {
+
+			// unregister from the dependency index, also called on eviction
+			for (final String uuid : dependencies) {
+
+				dependents.computeIfPresent(uuid, (k, entries) -> {
+
+					entries.remove(this);
+
+					return entries.isEmpty() ? null : entries;
+				});
+			}
+		}
+	}
+}
@@ -92,6 +92,7 @@ public class SecurityContext {
 	private String cachedUserName                = null;
 	private String cachedUserId                  = null;
 	private String sessionId                     = null;
+	private String cursor                        = null;
 	private ContextStore contextStore            = null;
 
 	private SecurityContext() {
@@ -941,6 +942,24 @@ public class SecurityContext {
 		return doMultiThreadedJsonOutput;
 	}
 
+	public void setCursor(final String cursor) {
+		this.cursor = cursor;
+	}
+
+	/**
+	 * Returns the pagination cursor of the current request and clears
+	 * it, so that it is only applied to the first (top-level) query.
+	 *
+	 * @return the cursor or null
+	 */
+	public String consumeCursor() {
+
+		final String value = cursor;
+		cursor             = null;
+
+		return value;
+	}
+
 	public void setDoIndexing(final boolean doIndexing) {
 		this.doIndexing = doIndexing;
 	}
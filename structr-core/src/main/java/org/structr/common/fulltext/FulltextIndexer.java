@@ -18,6 +18,7 @@
  */
 package org.structr.common.fulltext;
 
+import org.structr.api.search.FulltextIndex;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObjectMap;
 
@@ -27,4 +28,14 @@ public interface FulltextIndexer {
 
 	void addToFulltextIndex(final Indexable indexable) throws FrameworkException;
 	GraphObjectMap getContextObject(final String searchTerm, final String text, final int contextLength);
+
+	/**
+	 * Returns the ranked index that fulltext queries on the indexed words
+	 * of an {@link Indexable} can use, or null if there is none.
+	 *
+	 * @return the index or null
+	 */
+	default FulltextIndex getFulltextIndex() {
+		return null;
+	}
 }
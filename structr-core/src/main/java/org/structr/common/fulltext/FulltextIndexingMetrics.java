@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.common.fulltext;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.structr.api.util.LatencyHistogram;
+
+/**
+ * Collects progress and throughput of fulltext indexing: content
+ * extraction on the worker pool, and the batched transactions that
+ * store the results.
+ */
+public class FulltextIndexingMetrics {
+
+	private static final LatencyHistogram extractionTime = new LatencyHistogram();
+	private static final LatencyHistogram batchWriteTime = new LatencyHistogram();
+	private static final LongAdder queuedDocuments       = new LongAdder();
+	private static final LongAdder activeExtractions     = new LongAdder();
+	private static final LongAdder extractedDocuments    = new LongAdder();
+	private static final LongAdder extractedBytes        = new LongAdder();
+	private static final LongAdder totalExtractionTime   = new LongAdder();
+	private static final LongAdder skippedDocuments      = new LongAdder();
+	private static final LongAdder failedDocuments       = new LongAdder();
+	private static final LongAdder timedOutDocuments     = new LongAdder();
+	private static final LongAdder pendingWrites         = new LongAdder();
+	private static final LongAdder writtenDocuments      = new LongAdder();
+	private static final LongAdder writtenBatches        = new LongAdder();
+
+	public static void documentQueued() {
+		queuedDocuments.increment();
+	}
+
+	public static void extractionStarted() {
+
+		queuedDocuments.decrement();
+		activeExtractions.increment();
+	}
+
+	/**
+	 * Called when the extraction of a document has finished.
+	 *
+	 * @param nanos the extraction time
+	 * @param bytes the size of the document, or -1 if unknown
+	 */
+	public static void extractionFinished(final long nanos, final long bytes) {
+
+		activeExtractions.decrement();
+		extractedDocuments.increment();
+		pendingWrites.increment();
+		totalExtractionTime.add(nanos);
+		extractionTime.record(nanos);
+
+		if (bytes > 0) {
+			extractedBytes.add(bytes);
+		}
+	}
+
+	public static void extractionSkipped() {
+
+		activeExtractions.decrement();
+		skippedDocuments.increment();
+	}
+
+	public static void extractionFailed(final boolean timeout) {
+
+		activeExtractions.decrement();
+		failedDocuments.increment();
+
+		if (timeout) {
+			timedOutDocuments.increment();
+		}
+	}
+
+	public static void batchWritten(final int documents, final long nanos) {
+
+		pendingWrites.add(-documents);
+		writtenDocuments.add(documents);
+		writtenBatches.increment();
+		batchWriteTime.record(nanos);
+	}
+
+	public static Map<String, Object> getStatus() {
+
+		final Map<String, Object> status = new LinkedHashMap<>();
+		final long extractionNanos       = totalExtractionTime.sum();
+		final long bytes                 = extractedBytes.sum();
+
+		status.put("queuedDocuments",       queuedDocuments.sum());
+		status.put("activeExtractions",     activeExtractions.sum());
+		status.put("extractedDocuments",    extractedDocuments.sum());
+		status.put("skippedDocuments",      skippedDocuments.sum());
+		status.put("failedDocuments",       failedDocuments.sum());
+		status.put("timedOutDocuments",     timedOutDocuments.sum());
+		status.put("pendingWrites",         pendingWrites.sum());
+		status.put("writtenDocuments",      writtenDocuments.sum());
+		status.put("writtenBatches",        writtenBatches.sum());
+		status.put("extractedMegabytes",    bytes / (1024.0 * 1024.0));
+		status.put("extractionThroughput",  extractionNanos > 0L ? (bytes / (1024.0 * 1024.0)) / (extractionNanos / 1_000_000_000.0) : 0.0);
+		status.put("extractionTimeAvgMs",   extractionTime.getAverage() / 1_000_000.0);
+		status.put("extractionTimeP99Ms",   extractionTime.getPercentile(99.0) / 1_000_000.0);
+		status.put("extractionTimeMaxMs",   extractionTime.getMax() / 1_000_000.0);
+		status.put("batchWriteTimeAvgMs",   batchWriteTime.getAverage() / 1_000_000.0);
+		status.put("batchWriteTimeMaxMs",   batchWriteTime.getMax() / 1_000_000.0);
+
+		return status;
+	}
+}
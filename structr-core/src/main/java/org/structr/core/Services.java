@@ -39,6 +39,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -100,9 +101,10 @@ public class Services implements StructrServices {
 	private final Map<String, Object> cachedValues              = new ConcurrentHashMap<>(10, 0.9f, 8);
 	private final Map<String, Object> applicationStore          = new ConcurrentHashMap<>(10, 0.9f, 8);
 	private final ReentrantReadWriteLock reloading              = new ReentrantReadWriteLock(true);
+	private final CountDownLatch initializationLatch            = new CountDownLatch(1);
 	private LicenseManager licenseManager                       = null;
 	private ConfigurationProvider configuration                 = null;
-	private boolean initializationDone                          = false;
+	private volatile boolean initializationDone                 = false;
 	private boolean overridingSchemaTypesAllowed                = true;
 	private boolean shuttingDown                                = false;
 	private boolean shutdownDone                                = false;
@@ -447,6 +449,7 @@ public class Services implements StructrServices {
 		setOverridingSchemaTypesAllowed(false);
 
 		initializationDone = true;
+		initializationLatch.countDown();
 
 		if (licenseManager != null && !Settings.DisableSendSystemInfo.getValue(false)) {
 			new SystemInfoSender().start();
@@ -479,6 +482,19 @@ public class Services implements StructrServices {
 		return initializationDone;
 	}
 
+	/**
+	 * Blocks the calling thread until the service layer is initialized
+	 * or the given timeout elapses.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout argument
+	 * @return true if the service layer is initialized
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 */
+	public boolean awaitInitialization(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return initializationLatch.await(timeout, unit);
+	}
+
 	public String getUnavailableMessage() {
 		return "Services is not initialized yet.";
 	}
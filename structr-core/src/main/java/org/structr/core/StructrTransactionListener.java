@@ -38,6 +38,19 @@ public interface StructrTransactionListener {
 	public void beforeCommit(final SecurityContext securityContext, final Collection<ModificationEvent> modificationEvents) throws FrameworkException;
 	public void afterCommit(final SecurityContext securityContext, final Collection<ModificationEvent> modificationEvents);
 
+	/**
+	 * Called after every top-level transaction with modifications has been
+	 * closed, independent of the notification settings of the security
+	 * context and of the outcome of the transaction. This is the place to
+	 * invalidate caches, results computed before this call might be based
+	 * on the old state.
+	 *
+	 * @param modificationEvents
+	 * @param committed whether the transaction was committed successfully
+	 */
+	default public void afterClose(final Collection<ModificationEvent> modificationEvents, final boolean committed) {
+	}
+
 	default public void simpleBroadcast(final String messageName, final Map<String, Object> data) {
 		simpleBroadcast(messageName, data, null);
 	};
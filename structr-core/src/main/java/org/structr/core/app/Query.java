@@ -55,6 +55,7 @@ public interface Query<T extends GraphObject> {
 	public Query<T> comparator(final Comparator<T> comparator);
 	public Query<T> pageSize(final int pageSize);
 	public Query<T> page(final int page);
+	public Query<T> prefetch(final PropertyKey... keys);
 	public Query<T> publicOnly();
 	public Query<T> includeHidden();
 	public Query<T> publicOnly(final boolean publicOnly);
@@ -642,7 +642,7 @@ public class StructrApp implements App {
 
 		if (nodeUuidMap == null) {
 
-			nodeUuidMap = new FixedSizeCache<>("Node UUID cache", Settings.UuidCacheSize.getValue());
+			nodeUuidMap = new FixedSizeCache<>("Node UUID cache", Settings.UuidCacheSize.getValue(), true);
 		}
 
 		return nodeUuidMap.get(uuid);
@@ -652,7 +652,7 @@ public class StructrApp implements App {
 
 		if (relUuidMap == null) {
 
-			relUuidMap = new FixedSizeCache<>("Relationship UUID cache", Settings.UuidCacheSize.getValue());
+			relUuidMap = new FixedSizeCache<>("Relationship UUID cache", Settings.UuidCacheSize.getValue(), true);
 		}
 
 		return relUuidMap.get(uuid);
@@ -667,7 +667,7 @@ public class StructrApp implements App {
 
 				if (nodeUuidMap == null) {
 
-					nodeUuidMap = new FixedSizeCache<>("Node UUID cache", Settings.UuidCacheSize.getValue());
+					nodeUuidMap = new FixedSizeCache<>("Node UUID cache", Settings.UuidCacheSize.getValue(), true);
 				}
 
 			}
@@ -683,7 +683,7 @@ public class StructrApp implements App {
 
 				if (relUuidMap == null) {
 
-					relUuidMap = new FixedSizeCache<>("Relationship UUID cache", Settings.UuidCacheSize.getValue());
+					relUuidMap = new FixedSizeCache<>("Relationship UUID cache", Settings.UuidCacheSize.getValue(), true);
 				}
 
 			}
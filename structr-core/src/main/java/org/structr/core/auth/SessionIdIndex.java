@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.auth;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.api.NotFoundException;
+import org.structr.api.config.Settings;
+import org.structr.api.graph.Identity;
+import org.structr.api.graph.Node;
+import org.structr.api.util.FixedSizeCache;
+import org.structr.common.SecurityContext;
+import org.structr.core.GraphObject;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.NodeFactory;
+import org.structr.core.property.PropertyKey;
+
+/**
+ * In-memory index that maps session ids to the database identity of the
+ * principal they belong to, so that a request can be authenticated without
+ * a query on the sessionIds property.
+ *
+ * A hit is resolved directly through the node cache of the database driver,
+ * and the sessionIds of the resolved principal are checked before it is
+ * returned. Entries are removed when a session id is removed from its
+ * principal, and the caller falls back to the database query on a miss, so
+ * session ids that were changed by another cluster instance or by a direct
+ * modification of the sessionIds property can never cause a wrong result.
+ */
+public class SessionIdIndex {
+
+	private static final Logger logger                                 = LoggerFactory.getLogger(SessionIdIndex.class.getName());
+	private static final FixedSizeCache<String, Identity> principalIds = new FixedSizeCache<>("Session id index", Settings.SessionIndexSize.getValue(), true);
+
+	/**
+	 * Returns the principal for the given session id if the index contains
+	 * the session id and the principal still owns it, null otherwise. Must
+	 * be called in a transaction.
+	 *
+	 * @param sessionId
+	 *
+	 * @return the principal or null
+	 */
+	public static Principal getPrincipal(final String sessionId) {
+
+		if (sessionId == null) {
+			return null;
+		}
+
+		final Identity principalId = principalIds.get(sessionId);
+		if (principalId != null) {
+
+			try {
+
+				final Node node = StructrApp.getInstance().getDatabaseService().getNodeById(principalId);
+				if (node != null) {
+
+					final PropertyKey<String[]> key = StructrApp.key(Principal.class, "sessionIds");
+					final GraphObject entity        = new NodeFactory<>(SecurityContext.getSuperUserInstance()).instantiate(node);
+
+					if (entity instanceof Principal && ArrayUtils.contains(entity.getProperty(key), sessionId)) {
+						return (Principal)entity;
+					}
+				}
+
+			} catch (NotFoundException nfex) {
+
+				logger.debug("Principal for session id index entry no longer exists");
+			}
+
+			// stale entry
+			principalIds.remove(sessionId);
+		}
+
+		return null;
+	}
+
+	public static void put(final String sessionId, final Principal principal) {
+
+		if (sessionId != null && principal != null) {
+
+			principalIds.put(sessionId, principal.getPropertyContainer().getId());
+		}
+	}
+
+	public static void remove(final String sessionId) {
+
+		if (sessionId != null) {
+
+			principalIds.remove(sessionId);
+		}
+	}
+
+	/**
+	 * Removes all given session ids, e.g. when the sessions of a principal
+	 * are cleared.
+	 *
+	 * @param sessionIds
+	 */
+	public static void removeAll(final String[] sessionIds) {
+
+		if (sessionIds != null) {
+
+			for (final String sessionId : sessionIds) {
+				remove(sessionId);
+			}
+		}
+	}
+
+	public static void clear() {
+		principalIds.clear();
+	}
+}
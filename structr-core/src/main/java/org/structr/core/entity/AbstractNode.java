@@ -72,6 +72,7 @@ import org.structr.cmis.info.CMISRelationshipInfo;
 import org.structr.cmis.info.CMISSecondaryInfo;
 import org.structr.common.AccessControllable;
 import org.structr.common.Permission;
+import org.structr.common.PermissionCache;
 import org.structr.common.PermissionPropagation;
 import org.structr.common.PermissionResolutionMask;
 import org.structr.common.PropertyView;
@@ -110,9 +111,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 
 	private static final int permissionResolutionMaxLevel                                                     = Settings.ResolutionDepth.getValue();
 	private static final Logger logger                                                                        = LoggerFactory.getLogger(AbstractNode.class.getName());
-	private static final FixedSizeCache<String, Boolean> isGrantedResultCache                                 = new FixedSizeCache<String, Boolean>("Grant result cache", 100000);
-	private static final FixedSizeCache<String, Object> relationshipTemplateInstanceCache                     = new FixedSizeCache<>("Relationship template cache", 1000);
-	private static final Map<String, Map<String, PermissionResolutionResult>> globalPermissionResolutionCache = new HashMap<>();
+	private static final FixedSizeCache<String, Object> relationshipTemplateInstanceCache                     = new FixedSizeCache<>("Relationship template cache", 1000, true);
 
 	public static final View defaultView = new View(AbstractNode.class, PropertyView.Public, id, type, name);
 
@@ -814,17 +813,20 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 			accessingUser = context.getUser(false);
 		}
 
-		final String cacheKey = getUuid() + "." + permission.name() + "." + context.getCachedUserId();
-		final Boolean cached  = isGrantedResultCache.get(cacheKey);
+		final String principalId = context.getCachedUserId();
+		final Boolean cached     = PermissionCache.getGranted(getUuid(), principalId, permission);
 
 		if (cached != null && cached == true) {
 			return true;
 		}
 
-		final boolean doLog  = securityContext.hasParameter("logPermissionResolution");
-		final boolean result = isGranted(permission, accessingUser, new PermissionResolutionMask(), 0, new AlreadyTraversed(), true, doLog, isCreation);
+		final AlreadyTraversed alreadyTraversed = new AlreadyTraversed();
+		final boolean doLog                     = securityContext.hasParameter("logPermissionResolution");
+		final boolean result                    = isGranted(permission, accessingUser, new PermissionResolutionMask(), 0, alreadyTraversed, true, doLog, isCreation);
 
-		isGrantedResultCache.put(cacheKey, result);
+		if (alreadyTraversed.isCacheable()) {
+			PermissionCache.putGranted(getUuid(), principalId, permission, result, alreadyTraversed.getDependencies(), alreadyTraversed.getGeneration());
+		}
 
 		return result;
 	}
@@ -842,6 +844,13 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 
 		if (doLog) { logger.info("{}{} ({}): {} check on level {} for {}", StringUtils.repeat("    ", level), getUuid(), getType(), permission.name(), level, accessingUser != null ? accessingUser.getName() : null); }
 
+		// the result depends on the state of this node and the accessing principal
+		alreadyTraversed.addDependency(getUuid());
+
+		if (accessingUser != null) {
+			alreadyTraversed.addDependency(accessingUser.getUuid());
+		}
+
 		// use quick checks for maximum performance
 		if (isCreation && (accessingUser == null || accessingUser.equals(this) || accessingUser.equals(getOwnerNode()) ) ) {
 
@@ -911,6 +920,9 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 
 			if (StringUtils.isNotEmpty(customPermissionQuery)) {
 
+				// the objects a custom query depends on are unknown
+				alreadyTraversed.disableCaching();
+
 				final Map<String, Object> params = new HashMap<>();
 
 				params.put("principalUuid", accessingUser.getUuid());
@@ -956,14 +968,14 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 					final BFSInfo info = bfsNodes.poll();
 					if (info != null && info.level < permissionResolutionMaxLevel) {
 
-						final Boolean value = info.node.getPermissionResolutionResult(accessingUser.getUuid(), permission);
+						final Boolean value = info.node.getPermissionResolutionResult(accessingUser.getUuid(), permission, alreadyTraversed);
 						if (value != null) {
 
 							// returning immediately
 							if (Boolean.TRUE.equals(value)) {
 
 								// do backtracking
-								backtrack(info, accessingUser.getUuid(), permission, true, 0, doLog);
+								backtrack(info, accessingUser.getUuid(), permission, true, 0, alreadyTraversed, doLog);
 
 								return true;
 							}
@@ -973,7 +985,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 							if (info.node.hasEffectivePermissions(info, accessingUser, permission, mask, level, alreadyTraversed, bfsNodes, doLog, isCreation)) {
 
 								// do backtracking
-								backtrack(info, accessingUser.getUuid(), permission, true, 0, doLog);
+								backtrack(info, accessingUser.getUuid(), permission, true, 0, alreadyTraversed, doLog);
 
 								return true;
 							}
@@ -983,7 +995,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 				} while (!bfsNodes.isEmpty());
 
 				// do backtracking
-				backtrack(root, accessingUser.getUuid(), permission, false, 0, doLog);
+				backtrack(root, accessingUser.getUuid(), permission, false, 0, alreadyTraversed, doLog);
 			}
 
 			// Last: recursively check possible parent principals
@@ -998,7 +1010,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 		return false;
 	}
 
-	private void backtrack(final BFSInfo info, final String principalId, final Permission permission, final boolean value, final int level, final boolean doLog) {
+	private void backtrack(final BFSInfo info, final String principalId, final Permission permission, final boolean value, final int level, final AlreadyTraversed alreadyTraversed, final boolean doLog) {
 
 		final StringBuilder buf = new StringBuilder();
 
@@ -1019,12 +1031,12 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 			buf.append(info.node.getType()).append(" (").append(info.node.getUuid()).append(") --> ");
 		}
 
-		info.node.storePermissionResolutionResult(principalId, permission, value);
+		info.node.storePermissionResolutionResult(principalId, permission, value, alreadyTraversed);
 
 		// go to parent(s)
 		if (info.parent != null) {
 
-			backtrack(info.parent, principalId, permission, value, level+1, doLog);
+			backtrack(info.parent, principalId, permission, value, level+1, alreadyTraversed, doLog);
 		}
 
 		if (doLog && level == 0) {
@@ -1071,7 +1083,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 
 								if (otherNode.isGranted(permission, principal, mask, level + 1, alreadyTraversed, false, doLog, isCreation)) {
 
-									otherNode.storePermissionResolutionResult(principal.getUuid(), permission, true);
+									otherNode.storePermissionResolutionResult(principal.getUuid(), permission, true, alreadyTraversed);
 
 									// break early
 									return true;
@@ -1217,68 +1229,14 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 		mask.handleProperties(rel.getDeltaProperties());
 	}
 
-	private Boolean getPermissionResolutionResult(final String principalId, final Permission permission) {
-
-		Map<String, PermissionResolutionResult> permissionResolutionCache = globalPermissionResolutionCache.get(getUuid());
-		if (permissionResolutionCache == null) {
-
-			permissionResolutionCache = new HashMap<>();
-			globalPermissionResolutionCache.put(getUuid(), permissionResolutionCache);
-		}
-
-		PermissionResolutionResult result = permissionResolutionCache.get(principalId);
-		if (result != null) {
-
-			if (permission.equals(Permission.read)) {
-				return result.read;
-			}
-
-			if (permission.equals(Permission.write)) {
-				return result.write;
-			}
-
-			if (permission.equals(Permission.delete)) {
-				return result.delete;
-			}
-
-			if (permission.equals(Permission.accessControl)) {
-				return result.accessControl;
-			}
-		}
-
-		return null;
+	private Boolean getPermissionResolutionResult(final String principalId, final Permission permission, final AlreadyTraversed alreadyTraversed) {
+		return PermissionCache.getResolved(getUuid(), principalId, permission, alreadyTraversed.getDependencies());
 	}
 
-	private void storePermissionResolutionResult(final String principalId, final Permission permission, final boolean value) {
+	private void storePermissionResolutionResult(final String principalId, final Permission permission, final boolean value, final AlreadyTraversed alreadyTraversed) {
 
-		Map<String, PermissionResolutionResult> permissionResolutionCache = globalPermissionResolutionCache.get(getUuid());
-		if (permissionResolutionCache == null) {
-
-			permissionResolutionCache = new HashMap<>();
-			globalPermissionResolutionCache.put(getUuid(), permissionResolutionCache);
-		}
-
-		PermissionResolutionResult result = permissionResolutionCache.get(principalId);
-		if (result == null) {
-
-			result = new PermissionResolutionResult();
-			permissionResolutionCache.put(principalId, result);
-		}
-
-		if (permission.equals(Permission.read) && (result.read == null || result.read == false)) {
-			result.read = value;
-		}
-
-		if (permission.equals(Permission.write) && (result.write == null || result.write == false)) {
-			result.write = value;
-		}
-
-		if (permission.equals(Permission.delete) && (result.delete == null || result.delete == false)) {
-			result.delete = value;
-		}
-
-		if (permission.equals(Permission.accessControl) && (result.accessControl == null || result.accessControl == false)) {
-			result.accessControl = value;
+		if (alreadyTraversed.isCacheable()) {
+			PermissionCache.putResolved(getUuid(), principalId, permission, value, alreadyTraversed.getDependencies(), alreadyTraversed.getGeneration());
 		}
 	}
 
@@ -1321,12 +1279,10 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 
 	@Override
 	public void onModification(SecurityContext securityContext, ErrorBuffer errorBuffer, final ModificationQueue modificationQueue) throws FrameworkException {
-		clearCaches();
 	}
 
 	@Override
 	public void onDeletion(SecurityContext securityContext, ErrorBuffer errorBuffer, PropertyMap properties) throws FrameworkException {
-		clearCaches();
 	}
 
 	@Override
@@ -1343,22 +1299,18 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 
 	@Override
 	public void ownerModified(SecurityContext securityContext) {
-		clearCaches();
 	}
 
 	@Override
 	public void securityModified(SecurityContext securityContext) {
-		clearCaches();
 	}
 
 	@Override
 	public void locationModified(SecurityContext securityContext) {
-		clearCaches();
 	}
 
 	@Override
 	public void propagatedModification(SecurityContext securityContext) {
-		clearCaches();
 	}
 
 	@Override
@@ -1571,8 +1523,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 	}
 
 	public static void clearCaches() {
-		globalPermissionResolutionCache.clear();
-		isGrantedResultCache.clear();
+		PermissionCache.invalidateAll();
 	}
 
 	public static <A extends NodeInterface, B extends NodeInterface, R extends Relation<A, B, ?, ?>> R getRelationshipForType(final Class<R> type) {
@@ -1845,7 +1796,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 			throw new FrameworkException(403, "Access control not permitted");
 		}
 
-		clearCaches();
+		PermissionCache.invalidate(getUuid());
 
 		Security secRel = getSecurityRelationship(principal);
 		if (secRel == null) {
@@ -1900,7 +1851,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 			throw new FrameworkException(403, "Access control not permitted");
 		}
 
-		clearCaches();
+		PermissionCache.invalidate(getUuid());
 
 		Security secRel = getSecurityRelationship(principal);
 		if (secRel != null) {
@@ -1922,7 +1873,7 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 			throw new FrameworkException(403, "Access control not permitted");
 		}
 
-		clearCaches();
+		PermissionCache.invalidate(getUuid());
 
 		final Set<String> permissionSet = new HashSet<>();
 
@@ -2238,7 +2189,10 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 
 	private static class AlreadyTraversed {
 
+		private final long generation         = PermissionCache.getGeneration();
 		private Map<String, Set<String>> sets = new LinkedHashMap<>();
+		private Set<String> dependencies      = new HashSet<>();
+		private boolean cacheable             = true;
 
 		public boolean contains(final String key, final String uuid) {
 
@@ -2262,6 +2216,26 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 
 			return 0;
 		}
+
+		public void addDependency(final String uuid) {
+			dependencies.add(uuid);
+		}
+
+		public Set<String> getDependencies() {
+			return dependencies;
+		}
+
+		public long getGeneration() {
+			return generation;
+		}
+
+		public void disableCaching() {
+			this.cacheable = false;
+		}
+
+		public boolean isCacheable() {
+			return cacheable;
+		}
 	}
 
 	private static class BFSInfo {
@@ -2281,11 +2255,4 @@ public abstract class AbstractNode implements NodeInterface, AccessControllable,
 		}
 	}
 
-	private static class PermissionResolutionResult {
-
-		Boolean read          = null;
-		Boolean write         = null;
-		Boolean delete        = null;
-		Boolean accessControl = null;
-	}
 }
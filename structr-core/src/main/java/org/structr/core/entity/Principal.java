@@ -37,6 +37,7 @@ import org.structr.common.*;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.app.StructrApp;
 import org.structr.core.auth.HashHelper;
+import org.structr.core.auth.SessionIdIndex;
 import org.structr.core.entity.relationship.PrincipalOwnsNode;
 import org.structr.core.graph.NodeInterface;
 import org.structr.core.property.EndNodes;
@@ -158,7 +159,7 @@ public interface Principal extends NodeInterface, AccessControllable {
 			.addParameter("arg0", PropertyKey.class.getName() + "<T>")
 			.addParameter("arg1", "T")
 			.addException(FrameworkException.class.getName())
-			.setSource("AbstractNode.clearCaches(); return super.setProperty(arg0, arg1);");
+			.setSource("org.structr.common.PermissionCache.invalidate(getUuid()); return super.setProperty(arg0, arg1);");
 
 		// create relationships
 		principal.relate(favoritable, "FAVORITE", Cardinality.ManyToMany, "favoriteUsers", "favorites");
@@ -257,6 +258,8 @@ public interface Principal extends NodeInterface, AccessControllable {
 				principal.setProperty(key, new String[] {  sessionId } );
 			}
 
+			SessionIdIndex.put(sessionId, principal);
+
 			return true;
 
 		} catch (FrameworkException ex) {
@@ -323,6 +326,8 @@ public interface Principal extends NodeInterface, AccessControllable {
 				principal.setProperty(key, (String[]) sessionIds.toArray(new String[0]));
 			}
 
+			SessionIdIndex.remove(sessionId);
+
 		} catch (FrameworkException ex) {
 
 			final Logger logger = LoggerFactory.getLogger(Principal.class);
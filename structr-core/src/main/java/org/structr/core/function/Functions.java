@@ -27,11 +27,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.structr.api.config.Settings;
 import org.structr.api.service.LicenseManager;
+import org.structr.api.util.FixedSizeCache;
 import org.structr.common.error.FrameworkException;
 import org.structr.common.error.UnlicensedScriptException;
 import org.structr.core.GraphObject;
@@ -67,6 +70,8 @@ public class Functions {
 
 	protected static final Logger logger = LoggerFactory.getLogger(Functions.class.getName());
 	private static final Map<String, Function<Object, Object>> functions = new LinkedHashMap<>();
+	private static final FixedSizeCache<String, Expression> expressionCache = new FixedSizeCache<>("StructrScript expression cache", Settings.ExpressionCacheSize.getValue(), true);
+	private static final AtomicLong expressionCacheGeneration               = new AtomicLong();
 
 	public static void put(final LicenseManager licenseManager, final Function<Object, Object> function) {
 
@@ -81,6 +86,9 @@ public class Functions {
 
 	private static void registerFunction(final boolean licensed, final String name, final Function<Object, Object> function) {
 
+		// cached expressions reference the function instances they were parsed with
+		clearExpressionCache();
+
 		if (functions.containsKey(name)) {
 			logger.warn("A function named '{}' is already registered! The previous function will be overwritten with this one.", name);
 		}
@@ -155,6 +163,11 @@ public class Functions {
 						throw new StructrScriptException(422, "Invalid expression: mismatched opening bracket before " + token.content, token.row, token.column);
 					}
 					next = checkReservedWords(token.content, level, namespaceMap);
+					if (next instanceof BatchExpression) {
+
+						// batch() stores its batch size in the tree while it runs
+						result.setCacheable(false);
+					}
 					Expression previousExpression = current.getPrevious();
 					if (token.content.startsWith(".") && previousExpression != null && previousExpression instanceof FunctionExpression && next instanceof ValueExpression) {
 
@@ -263,11 +276,35 @@ public class Functions {
 
 	public static Object evaluate(final ActionContext actionContext, final GraphObject entity, final Snippet snippet) throws FrameworkException, UnlicensedScriptException {
 
-		final Expression root = parse(actionContext, entity, snippet, new ParseResult());
+		final String source = snippet.getSource();
+		Expression root     = source != null ? expressionCache.get(source) : null;
+
+		if (root == null) {
+
+			final long generation    = expressionCacheGeneration.get();
+			final ParseResult result = new ParseResult();
+
+			root = parse(actionContext, entity, snippet, result);
+
+			// don't cache expressions that were parsed with functions that have been replaced in the meantime
+			if (source != null && result.isCacheable() && generation == expressionCacheGeneration.get()) {
+				expressionCache.put(source, root);
+			}
+		}
 
 		return root.evaluate(actionContext, entity);
 	}
 
+	/**
+	 * Removes all parsed expressions from the cache, must be called when
+	 * functions or schema methods are redeployed.
+	 */
+	public static void clearExpressionCache() {
+
+		expressionCacheGeneration.incrementAndGet();
+		expressionCache.clear();
+	}
+
 	public static String cleanString(final Object input) {
 
 		if (input == null) {
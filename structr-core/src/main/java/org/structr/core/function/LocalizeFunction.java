@@ -217,7 +217,7 @@ public class LocalizeFunction extends AdvancedScriptingFunction {
 
 
 	// ----- caching -----
-	private static final FixedSizeCache<String, String> localizationCache = new FixedSizeCache<>("Localization cache", 10000);
+	private static final FixedSizeCache<String, String> localizationCache = new FixedSizeCache<>("Localization cache", 10000, true);
 
 	public static synchronized void invalidateCache() {
 		localizationCache.clear();
@@ -27,6 +27,7 @@ public class ParseResult {
 	private final List<String> tokens = new ArrayList<>();
 	private Expression root           = null;
 	private String expression         = null;
+	private boolean cacheable         = true;
 
 	public List<String> getTokens() {
 		return tokens;
@@ -48,6 +49,14 @@ public class ParseResult {
 		return expression;
 	}
 
+	public void setCacheable(final boolean cacheable) {
+		this.cacheable = cacheable;
+	}
+
+	public boolean isCacheable() {
+		return cacheable;
+	}
+
 	public String getLastToken() {
 
 		if (tokens.isEmpty()) {
@@ -22,12 +22,15 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.DatabaseService;
-import org.structr.common.AccessPathCache;
+import org.structr.common.PermissionCache;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.Services;
 import org.structr.core.app.StructrApp;
+import org.structr.core.auth.SessionIdIndex;
 import org.structr.core.entity.ResourceAccess;
+import org.structr.core.function.Functions;
 import org.structr.core.function.LocalizeFunction;
+import org.structr.core.script.Scripting;
 import org.structr.schema.action.Actions;
 
 public class FlushCachesCommand extends NodeServiceCommand implements MaintenanceCommand {
@@ -58,8 +61,11 @@ public class FlushCachesCommand extends NodeServiceCommand implements Maintenanc
 
 		ResourceAccess.clearCache();
 		Actions.clearCache();
-		AccessPathCache.invalidate();
+		PermissionCache.invalidateAll();
+		SessionIdIndex.clear();
 		LocalizeFunction.invalidateCache();
+		Functions.clearExpressionCache();
+		Scripting.clearSourceCache();
 
 		StructrApp.getInstance().invalidateCache();
 	}
@@ -32,7 +32,6 @@ import java.util.Map;
 import java.util.Set;
 import org.structr.api.config.Settings;
 import org.structr.api.graph.RelationshipType;
-import org.structr.common.AccessPathCache;
 import org.structr.common.PropertyView;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.ErrorBuffer;
@@ -40,6 +39,7 @@ import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.Principal;
+import org.structr.core.entity.SchemaGrant;
 import org.structr.core.property.PropertyKey;
 import org.structr.core.property.PropertyMap;
 import org.structr.core.property.TypeProperty;
@@ -198,8 +198,6 @@ public class GraphObjectModificationState implements ModificationEvent {
 		if (status != statusBefore) {
 			modified = true;
 		}
-
-		updateCache();
 	}
 
 	public void modify(final Principal user, final PropertyKey key, final Object previousValue, final Object newValue) {
@@ -230,12 +228,6 @@ public class GraphObjectModificationState implements ModificationEvent {
 				updateChangeLog(user, Verb.change, key, previousValue, newValue);
 			}
 		}
-
-		// only update cache if key, prev and new values are null
-		// because that's when a relationship has been created / removed
-		if (key == null && previousValue == null && newValue == null) {
-			updateCache();
-		}
 	}
 
 	public void add(final PropertyKey key, final Object value) {
@@ -265,8 +257,6 @@ public class GraphObjectModificationState implements ModificationEvent {
 
 			modified = true;
 		}
-
-		updateCache();
 	}
 
 	public boolean isPassivelyDeleted() {
@@ -614,6 +604,38 @@ public class GraphObjectModificationState implements ModificationEvent {
 		return timestamp;
 	}
 
+	/**
+	 * Adds the UUIDs of the objects whose cached permission resolution
+	 * results are affected by this modification to the given set.
+	 *
+	 * @param uuids
+	 *
+	 * @return true if all cached permission resolution results are affected
+	 */
+	public boolean collectPermissionDependencies(final Set<String> uuids) {
+
+		if (uuid != null) {
+			uuids.add(uuid);
+		}
+
+		if (isNode) {
+
+			// schema-based grants apply to all nodes of a type
+			return object instanceof SchemaGrant;
+
+		} else if (!isDeleted()) {
+
+			// security and permission propagation settings are stored on relationships,
+			// the end nodes of created or deleted relationships are in the queue anyway
+			final RelationshipInterface rel = (RelationshipInterface)object;
+
+			uuids.add(rel.getSourceNodeId());
+			uuids.add(rel.getTargetNodeId());
+		}
+
+		return false;
+	}
+
 	// ----- private methods -----
 	private JsonElement toElement(final Object value) {
 
@@ -673,17 +695,6 @@ public class GraphObjectModificationState implements ModificationEvent {
 		}
 	}
 
-	private void updateCache() {
-
-		if (uuid != null) {
-			AccessPathCache.invalidateForId(uuid);
-		}
-
-		if (relType != null) {
-			AccessPathCache.invalidateForRelType(relType.name());
-		}
-	}
-
 	private void addToCollection(final Map<String, Object> properties, final PropertyKey key, final Object value) {
 
 		if (key.isCollection()) {
@@ -97,6 +97,36 @@ public class ModificationQueue {
 		return modifications.size();
 	}
 
+	/**
+	 * Returns the UUIDs of the objects whose cached permission resolution
+	 * results are affected by the modifications in this queue, or null if
+	 * all cached results are affected. Must be called in a transaction.
+	 *
+	 * @return the UUIDs or null
+	 */
+	public Set<String> getPermissionDependencies() {
+
+		final Set<String> uuids = new HashSet<>();
+
+		try {
+
+			for (final GraphObjectModificationState state : modifications.values()) {
+
+				if (state.collectPermissionDependencies(uuids)) {
+					return null;
+				}
+			}
+
+		} catch (Throwable t) {
+
+			// fallback: invalidate everything
+			logger.warn("Unable to determine objects affecting cached permissions: {}", t.getMessage());
+			return null;
+		}
+
+		return uuids;
+	}
+
 	public boolean doInnerCallbacks(final SecurityContext securityContext, final ErrorBuffer errorBuffer) throws FrameworkException {
 
 		long t0                  = System.currentTimeMillis();
@@ -301,8 +331,8 @@ public class ModificationQueue {
 
 		getState(node).modify(user, key, previousValue, newValue);
 
-		if (key != null&& key.requiresSynchronization()) {
-			synchronizationKeys.add(key.getSynchronizationKey());
+		if (key != null && key.requiresSynchronization()) {
+			synchronizationKeys.add(getSynchronizationKey(key, newValue));
 		}
 	}
 
@@ -311,7 +341,7 @@ public class ModificationQueue {
 		getState(relationship).modify(user, key, previousValue, newValue);
 
 		if (key != null && key.requiresSynchronization()) {
-			synchronizationKeys.add(key.getSynchronizationKey());
+			synchronizationKeys.add(getSynchronizationKey(key, newValue));
 		}
 	}
 
@@ -521,6 +551,24 @@ public class ModificationQueue {
 	}
 
 	// ----- private methods -----
+	/**
+	 * Returns a value-level synchronization key for unique properties so
+	 * that only transactions writing the same value wait for each other.
+	 * Compound properties and multi-valued properties are validated across
+	 * several values and keep the type-level key.
+	 */
+	private String getSynchronizationKey(final PropertyKey key, final Object value) {
+
+		final String synchronizationKey = key.getSynchronizationKey();
+
+		if (key.isUnique() && !key.isCompound() && (value == null || !(value.getClass().isArray() || value instanceof Collection))) {
+
+			return synchronizationKey + "=" + value;
+		}
+
+		return synchronizationKey;
+	}
+
 	private void modifyEndNodes(final Principal user, final NodeInterface startNode, final NodeInterface endNode, final RelationshipInterface rel, final boolean isDeletion) {
 
 		// only modify if nodes are accessible
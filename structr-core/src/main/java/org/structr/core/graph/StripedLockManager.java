@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks that synchronization keys are mapped to by
+ * their hash. All locks for a set of keys are acquired at once and in
+ * ascending stripe order, so two threads can never wait for each other
+ * in opposite order. Different keys can share a stripe, which causes
+ * unnecessary waiting but never incorrect behaviour.
+ */
+public class StripedLockManager {
+
+	private static final int[] NO_STRIPES         = new int[0];
+	private final LongAdder acquisitions          = new LongAdder();
+	private final LongAdder contendedAcquisitions = new LongAdder();
+	private final LongAdder timeouts              = new LongAdder();
+	private final LongAdder totalWaitTime         = new LongAdder();
+	private final AtomicLong maxWaitTime          = new AtomicLong();
+	private ReentrantLock[] stripes               = null;
+	private int mask                              = 0;
+
+	public StripedLockManager(final int stripeCount) {
+
+		// round up to the next power of two
+		final int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+
+		this.stripes = new ReentrantLock[size];
+		this.mask    = size - 1;
+
+		for (int i=0; i<size; i++) {
+
+			// fair locks prevent starvation of transactions with many keys
+			stripes[i] = new ReentrantLock(true);
+		}
+	}
+
+	/**
+	 * Acquires the locks for all the given keys, waiting at most the
+	 * given time.
+	 *
+	 * @param keys the synchronization keys
+	 * @param timeout the maximum time to wait
+	 * @param unit the time unit of the timeout
+	 *
+	 * @return the acquired stripes that must be passed to release(), or null if the timeout elapsed
+	 *
+	 * @throws InterruptedException
+	 */
+	public int[] acquire(final Set<String> keys, final long timeout, final TimeUnit unit) throws InterruptedException {
+
+		if (keys == null || keys.isEmpty()) {
+			return NO_STRIPES;
+		}
+
+		final int[] indexes  = getStripes(keys);
+		final long start     = System.nanoTime();
+		final long deadline  = start + unit.toNanos(timeout);
+		boolean contended    = false;
+		int count            = 0;
+
+		try {
+
+			for (final int index : indexes) {
+
+				final ReentrantLock lock = stripes[index];
+
+				if (!lock.tryLock()) {
+
+					contended = true;
+
+					if (!lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+
+						timeouts.increment();
+						return null;
+					}
+				}
+
+				count++;
+			}
+
+		} finally {
+
+			// release the partially acquired locks on timeout or interruption
+			if (count < indexes.length) {
+
+				for (int i=count-1; i>=0; i--) {
+					stripes[indexes[i]].unlock();
+				}
+			}
+
+			recordWaitTime(contended, System.nanoTime() - start);
+		}
+
+		return indexes;
+	}
+
+	public void release(final int[] indexes) {
+
+		if (indexes != null) {
+
+			for (int i=indexes.length-1; i>=0; i--) {
+				stripes[indexes[i]].unlock();
+			}
+		}
+	}
+
+	public Map<String, Object> getStatus() {
+
+		final Map<String, Object> status = new LinkedHashMap<>();
+		int locked                       = 0;
+		int queued                       = 0;
+
+		for (final ReentrantLock lock : stripes) {
+
+			if (lock.isLocked()) {
+				locked++;
+			}
+
+			queued += lock.getQueueLength();
+		}
+
+		status.put("stripes",               stripes.length);
+		status.put("locked",                locked);
+		status.put("waitingThreads",        queued);
+		status.put("acquisitions",          acquisitions.sum());
+		status.put("contendedAcquisitions", contendedAcquisitions.sum());
+		status.put("timeouts",              timeouts.sum());
+		status.put("totalWaitTimeMs",       totalWaitTime.sum() / 1_000_000L);
+		status.put("maxWaitTimeMs",         maxWaitTime.get() / 1_000_000L);
+
+		return status;
+	}
+
+	// ----- package-private methods -----
+	int[] getStripes(final Set<String> keys) {
+
+		final int[] indexes = new int[keys.size()];
+		int count           = 0;
+
+		for (final String key : keys) {
+
+			if (key != null) {
+
+				indexes[count++] = spread(key.hashCode()) & mask;
+			}
+		}
+
+		// sort and remove duplicates, the ascending order prevents deadlocks
+		final int[] sorted = Arrays.copyOf(indexes, count);
+		Arrays.sort(sorted);
+
+		int unique = 0;
+
+		for (int i=0; i<sorted.length; i++) {
+
+			if (i == 0 || sorted[i] != sorted[i-1]) {
+				sorted[unique++] = sorted[i];
+			}
+		}
+
+		return Arrays.copyOf(sorted, unique);
+	}
+
+	// ----- private methods -----
+	private void recordWaitTime(final boolean contended, final long nanos) {
+
+		acquisitions.increment();
+
+		if (contended) {
+
+			contendedAcquisitions.increment();
+			totalWaitTime.add(nanos);
+
+			long max = maxWaitTime.get();
+			while (nanos > max && !maxWaitTime.compareAndSet(max, nanos)) {
+				max = maxWaitTime.get();
+			}
+		}
+	}
+
+	private static int spread(final int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
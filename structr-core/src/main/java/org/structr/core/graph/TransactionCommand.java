@@ -19,16 +19,20 @@
 package org.structr.core.graph;
 
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.*;
+import org.structr.api.config.Settings;
 import org.structr.api.graph.Node;
 import org.structr.api.graph.Relationship;
+import org.structr.common.PermissionCache;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.DatabaseServiceNetworkException;
 import org.structr.common.error.DatabaseServiceNotAvailableException;
@@ -53,12 +57,13 @@ public class TransactionCommand {
 	private static final Logger logger                             = LoggerFactory.getLogger(TransactionCommand.class.getName());
 	private static final Set<StructrTransactionListener> listeners = new LinkedHashSet<>();
 	private static final ThreadLocal<TransactionCommand> commands  = new ThreadLocal<>();
-	private static final MultiSemaphore                  semaphore = new MultiSemaphore();
+	private static final StripedLockManager              locks     = new StripedLockManager(Settings.CommitLockStripes.getValue());
 
 	private TransactionReference transaction             = null;
 	private ModificationQueue queue                      = null;
 	private ErrorBuffer errorBuffer                      = null;
 	private TransactionPostProcessQueue postProcessQueue = null;
+	private int[] lockedStripes                          = null;
 
 
 	private static TransactionCommand getInstance() {
@@ -135,15 +140,28 @@ public class TransactionCommand {
 				}
 			}
 
-			// 2. fetch all types of entities modified in this tx
+			// 2. fetch all unique values and types modified in this tx
 			Set<String> synchronizationKeys = modificationQueue.getSynchronizationKeys();
 
 			// we need to protect the validation and indexing part of every transaction
 			// from being entered multiple times in the presence of validators
-			// 3. acquire semaphores for each modified type
-			try { semaphore.acquire(synchronizationKeys); } catch (InterruptedException iex) { return; }
+			// 3. acquire locks for each modified unique value or type
+			try {
+
+				cmd.lockedStripes = locks.acquire(synchronizationKeys, Settings.CommitLockTimeout.getValue(), TimeUnit.SECONDS);
+
+			} catch (InterruptedException iex) {
+				return;
+			}
+
+			if (cmd.lockedStripes == null) {
 
-			// do validation under the protection of the semaphores for each type
+				cmd.transaction.failure();
+
+				throw new FrameworkException(503, "Unable to commit transaction, timeout while waiting for locks on " + synchronizationKeys);
+			}
+
+			// do validation under the protection of the locks
 			if (!modificationQueue.doValidation(securityContext, errorBuffer, doValidation)) {
 
 				cmd.transaction.failure();
@@ -192,18 +210,31 @@ public class TransactionCommand {
 
 				modificationQueue = cmd.queue;
 
-				final Set<String> synchronizationKeys = modificationQueue.getSynchronizationKeys();
+				// must be collected while the transaction is still open
+				final Set<String> permissionDependencies = modificationQueue.getPermissionDependencies();
 
 				// cleanup
 				commands.remove();
 
+				boolean committed = false;
+
 				try {
+					invalidatePermissionCache(permissionDependencies);
+
 					cmd.transaction.close();
 
+					committed = cmd.transaction.isSuccessful();
+
 				} finally {
 
-					// release semaphores as the transaction is now finished
-					semaphore.release(synchronizationKeys);	// careful: this can be null
+					// invalidate again, other transactions can have cached results based on the old state in the meantime
+					invalidatePermissionCache(permissionDependencies);
+
+					// let listeners invalidate their caches
+					notifyListenersAfterClose(modificationQueue, committed);
+
+					// release locks as the transaction is now finished
+					locks.release(cmd.lockedStripes);	// careful: this can be null
 					cmd.postProcessQueue.applyProcessQueue();
 				}
 
@@ -413,6 +444,10 @@ public class TransactionCommand {
 		listeners.remove(listener);
 	}
 
+	public static Map<String, Object> getLockStatus() {
+		return locks.getStatus();
+	}
+
 	public static Set<StructrTransactionListener> getTransactionListeners() {
 		return listeners;
 	}
@@ -574,6 +609,37 @@ public class TransactionCommand {
 	}
 
 	// ----- private methods -----
+	private static void invalidatePermissionCache(final Set<String> uuids) {
+
+		if (uuids != null) {
+
+			PermissionCache.invalidate(uuids);
+
+		} else {
+
+			PermissionCache.invalidateAll();
+		}
+	}
+
+	private static void notifyListenersAfterClose(final ModificationQueue modificationQueue, final boolean committed) {
+
+		if (modificationQueue.getSize() > 0) {
+
+			final Collection<ModificationEvent> modificationEvents = modificationQueue.getModificationEvents();
+
+			for (final StructrTransactionListener listener : listeners) {
+
+				try {
+
+					listener.afterClose(modificationEvents, committed);
+
+				} catch (Throwable t) {
+					logger.warn("Exception in transaction listener {}: {}", listener.getClass().getName(), t.getMessage());
+				}
+			}
+		}
+	}
+
 	private ModificationQueue getModificationQueue() {
 		return queue;
 	}
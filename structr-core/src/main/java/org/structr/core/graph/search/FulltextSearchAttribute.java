@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.api.config.Settings;
+import org.structr.api.search.FulltextHit;
+import org.structr.api.search.FulltextIndex;
+import org.structr.api.search.Occurrence;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.common.fulltext.IndexedWord;
+import org.structr.core.GraphObject;
+import org.structr.core.app.App;
+import org.structr.core.app.Query;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.graph.NodeInterface;
+import org.structr.core.property.PropertyKey;
+
+/**
+ * Source attribute for inexact queries on the indexed words of an Indexable,
+ * resolved by the ranked fulltext index of the text-search module. Like the
+ * graph query it replaces, a query word matches all indexed words that contain
+ * it. The result is ordered by relevance.
+ *
+ * The index is searched when the result is iterated for the first time. The
+ * number of hits is limited by the soft result count limit, and the hits are
+ * resolved lazily with one query per batch of ids, so that a query that only
+ * consumes the first page of the result only resolves the first batch.
+ */
+public class FulltextSearchAttribute<T> extends SourceSearchAttribute<T> {
+
+	private static final Logger logger  = LoggerFactory.getLogger(FulltextSearchAttribute.class);
+	private static final int BATCH_SIZE = 500;
+
+	private SecurityContext securityContext = null;
+	private FulltextIndex index             = null;
+	private String queryString              = null;
+	private boolean resolved                = false;
+
+	public FulltextSearchAttribute(final SecurityContext securityContext, final FulltextIndex index, final Occurrence occur, final Object value) {
+
+		super(occur);
+
+		final Set<String> words = new LinkedHashSet<>();
+		collect(words, value);
+
+		this.securityContext = securityContext;
+		this.index           = index;
+		this.queryString     = StringUtils.join(words, " ");
+	}
+
+	@Override
+	public Set<GraphObject> getResult() {
+
+		if (!resolved) {
+
+			resolved = true;
+
+			for (final GraphObject node : getIterable()) {
+				addToResult(node);
+			}
+		}
+
+		return super.getResult();
+	}
+
+	/**
+	 * Returns the hits of this query in the order of relevance. The index is
+	 * searched when the iterable is iterated, and the nodes are resolved in
+	 * batches as the iteration proceeds.
+	 *
+	 * @return the nodes that match this query
+	 */
+	public Iterable<GraphObject> getIterable() {
+
+		return () -> {
+
+			if (StringUtils.isBlank(queryString)) {
+				return Collections.emptyIterator();
+			}
+
+			return new ResolvingIterator(search());
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "FulltextSearchAttribute(" + queryString + ")";
+	}
+
+	/**
+	 * Returns the fulltext index for the given key if inexact queries on
+	 * that key can be answered by it, null otherwise.
+	 *
+	 * @param securityContext
+	 * @param key
+	 * @param exactMatch
+	 *
+	 * @return the index or null
+	 */
+	public static FulltextIndex getIndex(final SecurityContext securityContext, final PropertyKey key, final boolean exactMatch) {
+
+		if (!exactMatch && "indexedWords".equals(key.jsonName())) {
+
+			final Class relatedType = key.relatedType();
+			if (relatedType != null && IndexedWord.class.isAssignableFrom(relatedType)) {
+
+				return StructrApp.getInstance(securityContext).getFulltextIndexer().getFulltextIndex();
+			}
+		}
+
+		return null;
+	}
+
+	// ----- private methods -----
+	private List<FulltextHit> search() {
+
+		final int limit              = Settings.ResultCountSoftLimit.getValue();
+		final List<FulltextHit> hits = index.search(queryString, true, limit);
+
+		if (hits.size() >= limit) {
+			logger.debug("Fulltext query '{}' was limited to {} hits", queryString, limit);
+		}
+
+		return hits;
+	}
+
+	/**
+	 * Resolves the given batch of hits with a single query and returns the
+	 * nodes in the order of relevance. Deleted nodes and nodes that are not
+	 * visible are not returned.
+	 */
+	private List<GraphObject> resolve(final List<FulltextHit> batch) throws FrameworkException {
+
+		final App app                              = StructrApp.getInstance(securityContext);
+		final Map<String, GraphObject> byId        = new HashMap<>();
+		final Query<? extends NodeInterface> query = app.nodeQuery().includeHidden().disableSorting().and();
+		final List<GraphObject> result             = new ArrayList<>(batch.size());
+
+		for (final FulltextHit hit : batch) {
+			query.or(GraphObject.id, hit.getId());
+		}
+
+		for (final NodeInterface node : query.getAsList()) {
+			byId.put(node.getUuid(), node);
+		}
+
+		// keep the order of relevance
+		for (final FulltextHit hit : batch) {
+
+			final GraphObject node = byId.get(hit.getId());
+			if (node != null) {
+
+				result.add(node);
+			}
+		}
+
+		return result;
+	}
+
+	private void collect(final Set<String> words, final Object value) {
+
+		if (value instanceof Iterable) {
+
+			for (final Object o : (Iterable)value) {
+				collect(words, o);
+			}
+
+		} else if (value instanceof GraphObject) {
+
+			collect(words, ((GraphObject)value).getProperty(AbstractNode.name));
+
+		} else if (value != null) {
+
+			for (final String word : value.toString().split("[\\s,;]+")) {
+
+				if (StringUtils.isNotBlank(word)) {
+					words.add(word.toLowerCase());
+				}
+			}
+		}
+	}
+
+	// ----- nested classes -----
+	private class ResolvingIterator implements Iterator<GraphObject> {
+
+		private final Queue<GraphObject> buffer = new ArrayDeque<>();
+		private List<FulltextHit> hits          = null;
+		private int position                    = 0;
+
+		public ResolvingIterator(final List<FulltextHit> hits) {
+			this.hits = hits;
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			// resolve the next batch, skipping batches of which no node is visible
+			while (buffer.isEmpty() && position < hits.size()) {
+
+				final List<FulltextHit> batch = hits.subList(position, Math.min(position + BATCH_SIZE, hits.size()));
+
+				position += batch.size();
+
+				try {
+
+					buffer.addAll(resolve(batch));
+
+				} catch (FrameworkException fex) {
+
+					logger.error("", fex);
+				}
+			}
+
+			return !buffer.isEmpty();
+		}
+
+		@Override
+		public GraphObject next() {
+
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			return buffer.poll();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.graph.search;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.structr.api.DatabaseService;
+import org.structr.api.graph.Direction;
+import org.structr.api.graph.Node;
+import org.structr.core.Services;
+import org.structr.core.graph.NodeInterface;
+import org.structr.core.property.PropertyKey;
+import org.structr.core.property.RelationProperty;
+
+/**
+ * Iterable that reads the elements of a result in batches and loads the
+ * relationships of a set of relationship properties for each batch with
+ * a single database query, so that reading these properties for every
+ * element of the result does not need one query per element.
+ *
+ * The first elements of the source that are discarded by pagination are
+ * passed through without prefetching.
+ */
+public class RelationshipPrefetchingIterable<T> implements Iterable<T> {
+
+	private static final int MAX_BATCH_SIZE       = 1000;
+	private final List<RelationProperty> keys     = new LinkedList<>();
+	private DatabaseService database              = null;
+	private Iterable<T> source                    = null;
+	private int batchSize                         = 0;
+	private int offset                            = 0;
+
+	public RelationshipPrefetchingIterable(final Iterable<T> source, final List<PropertyKey> keys, final int pageSize, final int offset) {
+		this(Services.getInstance().getDatabaseService(), source, keys, pageSize, offset);
+	}
+
+	public RelationshipPrefetchingIterable(final DatabaseService database, final Iterable<T> source, final List<PropertyKey> keys, final int pageSize, final int offset) {
+
+		this.database  = database;
+		this.batchSize = Math.max(1, Math.min(pageSize, MAX_BATCH_SIZE));
+		this.offset    = Math.max(0, offset);
+		this.source    = source;
+
+		for (final PropertyKey key : keys) {
+
+			if (key instanceof RelationProperty) {
+
+				this.keys.add((RelationProperty)key);
+			}
+		}
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+
+		final Iterator<T> iterator = source.iterator();
+
+		if (keys.isEmpty()) {
+			return iterator;
+		}
+
+		return new Iterator<T>() {
+
+			private final LinkedList<T> buffer = new LinkedList<>();
+			private int passed                 = 0;
+
+			@Override
+			public boolean hasNext() {
+
+				if (!buffer.isEmpty()) {
+					return true;
+				}
+
+				if (passed < offset) {
+
+					if (iterator.hasNext()) {
+
+						passed++;
+						buffer.add(iterator.next());
+
+						return true;
+					}
+
+					return false;
+				}
+
+				while (buffer.size() < batchSize && iterator.hasNext()) {
+					buffer.add(iterator.next());
+				}
+
+				prefetch(buffer);
+
+				return !buffer.isEmpty();
+			}
+
+			@Override
+			public T next() {
+
+				if (hasNext()) {
+					return buffer.removeFirst();
+				}
+
+				throw new NoSuchElementException();
+			}
+		};
+	}
+
+	// ----- private methods -----
+	private void prefetch(final List<T> batch) {
+
+		final List<Node> nodes = new ArrayList<>(batch.size());
+
+		for (final T obj : batch) {
+
+			if (obj instanceof NodeInterface) {
+
+				nodes.add(((NodeInterface)obj).getNode());
+			}
+		}
+
+		// a single element does not need a batch query
+		if (nodes.size() > 1) {
+
+			for (final RelationProperty key : keys) {
+
+				final Direction direction = "out".equals(key.getDirectionKey()) ? Direction.OUTGOING : Direction.INCOMING;
+
+				database.prefetchRelationships(nodes, direction, key.getRelation());
+			}
+		}
+	}
+}
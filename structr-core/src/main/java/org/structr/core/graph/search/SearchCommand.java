@@ -31,9 +31,13 @@ import java.util.Map;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.structr.api.DatabaseFeature;
+import org.structr.api.DatabaseService;
+import org.structr.api.InvalidCursorException;
 import org.structr.api.Predicate;
 import org.structr.api.graph.PropertyContainer;
 import org.structr.api.index.Index;
+import org.structr.api.search.FulltextIndex;
 import org.structr.api.search.Occurrence;
 import org.structr.api.search.QueryContext;
 import org.structr.api.search.SortOrder;
@@ -94,6 +98,7 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 	}
 
 	private final SearchAttributeGroup rootGroup = new SearchAttributeGroup(Occurrence.REQUIRED);
+	private final List<PropertyKey> prefetchKeys = new LinkedList<>();
 	private DefaultSortOrder sortOrder           = new DefaultSortOrder();
 	private QueryContext queryContext            = new QueryContext();
 	private SearchAttributeGroup currentGroup    = rootGroup;
@@ -119,6 +124,7 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 		final Factory<S, T> factory  = getFactory(securityContext, includeHidden, publicOnly, pageSize, page);
 		final Principal user         = securityContext.getUser(false);
 		final SearchConfig config    = new SearchConfig();
+		final String cursor          = securityContext.consumeCursor();
 
 		if (user == null) {
 
@@ -158,6 +164,10 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 		// use filters to filter sources otherwise
 		if (!config.hasSpatialSource && !sources.isEmpty()) {
 
+			if (cursor != null) {
+				throw new FrameworkException(400, "Cursor pagination is not supported for this query.");
+			}
+
 			indexHits = new LinkedList<>();
 
 		} else {
@@ -176,8 +186,27 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 					factory.disablePaging();
 				}
 
+				if (cursor != null) {
+
+					final DatabaseService db = (DatabaseService)arguments.get("graphDb");
+
+					// keyset pagination is only possible if the database does the paging
+					if (!queryContext.isSuperuser() || comparator != null || config.hasEmptySearchFields || config.hasGraphSources || config.hasSpatialSource || !db.supportsFeature(DatabaseFeature.CursorPaging)) {
+						throw new FrameworkException(400, "Cursor pagination is not supported for this query.");
+					}
+
+					queryContext.setCursor(cursor);
+				}
+
 				// do query
-				indexHits = Iterables.map(factory, index.query(getQueryContext(), rootGroup, pageSize, page));
+				try {
+
+					indexHits = Iterables.map(factory, index.query(getQueryContext(), rootGroup, pageSize, page));
+
+				} catch (InvalidCursorException icex) {
+
+					throw new FrameworkException(400, icex.getMessage());
+				}
 
 				if (comparator != null) {
 
@@ -188,7 +217,7 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 					Collections.sort(rawResult, comparator);
 
 					// return paging iterable
-					return new PagingIterable(description, rawResult, pageSize, page, queryContext.getSkipped());
+					return new PagingIterable(description, prefetch(rawResult), pageSize, page, queryContext.getSkipped());
 				}
 			}
 		}
@@ -196,6 +225,15 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 		//if (indexHits != null && (config.hasEmptySearchFields || config.hasGraphSources || config.hasSpatialSource || config.hasRelationshipVisibilitySearch)) {
 		if (indexHits != null && (config.hasGraphSources || config.hasSpatialSource || config.hasRelationshipVisibilitySearch)) {
 
+			// a single fulltext source is already ordered by relevance, so it can be
+			// resolved lazily, only as far as the requested page is consumed
+			if (!config.hasSpatialSource && sortOrder.isEmpty() && sources.size() == 1 && sources.get(0) instanceof FulltextSearchAttribute) {
+
+				final Iterable<T> hits = ((FulltextSearchAttribute)sources.get(0)).getIterable();
+
+				return new PagingIterable(description, prefetch(Iterables.filter(this::includeInResult, hits)), pageSize, page, queryContext.getSkipped());
+			}
+
 			// sorted result set
 			final Set<T> intermediateResultSet = new LinkedHashSet<>(Iterables.toList(indexHits));
 			final List<T> finalResult          = new ArrayList<>();
@@ -223,16 +261,7 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 			// Filter intermediate result
 			for (final T obj : intermediateResultSet) {
 
-				boolean addToResult = true;
-
-				// check all attributes before adding a node
-				for (SearchAttribute attr : rootGroup.getSearchAttributes()) {
-
-					// check all search attributes
-					addToResult &= attr.includeInResult(obj);
-				}
-
-				if (addToResult) {
+				if (includeInResult(obj)) {
 
 					finalResult.add(obj);
 				}
@@ -244,15 +273,53 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 				Collections.sort(finalResult, sortOrder);
 			}
 
-			return new PagingIterable(description, finalResult, pageSize, page, queryContext.getSkipped());
+			return new PagingIterable(description, prefetch(finalResult), pageSize, page, queryContext.getSkipped());
 
 		} else {
 
 			// no filtering
-			return new PagingIterable(description, indexHits, pageSize, page, queryContext.getSkipped());
+			return new PagingIterable(description, prefetch(indexHits), pageSize, page, queryContext.getSkipped()).setQueryContext(queryContext);
 		}
 	}
 
+	private boolean includeInResult(final T obj) {
+
+		boolean addToResult = true;
+
+		// check all attributes before adding a node
+		for (SearchAttribute attr : rootGroup.getSearchAttributes()) {
+
+			// check all search attributes
+			addToResult &= attr.includeInResult(obj);
+		}
+
+		return addToResult;
+	}
+
+	private Iterable<T> prefetch(final Iterable<T> source) {
+
+		if (prefetchKeys.isEmpty() || isRelationshipSearch()) {
+			return source;
+		}
+
+		// elements before the requested page are discarded by the paging iterable
+		final int offset = (page > 0 && pageSize < Integer.MAX_VALUE) ? ((page - 1) * pageSize) - queryContext.getSkipped() : 0;
+
+		return new RelationshipPrefetchingIterable<>(source, prefetchKeys, pageSize, offset);
+	}
+
+	private <P> SearchAttribute getSearchAttribute(final PropertyKey<P> key, final Occurrence occur, final P value, final boolean exact) {
+
+		// inexact queries on indexed words are answered by the ranked fulltext index if available
+		final FulltextIndex fulltextIndex = FulltextSearchAttribute.getIndex(securityContext, key, exact);
+		if (fulltextIndex != null) {
+
+			return new FulltextSearchAttribute(securityContext, fulltextIndex, occur, value);
+		}
+
+		return key.getSearchAttribute(securityContext, occur, value, exact, this);
+	}
+
 	private void handleSearchAttributeGroup(final SearchConfig config, final SearchAttributeGroup group, final List<SourceSearchAttribute> sources) throws FrameworkException {
 
 		// check for optional-only queries
@@ -415,6 +482,21 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 		return this;
 	}
 
+	/**
+	 * Loads the relationships of the given relationship properties for
+	 * batches of result elements with one query per batch and property.
+	 * Keys that are not relationship properties are ignored.
+	 *
+	 * @param keys the relationship properties
+	 *
+	 * @return this query
+	 */
+	@Override
+	public org.structr.core.app.Query<T> prefetch(final PropertyKey... keys) {
+		this.prefetchKeys.addAll(Arrays.asList(keys));
+		return this;
+	}
+
 	@Override
 	public org.structr.core.app.Query<T> publicOnly() {
 		this.publicOnly = true;
@@ -555,7 +637,7 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 
 		assertPropertyIsIndexed(key);
 
-		currentGroup.getSearchAttributes().add(key.getSearchAttribute(securityContext, occur, value, exact, this));
+		currentGroup.getSearchAttributes().add(getSearchAttribute(key, occur, value, exact));
 
 		return this;
 	}
@@ -600,7 +682,7 @@ public abstract class SearchCommand<S extends PropertyContainer, T extends Graph
 	@Override
 	public <P> org.structr.core.app.Query<T> or(final PropertyKey<P> key, P value, final boolean exact) {
 
-		currentGroup.getSearchAttributes().add(key.getSearchAttribute(securityContext, Occurrence.OPTIONAL, value, exact, this));
+		currentGroup.getSearchAttributes().add(getSearchAttribute(key, Occurrence.OPTIONAL, value, exact));
 
 		assertPropertyIsIndexed(key);
 
@@ -32,6 +32,7 @@ import org.structr.core.GraphObject;
 import org.structr.core.app.Query;
 import org.structr.core.app.StructrApp;
 import org.structr.core.property.PropertyKey;
+import org.structr.core.property.RelationProperty;
 import org.structr.schema.action.ActionContext;
 
 /**
@@ -86,6 +87,15 @@ public class GraphQLQuery {
 
 		config.configureQuery(query);
 
+		// load the relationships of all selected relationship properties in batches
+		for (final PropertyKey key : config.getPropertyKeys()) {
+
+			if (key instanceof RelationProperty) {
+
+				query.prefetch(key);
+			}
+		}
+
 		return query.getResultStream();
 	}
 
@@ -18,6 +18,7 @@
  */
 package org.structr.core.parser;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import org.structr.common.error.FrameworkException;
@@ -65,8 +66,9 @@ public abstract class Expression {
 	}
 
 	public List<Expression> getChildren() {
-		return expressions;
 
+		// parsed expressions are shared between threads and must not be modified
+		return Collections.unmodifiableList(expressions);
 	}
 
 
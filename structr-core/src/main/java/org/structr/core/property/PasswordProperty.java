@@ -27,6 +27,7 @@ import org.structr.common.error.TooShortToken;
 import org.structr.core.GraphObject;
 import org.structr.core.app.StructrApp;
 import org.structr.core.auth.HashHelper;
+import org.structr.core.auth.SessionIdIndex;
 import org.structr.core.converter.ValidationInfo;
 import org.structr.core.entity.Principal;
 import org.structr.core.graph.CreationContainer;
@@ -111,7 +112,7 @@ public class PasswordProperty extends StringProperty {
 			returnValue = super.setProperty(securityContext, obj, HashHelper.getHash(clearTextPassword, salt));
 			
 			if (Settings.PasswordClearSessionsOnChange.getValue() && wrappedObject != null && wrappedObject instanceof Principal) {
-				wrappedObject.removeProperty(StructrApp.key(Principal.class, "sessionIds"));
+				clearSessionIds((Principal)wrappedObject);
 			}
 
 		} else {
@@ -120,10 +121,20 @@ public class PasswordProperty extends StringProperty {
 		}
 		
 		if (Settings.PasswordClearSessionsOnChange.getValue() && wrappedObject != null && wrappedObject instanceof Principal) {
-			wrappedObject.removeProperty(StructrApp.key(Principal.class, "sessionIds"));
+			clearSessionIds((Principal)wrappedObject);
 		}
 
 		return returnValue;
 		
 	}
+
+	// ----- private methods -----
+	private void clearSessionIds(final Principal principal) throws FrameworkException {
+
+		final PropertyKey<String[]> key = StructrApp.key(Principal.class, "sessionIds");
+
+		SessionIdIndex.removeAll(principal.getProperty(key));
+
+		principal.removeProperty(key);
+	}
 }
@@ -18,15 +18,28 @@
  */
 package org.structr.core.scheduler;
 
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import org.structr.api.config.Settings;
 import org.structr.common.error.FrameworkException;
 
+/**
+ * Queue for scheduled jobs (imports and scripts).
+ *
+ * Queued jobs are started as long as the number of active jobs is below
+ * the configured limits (overall, per job type and per user). Among the
+ * jobs that may be started, jobs with a higher priority are preferred,
+ * then jobs of users with fewer active jobs, then older jobs. Paused jobs
+ * count as active.
+ */
 public class JobQueueManager {
 
 	private static JobQueueManager singletonInstance = null;
@@ -35,13 +48,14 @@ public class JobQueueManager {
 	private final Map<Long, ScheduledJob> activeJobs  = new ConcurrentHashMap<>();
 	private final Queue<Long> jobIdQueue              = new ConcurrentLinkedDeque<>();
 	private final AtomicLong importJobIdCount         = new AtomicLong(0);
+	private final Semaphore writePermits              = new Semaphore(Math.max(1, Settings.JobsWritePermits.getValue()), true);
 
 	private JobQueueManager() { }
 
 	/*
 	 * Public API
 	 */
-	public static JobQueueManager getInstance() {
+	public static synchronized JobQueueManager getInstance() {
 
 		if (singletonInstance == null) {
 			singletonInstance = new JobQueueManager();
@@ -57,27 +71,29 @@ public class JobQueueManager {
 			final Long jobId = importJobIdCount.incrementAndGet();
 			job.setJobId(jobId);
 
-			appendToQueueInternal(job);
+			synchronized (this) {
 
-			if (!hasRunningJobs()) {
+				appendToQueueInternal(job);
 
-				startNextJobInQueue();
+				startNextJobsInQueue();
 
-			} else {
-
-				job.reportQueued();
+				if (queuedJobs.containsKey(jobId)) {
 
+					job.reportQueued();
+				}
 			}
 		}
 	}
 
 	/**
 	 * Starts an import job if it exists. Returns true if it is started.
+	 * Jobs started with this method are not subject to the concurrency
+	 * limits.
 	 *
 	 * @param jobId Job to start
 	 * @return boolean "job started"
 	 */
-	public boolean startJob(final Long jobId) {
+	public synchronized boolean startJob(final Long jobId) {
 
 		final ScheduledJob job = removeFromQueueInternal(jobId);
 
@@ -102,11 +118,11 @@ public class JobQueueManager {
 		activeJobs.get(jobId).abortJob();
 	}
 
-	public void cancelQueuedJob(final Long jobId) {
+	public synchronized void cancelQueuedJob(final Long jobId) {
 		removeFromQueueInternal(jobId);
 	}
 
-	public void cancelAllQueuedJobsAfter(final Long jobId) {
+	public synchronized void cancelAllQueuedJobsAfter(final Long jobId) {
 
 		queuedJobs.keySet().forEach((queuedJobId) -> {
 			if (queuedJobId > jobId) {
@@ -124,7 +140,12 @@ public class JobQueueManager {
 		});
 
 		jobIdQueue.forEach((Long jobId) -> {
-			addJobToList(jobInfoList, queuedJobs.get(jobId));
+
+			final ScheduledJob job = queuedJobs.get(jobId);
+			if (job != null) {
+
+				addJobToList(jobInfoList, job);
+			}
 		});
 
 		return jobInfoList;
@@ -132,39 +153,52 @@ public class JobQueueManager {
 
 	public Map<String, Object> jobInfo (final Long jobId) {
 
-		if (activeJobs.containsKey(jobId)) {
+		ScheduledJob job = activeJobs.get(jobId);
+		if (job == null) {
 
-			return activeJobs.get(jobId).getJobInfo();
+			job = queuedJobs.get(jobId);
+		}
 
-		} else if (queuedJobs.containsKey(jobId)) {
+		if (job != null) {
 
-			return queuedJobs.get(jobId).getJobInfo();
+			return getJobInfo(job);
 		}
 
 		return null;
 	}
 
 	private void addJobToList (final List<Map<String, Object>> list, final ScheduledJob job) {
-		list.add(job.getJobInfo());
+		list.add(getJobInfo(job));
 	}
 
-	protected void jobFinished (final ScheduledJob job) {
+	private Map<String, Object> getJobInfo(final ScheduledJob job) {
 
-		activeJobs.remove(job.jobId());
+		final Map<String, Object> jobInfo = new LinkedHashMap<>(job.getJobInfo());
 
-		if (!hasRunningJobs()) {
-			startNextJobInQueue();
-		}
+		jobInfo.putAll(job.getSchedulingInfo());
 
+		return jobInfo;
 	}
 
-	protected void jobAborted (final ScheduledJob job) {
+	protected synchronized void jobFinished (final ScheduledJob job) {
 
 		activeJobs.remove(job.jobId());
 
-		if (!hasRunningJobs()) {
-			startNextJobInQueue();
-		}
+		startNextJobsInQueue();
+	}
+
+	protected synchronized void jobAborted (final ScheduledJob job) {
+
+		activeJobs.remove(job.jobId());
+
+		startNextJobsInQueue();
+	}
+
+	WritePermit acquireWritePermit() throws InterruptedException {
+
+		writePermits.acquire();
+
+		return new WritePermit(writePermits);
 	}
 
 	private void appendToQueueInternal (final ScheduledJob job) {
@@ -177,21 +211,84 @@ public class JobQueueManager {
 		return queuedJobs.remove(jobId);
 	}
 
-	private boolean hasRunningJobs() {
+	private void startNextJobsInQueue() {
+
+		final int maxConcurrent = Math.max(1, Settings.JobsMaxConcurrent.getValue());
+
+		while (activeJobs.size() < maxConcurrent) {
+
+			final ScheduledJob job = selectNextJob();
+			if (job == null || !startJob(job.jobId())) {
+
+				break;
+			}
+		}
+	}
+
+	private ScheduledJob selectNextJob() {
+
+		final int maxPerType    = Math.max(1, Settings.JobsMaxConcurrentPerType.getValue());
+		final int maxPerUser    = Math.max(1, Settings.JobsMaxConcurrentPerUser.getValue());
+		ScheduledJob candidate  = null;
+		int candidateUserCount  = 0;
+
+		// jobIdQueue is ordered by submission, so older jobs win if everything else is equal
+		for (final Long jobId : jobIdQueue) {
+
+			final ScheduledJob job = queuedJobs.get(jobId);
+			if (job != null) {
+
+				final int typeCount = countActiveJobs(job.getJobType(), null);
+				final int userCount = countActiveJobs(null, job.getUsername());
+
+				if (typeCount < maxPerType && userCount < maxPerUser) {
+
+					if (candidate == null || job.getPriority() > candidate.getPriority() || (job.getPriority() == candidate.getPriority() && userCount < candidateUserCount)) {
+
+						candidate          = job;
+						candidateUserCount = userCount;
+					}
+				}
+			}
+		}
+
+		return candidate;
+	}
+
+	private int countActiveJobs(final String jobType, final String username) {
+
+		int count = 0;
 
-		// if any job is RUNNING or PAUSED, dont auto-start new tasks
-		return (!activeJobs.isEmpty());
+		for (final ScheduledJob job : activeJobs.values()) {
+
+			if ((jobType == null || jobType.equals(job.getJobType())) && (username == null || username.equals(job.getUsername()))) {
+				count++;
+			}
+		}
+
+		return count;
 	}
 
-	private void startNextJobInQueue() {
-		final Long jobId = jobIdQueue.peek();
+	// ----- nested classes -----
+	/**
+	 * A permit to write a chunk of data, released on close. The underlying
+	 * semaphore is fair, so jobs waiting for a permit are served in order.
+	 */
+	public static class WritePermit implements AutoCloseable {
+
+		private final AtomicBoolean released = new AtomicBoolean(false);
+		private final Semaphore semaphore;
+
+		private WritePermit(final Semaphore semaphore) {
+			this.semaphore = semaphore;
+		}
+
+		@Override
+		public void close() {
 
-		if (jobId != null) {
-			boolean didStart = startJob(jobId);
-			if (!didStart) {
-				startNextJobInQueue();
+			if (released.compareAndSet(false, true)) {
+				semaphore.release();
 			}
 		}
 	}
 }
-
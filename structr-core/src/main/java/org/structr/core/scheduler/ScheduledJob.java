@@ -57,6 +57,10 @@ public abstract class ScheduledJob {
 
 	private Thread jobThread = null;
 	private Long jobId       = null;
+	private long queueTime   = System.currentTimeMillis();
+	private long startTime   = 0L;
+	private long endTime     = 0L;
+	private boolean admin    = false;
 
 	protected Map<String, Object> configuration;
 	protected Principal user;
@@ -72,6 +76,7 @@ public abstract class ScheduledJob {
 		this.user          = user;
 		this.jobName       = jobName;
 		this.username      = (user != null) ? user.getName() : "no user - anonymous context";
+		this.admin         = (user != null) && user.isAdmin();
 		this.configuration = configuration;
 		this.ctxStore      = new ContextStore(ctxStore);
 
@@ -92,6 +97,7 @@ public abstract class ScheduledJob {
 
 	public void startJob() {
 		currentStatus = JobStatus.RUNNING;
+		startTime     = System.currentTimeMillis();
 
 		startNewThread(getRunnable(), false);
 	}
@@ -141,6 +147,65 @@ public abstract class ScheduledJob {
 		this.jobId = jobId;
 	}
 
+	/**
+	 * Returns the scheduling priority of this job, jobs with a higher
+	 * priority are started first. The value is taken from the "priority"
+	 * entry of the job configuration. Only admin users can raise the
+	 * priority of a job above the default of 0.
+	 *
+	 * @return the priority
+	 */
+	public int getPriority() {
+
+		final int priority = parseInt(configuration != null ? configuration.get("priority") : null, 0);
+
+		if (!admin) {
+
+			// the configuration is user input, so other users could jump the queue
+			return Math.min(priority, 0);
+		}
+
+		return priority;
+	}
+
+	/**
+	 * Returns the number of objects this job has processed so far. Used to
+	 * calculate the throughput, override me.
+	 *
+	 * @return the number of processed objects
+	 */
+	public long getProcessedObjectCount() {
+		return 0L;
+	}
+
+	/**
+	 * Returns the queue wait time, run time and throughput of this job.
+	 *
+	 * @return scheduling information
+	 */
+	public Map<String, Object> getSchedulingInfo() {
+
+		final Map<String, Object> info = new LinkedHashMap<>();
+		final long now                 = System.currentTimeMillis();
+		final long objectCount         = getProcessedObjectCount();
+
+		info.put("priority",      getPriority());
+		info.put("queueWaitTime", (startTime > 0 ? startTime : now) - queueTime);
+
+		if (startTime > 0) {
+
+			final long runTime = (endTime > 0 ? endTime : now) - startTime;
+
+			info.put("runTime", runTime);
+
+			if (runTime > 0 && objectCount > 0) {
+				info.put("objectsPerSecond", Math.round(objectCount * 1000.0 / runTime));
+			}
+		}
+
+		return info;
+	}
+
 	public String getUsername () {
 		return username;
 	}
@@ -159,15 +224,29 @@ public abstract class ScheduledJob {
 
 	protected void jobFinished() {
 
+		setEndTime();
 		runOnFinishScript();
 
 		JobQueueManager.getInstance().jobFinished(this);
 	}
 
 	protected void jobAborted() {
+		setEndTime();
 		JobQueueManager.getInstance().jobAborted(this);
 	}
 
+	/**
+	 * Blocks until this job may write to the database. Jobs that write in
+	 * chunks should acquire a permit for each chunk transaction and close
+	 * it after the commit, so that concurrent jobs take turns in writing.
+	 *
+	 * @return the permit
+	 * @throws InterruptedException
+	 */
+	protected JobQueueManager.WritePermit acquireWritePermit() throws InterruptedException {
+		return JobQueueManager.getInstance().acquireWritePermit();
+	}
+
 	protected void startNewThread(final Runnable runnable, final boolean wait) {
 
 		jobThread = new Thread(runnable);
@@ -343,4 +422,12 @@ public abstract class ScheduledJob {
 	public void setEncounteredException (final Exception ex) {
 		this.encounteredException = ex;
 	}
+
+	// ----- private methods -----
+	private void setEndTime() {
+
+		if (endTime == 0L) {
+			endTime = System.currentTimeMillis();
+		}
+	}
 }
@@ -25,10 +25,14 @@ import java.util.stream.Collectors;
 import org.apache.commons.lang3.StringUtils;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.SourceSection;
+import org.graalvm.polyglot.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.Predicate;
+import org.structr.api.config.Settings;
+import org.structr.api.util.FixedSizeCache;
 import org.structr.api.util.Iterables;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.AssertException;
@@ -43,14 +47,16 @@ import org.structr.core.function.Functions;
 import org.structr.core.graph.TransactionCommand;
 import org.structr.core.property.DateProperty;
 import org.structr.core.script.polyglot.PolyglotWrapper;
+import org.structr.core.script.polyglot.ScriptingMetrics;
 import org.structr.core.script.polyglot.context.ContextFactory;
 import org.structr.schema.action.ActionContext;
 import org.structr.schema.parser.DatePropertyParser;
 
 public class Scripting {
 
-	private static final Logger logger                       = LoggerFactory.getLogger(Scripting.class.getName());
-	private static final Pattern ScriptEngineExpression      = Pattern.compile("^\\$\\{(\\w+)\\{(.*)\\}\\}$", Pattern.DOTALL);
+	private static final Logger logger                              = LoggerFactory.getLogger(Scripting.class.getName());
+	private static final Pattern ScriptEngineExpression             = Pattern.compile("^\\$\\{(\\w+)\\{(.*)\\}\\}$", Pattern.DOTALL);
+	private static final FixedSizeCache<String, Source> sourceCache = new FixedSizeCache<>("JavaScript source cache", Settings.ScriptSourceCacheSize.getValue(), true);
 
 	public static String replaceVariables(final ActionContext actionContext, final GraphObject entity, final Object rawValue) throws FrameworkException {
 		return replaceVariables(actionContext, entity, rawValue, false, "script source");
@@ -243,7 +249,11 @@ public class Scripting {
 			actionContext.getErrorBuffer().setStatus(0);
 		}
 
-		Context context = ContextFactory.getContext("js", actionContext, entity);
+		// embedded snippets don't share global state, so a context that is created for
+		// this evaluation can be returned to the pool of the current thread afterwards
+		final boolean releaseContext = snippet.embed() && actionContext.getScriptingContext("js") == null;
+		final Context context        = releaseContext ? ContextFactory.getPooledJSContext(actionContext, entity) : ContextFactory.getContext("js", actionContext, entity);
+
 		context.enter();
 
 		try {
@@ -252,7 +262,21 @@ public class Scripting {
 
 			try {
 
-				result = PolyglotWrapper.unwrap(actionContext, context.eval("js", embedInFunction(snippet)));
+				final Source source = getSource(snippet);
+				final long t0       = System.nanoTime();
+				final Value script  = context.parse(source);
+				final long t1       = System.nanoTime();
+
+				ScriptingMetrics.compiled(t1 - t0);
+
+				try {
+
+					result = PolyglotWrapper.unwrap(actionContext, script.execute());
+
+				} finally {
+
+					ScriptingMetrics.executed(System.nanoTime() - t1);
+				}
 
 			} catch (PolyglotException ex) {
 
@@ -299,10 +323,18 @@ public class Scripting {
 		} finally {
 
 			context.leave();
+
+			if (releaseContext) {
+				ContextFactory.releaseJSContext(actionContext);
+			}
 		}
 
 	}
 
+	public static void clearSourceCache() {
+		sourceCache.clear();
+	}
+
 	// ----- private methods -----
 	private static Object evaluateScript(final ActionContext actionContext, final GraphObject entity, final String engineName, final Snippet snippet) throws FrameworkException {
 
@@ -395,6 +427,28 @@ public class Scripting {
 	}
 
 
+	private static Source getSource(final Snippet snippet) {
+
+		final String name = snippet.getName() != null ? snippet.getName() : "script";
+		final String code = embedInFunction(snippet);
+		final String key  = name + ":" + code;
+		Source source     = sourceCache.get(key);
+
+		if (source == null) {
+
+			ScriptingMetrics.sourceCacheMiss();
+
+			source = Source.newBuilder("js", code, name).cached(true).buildLiteral();
+			sourceCache.put(key, source);
+
+		} else {
+
+			ScriptingMetrics.sourceCacheHit();
+		}
+
+		return source;
+	}
+
 	private static String embedInFunction(final Snippet snippet) {
 
 		if (snippet.embed()) {
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.core.script.polyglot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.structr.api.util.LatencyHistogram;
+
+/**
+ * Compilation and execution timings of server-side JavaScript, plus hit
+ * counters for the source cache and the context pool.
+ */
+public class ScriptingMetrics {
+
+	private static final LatencyHistogram compileTimes   = new LatencyHistogram();
+	private static final LatencyHistogram executionTimes = new LatencyHistogram();
+	private static final LongAdder sourceCacheHits       = new LongAdder();
+	private static final LongAdder sourceCacheMisses     = new LongAdder();
+	private static final LongAdder contextsCreated       = new LongAdder();
+	private static final LongAdder contextsReused        = new LongAdder();
+
+	public static void compiled(final long nanos) {
+		compileTimes.record(nanos);
+	}
+
+	public static void executed(final long nanos) {
+		executionTimes.record(nanos);
+	}
+
+	public static void sourceCacheHit() {
+		sourceCacheHits.increment();
+	}
+
+	public static void sourceCacheMiss() {
+		sourceCacheMisses.increment();
+	}
+
+	public static void contextCreated() {
+		contextsCreated.increment();
+	}
+
+	public static void contextReused() {
+		contextsReused.increment();
+	}
+
+	public static void reset() {
+
+		compileTimes.reset();
+		executionTimes.reset();
+		sourceCacheHits.reset();
+		sourceCacheMisses.reset();
+		contextsCreated.reset();
+		contextsReused.reset();
+	}
+
+	public static Map<String, Object> getStatus() {
+
+		final Map<String, Object> status = new LinkedHashMap<>();
+
+		status.put("compilations",        compileTimes.getCount());
+		status.put("compileTimeAvgMs",    compileTimes.getAverage() / 1_000_000.0);
+		status.put("compileTimeP99Ms",    compileTimes.getPercentile(99.0) / 1_000_000.0);
+		status.put("compileTimeMaxMs",    compileTimes.getMax() / 1_000_000.0);
+		status.put("executions",          executionTimes.getCount());
+		status.put("executionTimeAvgMs",  executionTimes.getAverage() / 1_000_000.0);
+		status.put("executionTimeP99Ms",  executionTimes.getPercentile(99.0) / 1_000_000.0);
+		status.put("executionTimeMaxMs",  executionTimes.getMax() / 1_000_000.0);
+		status.put("sourceCacheHits",     sourceCacheHits.sum());
+		status.put("sourceCacheMisses",   sourceCacheMisses.sum());
+		status.put("contextsCreated",     contextsCreated.sum());
+		status.put("contextsReused",      contextsReused.sum());
+
+		return status;
+	}
+}
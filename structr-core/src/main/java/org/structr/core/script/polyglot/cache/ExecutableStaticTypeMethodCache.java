@@ -19,13 +19,23 @@
 package org.structr.core.script.polyglot.cache;
 
 import org.graalvm.polyglot.proxy.ProxyExecutable;
-import org.structr.api.util.FixedSizeCache;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class ExecutableStaticTypeMethodCache {
-	private final FixedSizeCache<String, Map<String, ProxyExecutable>> staticTypeMethodCache = new FixedSizeCache<>("executableStaticTypeMethodCache", 100);
+
+	private static final int MAX_SIZE = 100;
+
+	// one instance per ActionContext, so a plain map is sufficient
+	private final Map<String, Map<String, ProxyExecutable>> staticTypeMethodCache = new LinkedHashMap<>(16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Map<String, ProxyExecutable>> eldest) {
+			return size() > MAX_SIZE;
+		}
+	};
 
 	public ProxyExecutable getExecutable(final String typeName, final String methodName) {
 
@@ -19,14 +19,24 @@
 package org.structr.core.script.polyglot.cache;
 
 import org.graalvm.polyglot.proxy.ProxyExecutable;
-import org.structr.api.util.FixedSizeCache;
 import org.structr.core.GraphObject;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class ExecutableTypeMethodCache {
-	private final FixedSizeCache<GraphObject, Map<String, ProxyExecutable>> typeMethodCache = new FixedSizeCache<>("executableTypeMethodCache", 100);
+
+	private static final int MAX_SIZE = 100;
+
+	// one instance per ActionContext, so a plain map is sufficient
+	private final Map<GraphObject, Map<String, ProxyExecutable>> typeMethodCache = new LinkedHashMap<>(16, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<GraphObject, Map<String, ProxyExecutable>> eldest) {
+			return size() > MAX_SIZE;
+		}
+	};
 
 	public ProxyExecutable getExecutable(final GraphObject instance, final String methodName) {
 
@@ -20,18 +20,34 @@ package org.structr.core.script.polyglot.context;
 
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.api.config.Settings;
+import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.core.GraphObject;
 import org.structr.core.script.polyglot.AccessProvider;
+import org.structr.core.script.polyglot.ScriptingMetrics;
 import org.structr.core.script.polyglot.StructrBinding;
 import org.structr.schema.action.ActionContext;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.function.Predicate;
 
 public abstract class ContextFactory {
 
-	private static final Engine engine = Engine.create();
+	private static final Logger logger                                                   = LoggerFactory.getLogger(ContextFactory.class);
+	private static final ThreadLocal<ArrayDeque<PooledContext>> jsContexts               = ThreadLocal.withInitial(ArrayDeque::new);
+	private static final ThreadLocal<Map<Context, PooledContext>> activeJSContexts       = ThreadLocal.withInitial(IdentityHashMap::new);
+	private static final String ANONYMOUS                                                = "anonymous";
+	private static final Engine engine                                                   = Engine.create();
 
 	public static Context getContext(final String language) throws FrameworkException {
 
@@ -51,6 +67,70 @@ public abstract class ContextFactory {
 		}
 	}
 
+	/**
+	 * Returns the JavaScript context of the given action context. If the
+	 * action context has no JavaScript context yet, an idle context that
+	 * was previously used by the same user on the current thread is taken
+	 * from the pool, or a new one is created. Such a context must be
+	 * released with {@link #releaseJSContext(ActionContext)} on the same
+	 * thread.
+	 *
+	 * Contexts are never shared between users, because changes that scripts
+	 * make to the built-in objects (e.g. their prototypes) can not be undone.
+	 * For the same reason, the pool is disabled unless a pool size is
+	 * configured, so every evaluation gets a new context by default. The
+	 * engine and the parsed sources are shared in either case.
+	 *
+	 * @param actionContext the action context
+	 * @param entity the entity
+	 *
+	 * @return the context
+	 *
+	 * @throws FrameworkException
+	 */
+	public static Context getPooledJSContext(final ActionContext actionContext, final GraphObject entity) throws FrameworkException {
+		return getAndUpdateContext("js", actionContext, entity, ()->acquireJSContext(actionContext, entity));
+	}
+
+	/**
+	 * Removes the JavaScript context from the given action context and
+	 * returns it to the pool of the current thread, so the next script
+	 * evaluation of the same user on this thread does not have to
+	 * initialize a new one. All global members that were defined by scripts
+	 * are removed, overwritten global members are restored to their
+	 * initial values and the Structr bindings are cleared before the
+	 * context is pooled.
+	 *
+	 * This method must only be called by the evaluation that caused the
+	 * context to be created, after it has left the context.
+	 *
+	 * @param actionContext the action context
+	 */
+	public static void releaseJSContext(final ActionContext actionContext) {
+
+		final Context context = actionContext.removeScriptingContext("js");
+		if (context != null) {
+
+			final PooledContext pooled = activeJSContexts.get().remove(context);
+			final int maxSize          = Settings.ScriptContextPoolSize.getValue();
+
+			// contexts that are not pooled are not closed because values
+			// returned from a script may still refer to them
+			if (pooled != null && maxSize > 0 && pooled.reset()) {
+
+				final ArrayDeque<PooledContext> pool = jsContexts.get();
+
+				pool.push(pooled);
+
+				// drop the least recently used contexts
+				while (pool.size() > maxSize) {
+					pool.removeLast();
+				}
+			}
+		}
+	}
+
+	// ----- private methods -----
 	private static Context getAndUpdateContext(final String language, final ActionContext actionContext, final GraphObject entity, final Callable<Context> contextCreationFunc) throws FrameworkException {
 
 		Context storedContext = actionContext != null ? actionContext.getScriptingContext(language) : null;
@@ -74,6 +154,56 @@ public abstract class ContextFactory {
 		return  storedContext;
 	}
 
+	private static Context acquireJSContext(final ActionContext actionContext, final GraphObject entity) {
+
+		final String owner                   = getOwner(actionContext);
+		final ArrayDeque<PooledContext> pool = jsContexts.get();
+		PooledContext pooled                 = null;
+
+		for (final Iterator<PooledContext> it = pool.iterator(); it.hasNext();) {
+
+			final PooledContext candidate = it.next();
+			if (candidate.owner.equals(owner)) {
+
+				it.remove();
+				pooled = candidate;
+				break;
+			}
+		}
+
+		if (pooled != null) {
+
+			ScriptingMetrics.contextReused();
+
+			updateBindings(pooled.context, "js", actionContext, entity);
+
+		} else {
+
+			ScriptingMetrics.contextCreated();
+
+			pooled = new PooledContext(owner, buildJSContext(actionContext, entity));
+		}
+
+		activeJSContexts.get().put(pooled.context, pooled);
+
+		return pooled.context;
+	}
+
+	private static String getOwner(final ActionContext actionContext) {
+
+		final SecurityContext securityContext = actionContext != null ? actionContext.getSecurityContext() : null;
+		if (securityContext != null) {
+
+			final String userId = securityContext.getCachedUserId();
+			if (userId != null) {
+
+				return userId;
+			}
+		}
+
+		return ANONYMOUS;
+	}
+
 	private static Context buildJSContext(final ActionContext actionContext, final GraphObject entity) {
 
 		final Context context = Context.newBuilder("js")
@@ -117,6 +247,72 @@ public abstract class ContextFactory {
 		return context;
 	}
 
+	// ----- nested classes -----
+	private static class PooledContext {
+
+		private final Map<String, Value> initialMembers = new HashMap<>();
+		private Context context                         = null;
+		private String owner                            = null;
+
+		PooledContext(final String owner, final Context context) {
+
+			this.context = context;
+			this.owner   = owner;
+
+			final Value bindings = context.getBindings("js");
+
+			for (final String key : bindings.getMemberKeys()) {
+
+				// the Structr bindings refer to the action context they were created for
+				if (!"Structr".equals(key) && !"$".equals(key)) {
+
+					initialMembers.put(key, bindings.getMember(key));
+				}
+			}
+		}
+
+		boolean reset() {
+
+			try {
+
+				final Value bindings = context.getBindings("js");
+
+				for (final String key : new ArrayList<>(bindings.getMemberKeys())) {
+
+					// global declarations can not be deleted, so they are overwritten instead
+					if (!initialMembers.containsKey(key) && !"Structr".equals(key) && !"$".equals(key) && !bindings.removeMember(key)) {
+
+						bindings.putMember(key, null);
+					}
+				}
+
+				// restore built-in members that were overwritten
+				for (final Map.Entry<String, Value> entry : initialMembers.entrySet()) {
+
+					final String key    = entry.getKey();
+					final Value initial = entry.getValue();
+					final Value current = bindings.getMember(key);
+
+					if (current == null || !current.equals(initial)) {
+
+						bindings.putMember(key, initial);
+					}
+				}
+
+				bindings.putMember("Structr", null);
+				bindings.putMember("$", null);
+
+				return true;
+
+			} catch (RuntimeException rex) {
+
+				logger.debug("Unable to reset JavaScript context, context will not be reused: {}", rex.getMessage());
+			}
+
+			return false;
+		}
+	}
+
 	private static class StructrClassPredicate implements Predicate<String> {
 		// Allows manually selected Structr classes to be accessed from scripting contexts
 
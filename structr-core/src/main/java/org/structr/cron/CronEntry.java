@@ -95,6 +95,18 @@ public class CronEntry implements Delayed {
 		return shouldExecute;
 	}
 
+	/**
+	 * Advances this entry to its next execution time. Must not be called
+	 * while the entry is contained in a time-ordered queue.
+	 */
+	public void scheduleNextExecution() {
+		calculateNextExecutionTime();
+	}
+
+	public long getNextScheduledExecution() {
+		return nextScheduledExecution;
+	}
+
 	// ----- static methods -----
 	public static CronEntry parse(String task, String expression) {
 
@@ -331,10 +343,11 @@ public class CronEntry implements Delayed {
 	@Override
 	public int compareTo(Delayed o) {
 
-		Long myDelay = getDelay(TimeUnit.MILLISECONDS);
-		Long oDelay  = o.getDelay(TimeUnit.MILLISECONDS);
+		if (o instanceof CronEntry) {
+			return Long.compare(nextScheduledExecution, ((CronEntry)o).nextScheduledExecution);
+		}
 
-		return myDelay.compareTo(oDelay);
+		return Long.compare(getDelay(TimeUnit.MILLISECONDS), o.getDelay(TimeUnit.MILLISECONDS));
 	}
 
 	public long getDelayToNextExecutionInMillis() {
@@ -378,11 +391,8 @@ public class CronEntry implements Delayed {
 	@Override
 	public long getDelay(TimeUnit unit) {
 
-		long next = TimeUnit.MILLISECONDS.convert(getDelayToNextExecutionInMillis(), unit);
-
-		logger.info("{} ms until start of task {}", new Object[] { next, name });
-
-		return next;
+		// must not recalculate the execution time here, the value is used as a sort key
+		return unit.convert(nextScheduledExecution - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
 	}
 
 	public void setSeconds(CronField seconds) {
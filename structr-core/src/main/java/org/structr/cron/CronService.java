@@ -19,8 +19,12 @@
 package org.structr.cron;
 
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,7 +49,9 @@ import org.structr.api.service.StopServiceForMaintenanceMode;
  * A service that keeps track of registered tasks and runs
  * them at their scheduled time.
  *
- *
+ * Entries are kept in a {@link DelayQueue} ordered by their next execution
+ * time, so the service thread sleeps until the earliest entry is due
+ * instead of re-checking all entries every second.
  */
 @ServiceDependency(SchemaService.class)
 @StopServiceForMaintenanceMode
@@ -58,8 +64,10 @@ public class CronService extends Thread implements RunnableService {
 	public static final long     GRANULARITY       = 1;
 	public static final int      NUM_FIELDS        = 6;
 
-	private LinkedList<CronEntry> cronEntries = new LinkedList<>();
-	private boolean doRun = false;
+	private final DelayQueue<CronEntry> cronEntries = new DelayQueue<>();
+	private final AtomicInteger workerCount         = new AtomicInteger();
+	private ExecutorService executor                = null;
+	private volatile boolean doRun                  = false;
 
 	public CronService() {
 		super("CronService");
@@ -71,74 +79,53 @@ public class CronService extends Thread implements RunnableService {
 
 		final Services servicesInstance = Services.getInstance();
 
-		// wait for service layer to be initialized
-		while (!servicesInstance.isInitialized()) {
-			try { Thread.sleep(1000); } catch(InterruptedException iex) { }
-		}
-
-		// sleep 5 seconds more
-		try { Thread.sleep(5000); } catch(InterruptedException iex) { }
-
-		while (doRun) {
-
-			// sleep for some time
-			try { Thread.sleep(GRANULARITY_UNIT.toMillis(GRANULARITY)); } catch(InterruptedException iex) { }
-
-			for (CronEntry entry : cronEntries) {
-
-				if (entry.shouldExecuteNow()) {
-
-					final String taskClassName = entry.getName();
-					final Class taskClass      = instantiate(taskClassName);
-
-					if (entry.isRunning() && Settings.CronAllowParallelExecution.getValue() == false) {
-						logger.warn("Prevented parallel execution of '{}' - if this happens regularly you should consider adjusting the cronExpression!", taskClassName);
-					} else {
+		try {
 
-						new Thread(new Runnable() {
+			// wait for service layer to be initialized
+			while (doRun && !servicesInstance.awaitInitialization(1, TimeUnit.MINUTES)) {}
 
-							@Override
-							public void run() {
+			// wait 5 seconds more
+			Thread.sleep(5000);
 
-								try {
+		} catch (InterruptedException iex) {
+			return;
+		}
 
-									entry.incrementRunCount();
+		while (doRun) {
 
-									RuntimeEventLog.cron(taskClassName);
+			final CronEntry entry;
 
-									if (taskClass != null) {
+			try {
 
-										Task task = (Task)taskClass.newInstance();
+				// blocks until the entry with the earliest execution time is due
+				entry = cronEntries.take();
 
-										logger.debug("Starting task {}", taskClassName);
-										StructrApp.getInstance().processTasks(task);
+			} catch (InterruptedException iex) {
+				break;
+			}
 
-									} else {
+			// re-insert the entry with its next execution time before running it
+			entry.scheduleNextExecution();
+			cronEntries.put(entry);
 
-										try (final Tx tx = StructrApp.getInstance().tx()) {
+			final String taskClassName = entry.getName();
 
-											// check for schema method with the given name
-											Actions.callAsSuperUser(taskClassName, Collections.EMPTY_MAP);
+			if (entry.isRunning() && Settings.CronAllowParallelExecution.getValue() == false) {
 
-											tx.success();
-										}
-									}
+				logger.warn("Prevented parallel execution of '{}' - if this happens regularly you should consider adjusting the cronExpression!", taskClassName);
 
-								} catch (FrameworkException fex) {
+			} else {
 
-									logger.warn("Exception while executing cron task {}: {}", taskClassName, fex.toString());
+				// count the execution before it is submitted so the next check sees it
+				entry.incrementRunCount();
 
-								} catch (Throwable t) {
+				try {
 
-									logger.warn("Exception while executing cron task {}: {}", taskClassName, t.getMessage());
+					executor.execute(() -> execute(entry, taskClassName));
 
-								} finally {
+				} catch (RejectedExecutionException rex) {
 
-									entry.decrementRunCount();
-								}
-							}
-						}).start();
-					}
+					entry.decrementRunCount();
 				}
 			}
 		}
@@ -147,13 +134,28 @@ public class CronService extends Thread implements RunnableService {
 	// ----- interface RunnableService -----
 	@Override
 	public void startService() throws Exception {
+
+		this.executor = Executors.newCachedThreadPool(r -> {
+
+			final Thread thread = new Thread(r, "CronService-" + workerCount.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		});
+
 		this.doRun = true;
 		this.start();
 	}
 
 	@Override
 	public void stopService() {
+
 		this.doRun = false;
+		this.interrupt();
+
+		if (executor != null) {
+			executor.shutdown();
+		}
 	}
 
 	@Override
@@ -211,7 +213,7 @@ public class CronService extends Thread implements RunnableService {
 
 	@Override
 	public void shutdown() {
-		this.doRun = false;
+		stopService();
 	}
 
 	@Override
@@ -225,6 +227,45 @@ public class CronService extends Thread implements RunnableService {
 	}
 
 	// ----- private methods -----
+	private void execute(final CronEntry entry, final String taskClassName) {
+
+		try {
+
+			RuntimeEventLog.cron(taskClassName);
+
+			final Class taskClass = instantiate(taskClassName);
+			if (taskClass != null) {
+
+				Task task = (Task)taskClass.newInstance();
+
+				logger.debug("Starting task {}", taskClassName);
+				StructrApp.getInstance().processTasks(task);
+
+			} else {
+
+				try (final Tx tx = StructrApp.getInstance().tx()) {
+
+					// check for schema method with the given name
+					Actions.callAsSuperUser(taskClassName, Collections.EMPTY_MAP);
+
+					tx.success();
+				}
+			}
+
+		} catch (FrameworkException fex) {
+
+			logger.warn("Exception while executing cron task {}: {}", taskClassName, fex.toString());
+
+		} catch (Throwable t) {
+
+			logger.warn("Exception while executing cron task {}: {}", taskClassName, t.getMessage());
+
+		} finally {
+
+			entry.decrementRunCount();
+		}
+	}
+
 	private Class instantiate(final String taskClass) {
 
 		try {
@@ -131,6 +131,18 @@ public class JarConfigurationProvider implements ConfigurationProvider {
 
 	@Override
 	public void shutdown() {
+
+		for (final StructrModule module : modules.values()) {
+
+			try {
+
+				module.onShutdown();
+
+			} catch (Throwable t) {
+
+				logger.warn("Unable to shut down module {}: {}", module.getName(), t.getMessage());
+			}
+		}
 	}
 
 	@Override
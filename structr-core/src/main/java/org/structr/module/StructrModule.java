@@ -45,6 +45,12 @@ public interface StructrModule {
 	 */
 	void registerModuleFunctions(final LicenseManager licenseManager);
 
+	/**
+	 * Called when the service layer shuts down. Modules that start
+	 * threads of their own must stop them here.
+	 */
+	default void onShutdown() {}
+
 	/**
 	 * Returns the name of this module, with an optional version number.
 	 *
@@ -50,7 +50,6 @@ import org.structr.api.service.Service;
 import org.structr.api.service.ServiceDependency;
 import org.structr.api.service.ServiceResult;
 import org.structr.api.service.StructrServices;
-import org.structr.common.AccessPathCache;
 import org.structr.common.error.ErrorBuffer;
 import org.structr.common.error.ErrorToken;
 import org.structr.common.error.FrameworkException;
@@ -63,6 +62,7 @@ import org.structr.core.app.StructrApp;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.SchemaNode;
 import org.structr.core.entity.SchemaRelationshipNode;
+import org.structr.core.function.Functions;
 import org.structr.core.graph.FlushCachesCommand;
 import org.structr.core.graph.NodeInterface;
 import org.structr.core.graph.NodeService;
@@ -317,7 +317,6 @@ public class SchemaService implements Service {
 
 							// prevent inheritance map from leaking
 							SearchCommand.clearInheritanceMap();
-							AccessPathCache.invalidate();
 
 							// clear relationship instance cache
 							AbstractNode.clearRelationshipTemplateInstanceCache();
@@ -325,6 +324,9 @@ public class SchemaService implements Service {
 							// clear permission cache
 							AbstractNode.clearCaches();
 
+							// clear parsed expressions
+							Functions.clearExpressionCache();
+
 							// inject views in configuration provider
 							config.registerDynamicViews(dynamicViews);
 
@@ -610,6 +610,11 @@ public class ActionContext {
 		scriptingContexts.put(language, context);
 	}
 
+	public Context removeScriptingContext(final String language) {
+
+		return scriptingContexts.remove(language);
+	}
+
 	public boolean isRenderContext() {
 		return false;
 
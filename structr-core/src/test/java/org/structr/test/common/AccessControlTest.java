@@ -29,6 +29,7 @@ import org.structr.api.schema.JsonType;
 import org.structr.api.util.Iterables;
 import org.structr.common.AccessMode;
 import org.structr.common.Permission;
+import org.structr.common.PermissionCache;
 import org.structr.common.SecurityContext;
 import org.structr.common.error.ErrorToken;
 import org.structr.common.error.FrameworkException;
@@ -1693,7 +1694,134 @@ public class AccessControlTest extends StructrTest {
 		}
 	}
 
+	@Test
+	public void testPermissionCacheInvalidation() {
+
+		Principal owner = null;
+		Principal user1 = null;
+		Principal user2 = null;
+		Principal user3 = null;
+		Group group     = null;
+		TestOne t1      = null;
+		TestOne t2      = null;
+		TestOne t3      = null;
+		TestOne t4      = null;
+
+		try (final Tx tx = app.tx()) {
+
+			owner = createTestNode(Principal.class, "owner");
+			user1 = createTestNode(Principal.class, "user1");
+			user2 = createTestNode(Principal.class, "user2");
+			user3 = createTestNode(Principal.class, "user3");
+			group = createTestNode(Group.class, "group");
+
+			t1 = createTestNode(TestOne.class, new NodeAttribute<>(AbstractNode.owner, owner));
+			t2 = createTestNode(TestOne.class, new NodeAttribute<>(AbstractNode.owner, owner));
+			t3 = createTestNode(TestOne.class, new NodeAttribute<>(AbstractNode.owner, user1));
+			t4 = createTestNode(TestOne.class, new NodeAttribute<>(AbstractNode.owner, owner));
+
+			t1.grant(Permission.read, group);
+			t2.grant(Permission.read, user2);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+
+		// group membership: invalidates the entries of the new member only
+		assertFalse("Invalid permission resolution result", isGranted(t1, user1));
+		assertTrue("Invalid permission resolution result",  isGranted(t2, user2));
+		assertTrue("Invalid permission resolution result",  isGranted(t3, user1));
+		assertFalse("Invalid permission resolution result", isGranted(t4, user3));
+
+		try (final Tx tx = app.tx()) {
+
+			group.addMember(securityContext, user1);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+
+		assertFalse("Group membership change must invalidate cached permissions of the member", isCached(t1, user1));
+		assertFalse("Group membership change must invalidate cached permissions of the member", isCached(t3, user1));
+		assertTrue("Group membership change must not invalidate unrelated cached permissions",  isCached(t2, user2));
+		assertTrue("Group membership change must not invalidate unrelated cached permissions",  isCached(t4, user3));
+
+		assertTrue("Group membership change was not applied", isGranted(t1, user1));
+
+		// grants: invalidates the entries of the node and the grantee only
+		assertTrue("Invalid permission resolution result", isGranted(t3, user1));
+
+		try (final Tx tx = app.tx()) {
+
+			t2.revoke(Permission.read, user2);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+
+		assertFalse("Grant change must invalidate cached permissions of the node", isCached(t2, user2));
+		assertTrue("Grant change must not invalidate unrelated cached permissions", isCached(t1, user1));
+		assertTrue("Grant change must not invalidate unrelated cached permissions", isCached(t3, user1));
+		assertTrue("Grant change must not invalidate unrelated cached permissions", isCached(t4, user3));
+
+		assertFalse("Grant change was not applied", isGranted(t2, user2));
+
+		// ownership: invalidates the entries of the node and the previous and new owner only
+		try (final Tx tx = app.tx()) {
+
+			t3.setProperty(AbstractNode.owner, owner);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+
+		assertFalse("Ownership change must invalidate cached permissions of the node", isCached(t3, user1));
+		assertTrue("Ownership change must not invalidate unrelated cached permissions", isCached(t2, user2));
+		assertTrue("Ownership change must not invalidate unrelated cached permissions", isCached(t4, user3));
+
+		assertFalse("Ownership change was not applied", isGranted(t3, user1));
+	}
+
 	// ----- private methods -----
+	private boolean isGranted(final AbstractNode node, final Principal user) {
+
+		try (final Tx tx = app.tx()) {
+
+			final boolean granted = node.isGranted(Permission.read, SecurityContext.getInstance(user, AccessMode.Backend));
+
+			tx.success();
+
+			return granted;
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+
+		return false;
+	}
+
+	private boolean isCached(final AbstractNode node, final Principal user) {
+		return PermissionCache.getGranted(node.getUuid(), user.getUuid(), Permission.read) != null;
+	}
+
 	public static void clearResourceAccess() {
 
 		final App app = StructrApp.getInstance();
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.common;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.structr.common.Permission;
+import org.structr.common.PermissionCache;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the dependency tracking of the permission cache without a
+ * database. The dependencies of each entry are the UUIDs a permission
+ * resolution visits: the node, the accessing principal and its groups.
+ * The invalidated UUIDs are the ones a transaction collects for grants
+ * (node and grantee), group membership (group and member) and ownership
+ * (node and owners).
+ */
+public class PermissionCacheTest {
+
+	@BeforeMethod
+	public void clearCache() {
+		PermissionCache.invalidateAll();
+	}
+
+	@Test
+	public void testGrantInvalidation() {
+
+		putGranted("node1", "user1", true,  "node1", "user1", "group1");
+		putGranted("node2", "user1", false, "node2", "user1", "group1");
+		putGranted("node1", "user2", false, "node1", "user2");
+		putGranted("node3", "user3", false, "node3", "user3");
+
+		// grant on node2 for group1
+		PermissionCache.invalidate(Set.of("security1", "node2", "group1"));
+
+		assertNull("Entry depending on the grantee must be invalidated",      getGranted("node1", "user1"));
+		assertNull("Entry depending on the node must be invalidated",         getGranted("node2", "user1"));
+		assertNotNull("Entry not depending on the grant must be kept",        getGranted("node1", "user2"));
+		assertNotNull("Entry not depending on the grant must be kept",        getGranted("node3", "user3"));
+		assertEquals("Invalid number of cached entries", 2, PermissionCache.size());
+	}
+
+	@Test
+	public void testGroupMembershipInvalidation() {
+
+		putGranted("node1", "user1", true,  "node1", "user1", "group1");
+		putGranted("node1", "user2", false, "node1", "user2");
+		putGranted("node2", "user2", true,  "node2", "user2");
+		putGranted("node2", "user3", false, "node2", "user3", "group2");
+
+		// user2 is added to group1
+		PermissionCache.invalidate(Set.of("membership1", "group1", "user2"));
+
+		assertNull("Entry depending on the group must be invalidated",         getGranted("node1", "user1"));
+		assertNull("Entry depending on the member must be invalidated",        getGranted("node1", "user2"));
+		assertNull("Entry depending on the member must be invalidated",        getGranted("node2", "user2"));
+		assertNotNull("Entry not depending on the membership must be kept",    getGranted("node2", "user3"));
+		assertEquals("Invalid number of cached entries", 1, PermissionCache.size());
+	}
+
+	@Test
+	public void testOwnershipInvalidation() {
+
+		putGranted("node1", "user1", true,  "node1", "user1");
+		putGranted("node1", "user2", false, "node1", "user2");
+		putGranted("node2", "user3", true,  "node2", "user3");
+
+		// ownership of node1 moves from user1 to user2
+		PermissionCache.invalidate(Set.of("owns1", "owns2", "node1", "user1", "user2"));
+
+		assertNull("Entry depending on the node must be invalidated",         getGranted("node1", "user1"));
+		assertNull("Entry depending on the node must be invalidated",         getGranted("node1", "user2"));
+		assertNotNull("Entry not depending on the ownership must be kept",    getGranted("node2", "user3"));
+		assertEquals("Invalid number of cached entries", 1, PermissionCache.size());
+	}
+
+	@Test
+	public void testResolvedEntriesPropagateDependencies() {
+
+		final long generation        = PermissionCache.getGeneration();
+		final Set<String> resolution = new HashSet<>(Set.of("parent", "user1"));
+
+		PermissionCache.putResolved("parent", "user1", Permission.read, true, Set.of("parent", "user1", "grandparent"), generation);
+
+		// a resolution that builds on the cached result inherits its dependencies
+		assertEquals("Invalid cached result", Boolean.TRUE, PermissionCache.getResolved("parent", "user1", Permission.read, resolution));
+		assertEquals("Dependencies of cached result must be added", Set.of("parent", "user1", "grandparent"), resolution);
+
+		PermissionCache.putGranted("child", "user1", Permission.read, true, resolution, generation);
+
+		PermissionCache.invalidate("grandparent");
+
+		assertNull("Entry depending on an indirect dependency must be invalidated", getGranted("child", "user1"));
+	}
+
+	@Test
+	public void testConcurrentInvalidation() {
+
+		final long generation = PermissionCache.getGeneration();
+
+		// a modification is committed while the permission is resolved
+		PermissionCache.invalidate("unrelated");
+
+		PermissionCache.putGranted("node1", "user1", Permission.read, true, Set.of("node1", "user1"), generation);
+
+		assertNull("Result resolved concurrently with an invalidation must not be stored", getGranted("node1", "user1"));
+	}
+
+	// ----- private methods -----
+	private void putGranted(final String nodeId, final String principalId, final boolean value, final String... dependencies) {
+		PermissionCache.putGranted(nodeId, principalId, Permission.read, value, Set.of(dependencies), PermissionCache.getGeneration());
+	}
+
+	private Boolean getGranted(final String nodeId, final String principalId) {
+		return PermissionCache.getGranted(nodeId, principalId, Permission.read);
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.core.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.structr.agent.AbstractTask;
+import org.structr.agent.Agent;
+import org.structr.agent.AgentService;
+import org.structr.agent.ReturnValue;
+import org.structr.agent.Task;
+import org.structr.test.common.StructrTest;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the dispatching, retry and idle handling of the agent service
+ * with an agent that is not registered in the configuration provider.
+ */
+public class AgentServiceTest extends StructrTest {
+
+	@Test
+	public void testIdleAgentExpiry() throws Exception {
+
+		final TestAgentService service = new TestAgentService();
+
+		try {
+
+			service.startService();
+
+			final TestTask first = new TestTask(0);
+
+			service.processTask(first);
+
+			waitFor("Task must be processed", () -> first.getExecutionCount() == 1);
+
+			// the agent terminates after its idle timeout
+			waitFor("Idle agent must terminate", () -> service.getAgentCount() == 0);
+
+			// a new agent is started for the next task
+			final TestTask second = new TestTask(0);
+
+			service.processTask(second);
+
+			waitFor("Task must be processed by a new agent", () -> second.getExecutionCount() == 1);
+
+		} finally {
+
+			service.stopService();
+		}
+	}
+
+	@Test
+	public void testRetryScheduling() throws Exception {
+
+		final TestAgentService service = new TestAgentService();
+
+		try {
+
+			service.startService();
+
+			final TestTask task = new TestTask(1);
+
+			service.processTask(task);
+
+			waitFor("Failed task must be retried", () -> task.getExecutionCount() == 2);
+
+			final List<Long> times = task.getExecutionTimes();
+
+			assertTrue("Retry must be delayed", times.get(1) - times.get(0) >= 2000);
+			assertEquals("Invalid retry count", 1, task.getRetryCount());
+
+		} finally {
+
+			service.stopService();
+		}
+	}
+
+	@Test
+	public void testRetryLimit() throws Exception {
+
+		final TestAgentService service = new TestAgentService();
+
+		try {
+
+			service.startService();
+
+			final TestTask task = new TestTask(Integer.MAX_VALUE);
+
+			service.processTask(task);
+
+			waitFor("Failed task must be retried", () -> task.getExecutionCount() == 3);
+
+			// wait longer than the retry delay
+			Thread.sleep(3000);
+
+			assertEquals("Task must not be retried more than twice", 3, task.getExecutionCount());
+
+		} finally {
+
+			service.stopService();
+		}
+	}
+
+	@Test
+	public void testUnknownTaskIsDropped() throws Exception {
+
+		final TestAgentService service = new TestAgentService();
+
+		try {
+
+			service.startService();
+
+			service.processTask(new AbstractTask<>("Unknown", null));
+
+			// the service layer is initialized, so the task is dropped
+			waitFor("Task without agent must be dropped", () -> service.getTaskQueue().isEmpty());
+
+			// other task types are not affected
+			final TestTask task = new TestTask(0);
+
+			service.processTask(task);
+
+			waitFor("Task must be processed", () -> task.getExecutionCount() == 1);
+
+		} finally {
+
+			service.stopService();
+		}
+	}
+
+	// ----- private methods -----
+	private void waitFor(final String message, final BooleanSupplier condition) throws InterruptedException {
+
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+
+		while (!condition.getAsBoolean()) {
+
+			if (System.currentTimeMillis() > deadline) {
+				fail(message);
+			}
+
+			Thread.sleep(10);
+		}
+	}
+
+	// ----- nested classes -----
+	private static class TestAgentService extends AgentService {
+
+		@Override
+		public Map<String, Class<? extends Agent>> getAgents() {
+			return Map.of(TestAgent.class.getName(), TestAgent.class);
+		}
+
+		public int getAgentCount() {
+
+			final List<Agent> agents = getRunningAgents().get(TestTask.class.getName());
+			if (agents != null) {
+
+				return agents.size();
+			}
+
+			return 0;
+		}
+	}
+
+	public static class TestAgent extends Agent<Object> {
+
+		@Override
+		public ReturnValue processTask(final Task<Object> task) throws Throwable {
+
+			final TestTask testTask = (TestTask)task;
+
+			if (testTask.execute()) {
+
+				return ReturnValue.Success;
+			}
+
+			return ReturnValue.Retry;
+		}
+
+		@Override
+		public Class getSupportedTaskType() {
+			return TestTask.class;
+		}
+
+		@Override
+		public boolean createEnclosingTransaction() {
+			return false;
+		}
+
+		@Override
+		protected long getIdleTimeout() {
+			return 1;
+		}
+	}
+
+	private static class TestTask extends AbstractTask<Object> {
+
+		private final List<Long> executionTimes = new ArrayList<>();
+		private int failures                    = 0;
+
+		public TestTask(final int failures) {
+
+			super("Test", null);
+
+			this.failures = failures;
+		}
+
+		public synchronized boolean execute() {
+
+			executionTimes.add(System.currentTimeMillis());
+
+			return executionTimes.size() > failures;
+		}
+
+		public synchronized int getExecutionCount() {
+			return executionTimes.size();
+		}
+
+		public synchronized List<Long> getExecutionTimes() {
+			return new ArrayList<>(executionTimes);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.core.auth;
+
+import org.structr.api.config.Settings;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.app.StructrApp;
+import org.structr.core.auth.SessionIdIndex;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.NodeAttribute;
+import org.structr.core.graph.Tx;
+import org.structr.core.property.PropertyKey;
+import org.structr.core.property.PropertyMap;
+import org.structr.test.common.StructrTest;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the lookup and verification of session ids in the in-memory index.
+ */
+public class SessionIdIndexTest extends StructrTest {
+
+	@Test
+	public void testLookupAndVerification() {
+
+		final PropertyKey<String[]> sessionIds = StructrApp.key(Principal.class, "sessionIds");
+		Principal user                         = null;
+
+		try (final Tx tx = app.tx()) {
+
+			user = app.create(Principal.class, "user");
+
+			// registers the session id in the index
+			Principal.addSessionId(user, "session1");
+			Principal.addSessionId(user, "session2");
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			assertEquals("Indexed session id must resolve to its principal", user, SessionIdIndex.getPrincipal("session1"));
+			assertEquals("Indexed session id must resolve to its principal", user, SessionIdIndex.getPrincipal("session2"));
+			assertNull("Unknown session id must not resolve",                SessionIdIndex.getPrincipal("unknown"));
+			assertNull("Null session id must not resolve",                   SessionIdIndex.getPrincipal(null));
+
+			// modify the session ids without updating the index, like another cluster instance would
+			user.setProperty(sessionIds, new String[] { "session2" });
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			assertNull("Session id that is no longer owned by the principal must not resolve", SessionIdIndex.getPrincipal("session1"));
+
+			// the stale entry is removed, so re-adding the session id without the index has no effect
+			user.setProperty(sessionIds, new String[] { "session1", "session2" });
+
+			assertNull("Stale index entry must be removed", SessionIdIndex.getPrincipal("session1"));
+			assertEquals("Valid index entry must be kept", user, SessionIdIndex.getPrincipal("session2"));
+
+			app.delete(user);
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			assertNull("Session id of a deleted principal must not resolve", SessionIdIndex.getPrincipal("session2"));
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+	}
+
+	@Test
+	public void testPasswordChangeClearsIndex() {
+
+		final PropertyKey<String[]> sessionIds = StructrApp.key(Principal.class, "sessionIds");
+		final PropertyKey<String> password     = StructrApp.key(Principal.class, "password");
+		final boolean clearSessions            = Settings.PasswordClearSessionsOnChange.getValue();
+		Principal user                         = null;
+
+		Settings.PasswordClearSessionsOnChange.setValue(true);
+
+		try {
+
+			try (final Tx tx = app.tx()) {
+
+				user = app.create(Principal.class, new NodeAttribute<>(Principal.name, "user"), new NodeAttribute<>(password, "password1"));
+
+				Principal.addSessionId(user, "session1");
+
+				tx.success();
+
+			} catch (FrameworkException fex) {
+
+				fex.printStackTrace();
+				fail("Unexpected exception.");
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertEquals("Indexed session id must resolve to its principal", user, SessionIdIndex.getPrincipal("session1"));
+
+				final PropertyMap properties = new PropertyMap();
+
+				properties.put(password, "password2");
+
+				// sessions are only cleared by a bulk update
+				user.setProperties(securityContext, properties);
+
+				tx.success();
+
+			} catch (FrameworkException fex) {
+
+				fex.printStackTrace();
+				fail("Unexpected exception.");
+			}
+
+			try (final Tx tx = app.tx()) {
+
+				assertNull("Session ids must be cleared on password change", user.getProperty(sessionIds));
+
+				// the index entry must be gone as well, re-adding the session id without the index has no effect
+				user.setProperty(sessionIds, new String[] { "session1" });
+
+				assertNull("Index entries must be removed on password change", SessionIdIndex.getPrincipal("session1"));
+
+				tx.success();
+
+			} catch (FrameworkException fex) {
+
+				fex.printStackTrace();
+				fail("Unexpected exception.");
+			}
+
+		} finally {
+
+			Settings.PasswordClearSessionsOnChange.setValue(clearSessions);
+		}
+	}
+}
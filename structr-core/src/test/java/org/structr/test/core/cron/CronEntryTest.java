@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.core.cron;
+
+import java.util.Calendar;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+import org.structr.cron.CronEntry;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the ordering of cron entries in the delay queue of the cron
+ * service without a database.
+ */
+public class CronEntryTest {
+
+	@Test
+	public void testDelayQueueOrdering() throws InterruptedException {
+
+		final Calendar now                = Calendar.getInstance();
+		final DelayQueue<CronEntry> queue = new DelayQueue<>();
+
+		// the hourly and the daily entry are at least 29 minutes and one hour away
+		final CronEntry everySecond       = CronEntry.parse("everySecond", "* * * * * *");
+		final CronEntry hourly            = CronEntry.parse("hourly", "0 " + ((now.get(Calendar.MINUTE) + 30) % 60) + " * * * *");
+		final CronEntry daily             = CronEntry.parse("daily", "0 0 " + ((now.get(Calendar.HOUR_OF_DAY) + 2) % 24) + " * * *");
+
+		assertNotNull("Invalid cron expression", everySecond);
+		assertNotNull("Invalid cron expression", hourly);
+		assertNotNull("Invalid cron expression", daily);
+
+		queue.add(daily);
+		queue.add(hourly);
+		queue.add(everySecond);
+
+		assertEquals("Entry with the earliest execution time must be first", everySecond, queue.peek());
+
+		final CronEntry due = queue.poll(10, TimeUnit.SECONDS);
+
+		assertEquals("Entry with the earliest execution time must be due first", everySecond, due);
+		assertTrue("Entry must not be due before its execution time", System.currentTimeMillis() >= due.getNextScheduledExecution());
+		assertEquals("Entry with the next execution time must be first", hourly, queue.peek());
+
+		// entries are rescheduled while they are not in the queue
+		final long previous = due.getNextScheduledExecution();
+
+		due.scheduleNextExecution();
+
+		assertTrue("Next execution time must be in the future", due.getNextScheduledExecution() > previous);
+		assertTrue("Next execution time must be in the future", due.getDelay(TimeUnit.MILLISECONDS) > 0);
+
+		queue.add(due);
+
+		assertEquals("Rescheduled entry must be ordered by its new execution time", everySecond, queue.peek());
+		assertEquals("Rescheduled entry must be due again", everySecond, queue.poll(10, TimeUnit.SECONDS));
+		assertEquals("Invalid number of remaining entries", 2, queue.size());
+	}
+
+	@Test
+	public void testInvalidExpressions() {
+
+		assertNull("Expression with too few fields must be rejected", CronEntry.parse("invalid", "* * * * *"));
+		assertNull("Expression with value out of range must be rejected", CronEntry.parse("invalid", "60 * * * * *"));
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.core.graph;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.structr.api.DatabaseService;
+import org.structr.api.graph.Node;
+import org.structr.api.util.Iterables;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.app.Query;
+import org.structr.core.graph.NodeAttribute;
+import org.structr.core.graph.Tx;
+import org.structr.core.graph.search.RelationshipPrefetchingIterable;
+import org.structr.core.property.PropertyKey;
+import org.structr.test.common.StructrTest;
+import org.structr.test.core.entity.TestOne;
+import org.structr.test.core.entity.TestSix;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that prefetching the relationships of query results changes
+ * neither the result nor the values of the prefetched properties.
+ */
+public class RelationshipPrefetchingTest extends StructrTest {
+
+	@Test
+	public void testBatchesAndOffset() {
+
+		createTestData();
+
+		try (final Tx tx = app.tx()) {
+
+			final List<TestSix> sixes      = app.nodeQuery(TestSix.class).sort(TestSix.index).getAsList();
+			final List<List<Node>> batches = new LinkedList<>();
+			final DatabaseService db       = recordingDatabase(batches);
+			final List<PropertyKey> keys   = Arrays.asList(TestSix.manyToManyTestOnes, TestSix.index);
+
+			// the first five elements are discarded by pagination, the rest is prefetched in batches of three
+			assertEquals("Prefetching must not change the result", sixes, Iterables.toList(new RelationshipPrefetchingIterable<>(db, sixes, keys, 3, 5)));
+			assertEquals("Invalid number of prefetch batches", 2, batches.size());
+			assertEquals("Elements before the offset must not be prefetched", nodes(sixes.subList(5, 8)), batches.get(0));
+			assertEquals("Last batch must contain the remaining elements", nodes(sixes.subList(8, 10)), batches.get(1));
+
+			batches.clear();
+
+			// an offset beyond the end of the result
+			assertEquals("Prefetching must not change the result", sixes, Iterables.toList(new RelationshipPrefetchingIterable<>(db, sixes, keys, 3, 20)));
+			assertEquals("Elements before the offset must not be prefetched", 0, batches.size());
+
+			// a single remaining element does not need a batch query
+			assertEquals("Prefetching must not change the result", sixes, Iterables.toList(new RelationshipPrefetchingIterable<>(db, sixes, keys, 3, 9)));
+			assertEquals("Single elements must not be prefetched", 0, batches.size());
+
+			// keys that are not relationship properties are ignored
+			assertEquals("Prefetching must not change the result", sixes, Iterables.toList(new RelationshipPrefetchingIterable<>(db, sixes, Arrays.asList(TestSix.index), 3, 0)));
+			assertEquals("Only relationship properties must be prefetched", 0, batches.size());
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+	}
+
+	@Test
+	public void testPrefetchedRelationshipsAreEqual() {
+
+		createTestData();
+
+		try {
+
+			// nodes without relationships must have an empty result as well
+			assertEquals("Prefetched relationships must equal the relationships without prefetching", getRelated(false, 1, 100), getRelated(true, 1, 100));
+
+			// pages after the first one skip elements before prefetching
+			assertEquals("Prefetched relationships must equal the relationships without prefetching", getRelated(false, 2, 3), getRelated(true, 2, 3));
+			assertEquals("Prefetched relationships must equal the relationships without prefetching", getRelated(false, 4, 3), getRelated(true, 4, 3));
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+	}
+
+	// ----- private methods -----
+	private void createTestData() {
+
+		try (final Tx tx = app.tx()) {
+
+			final List<TestOne> ones = createTestNodes(TestOne.class, 5);
+
+			for (int i=0; i<10; i++) {
+
+				// every third node has no relationships
+				app.create(TestSix.class,
+					new NodeAttribute<>(TestSix.name, "six" + i),
+					new NodeAttribute<>(TestSix.index, i),
+					new NodeAttribute<>(TestSix.manyToManyTestOnes, ones.subList(0, i % 3 == 0 ? 0 : i % 5 + 1))
+				);
+			}
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+	}
+
+	private Map<String, List<String>> getRelated(final boolean prefetch, final int page, final int pageSize) throws FrameworkException {
+
+		final Map<String, List<String>> result = new LinkedHashMap<>();
+
+		try (final Tx tx = app.tx()) {
+
+			final Query<TestSix> query = app.nodeQuery(TestSix.class).sort(TestSix.index).page(page).pageSize(pageSize);
+
+			if (prefetch) {
+				query.prefetch(TestSix.manyToManyTestOnes);
+			}
+
+			for (final TestSix six : query.getAsList()) {
+
+				final List<String> related = new LinkedList<>();
+
+				for (final TestOne one : six.getProperty(TestSix.manyToManyTestOnes)) {
+					related.add(one.getUuid());
+				}
+
+				related.sort(String::compareTo);
+
+				result.put(six.getUuid(), related);
+			}
+
+			tx.success();
+		}
+
+		return result;
+	}
+
+	private List<Node> nodes(final List<TestSix> sixes) {
+
+		final List<Node> nodes = new LinkedList<>();
+
+		for (final TestSix six : sixes) {
+			nodes.add(six.getNode());
+		}
+
+		return nodes;
+	}
+
+	private DatabaseService recordingDatabase(final List<List<Node>> batches) {
+
+		final DatabaseService db = app.getDatabaseService();
+
+		return (DatabaseService)Proxy.newProxyInstance(DatabaseService.class.getClassLoader(), new Class[] { DatabaseService.class }, (proxy, method, args) -> {
+
+			if ("prefetchRelationships".equals(method.getName())) {
+				batches.add(Iterables.toList((Iterable<Node>)args[0]));
+			}
+
+			return method.invoke(db, args);
+		});
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.core.graph;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.structr.core.graph.StripedLockManager;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the striped commit locks. The keys below are chosen so that
+ * "TestOne.name=a" maps to a lower stripe than "TestOne.name=b" when 16
+ * stripes are used.
+ */
+public class StripedLockManagerTest {
+
+	private static final String KEY_A = "TestOne.name=a";
+	private static final String KEY_B = "TestOne.name=b";
+
+	@Test
+	public void testOverlappingKeySets() throws Exception {
+
+		final StripedLockManager locks  = new StripedLockManager(16);
+		final ExecutorService executor  = Executors.newFixedThreadPool(8);
+		final List<Future<?>> futures   = new ArrayList<>();
+		final int[] counter             = new int[1];
+		final int iterations            = 2000;
+
+		// overlapping key sets, iterated in different orders
+		final List<Set<String>> keySets = List.of(
+			keys("a", "b", "c"),
+			keys("c", "b"),
+			keys("b", "a"),
+			keys("c", "a", "b")
+		);
+
+		try {
+
+			for (int t=0; t<8; t++) {
+
+				final Set<String> keys = keySets.get(t % keySets.size());
+
+				futures.add(executor.submit(() -> {
+
+					for (int i=0; i<iterations; i++) {
+
+						final int[] stripes = locks.acquire(keys, 10, TimeUnit.SECONDS);
+
+						assertNotNull("Acquisition of overlapping key sets must not deadlock", stripes);
+
+						try {
+
+							// not atomic, only correct if the shared key "b" serializes all threads
+							counter[0]++;
+
+						} finally {
+
+							locks.release(stripes);
+						}
+					}
+
+					return null;
+				}));
+			}
+
+			for (final Future<?> future : futures) {
+				future.get(1, TimeUnit.MINUTES);
+			}
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+
+		assertEquals("Lock on shared key did not serialize all threads", 8 * iterations, counter[0]);
+		assertEquals("All stripes must be released", 0, locks.getStatus().get("locked"));
+	}
+
+	@Test
+	public void testReleaseOnTimeout() throws Exception {
+
+		final StripedLockManager locks = new StripedLockManager(16);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		final int[] held = locks.acquire(keys(KEY_B), 1, TimeUnit.SECONDS);
+
+		try {
+
+			// acquires the stripe of KEY_A and then waits for the stripe of KEY_B
+			final Future<int[]> future = executor.submit(() -> locks.acquire(keys(KEY_A, KEY_B), 500, TimeUnit.MILLISECONDS));
+
+			waitForQueuedThreads(locks, 1);
+
+			assertEquals("Waiting thread must hold its lower stripe", 2, locks.getStatus().get("locked"));
+
+			assertNull("Acquisition must time out", future.get(1, TimeUnit.MINUTES));
+			assertEquals("Partially acquired stripes must be released on timeout", 1, locks.getStatus().get("locked"));
+			assertEquals("Timeout must be counted", 1L, locks.getStatus().get("timeouts"));
+
+		} finally {
+
+			locks.release(held);
+			executor.shutdownNow();
+		}
+
+		assertEquals("All stripes must be released", 0, locks.getStatus().get("locked"));
+	}
+
+	@Test
+	public void testReleaseOnInterrupt() throws Exception {
+
+		final StripedLockManager locks = new StripedLockManager(16);
+		final AtomicInteger interrupts = new AtomicInteger();
+
+		final int[] held = locks.acquire(keys(KEY_B), 1, TimeUnit.SECONDS);
+
+		try {
+
+			final Thread waiter = new Thread(() -> {
+
+				try {
+
+					locks.acquire(keys(KEY_A, KEY_B), 1, TimeUnit.MINUTES);
+
+				} catch (InterruptedException iex) {
+
+					interrupts.incrementAndGet();
+				}
+			});
+
+			waiter.start();
+
+			waitForQueuedThreads(locks, 1);
+
+			assertEquals("Waiting thread must hold its lower stripe", 2, locks.getStatus().get("locked"));
+
+			waiter.interrupt();
+			waiter.join(TimeUnit.MINUTES.toMillis(1));
+
+			assertEquals("Waiting thread must be interrupted", 1, interrupts.get());
+			assertEquals("Partially acquired stripes must be released on interrupt", 1, locks.getStatus().get("locked"));
+
+		} finally {
+
+			locks.release(held);
+		}
+
+		assertEquals("All stripes must be released", 0, locks.getStatus().get("locked"));
+	}
+
+	@Test
+	public void testValueLevelSynchronizationKeys() throws Exception {
+
+		final StripedLockManager locks = new StripedLockManager(16);
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		final List<Future<?>> futures  = new ArrayList<>();
+		final Set<String> values       = new HashSet<>();
+		final AtomicInteger created    = new AtomicInteger();
+
+		try {
+
+			// conflicting commits write the same unique value, only one of them may succeed
+			for (int t=0; t<8; t++) {
+
+				futures.add(executor.submit(() -> {
+
+					final int[] stripes = locks.acquire(keys(KEY_A), 10, TimeUnit.SECONDS);
+
+					assertNotNull("Acquisition must not time out", stripes);
+
+					try {
+
+						// check-then-act as in uniqueness validation
+						if (!values.contains(KEY_A)) {
+
+							Thread.sleep(10);
+
+							values.add(KEY_A);
+							created.incrementAndGet();
+						}
+
+					} finally {
+
+						locks.release(stripes);
+					}
+
+					return null;
+				}));
+			}
+
+			for (final Future<?> future : futures) {
+				future.get(1, TimeUnit.MINUTES);
+			}
+
+			assertEquals("Conflicting commits must be serialized", 1, created.get());
+
+			// a commit with a different value of the same property must not wait
+			final int[] held = locks.acquire(keys(KEY_A), 1, TimeUnit.SECONDS);
+			try {
+
+				final Future<Boolean> other = executor.submit(() -> {
+
+					final int[] stripes = locks.acquire(keys(KEY_B), 0, TimeUnit.MILLISECONDS);
+
+					locks.release(stripes);
+
+					return stripes != null;
+				});
+
+				assertTrue("Different values of the same property must not block each other", other.get(1, TimeUnit.MINUTES));
+
+			} finally {
+
+				locks.release(held);
+			}
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+
+		assertEquals("All stripes must be released", 0, locks.getStatus().get("locked"));
+	}
+
+	// ----- private methods -----
+	private Set<String> keys(final String... keys) {
+
+		final Set<String> set = new LinkedHashSet<>();
+
+		for (final String key : keys) {
+			set.add(key);
+		}
+
+		return set;
+	}
+
+	private void waitForQueuedThreads(final StripedLockManager locks, final int count) throws InterruptedException {
+
+		final long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+
+		while ((Integer)locks.getStatus().get("waitingThreads") < count) {
+
+			if (System.currentTimeMillis() > deadline) {
+				fail("Thread did not start waiting for a stripe");
+			}
+
+			Thread.sleep(10);
+		}
+
+		assertTrue("Invalid number of waiting threads", (Integer)locks.getStatus().get("waitingThreads") == count);
+	}
+}
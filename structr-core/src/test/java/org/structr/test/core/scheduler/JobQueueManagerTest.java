@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.core.scheduler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.structr.api.config.Settings;
+import org.structr.common.ContextStore;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.NodeAttribute;
+import org.structr.core.graph.Tx;
+import org.structr.core.scheduler.JobQueueManager;
+import org.structr.core.scheduler.ScheduledJob;
+import org.structr.test.common.StructrTest;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the concurrency limits, the scheduling order and the write
+ * permits of the job queue with jobs that run until they are finished
+ * by the test.
+ */
+public class JobQueueManagerTest extends StructrTest {
+
+	private final List<TestJob> started = new ArrayList<>();
+	private final List<TestJob> jobs    = new ArrayList<>();
+	private int maxConcurrent           = 0;
+	private int maxConcurrentPerType    = 0;
+	private int maxConcurrentPerUser    = 0;
+
+	@BeforeMethod
+	public void storeSettings() {
+
+		started.clear();
+		jobs.clear();
+
+		maxConcurrent        = Settings.JobsMaxConcurrent.getValue();
+		maxConcurrentPerType = Settings.JobsMaxConcurrentPerType.getValue();
+		maxConcurrentPerUser = Settings.JobsMaxConcurrentPerUser.getValue();
+	}
+
+	@AfterMethod
+	public void finishJobs() {
+
+		final JobQueueManager manager = JobQueueManager.getInstance();
+		final long deadline           = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+
+		for (final TestJob job : jobs) {
+			manager.cancelQueuedJob(job.jobId());
+		}
+
+		for (final TestJob job : jobs) {
+			job.finish();
+		}
+
+		// active jobs of this test must not count against the limits of the next one
+		while (!manager.listJobs().isEmpty() && System.currentTimeMillis() < deadline) {
+
+			try { Thread.sleep(10); } catch (InterruptedException ignore) {}
+		}
+
+		Settings.JobsMaxConcurrent.setValue(maxConcurrent);
+		Settings.JobsMaxConcurrentPerType.setValue(maxConcurrentPerType);
+		Settings.JobsMaxConcurrentPerUser.setValue(maxConcurrentPerUser);
+	}
+
+	@Test
+	public void testConcurrencyLimits() throws FrameworkException {
+
+		Settings.JobsMaxConcurrent.setValue(3);
+		Settings.JobsMaxConcurrentPerType.setValue(2);
+		Settings.JobsMaxConcurrentPerUser.setValue(2);
+
+		final Principal user1 = createUser("user1", false);
+		final Principal user2 = createUser("user2", false);
+
+		final TestJob job1 = submit("CSV", user1, 0);
+		final TestJob job2 = submit("CSV", user1, 0);
+		final TestJob job3 = submit("CSV", user2, 0);	// type limit
+		final TestJob job4 = submit("XML", user1, 0);	// user limit
+		final TestJob job5 = submit("XML", user2, 0);
+		final TestJob job6 = submit("XML", user2, 0);	// overall limit
+
+		assertStarted("Limits must be applied", job1, job2, job5);
+
+		job1.finish();
+
+		// job3, job4 and job6 may start now, their users have the same number of active jobs
+		waitForStarted(4);
+
+		assertStarted("Oldest job must be started first", job1, job2, job5, job3);
+	}
+
+	@Test
+	public void testPriorityOrder() throws FrameworkException {
+
+		Settings.JobsMaxConcurrent.setValue(1);
+
+		final Principal admin = createUser("admin", true);
+		final Principal user  = createUser("user", false);
+
+		final TestJob blocker = submit("CSV", admin, 0);
+		final TestJob job1    = submit("CSV", user,  5);
+		final TestJob job2    = submit("CSV", admin, 1);
+		final TestJob job3    = submit("CSV", admin, 3);
+		final TestJob job4    = submit("CSV", user,  -1);
+		final TestJob job5    = submit("CSV", admin, 0);
+
+		assertEquals("Priority of non-admin users must be clamped", 0, job1.getPriority());
+		assertEquals("Lower priority must be allowed for non-admin users", -1, job4.getPriority());
+		assertEquals("Priority of admin users must be used", 3, job3.getPriority());
+
+		for (int i=1; i<6; i++) {
+
+			getStarted(i - 1).finish();
+
+			waitForStarted(i + 1);
+		}
+
+		assertStarted("Jobs must be started in order of priority, then in order of submission", blocker, job3, job2, job1, job5, job4);
+	}
+
+	@Test
+	public void testFairnessAndFifoTieBreak() throws FrameworkException {
+
+		Settings.JobsMaxConcurrent.setValue(2);
+		Settings.JobsMaxConcurrentPerUser.setValue(3);
+		Settings.JobsMaxConcurrentPerType.setValue(3);
+
+		final Principal user1 = createUser("user1", false);
+		final Principal user2 = createUser("user2", false);
+
+		final TestJob job1 = submit("CSV", user1, 0);
+		final TestJob job2 = submit("CSV", user2, 0);
+		final TestJob job3 = submit("CSV", user1, 0);
+		final TestJob job4 = submit("CSV", user2, 0);
+		final TestJob job5 = submit("CSV", user1, 0);
+
+		assertStarted("Limits must be applied", job1, job2);
+
+		job2.finish();
+
+		// user2 has fewer active jobs than user1
+		waitForStarted(3);
+
+		assertStarted("Jobs of users with fewer active jobs must be preferred", job1, job2, job4);
+
+		job4.finish();
+
+		// both remaining jobs belong to user1
+		waitForStarted(4);
+
+		assertStarted("Older job must be started first", job1, job2, job4, job3);
+	}
+
+	@Test
+	public void testWritePermits() throws Exception {
+
+		final ExecutorService executor                = Executors.newFixedThreadPool(2);
+		final List<JobQueueManager.WritePermit> held  = new ArrayList<>();
+		final int permits                             = Math.max(1, Settings.JobsWritePermits.getValue());
+		final TestJob job                             = createJob("CSV", null, 0);
+
+		try {
+
+			for (int i=0; i<permits; i++) {
+				held.add(job.permit());
+			}
+
+			final Future<JobQueueManager.WritePermit> first = executor.submit(() -> job.permit());
+
+			Thread.sleep(200);
+
+			final Future<JobQueueManager.WritePermit> second = executor.submit(() -> job.permit());
+
+			Thread.sleep(200);
+
+			assertFalse("Permit must not be granted while all permits are held", first.isDone());
+			assertFalse("Permit must not be granted while all permits are held", second.isDone());
+
+			// closing a permit twice must release it only once
+			held.get(0).close();
+			held.get(0).close();
+
+			held.add(first.get(10, TimeUnit.SECONDS));
+
+			Thread.sleep(200);
+
+			assertFalse("Permit must only be released once", second.isDone());
+
+			held.get(held.size() - 1).close();
+
+			held.add(second.get(10, TimeUnit.SECONDS));
+
+		} finally {
+
+			for (final JobQueueManager.WritePermit permit : held) {
+				permit.close();
+			}
+
+			executor.shutdownNow();
+		}
+	}
+
+	// ----- private methods -----
+	private Principal createUser(final String name, final boolean isAdmin) throws FrameworkException {
+
+		try (final Tx tx = app.tx()) {
+
+			final Principal user = app.create(Principal.class,
+				new NodeAttribute<>(Principal.name, name),
+				new NodeAttribute<>(StructrApp.key(Principal.class, "isAdmin"), isAdmin)
+			);
+
+			tx.success();
+
+			return user;
+		}
+	}
+
+	private TestJob createJob(final String type, final Principal user, final int priority) throws FrameworkException {
+
+		try (final Tx tx = app.tx()) {
+
+			final TestJob job = new TestJob(type, user, priority, started);
+
+			tx.success();
+
+			return job;
+		}
+	}
+
+	private TestJob submit(final String type, final Principal user, final int priority) throws FrameworkException {
+
+		final TestJob job = createJob(type, user, priority);
+
+		jobs.add(job);
+
+		JobQueueManager.getInstance().addJob(job);
+
+		return job;
+	}
+
+	private void waitForStarted(final int count) {
+
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+
+		while (true) {
+
+			synchronized (started) {
+
+				if (started.size() >= count) {
+					return;
+				}
+			}
+
+			if (System.currentTimeMillis() > deadline) {
+				fail("Job was not started");
+			}
+
+			try { Thread.sleep(10); } catch (InterruptedException ignore) {}
+		}
+	}
+
+	private TestJob getStarted(final int index) {
+
+		synchronized (started) {
+
+			return started.get(index);
+		}
+	}
+
+	private void assertStarted(final String message, final TestJob... expected) {
+
+		synchronized (started) {
+
+			assertEquals(message, List.of(expected), started);
+		}
+	}
+
+	// ----- nested classes -----
+	private static class TestJob extends ScheduledJob {
+
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private List<TestJob> started         = null;
+		private String type                   = null;
+
+		public TestJob(final String type, final Principal user, final int priority, final List<TestJob> started) {
+
+			super("test", user, new LinkedHashMap<>(Map.of("priority", priority)), new ContextStore());
+
+			this.started = started;
+			this.type    = type;
+		}
+
+		@Override
+		public void startJob() {
+
+			synchronized (started) {
+				started.add(this);
+			}
+
+			super.startJob();
+		}
+
+		public void finish() {
+			finished.countDown();
+		}
+
+		public JobQueueManager.WritePermit permit() throws InterruptedException {
+			return acquireWritePermit();
+		}
+
+		@Override
+		public boolean runInitialChecks() throws FrameworkException {
+			return true;
+		}
+
+		@Override
+		public Runnable getRunnable() {
+
+			return () -> {
+
+				try {
+
+					finished.await();
+
+				} catch (InterruptedException ignore) {}
+
+				jobFinished();
+			};
+		}
+
+		@Override
+		public String getJobType() {
+			return type;
+		}
+
+		@Override
+		public String getJobStatusType() {
+			return "TEST_JOB_STATUS";
+		}
+
+		@Override
+		public String getJobExceptionMessageType() {
+			return "TEST_JOB_EXCEPTION";
+		}
+
+		@Override
+		public void reportException(final Exception ex) {
+		}
+
+		@Override
+		public Map<String, Object> getStatusData(final JobStatusMessageSubtype subtype) {
+			return new LinkedHashMap<>();
+		}
+
+		@Override
+		public Map<String, Object> getJobInfo() {
+			return new LinkedHashMap<>();
+		}
+
+		@Override
+		protected void reportStatus(final JobStatusMessageSubtype subtype) {
+			// no websocket clients
+		}
+	}
+}
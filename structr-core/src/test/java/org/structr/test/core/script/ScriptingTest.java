@@ -51,7 +51,9 @@ import org.structr.core.entity.SchemaRelationshipNode;
 import org.structr.core.entity.SuperUser;
 import org.structr.core.function.DateFormatFunction;
 import org.structr.core.function.FindFunction;
+import org.structr.core.function.Functions;
 import org.structr.core.function.NumberFormatFunction;
+import org.structr.core.function.ParseResult;
 import org.structr.core.function.RoundFunction;
 import org.structr.core.graph.NodeAttribute;
 import org.structr.core.graph.NodeInterface;
@@ -61,6 +63,7 @@ import org.structr.core.property.PropertyKey;
 import org.structr.core.property.PropertyMap;
 import org.structr.core.script.ScriptTestHelper;
 import org.structr.core.script.Scripting;
+import org.structr.core.script.Snippet;
 import org.structr.schema.ConfigurationProvider;
 import org.structr.schema.action.ActionContext;
 import org.structr.schema.action.Actions;
@@ -6044,6 +6047,88 @@ public class ScriptingTest extends StructrTest {
 		}
 	}
 
+	@Test
+	public void testCachedExpressionEvaluation() {
+
+		final String expression = "concat(this.name, '-', lower(this.name), '-', if(equal(this.name, 'Group1'), 'first', 'other'))";
+
+		try (final Tx tx = app.tx()) {
+
+			final ActionContext ctx = new ActionContext(securityContext);
+			final Group group1      = app.create(Group.class, "Group1");
+			final Group group2      = app.create(Group.class, "Group2");
+			final int count         = 10000;
+
+			Functions.clearExpressionCache();
+
+			// the cached expression tree must not retain any state of previous evaluations
+			for (int i=0; i<100; i++) {
+
+				assertEquals("Invalid cached expression result", "Group1-group1-first", Functions.evaluate(ctx, group1, new Snippet("test", expression)));
+				assertEquals("Invalid cached expression result", "Group2-group2-other", Functions.evaluate(ctx, group2, new Snippet("test", expression)));
+			}
+
+			final long t0 = System.nanoTime();
+
+			for (int i=0; i<count; i++) {
+				Functions.parse(ctx, group1, new Snippet("test", expression), new ParseResult()).evaluate(ctx, group1);
+			}
+
+			final long t1 = System.nanoTime();
+
+			for (int i=0; i<count; i++) {
+				Functions.evaluate(ctx, group1, new Snippet("test", expression));
+			}
+
+			final long t2 = System.nanoTime();
+
+			logger.info("{} evaluations: {} ms with parsing, {} ms with cached expression", count, (t1 - t0) / 1_000_000, (t2 - t1) / 1_000_000);
+
+			Functions.clearExpressionCache();
+
+			assertEquals("Invalid expression result after cache invalidation", "Group2-group2-other", Functions.evaluate(ctx, group2, new Snippet("test", expression)));
+
+			tx.success();
+
+		} catch (FrameworkException ex) {
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
+
+	@Test
+	public void testPooledContextIsolation() {
+
+		try (final Tx tx = app.tx()) {
+
+			final Principal user1      = createTestNode(Principal.class, "user1");
+			final Principal user2      = createTestNode(Principal.class, "user2");
+			final SecurityContext ctx1 = SecurityContext.getInstance(user1, AccessMode.Backend);
+			final SecurityContext ctx2 = SecurityContext.getInstance(user2, AccessMode.Backend);
+
+			// modify a prototype, define a global and overwrite a built-in global
+			Scripting.evaluate(new ActionContext(ctx1), null, "${{ Array.prototype.leak = 1; globalThis.leakedGlobal = 1; JSON = null; }}", "test");
+
+			assertEquals("Prototype modification of one user must not be visible to another user", "undefined", Scripting.evaluate(new ActionContext(ctx2), null, "${{ typeof [].leak }}", "test"));
+			assertEquals("Global of one user must not be visible to another user",                  "undefined", Scripting.evaluate(new ActionContext(ctx2), null, "${{ typeof leakedGlobal }}", "test"));
+			assertEquals("Overwritten built-in of one user must not be visible to another user",    "function",  Scripting.evaluate(new ActionContext(ctx2), null, "${{ typeof JSON.stringify }}", "test"));
+
+			// contexts are not pooled by default, so prototype modifications do not reach later evaluations of the same user
+			assertEquals("Prototype modification must not be visible to a later evaluation", "undefined", Scripting.evaluate(new ActionContext(ctx1), null, "${{ typeof [].leak }}", "test"));
+
+			// a context that is reused by the same user must be reset
+			assertEquals("Global must be removed before a context is reused",               "undefined", Scripting.evaluate(new ActionContext(ctx1), null, "${{ typeof leakedGlobal }}", "test"));
+			assertEquals("Overwritten built-in must be restored before a context is reused", "function",  Scripting.evaluate(new ActionContext(ctx1), null, "${{ typeof JSON.stringify }}", "test"));
+			assertEquals("Structr binding must refer to the current user",                  "user1",     Scripting.evaluate(new ActionContext(ctx1), null, "${{ $.me.name }}", "test"));
+			assertEquals("Structr binding must refer to the current user",                  "user2",     Scripting.evaluate(new ActionContext(ctx2), null, "${{ $.me.name }}", "test"));
+
+			tx.success();
+
+		} catch (FrameworkException ex) {
+			ex.printStackTrace();
+			fail("Unexpected exception");
+		}
+	}
 
 	// ----- private methods ----
 	private void createTestType(final JsonSchema schema, final String name, final String createSource, final String saveSource, final String comment) {
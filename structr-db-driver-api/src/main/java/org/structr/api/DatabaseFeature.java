@@ -27,5 +27,6 @@ public enum DatabaseFeature {
 	QueryLanguage,
 	LargeStringIndexing,
 	SpatialQueries,
-	AuthenticationRequired
+	AuthenticationRequired,
+	CursorPaging
 }
@@ -20,10 +20,12 @@ package org.structr.api;
 
 import java.util.Map;
 import java.util.Set;
+import org.structr.api.graph.Direction;
 import org.structr.api.graph.GraphProperties;
 import org.structr.api.graph.Identity;
 import org.structr.api.graph.Node;
 import org.structr.api.graph.Relationship;
+import org.structr.api.graph.RelationshipType;
 import org.structr.api.index.Index;
 import org.structr.api.util.CountResult;
 import org.structr.api.util.NodeWithOwnerResult;
@@ -75,6 +77,20 @@ public interface DatabaseService {
 	Iterable<Relationship> getAllRelationships();
 	Iterable<Relationship> getRelationshipsByType(final String type);
 
+	/**
+	 * Loads the relationships with the given direction and type of all
+	 * the given nodes at once, so that subsequent calls to
+	 * Node.getRelationships(direction, type) can be answered without a
+	 * database query per node. Databases that do not need this can
+	 * ignore the call.
+	 *
+	 * @param nodes the nodes
+	 * @param direction the direction
+	 * @param relationshipType the relationship type or null for all types
+	 */
+	default void prefetchRelationships(final Iterable<Node> nodes, final Direction direction, final RelationshipType relationshipType) {
+	}
+
 	GraphProperties getGlobalProperties();
 
 	String getTenantIdentifier();
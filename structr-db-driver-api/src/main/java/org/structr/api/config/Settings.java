@@ -77,6 +77,7 @@ public class Settings {
 	public static final Setting<String> ChangelogPath            = new StringSetting(generalGroup,             "Paths",       "changelog.path",                        System.getProperty("user.dir").concat(File.separator + "changelog"), "Path to the Structr changelog storage folder");
 	public static final Setting<String> DataExchangePath         = new StringSetting(generalGroup,             "Paths",       "data.exchange.path",                    "exchange" + File.separator, "IMPORTANT: Path is relative to base.path");
 	public static final Setting<String> SnapshotsPath            = new StringSetting(generalGroup,             "Paths",       "snapshot.path",                         "snapshots" + File.separator, "IMPORTANT: Path is relative to base.path");
+	public static final Setting<String> FulltextIndexPath        = new StringSetting(generalGroup,             "Paths",       "fulltext.path",                         System.getProperty("user.dir").concat(File.separator + "fulltext"), "Path to the embedded fulltext index of the text-search module");
 	public static final Setting<String> WebDataPath              = new StringSetting(generalGroup,             "Paths",       "data.webapp.path",                      "webapp-data" + File.separator, "IMPORTANT: Path is relative to base.path");
 	public static final Setting<Boolean> LogSchemaOutput         = new BooleanSetting(generalGroup,            "Logging",     "NodeExtender.log",                      false, "Whether to write dynamically created Java code to the logfile, for debugging purposes.");
 	public static final Setting<Boolean> LogSchemaErrors         = new BooleanSetting(generalGroup,            "Logging",     "NodeExtender.log.errors",               true);
@@ -121,12 +122,21 @@ public class Settings {
 	public static final Setting<String> LifecycleListeners       = new StringSetting(serverGroup,  "hidden",        "httpservice.lifecycle.listeners",      "");
 	public static final Setting<Boolean> GzipCompression         = new BooleanSetting(serverGroup, "HTTP Settings", "httpservice.gzip.enabled",             true,  "Use GZIP compression for HTTP transfers");
 	public static final Setting<Boolean> Async                   = new BooleanSetting(serverGroup, "HTTP Settings", "httpservice.async",                    true,  "Whether the HttpServices uses asynchronous request handling. Disable this option if you encounter problems with HTTP responses.");
+	public static final Setting<Integer> AsyncRenderThreads      = new IntegerSetting(serverGroup, "HTTP Settings", "httpservice.async.render.threads",     Runtime.getRuntime().availableProcessors() * 2, "Number of threads that render pages for asynchronous requests");
+	public static final Setting<Integer> AsyncRenderQueueSize    = new IntegerSetting(serverGroup, "HTTP Settings", "httpservice.async.render.queuesize",   100,   "Maximum number of asynchronous page requests that wait for a render thread. Requests beyond this limit are answered with 503 Service Unavailable.");
+	public static final Setting<Integer> AsyncOutputChunkSize    = new IntegerSetting(serverGroup, "HTTP Settings", "httpservice.async.output.chunksize",   8192,  "Size in bytes of the chunks in which asynchronously rendered pages are sent to the client");
+	public static final Setting<Integer> AsyncOutputMaxChunks    = new IntegerSetting(serverGroup, "HTTP Settings", "httpservice.async.output.maxchunks",   16,    "Maximum number of chunks that are buffered per response. Rendering pauses until the client has received the buffered output.");
+	public static final Setting<Integer> AsyncOutputTimeout      = new IntegerSetting(serverGroup, "HTTP Settings", "httpservice.async.output.timeout",     30,    "Maximum time in seconds that the rendering of a page waits for the client to receive buffered output. The request is aborted when the timeout elapses.");
 	public static final Setting<Boolean> HttpBasicAuthEnabled    = new BooleanSetting(serverGroup, "HTTP Settings", "httpservice.httpbasicauth.enabled",    false, "Enables HTTP Basic Auth support for pages and files");
 	public static final Setting<Boolean> JsonIndentation         = new BooleanSetting(serverGroup, "HTTP Settings", "json.indentation",                     true,  "Whether JSON output should be indented (beautified) or compacted");
 	public static final Setting<Boolean> HtmlIndentation         = new BooleanSetting(serverGroup, "HTTP Settings", "html.indentation",                     true,  "Whether the page source should be indented (beautified) or compacted. Note: Does not work for template/content nodes which contain raw HTML");
+	public static final Setting<Boolean> HtmlRenderCacheEnabled  = new BooleanSetting(serverGroup, "HTTP Settings", "html.rendercache.enabled",             false, "Whether the rendered output of pages and shared components is cached. Nodes with the dontCache flag and their ancestors are never cached.");
+	public static final Setting<Integer> HtmlRenderCacheSize     = new IntegerSetting(serverGroup, "HTTP Settings", "html.rendercache.size",                10000, "Maximum number of rendered pages and shared components that are kept in the render cache");
+	public static final Setting<String> HtmlRenderCacheHeaders   = new StringSetting(serverGroup,  "HTTP Settings", "html.rendercache.headers",             "Accept,Accept-Language,User-Agent,Referer", "Comma-separated list of request headers whose values are part of the render cache key, in addition to the session, the cookies and the principal");
 	public static final Setting<Boolean> WsIndentation           = new BooleanSetting(serverGroup, "HTTP Settings", "ws.indentation",                       false, "Prettyprints websocket responses if set to true.");
 	public static final Setting<Integer> SessionTimeout          = new IntegerSetting(serverGroup, "HTTP Settings", "application.session.timeout",          1800,  "The session timeout for HTTP sessions. Unit is seconds. Default is 1800.");
 	public static final Setting<Integer> MaxSessionsPerUser      = new IntegerSetting(serverGroup, "HTTP Settings", "application.session.max.number",       -1,    "The maximum number of active sessions per user. Default is -1 (unlimited).");
+	public static final Setting<Integer> SessionIndexSize        = new IntegerSetting(serverGroup, "HTTP Settings", "application.session.index.size",       100000, "Maximum number of session ids that are mapped to their user in memory. Session ids that are not in the index are looked up in the database.");
 	public static final Setting<Boolean> ClearSessionsOnStartup  = new BooleanSetting(serverGroup, "HTTP Settings", "application.session.clear.onstartup",  false, "Clear all sessions on startup if set to true.");
 	public static final Setting<Boolean> ClearSessionsOnShutdown = new BooleanSetting(serverGroup, "HTTP Settings", "application.session.clear.onshutdown", false, "Clear all sessions on shutdown if set to true.");
 
@@ -169,10 +179,15 @@ public class Settings {
 	public static final Setting<Boolean> SyncDebugging               = new BooleanSetting(databaseGroup, "Sync debugging",          "sync.debug",                       false);
 	public static final Setting<Integer> ResultCountSoftLimit        = new IntegerSetting(databaseGroup, "Soft result count limit", "database.result.softlimit",        10_000, "Soft result count limit for a single query (can be overridden by pageSize)");
 	public static final Setting<Integer> FetchSize                   = new IntegerSetting(databaseGroup, "Result fetch size",       "database.result.fetchsize",        100_000, "Number of database records to fetch per batch when fetching large results");
+	public static final Setting<Integer> ResultQueueSize             = new IntegerSetting(databaseGroup, "Result queue size",       "database.result.queuesize",        10_000, "Maximum number of database records that are buffered while a result is streamed. Fetching pauses when the buffer is full and resumes when the records have been consumed.");
+	public static final Setting<String> MemoryStoragePath            = new StringSetting(databaseGroup,  "Memory Database",         "database.memory.storage.path",     "", "Directory for the write-ahead log and snapshots of the in-memory database. Persistence is disabled if this is empty.");
+	public static final Setting<Boolean> MemoryStorageSync           = new BooleanSetting(databaseGroup, "Memory Database",         "database.memory.storage.sync",     true, "Forces the write-ahead log of the in-memory database to disk before a commit returns. Concurrent commits share a single sync.");
+	public static final Setting<Integer> MemorySnapshotThreshold     = new IntegerSetting(databaseGroup, "Memory Database",         "database.memory.snapshot.threshold", 64, "Size of the write-ahead log of the in-memory database (in MB) that triggers a new snapshot");
 
 	// Neo4j specific settings
 	public static final Setting<String> Neo4jDefaultUsername         = new StringSetting(databaseGroup,  "hidden",                  "database.neo4j.default.username",   "neo4j");
 	public static final Setting<String> Neo4jDefaultPassword         = new StringSetting(databaseGroup,  "hidden",                  "database.neo4j.default.password",   "neo4j");
+	public static final Setting<Boolean> Neo4jWriteBehind            = new BooleanSetting(databaseGroup, "Neo4j",                   "database.neo4j.writebehind",        true, "Collects property and label changes of a transaction and sends them to Neo4j in batches before the next query and on commit, instead of one statement per change");
 
 	// application settings
 	public static final Setting<Boolean> ChangelogEnabled            = new BooleanSetting(applicationGroup, "Changelog",    "application.changelog.enabled",                   false, "Turns on logging of changes to nodes and relationships");
@@ -186,6 +201,14 @@ public class Settings {
 	public static final Setting<Integer> IndexingLimit               = new IntegerSetting(applicationGroup, "Filesystem",   "application.filesystem.indexing.limit",           50000, "Maximum number of words to be indexed per file.");
 	public static final Setting<Integer> IndexingMinLength           = new IntegerSetting(applicationGroup, "Filesystem",   "application.filesystem.indexing.minlength",       3,     "Minimum length of words to be indexed");
 	public static final Setting<Integer> IndexingMaxLength           = new IntegerSetting(applicationGroup, "Filesystem",   "application.filesystem.indexing.maxlength",       30,    "Maximum length of words to be indexed");
+	public static final Setting<Boolean> IndexingEmbeddedIndex       = new BooleanSetting(applicationGroup, "Filesystem",   "application.filesystem.indexing.embedded",        true,  "Whether the text-search module maintains an embedded inverted index that is used for ranked fulltext queries on indexedWords");
+	public static final Setting<Boolean> IndexingWordNodes           = new BooleanSetting(applicationGroup, "Filesystem",   "application.filesystem.indexing.wordnodes",       true,  "Whether the most frequent words of each indexed file are also stored as IndexedWord nodes");
+	public static final Setting<Integer> IndexingMergeFactor         = new IntegerSetting(applicationGroup, "Filesystem",   "application.filesystem.indexing.mergefactor",     10,    "Number of segments of similar size in the embedded fulltext index that are merged into a single segment");
+	public static final Setting<Integer> IndexingFlushSize           = new IntegerSetting(applicationGroup, "Filesystem",   "application.filesystem.indexing.flushsize",       1000,  "Number of buffered updates of the embedded fulltext index after which they are written to a new segment");
+	public static final Setting<Integer> IndexingFlushInterval       = new IntegerSetting(applicationGroup, "Filesystem",   "application.filesystem.indexing.flushinterval",   1000,  "Time (milliseconds) after which buffered updates of the embedded fulltext index are written to a new segment and become visible to queries");
+	public static final Setting<Integer> IndexingThreads             = new IntegerSetting(applicationGroup, "Filesystem",   "application.filesystem.indexing.threads",         Math.max(1, Runtime.getRuntime().availableProcessors() / 2), "Number of threads that extract and tokenize the content of files for the fulltext index");
+	public static final Setting<Integer> IndexingBatchSize           = new IntegerSetting(applicationGroup, "Filesystem",   "application.filesystem.indexing.batchsize",       50,    "Maximum number of fulltext indexing results that are stored in a single transaction");
+	public static final Setting<Integer> IndexingTimeout             = new IntegerSetting(applicationGroup, "Filesystem",   "application.filesystem.indexing.timeout",         60,    "Time (seconds) after which the content extraction of a single file is aborted");
 	public static final Setting<Boolean> FollowSymlinks              = new BooleanSetting(applicationGroup, "Filesystem",   "application.filesystem.mount.followsymlinks",     true);
 	public static final Setting<String> DefaultUploadFolder          = new StringSetting(applicationGroup,  "Filesystem",   "application.uploads.folder",                      "", "The default path for files uploaded via the UploadServlet (available from Structr 2.1+)");
 
@@ -216,12 +239,23 @@ public class Settings {
 	public static final Setting<Integer> HttpSocketTimeout            = new IntegerSetting(applicationGroup, "Outgoing Connection Timeouts",   "application.httphelper.timeouts.socket",             600,    "Applies when making outgoing connections. Defines the socket timeout in <b>seconds</b>, which is the timeout for waiting for data or, put differently, a maximum period inactivity between two consecutive data packets. A timeout value of zero is interpreted as an infinite timeout.");
 	public static final Setting<String>  HttpUserAgent                = new StringSetting(applicationGroup,  "Outgoing Connection User Agent", "application.httphelper.useragent",         "curl/7.35.0",    "Used as user agent when making outgoing connections");
 
+	public static final Setting<Integer> JobsMaxConcurrent        = new IntegerSetting(applicationGroup, "Scheduled Jobs", "application.jobs.maxconcurrent",            4,     "Maximum number of scheduled jobs (imports and scripts) that run at the same time");
+	public static final Setting<Integer> JobsMaxConcurrentPerType = new IntegerSetting(applicationGroup, "Scheduled Jobs", "application.jobs.maxconcurrent.pertype",    2,     "Maximum number of scheduled jobs of the same type (e.g. CSV, XML, SCRIPT) that run at the same time");
+	public static final Setting<Integer> JobsMaxConcurrentPerUser = new IntegerSetting(applicationGroup, "Scheduled Jobs", "application.jobs.maxconcurrent.peruser",    2,     "Maximum number of scheduled jobs of the same user that run at the same time");
+	public static final Setting<Integer> JobsWritePermits         = new IntegerSetting(applicationGroup, "Scheduled Jobs", "application.jobs.writepermits",             2,     "Number of import chunks that are written to the database at the same time. Running imports take turns in the order in which they requested a permit.");
+
 	public static final Setting<Boolean> SchemaAutoMigration      = new BooleanSetting(applicationGroup, "Schema",       "application.schema.automigration",            false, "Enable automatic migration of schema information between versions (if possible -- may delete schema nodes)");
 	public static final Setting<Boolean> AllowUnknownPropertyKeys = new BooleanSetting(applicationGroup, "Schema",       "application.schema.allowunknownkeys",         false, "Enables get() and set() built-in functions to use property keys that are not defined in the schema.");
 	public static final Setting<Boolean> logMissingLocalizations  = new BooleanSetting(applicationGroup, "Localization", "application.localization.logmissing",         false, "Turns on logging for requested but non-existing localizations.");
 	public static final Setting<String> SchemaDeploymentFormat    = new ChoiceSetting(applicationGroup,  "Deployment",   "deployment.schema.format",                    "tree", Settings.getStringsAsSet("file", "tree"), "Configures how the schema is exported in a deployment export. <code>file</code> exports the schema as a single file. <code>tree</code> exports the schema as a tree where methods/function properties are written to single files in a tree structure.");
 	public static final Setting<String> GlobalSecret              = new StringSetting(applicationGroup,  "Encryption",   "application.encryption.secret",               null,   "Sets the global secret for encrypted string properties. Using this configuration setting is one of several possible ways to set the secret, and it is not recommended for production environments because the key can easily be read by an attacker with scripting access.");
 
+	public static final Setting<Integer> ExpressionCacheSize      = new IntegerSetting(applicationGroup, "Scripting",    "application.scripting.expressioncache.size",  10000, "Maximum number of parsed StructrScript expressions that are kept in memory");
+	public static final Setting<Integer> ScriptSourceCacheSize    = new IntegerSetting(applicationGroup, "Scripting",    "application.scripting.js.sourcecache.size",   10000, "Maximum number of JavaScript sources that are kept in memory so their parsed representation can be reused");
+	public static final Setting<Integer> ScriptContextPoolSize    = new IntegerSetting(applicationGroup, "Scripting",    "application.scripting.js.contextpool.size",   0,     "Maximum number of idle JavaScript contexts that are kept per thread for reuse by the same user. Disabled by default: global members are reset when a context is reused, but changes that scripts make to built-in objects (e.g. their prototypes) remain visible to later scripts of the same user. Set to 0 to create a new context for every script evaluation.");
+	public static final Setting<Integer> CommitLockTimeout        = new IntegerSetting(applicationGroup, "Transactions", "application.transactions.locktimeout",        60,    "Maximum time (in seconds) a transaction waits for the locks that protect the validation of unique properties before it fails");
+	public static final Setting<Integer> CommitLockStripes        = new IntegerSetting(applicationGroup, "Transactions", "application.transactions.lockstripes",        1024,  "Number of locks that the synchronization keys of unique properties are distributed over (rounded up to the next power of two, requires a restart)");
+
 	public static final Setting<Boolean> CallbacksOnLogout      = new BooleanSetting(applicationGroup, "Login/Logout behavior",   "callbacks.logout.onsave",       false, "Setting this to true enables the execution of the User.onSave method when a user logs out. Disabled by default because the global login handler onStructrLogout would be the right place for such functionality.");
 	public static final Setting<Boolean> CallbacksOnLogin       = new BooleanSetting(applicationGroup, "Login/Logout behavior",   "callbacks.login.onsave",      false, "Setting this to true enables the execution of the User.onSave method for login actions. This will also trigger for failed login attempts and for two-factor authentication intermediate steps. Disabled by default because the global login handler onStructrLogin would be the right place for such functionality.");
 
@@ -238,6 +272,7 @@ public class Settings {
 	// advanced settings
 	public static final Setting<Boolean> JsonRedundancyReduction      = new BooleanSetting(advancedGroup, "JSON",   "json.redundancyreduction",       true);
 	public static final Setting<Integer> JsonParallelizationThreshold = new IntegerSetting(advancedGroup, "JSON",   "json.parallelization.threshold", 100, "Collection size threshold for multi-threaded JSON generation");
+	public static final Setting<Integer> JsonParallelizationThreads   = new IntegerSetting(advancedGroup, "JSON",   "json.parallelization.threads",   Runtime.getRuntime().availableProcessors(), "Number of threads that are shared by all requests for multi-threaded JSON generation");
 	public static final Setting<Boolean> JsonLenient                  = new BooleanSetting(advancedGroup, "JSON",   "json.lenient",                   false, "Whether to use lenient serialization, e.g. allow to serialize NaN, -Infinity, Infinity instead of just returning null. Note: as long as Javascript doesn’t support NaN etc., most of the UI will be broken");
 	public static final Setting<Boolean> ForceArrays                  = new BooleanSetting(advancedGroup, "JSON",   "json.output.forcearrays",        false);
 
@@ -297,6 +332,8 @@ public class Settings {
 	public static final Setting<String> WebsocketAuthenticator     = new StringSetting(servletsGroup,  "hidden", "websocketservlet.authenticator",     "org.structr.web.auth.UiAuthenticator", "FQCN of authenticator class to use for WebSockets. Do not change unless you know what you are doing.");
 	public static final Setting<String> WebsocketDefaultView       = new StringSetting(servletsGroup,  "hidden", "websocketservlet.defaultview",       "public", "Unused");
 	public static final Setting<Integer> WebsocketOutputDepth      = new IntegerSetting(servletsGroup, "WebSocketServlet", "websocketservlet.outputdepth",       3, "Maximum nesting depth of JSON output");
+	public static final Setting<Integer> WebsocketBroadcastDelay   = new IntegerSetting(servletsGroup, "WebSocketServlet", "websocketservlet.broadcast.delay",   20, "Time in milliseconds that broadcast messages are collected, so that multiple updates of the same object are sent only once");
+	public static final Setting<Integer> WebsocketClientQueueSize  = new IntegerSetting(servletsGroup, "WebSocketServlet", "websocketservlet.client.queuesize",  1000, "Maximum number of broadcast messages that are queued for a single client. Queued updates of the same object are merged, a client that exceeds the limit is disconnected.");
 	public static final Setting<String> WebsocketResourceProvider  = new StringSetting(servletsGroup,  "hidden", "websocketservlet.resourceprovider",  "org.structr.web.common.UiResourceProvider", "FQCN of resource provider class to use with WebSockets. Do not change unless you know what you are doing.");
 	public static final Setting<Boolean> WebsocketUserAutologin    = new BooleanSetting(servletsGroup, "hidden", "websocketservlet.user.autologin",    false, "Unused");
 	public static final Setting<Boolean> WebsocketUserAutocreate   = new BooleanSetting(servletsGroup, "hidden", "websocketservlet.user.autocreate",   false, "Unused");
@@ -414,6 +451,7 @@ public class Settings {
 	public static final Setting<String> SuperUserName                  = new StringSetting(securityGroup,     "Superuser",            "superuser.username",                    "superadmin", "Name of the superuser");
 	public static final Setting<String> SuperUserPassword              = new PasswordSetting(securityGroup,   "Superuser",            "superuser.password",                    null, "Password of the superuser");
 	public static final Setting<Integer> ResolutionDepth               = new IntegerSetting(applicationGroup, "Application Security", "application.security.resolution.depth", 5);
+	public static final Setting<Integer> PermissionCacheSize           = new IntegerSetting(applicationGroup, "Application Security", "application.security.permissioncache.size", 100000, "Maximum number of cached permission resolution results");
 	public static final Setting<String> OwnerlessNodes                 = new StringSetting(applicationGroup,  "Application Security", "application.security.ownerless.nodes",  "read", "The permission level for users on nodes without an owner. One or more of: <code>read, write, delete, accessControl</code>");
 	public static final Setting<Boolean> XMLParserSecurity             = new BooleanSetting(applicationGroup, "Application Security", "application.xml.parser.security", true, "Enables various security measures for XML parsing to prevent exploits.");
 
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.api.search;
+
+/**
+ * A single result of a {@link FulltextIndex} query.
+ */
+public class FulltextHit {
+
+	private String id      = null;
+	private double score   = 0.0;
+	private int[] offsets  = null;
+
+	public FulltextHit(final String id, final double score, final int[] offsets) {
+
+		this.id      = id;
+		this.score   = score;
+		this.offsets = offsets;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	/**
+	 * Returns the character offsets of the matching words in the extracted
+	 * text of the document, in ascending order. They can be used to build
+	 * snippets without searching the text again.
+	 *
+	 * @return the offsets
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+}
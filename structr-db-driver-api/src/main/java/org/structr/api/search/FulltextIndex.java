@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.api.search;
+
+import java.util.List;
+
+/**
+ * A ranked fulltext index that is maintained outside of the graph
+ * database, e.g. by the text-search module. Fulltext queries can
+ * use it to find documents without scanning the index of the
+ * database.
+ */
+public interface FulltextIndex {
+
+	/**
+	 * Returns the documents that contain at least one of the words in
+	 * the given query string, ordered by descending relevance.
+	 *
+	 * @param queryString the words to search for, separated by whitespace
+	 * @param partial whether a query word also matches all indexed words that contain it
+	 * @param limit the maximum number of hits, or a value &lt;= 0 for all hits
+	 *
+	 * @return the hits, best match first
+	 */
+	List<FulltextHit> search(final String queryString, final boolean partial, final int limit);
+
+	long getDocumentCount();
+}
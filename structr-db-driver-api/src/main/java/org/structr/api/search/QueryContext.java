@@ -32,6 +32,8 @@ public class QueryContext {
 	private int limit                  = -1;
 	private int skipped                = 0;
 	private boolean isPing             = false;
+	private String cursor              = null;
+	private String nextCursor          = null;
 
 	public QueryContext() {
 	}
@@ -103,6 +105,36 @@ public class QueryContext {
 		return skipped;
 	}
 
+	/**
+	 * Sets a cursor that was returned by a previous query. A database
+	 * that supports cursors continues the result after the position
+	 * encoded in the cursor instead of skipping to the requested page.
+	 *
+	 * @param cursor the cursor
+	 */
+	public void setCursor(final String cursor) {
+		this.cursor = cursor;
+	}
+
+	public String getCursor() {
+		return cursor;
+	}
+
+	public void setNextCursor(final String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * Returns the cursor that can be used to continue after the last
+	 * element of the requested page, or null if the database does not
+	 * support cursors for this query or the page was not fully read.
+	 *
+	 * @return the cursor or null
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
 	public void setIsSuperuser(final boolean isSuperuser) {
 		this.isSuperuser = isSuperuser;
 	}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.api.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.NotificationEmitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Central memory governor for long-lived {@link FixedSizeCache} instances.
+ *
+ * The governor listens for garbage collection notifications and examines
+ * the usage of the old generation after each collection. If the usage
+ * exceeds the high watermark, the size limits of the registered caches are
+ * lowered step by step, proportionally to their estimated heap size, so that
+ * only the coldest entries are evicted. If the usage falls below the low
+ * watermark, the limits are raised again until they reach their configured
+ * values. The most recent decisions are available via {@link #getStatus()}.
+ */
+public class CacheGovernor {
+
+	private static final Logger logger                             = LoggerFactory.getLogger(CacheGovernor.class);
+	private static final String GC_NOTIFICATION                    = "com.sun.management.gc.notification";
+	private static final CacheGovernor instance                    = new CacheGovernor();
+	private static final double HIGH_WATERMARK                     = 90.0;
+	private static final double LOW_WATERMARK                      = 70.0;
+	private static final double MAX_SHRINK_FRACTION                = 0.25;
+	private static final double GROW_FRACTION                      = 0.1;
+	private static final int MIN_CACHE_SIZE                        = 1000;
+	private static final int MAX_DECISIONS                         = 20;
+	private final List<WeakReference<FixedSizeCache<?, ?>>> caches = new CopyOnWriteArrayList<>();
+	private final LinkedList<Map<String, Object>> decisions        = new LinkedList<>();
+	private MemoryPoolMXBean bean                                  = null;
+	private volatile double usage                                  = 0.0;
+	private long lastUsed                                          = -1L;
+	private long shrinkCount                                       = 0L;
+	private long growCount                                         = 0L;
+	private boolean enabled                                        = false;
+
+	private CacheGovernor() {
+
+		this.bean = getOldGenerationMXBean();
+
+		if (bean != null) {
+
+			for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+
+				// only collectors that process the old generation can change its collection usage
+				if (collector instanceof NotificationEmitter && Arrays.asList(collector.getMemoryPoolNames()).contains(bean.getName())) {
+
+					((NotificationEmitter)collector).addNotificationListener((notification, handback) -> onCollection(), notification -> GC_NOTIFICATION.equals(notification.getType()), null);
+
+					enabled = true;
+				}
+			}
+		}
+
+		if (!enabled) {
+
+			logger.warn("Memory management info not available, automatic cache size limitation is DISABLED.");
+		}
+	}
+
+	public static CacheGovernor getInstance() {
+		return instance;
+	}
+
+	public void register(final FixedSizeCache<?, ?> cache) {
+
+		// caches are re-created when the database service restarts, so keep only weak references
+		caches.removeIf(ref -> ref.get() == null);
+		caches.add(new WeakReference<>(cache));
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public synchronized Map<String, Object> getStatus() {
+
+		final Map<String, Object> status          = new LinkedHashMap<>();
+		final List<Map<String, Object>> cacheInfo = new LinkedList<>();
+		long estimatedBytes                       = 0L;
+
+		for (final FixedSizeCache<?, ?> cache : getCaches()) {
+
+			final Map<String, Integer> stats = cache.getCacheInfo();
+			final Map<String, Object> info   = new LinkedHashMap<>();
+			final long bytes                 = cache.getEstimatedBytes();
+
+			info.put("name",           cache.getName());
+			info.put("configured",     cache.getConfiguredSize());
+			info.put("limit",          cache.getMaxSize());
+			info.put("size",           cache.size());
+			info.put("hits",           stats.get("hits"));
+			info.put("misses",         stats.get("misses"));
+			info.put("estimatedBytes", bytes);
+
+			cacheInfo.add(info);
+
+			estimatedBytes += bytes;
+		}
+
+		status.put("enabled",        enabled);
+		status.put("usage",          usage);
+		status.put("underPressure",  usage > HIGH_WATERMARK);
+		status.put("shrinkCount",    shrinkCount);
+		status.put("growCount",      growCount);
+		status.put("estimatedBytes", estimatedBytes);
+		status.put("caches",         cacheInfo);
+		status.put("decisions",      new LinkedList<>(decisions));
+
+		return status;
+	}
+
+	/**
+	 * Adjusts the size limits of all registered caches according to the
+	 * given usage of the old generation.
+	 *
+	 * @param used the number of bytes used after the last collection
+	 * @param max the maximum number of bytes
+	 */
+	synchronized void update(final long used, final long max) {
+
+		if (max <= 0L) {
+			return;
+		}
+
+		this.usage = (used * 100.0) / max;
+
+		if (usage > HIGH_WATERMARK) {
+
+			shrink(used - (long)(max * (HIGH_WATERMARK + LOW_WATERMARK) / 200.0));
+
+		} else if (usage < LOW_WATERMARK) {
+
+			grow();
+		}
+	}
+
+	// ----- private methods -----
+	private void onCollection() {
+
+		final MemoryUsage collectionUsage = bean.getCollectionUsage();
+		if (collectionUsage != null) {
+
+			final long used = collectionUsage.getUsed();
+
+			// young collections are reported as well, but they don't change the collection usage of the old generation
+			synchronized (this) {
+
+				if (used == lastUsed) {
+					return;
+				}
+
+				lastUsed = used;
+			}
+
+			update(used, collectionUsage.getMax() > 0 ? collectionUsage.getMax() : Runtime.getRuntime().maxMemory());
+		}
+	}
+
+	private void shrink(final long bytesToRelease) {
+
+		final List<FixedSizeCache<?, ?>> list = getCaches();
+		long totalBytes                       = 0L;
+
+		for (final FixedSizeCache<?, ?> cache : list) {
+			totalBytes += cache.getEstimatedBytes();
+		}
+
+		if (totalBytes == 0L) {
+			return;
+		}
+
+		for (final FixedSizeCache<?, ?> cache : list) {
+
+			final long bytes = cache.getEstimatedBytes();
+			final int limit  = cache.getMaxSize();
+			final int min    = Math.min(cache.getConfiguredSize(), MIN_CACHE_SIZE);
+
+			if (bytes > 0L && limit > min) {
+
+				// each cache releases its share of the memory, but only a fraction of its entries per collection
+				final long share   = (long)(((double)bytes / totalBytes) * bytesToRelease);
+				final long entries = Math.max(1L, share / cache.getEntrySizeEstimate());
+				final long step    = Math.min(entries, (long)Math.ceil(limit * MAX_SHRINK_FRACTION));
+				final int newLimit = (int)Math.max(min, limit - step);
+				final long used    = bytes / cache.getEntrySizeEstimate();
+
+				// a lower limit only releases memory if the cache holds more than the new limit
+				if (newLimit < limit && used > newLimit) {
+
+					cache.resize(newLimit);
+					shrinkCount++;
+
+					addDecision("shrink", cache, limit, newLimit);
+
+					if (newLimit == min) {
+
+						logger.warn("JVM is running low on memory and {} size is at its minimum of {}. Please increase JVM heap size.", cache.getName(), newLimit);
+					}
+				}
+			}
+		}
+	}
+
+	private void grow() {
+
+		for (final FixedSizeCache<?, ?> cache : getCaches()) {
+
+			final int configured = cache.getConfiguredSize();
+			final int limit      = cache.getMaxSize();
+
+			if (limit < configured) {
+
+				final int newLimit = (int)Math.min(configured, limit + Math.ceil(configured * GROW_FRACTION));
+
+				cache.resize(newLimit);
+				growCount++;
+
+				addDecision("grow", cache, limit, newLimit);
+			}
+		}
+	}
+
+	private void addDecision(final String action, final FixedSizeCache<?, ?> cache, final int oldLimit, final int newLimit) {
+
+		final Map<String, Object> decision = new LinkedHashMap<>();
+
+		decision.put("time",   System.currentTimeMillis());
+		decision.put("action", action);
+		decision.put("cache",  cache.getName());
+		decision.put("usage",  usage);
+		decision.put("from",   oldLimit);
+		decision.put("to",     newLimit);
+
+		decisions.add(decision);
+
+		if (decisions.size() > MAX_DECISIONS) {
+			decisions.removeFirst();
+		}
+
+		logger.info("Old generation usage is {}%, {} size limit of {} from {} to {}", Math.round(usage), "shrink".equals(action) ? "lowering" : "raising", cache.getName(), oldLimit, newLimit);
+	}
+
+	private List<FixedSizeCache<?, ?>> getCaches() {
+
+		final List<FixedSizeCache<?, ?>> list = new LinkedList<>();
+
+		for (final Iterator<WeakReference<FixedSizeCache<?, ?>>> it = caches.iterator(); it.hasNext();) {
+
+			final FixedSizeCache<?, ?> cache = it.next().get();
+			if (cache != null) {
+
+				list.add(cache);
+			}
+		}
+
+		return list;
+	}
+
+	private MemoryPoolMXBean getOldGenerationMXBean() {
+
+		final List<MemoryPoolMXBean> beans = ManagementFactory.getMemoryPoolMXBeans();
+		for (final MemoryPoolMXBean bean : beans) {
+
+			final String name = bean.getName();
+
+			if (name.endsWith(" Old Gen") || name.equals("Tenured Gen")) {
+				return bean;
+			}
+		}
+
+		return null;
+	}
+}
@@ -18,6 +18,7 @@
  */
 package org.structr.api.util;
 
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -87,4 +88,8 @@ public class ChangeAwareMap {
 	public Set<Entry<String, Object>> entrySet() {
 		return data.entrySet();
 	}
+
+	public Map<String, Object> asMap() {
+		return Collections.unmodifiableMap(data);
+	}
 }
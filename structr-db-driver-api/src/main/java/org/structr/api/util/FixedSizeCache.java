@@ -18,152 +18,578 @@
  */
 package org.structr.api.util;
 
-import java.lang.management.ManagementFactory;
-import java.lang.management.MemoryPoolMXBean;
-import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.collections4.map.LRUMap;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntBiFunction;
 
 /**
- * A map-like storage structure with a fixed maximum size that
- * removes the least recently used entry when the insertion of
- * a new entry causes the map to exceed the specified maximum
- * size.
+ * A map-like storage structure with a fixed maximum size that removes
+ * entries when the insertion of a new entry causes the map to exceed the
+ * specified maximum size (or weight).
+ *
+ * Lookups are served from a ConcurrentHashMap without locking. The eviction
+ * order is maintained in independently locked segments, each consisting of a
+ * small admission window and a main area in LRU order. An entry that leaves
+ * the window replaces the least recently used entry of the main area only if
+ * it was accessed at least as often, according to a shared frequency sketch
+ * (similar to W-TinyLFU). Access order updates of lookups are skipped if the
+ * segment is busy, so readers never wait for each other.
+ *
+ * Long-lived caches can opt in to be managed by the {@link CacheGovernor},
+ * which lowers their size limits gradually when the JVM is running low on
+ * memory and raises them again when the memory pressure subsides. Short-lived
+ * caches should not be governed, registration is not free.
+ *
+ * Null keys are never cached: put() ignores them and lookups of a null key
+ * are counted as misses.
  *
  * @param <K>
  * @param <V>
  */
 public class FixedSizeCache<K, V> {
 
-	private static final Logger logger  = LoggerFactory.getLogger(FixedSizeCache.class);
-	private long lastUpdate             = System.currentTimeMillis();
-	private MemoryPoolMXBean bean       = null;
-	private LRUMap<K, V> cache          = null;
-	private String name                 = null;
+	private static final int DEFAULT_ENTRY_SIZE_ESTIMATE = 512;
+	private static final int MIN_ENTRIES_PER_SEGMENT     = 1024;
+	private final ConcurrentHashMap<K, Entry<K, V>> data = new ConcurrentHashMap<>();
+	private final LongAdder evictions                    = new LongAdder();
+	private final LongAdder misses                       = new LongAdder();
+	private final LongAdder hits                         = new LongAdder();
+	private volatile int entrySizeEstimate               = DEFAULT_ENTRY_SIZE_ESTIMATE;
+	private ToIntBiFunction<K, V> weigher                = null;
+	private FrequencySketch sketch                       = null;
+	private Segment<K, V>[] segments                     = null;
+	private volatile int maxSize                         = 0;
+	private int configuredSize                           = 0;
+	private String name                                  = null;
 
 	public FixedSizeCache(final String name, final int maxSize) {
+		this(name, maxSize, null, false);
+	}
+
+	/**
+	 * Creates a cache with the given maximum number of entries.
+	 *
+	 * @param name the name of the cache
+	 * @param maxSize the maximum number of entries
+	 * @param governed whether the size limit is managed by the {@link CacheGovernor}
+	 */
+	public FixedSizeCache(final String name, final int maxSize, final boolean governed) {
+		this(name, maxSize, null, governed);
+	}
+
+	public FixedSizeCache(final String name, final int maxWeight, final ToIntBiFunction<K, V> weigher) {
+		this(name, maxWeight, weigher, false);
+	}
+
+	/**
+	 * Creates a cache whose size is the sum of the weights of its entries,
+	 * as determined by the given weigher.
+	 *
+	 * @param name the name of the cache
+	 * @param maxWeight the maximum total weight
+	 * @param weigher the weigher, or null to count entries
+	 * @param governed whether the size limit is managed by the {@link CacheGovernor}
+	 */
+	public FixedSizeCache(final String name, final int maxWeight, final ToIntBiFunction<K, V> weigher, final boolean governed) {
+
+		final int segmentCount = getSegmentCount(maxWeight);
+
+		this.segments       = new Segment[segmentCount];
+		this.sketch         = new FrequencySketch(maxWeight);
+		this.configuredSize = maxWeight;
+		this.maxSize        = maxWeight;
+		this.weigher        = weigher;
+		this.name           = name;
+
+		for (int i=0; i<segmentCount; i++) {
+			segments[i] = new Segment<>();
+		}
+
+		setSegmentCapacities(maxWeight);
+
+		if (governed) {
+			CacheGovernor.getInstance().register(this);
+		}
+	}
+
+	public void put(final K key, final V value) {
+
+		if (key == null) {
+			return;
+		}
+
+		final Entry<K, V> entry         = new Entry<>(key, value, weigher != null ? Math.max(0, weigher.applyAsInt(key, value)) : 1);
+		final Segment<K, V> segment     = getSegment(key);
+		final List<Entry<K, V>> removed = new ArrayList<>(2);
+
+		sketch.increment(key);
+
+		segment.lock.lock();
+		try {
+
+			final Entry<K, V> existing = data.put(key, entry);
+			if (existing != null) {
+
+				segment.remove(existing);
+			}
+
+			segment.add(entry);
+			segment.evict(this, removed);
+
+		} finally {
+			segment.lock.unlock();
+		}
+
+		// invalidate evicted entries outside of the lock
+		notifyRemoved(removed);
+	}
+
+	public V get(final K key) {
+
+		if (key == null) {
+
+			misses.increment();
+			return null;
+		}
+
+		final Entry<K, V> entry = data.get(key);
+
+		sketch.increment(key);
+
+		if (entry == null) {
+
+			misses.increment();
+			return null;
+		}
+
+		hits.increment();
+
+		// access order is best-effort, don't wait for a busy segment
+		final Segment<K, V> segment = getSegment(key);
+		if (segment.lock.tryLock()) {
+
+			try {
+
+				segment.touch(entry);
+
+			} finally {
+				segment.lock.unlock();
+			}
+		}
 
-		this.cache       = new InvalidatingLRUMap<>(maxSize);
-		this.bean        = getOldGenerationMXBean();
-		this.name        = name;
+		return entry.value;
 	}
 
-	public synchronized void put(final K key, final V value) {
-		cache.put(key, value);
-		checkAvailableMemory();
+	public void removeAll(final Collection<K> keys) {
+
+		for (final K key : keys) {
+			remove(key);
+		}
+	}
+
+	public V remove(final K key) {
+
+		if (key == null) {
+			return null;
+		}
+
+		final Segment<K, V> segment = getSegment(key);
+
+		segment.lock.lock();
+		try {
+
+			final Entry<K, V> entry = data.remove(key);
+			if (entry != null) {
+
+				segment.remove(entry);
+
+				return entry.value;
+			}
+
+		} finally {
+			segment.lock.unlock();
+		}
+
+		return null;
+	}
+
+	public void clear() {
+
+		for (final Segment<K, V> segment : segments) {
+
+			segment.lock.lock();
+			try {
+
+				for (final K key : segment.window.keySet()) {
+					data.remove(key);
+				}
+
+				for (final K key : segment.main.keySet()) {
+					data.remove(key);
+				}
+
+				segment.clear();
+
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+	}
+
+	public int size() {
+		return data.size();
+	}
+
+	public Map<String, Integer> getCacheInfo() {
+
+		return Map.of(
+			"max",        maxSize,
+			"configured", configuredSize,
+			"size",       size(),
+			"hits",       (int)Math.min(Integer.MAX_VALUE, hits.sum()),
+			"misses",     (int)Math.min(Integer.MAX_VALUE, misses.sum()),
+			"evictions",  (int)Math.min(Integer.MAX_VALUE, evictions.sum())
+		);
 	}
 
-	public synchronized V get(final K key) {
-		return cache.get(key);
+	public boolean isEmpty() {
+		return data.isEmpty();
 	}
 
-	public synchronized void removeAll(final Collection<K> keys) {
-		cache.keySet().removeAll(keys);
+	public boolean containsKey(final K key) {
+		return key != null && data.containsKey(key);
 	}
 
-	public synchronized V remove(final K key) {
-		return cache.remove(key);
+	public String getName() {
+		return name;
 	}
 
-	public synchronized void clear() {
-		cache.clear();
+	/**
+	 * Sets the approximate number of bytes an entry (or a weight unit,
+	 * if a weigher is used) occupies on the heap. The estimate is used
+	 * by the {@link CacheGovernor} to distribute memory reductions
+	 * among the registered caches.
+	 *
+	 * @param bytes the estimated size in bytes
+	 */
+	public void setEntrySizeEstimate(final int bytes) {
+		this.entrySizeEstimate = Math.max(1, bytes);
 	}
 
-	public synchronized int size() {
-		return cache.size();
+	public int getEntrySizeEstimate() {
+		return entrySizeEstimate;
 	}
 
-	public synchronized Map<String, Integer> getCacheInfo() {
-		return Map.of("max", cache.maxSize(), "size", size());
+	/**
+	 * Returns the approximate heap size of the cached entries in bytes.
+	 *
+	 * @return the estimated size in bytes
+	 */
+	public long getEstimatedBytes() {
+
+		long weight = 0L;
+
+		// no locking here, the value is only an estimate anyway
+		for (final Segment<K, V> segment : segments) {
+			weight += segment.windowWeight + segment.mainWeight;
+		}
+
+		return weight * entrySizeEstimate;
 	}
 
-	public synchronized boolean isEmpty() {
-		return cache.isEmpty();
+	public int getConfiguredSize() {
+		return configuredSize;
 	}
 
-	public synchronized boolean containsKey(final K key) {
-		return cache.containsKey(key);
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Changes the size limit of this cache, evicting the least
+	 * valuable entries if the cache is larger than the new limit.
+	 *
+	 * @param limit the new size limit
+	 */
+	void resize(final int limit) {
+
+		maxSize = Math.max(1, limit);
+
+		setSegmentCapacities(maxSize);
 	}
 
 	// ----- private methods -----
-	private MemoryPoolMXBean getOldGenerationMXBean() {
+	private Segment<K, V> getSegment(final K key) {
+
+		final int hash = key.hashCode();
+
+		return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+	}
 
-		final List<MemoryPoolMXBean> beans = ManagementFactory.getMemoryPoolMXBeans();
-		for (final MemoryPoolMXBean bean : beans) {
+	private int getSegmentCount(final int maxWeight) {
 
-			if (bean.getName().endsWith(" Old Gen")) {
-				return bean;
+		final int concurrency = Runtime.getRuntime().availableProcessors() * 4;
+		int count             = 1;
+
+		// small caches use a single segment, so they keep an exact eviction order
+		while (count < concurrency && (count * 2) * MIN_ENTRIES_PER_SEGMENT <= maxWeight) {
+			count *= 2;
+		}
+
+		return count;
+	}
+
+	private void setSegmentCapacities(final int maxWeight) {
+
+		final List<Entry<K, V>> removed = new ArrayList<>();
+		final long capacity             = Math.max(1, maxWeight / segments.length);
+
+		for (final Segment<K, V> segment : segments) {
+
+			segment.lock.lock();
+			try {
+
+				// one percent of each segment is used as the admission window
+				segment.windowCapacity = Math.max(1, capacity / 100);
+				segment.mainCapacity   = Math.max(0, capacity - segment.windowCapacity);
+
+				// a reduced capacity evicts the coldest entries of the segment
+				segment.evict(this, removed);
+
+			} finally {
+				segment.lock.unlock();
 			}
 		}
 
-		logger.warn("Memory management info not available, automatic cache size limitation is DISABLED.");
+		notifyRemoved(removed);
+	}
 
-		return null;
+	private void notifyRemoved(final List<Entry<K, V>> removed) {
+
+		for (final Entry<K, V> evicted : removed) {
+
+			if (evicted.value instanceof Cachable) {
+
+				((Cachable)evicted.value).onRemoveFromCache();
+			}
+		}
+	}
+
+	private void evict(final Entry<K, V> entry, final List<Entry<K, V>> removed) {
+
+		if (data.remove(entry.key, entry)) {
+
+			evictions.increment();
+			removed.add(entry);
+		}
 	}
 
-	private void checkAvailableMemory() {
+	// ----- nested classes -----
+	private static class Entry<K, V> {
+
+		private final K key;
+		private final V value;
+		private final int weight;
+		private boolean inMain = false;
+
+		Entry(final K key, final V value, final int weight) {
+
+			this.key    = key;
+			this.value  = value;
+			this.weight = weight;
+		}
+	}
+
+	private static class Segment<K, V> {
+
+		private final LinkedHashMap<K, Entry<K, V>> window = new LinkedHashMap<>(16, 0.75f, true);
+		private final LinkedHashMap<K, Entry<K, V>> main   = new LinkedHashMap<>(16, 0.75f, true);
+		private final ReentrantLock lock                   = new ReentrantLock();
+		private long windowCapacity                        = 0L;
+		private long mainCapacity                          = 0L;
+		private long windowWeight                          = 0L;
+		private long mainWeight                            = 0L;
+
+		void add(final Entry<K, V> entry) {
+
+			window.put(entry.key, entry);
+			windowWeight += entry.weight;
+		}
+
+		void remove(final Entry<K, V> entry) {
+
+			if (entry.inMain) {
+
+				if (main.remove(entry.key, entry)) {
+					mainWeight -= entry.weight;
+				}
+
+			} else if (window.remove(entry.key, entry)) {
+
+				windowWeight -= entry.weight;
+			}
+		}
+
+		void touch(final Entry<K, V> entry) {
+
+			// access-ordered maps move the entry to the end on get()
+			if (entry.inMain) {
 
-		final long now = System.currentTimeMillis();
+				main.get(entry.key);
 
-		if (bean != null && now > lastUpdate + 1000) {
+			} else {
 
-			final MemoryUsage usage = bean.getCollectionUsage();
-			final double maxMemory  = Math.max(1, usage.getMax());
-			final double usedMemory = Math.max(1, usage.getUsed());
-			final double percentage = (usedMemory / maxMemory) * 100.0;
+				window.get(entry.key);
+			}
+		}
+
+		void clear() {
+
+			window.clear();
+			main.clear();
+
+			windowWeight = 0L;
+			mainWeight   = 0L;
+		}
+
+		void evict(final FixedSizeCache<K, V> cache, final List<Entry<K, V>> removed) {
+
+			while (windowWeight > windowCapacity && !window.isEmpty()) {
+
+				final Iterator<Entry<K, V>> it = window.values().iterator();
+				final Entry<K, V> candidate    = it.next();
+
+				it.remove();
+				windowWeight -= candidate.weight;
+
+				// make room in the main area, the candidate must be at least as frequent as each victim
+				while (mainWeight + candidate.weight > mainCapacity && !main.isEmpty()) {
 
-			lastUpdate = now;
+					final Entry<K, V> victim = main.values().iterator().next();
 
-			if (percentage > 98.00) {
+					if (cache.sketch.frequency(candidate.key) < cache.sketch.frequency(victim.key)) {
+						break;
+					}
 
-				int size = cache.maxSize();
+					main.remove(victim.key);
+					mainWeight -= victim.weight;
 
-				size *= 0.5;
-				size /= 10000;
-				size *= 10000;
+					cache.evict(victim, removed);
+				}
 
-				// enforce lower bound for cache size
-				size = Math.max(1000, size);
+				if (mainWeight + candidate.weight <= mainCapacity) {
 
-				if (size == 1000) {
+					candidate.inMain = true;
 
-					logger.warn("JVM is running low on memory and {} size is at its minimum of {}. Please increase JVM heap size.", name, size);
+					main.put(candidate.key, candidate);
+					mainWeight += candidate.weight;
 
 				} else {
 
-					logger.warn("JVM is running low on memory, limiting {} size to {}", name, size);
-					logger.warn("If this happens more than once, please increase JVM heap size or reduce cache sizes.");
+					cache.evict(candidate, removed);
 				}
+			}
+
+			// the main area can exceed its capacity after the cache was resized
+			while (mainWeight > mainCapacity && !main.isEmpty()) {
 
-				cache.clear();
+				final Entry<K, V> victim = main.values().iterator().next();
 
-				// replace current cache instance with limited one (should be ok to do since all methods are synchronized)
-				cache = new InvalidatingLRUMap<>(size);
+				main.remove(victim.key);
+				mainWeight -= victim.weight;
+
+				cache.evict(victim, removed);
 			}
 		}
 	}
 
-	// ----- nested classes -----
-	private static class InvalidatingLRUMap<K, V> extends LRUMap<K, V> {
+	/**
+	 * Approximate access frequencies in a count-min sketch with 4-bit
+	 * counters that are halved periodically, so that old accesses lose
+	 * their weight. Updates are not synchronized, lost increments only
+	 * reduce the accuracy.
+	 */
+	private static class FrequencySketch {
+
+		private static final long[] SEEDS    = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		private long[] table   = null;
+		private int sampleSize = 0;
+		private int additions  = 0;
+		private int mask       = 0;
+
+		FrequencySketch(final int maximumSize) {
+
+			final int size = Integer.highestOneBit(Math.max(256, Math.min(maximumSize, 1 << 18)) - 1) << 1;
+
+			this.table      = new long[size];
+			this.mask       = size - 1;
+			this.sampleSize = 10 * size;
+		}
 
-		public InvalidatingLRUMap(final int maxSize) {
-			super(maxSize, true);
+		int frequency(final Object key) {
+
+			final int hash = spread(key.hashCode());
+			int frequency  = Integer.MAX_VALUE;
+
+			for (int i=0; i<4; i++) {
+
+				final int offset = ((hash >>> (i << 3)) & 15) << 2;
+				final int count  = (int)((table[indexOf(hash, i)] >>> offset) & 15L);
+
+				frequency = Math.min(frequency, count);
+			}
+
+			return frequency;
 		}
 
-		@Override
-		protected boolean removeLRU(final LinkEntry<K, V> entry) {
+		void increment(final Object key) {
+
+			final int hash = spread(key.hashCode());
+
+			for (int i=0; i<4; i++) {
+
+				final int index  = indexOf(hash, i);
+				final int offset = ((hash >>> (i << 3)) & 15) << 2;
+
+				if (((table[index] >>> offset) & 15L) < 15L) {
+
+					table[index] += 1L << offset;
+				}
+			}
+
+			if (++additions >= sampleSize) {
 
-			final V value = entry.getValue();
-			if (value != null && value instanceof Cachable) {
+				additions = 0;
 
-				((Cachable)value).onRemoveFromCache();
+				for (int i=0; i<table.length; i++) {
+					table[i] = (table[i] >>> 1) & RESET_MASK;
+				}
 			}
+		}
+
+		private int indexOf(final int hash, final int i) {
+
+			long h = (hash + SEEDS[i]) * SEEDS[i];
+			h += h >>> 32;
+
+			return (int)h & mask;
+		}
+
+		private int spread(final int value) {
+
+			int x = ((value >>> 16) ^ value) * 0x45d9f3b;
+			x = ((x >>> 16) ^ x) * 0x45d9f3b;
 
-			return true;
+			return (x >>> 16) ^ x;
 		}
 	}
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.api.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with a fixed number of logarithmic buckets,
+ * similar to an HDR histogram. Values are recorded in nanoseconds and stored
+ * with microsecond resolution and a relative error of at most 12.5%. Recording
+ * a value does not allocate memory.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS  = 3;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT     = 31;
+	private static final int BUCKET_COUNT     = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+	private static final long MAX_TRACKABLE   = (1L << (MAX_EXPONENT + 1)) - 1L;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong min         = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max         = new AtomicLong(0L);
+	private final LongAdder total        = new LongAdder();
+	private final LongAdder count        = new LongAdder();
+
+	public void record(final long nanos) {
+
+		final long value = Math.max(0L, nanos);
+
+		counts.incrementAndGet(getIndex(Math.min(MAX_TRACKABLE, value / 1000L)));
+		total.add(value);
+		count.increment();
+
+		long current = min.get();
+		while (value < current && !min.compareAndSet(current, value)) {
+			current = min.get();
+		}
+
+		current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Adds the values of the given histogram to this one.
+	 *
+	 * @param other the histogram to add
+	 */
+	public void add(final LatencyHistogram other) {
+
+		for (int i=0; i<BUCKET_COUNT; i++) {
+
+			final long value = other.counts.get(i);
+			if (value > 0L) {
+
+				counts.addAndGet(i, value);
+			}
+		}
+
+		total.add(other.total.sum());
+		count.add(other.count.sum());
+
+		min.accumulateAndGet(other.min.get(), Math::min);
+		max.accumulateAndGet(other.max.get(), Math::max);
+	}
+
+	/**
+	 * Resets this histogram. Values that are recorded concurrently may
+	 * or may not be included afterwards.
+	 */
+	public void reset() {
+
+		for (int i=0; i<BUCKET_COUNT; i++) {
+			counts.set(i, 0L);
+		}
+
+		total.reset();
+		count.reset();
+		min.set(Long.MAX_VALUE);
+		max.set(0L);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getTotal() {
+		return total.sum();
+	}
+
+	public long getMin() {
+
+		final long value = min.get();
+
+		return value == Long.MAX_VALUE ? 0L : value;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getAverage() {
+
+		final long n = getCount();
+
+		return n > 0L ? (double)getTotal() / n : 0.0;
+	}
+
+	/**
+	 * Returns the value (in nanoseconds) below which the given percentage of
+	 * the recorded values fall, i.e. the upper bound of the bucket in which
+	 * the percentile lies, limited to the maximum recorded value.
+	 *
+	 * @param percentile the percentile (between 0 and 100)
+	 * @return the percentile value in nanoseconds
+	 */
+	public long getPercentile(final double percentile) {
+
+		long remaining = 0L;
+
+		for (int i=0; i<BUCKET_COUNT; i++) {
+			remaining += counts.get(i);
+		}
+
+		if (remaining == 0L) {
+			return 0L;
+		}
+
+		final long rank = Math.max(1L, (long)Math.ceil((Math.min(100.0, Math.max(0.0, percentile)) / 100.0) * remaining));
+		long seen       = 0L;
+
+		for (int i=0; i<BUCKET_COUNT; i++) {
+
+			seen += counts.get(i);
+
+			if (seen >= rank) {
+
+				final long upperBound = (getLowerBound(i + 1) * 1000L) - 1L;
+
+				return Math.max(getMin(), Math.min(getMax(), upperBound));
+			}
+		}
+
+		return getMax();
+	}
+
+	// ----- private methods -----
+	static int getIndex(final long micros) {
+
+		if (micros < SUB_BUCKET_COUNT) {
+			return (int)micros;
+		}
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+
+		return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + (int)((micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+	}
+
+	static long getLowerBound(final int index) {
+
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+
+		final int exponent = (index >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+		final long sub     = index & (SUB_BUCKET_COUNT - 1);
+
+		return (SUB_BUCKET_COUNT + sub) << (exponent - SUB_BUCKET_BITS);
+	}
+}
@@ -21,6 +21,7 @@ package org.structr.api.util;
 import java.util.Iterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.structr.api.search.QueryContext;
 
 /**
  * An iterable that supports pagination and result counting.
@@ -29,6 +30,7 @@ public class PagingIterable<T> implements ResultStream<T> {
 
 	private static final Logger logger = LoggerFactory.getLogger(PagingIterable.class);
 	private PagingIterator<T> source   = null;
+	private QueryContext queryContext  = null;
 	private String queryTimeFormatted  = null;
 
 	public PagingIterable(final String description, final Iterable<T> source) {
@@ -98,6 +100,18 @@ public class PagingIterable<T> implements ResultStream<T> {
 
 	}, Integer.MAX_VALUE, 1, 0);
 
+	@Override
+	public String getNextCursor() {
+		return queryContext != null ? queryContext.getNextCursor() : null;
+	}
+
+	public PagingIterable<T> setQueryContext(final QueryContext queryContext) {
+
+		this.queryContext = queryContext;
+
+		return this;
+	}
+
 	public boolean isConsumed() {
 		return source != null && source.isConsumed();
 	}
@@ -25,41 +25,73 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Collects query latencies in one {@link LatencyHistogram} per statement.
+ * In addition to the overall histogram, each statement has a ring of
+ * histograms for fixed time windows, so that the recent latencies can
+ * be analyzed separately. Recording is lock-free.
+ */
 public class QueryHistogram {
 
-	private static final List<QueryTimer> timers = new LinkedList<>();
-	private static final int HISTOGRAM_SIZE      = 100_000;
+	private static final Map<String, StatementHistogram> histograms = new ConcurrentHashMap<>();
+	private static final String OTHER_STATEMENTS                    = "(other statements)";
+	private static final long WINDOW_LENGTH                         = 60_000L;
+	private static final int WINDOW_COUNT                           = 6;
+	private static final int MAX_STATEMENTS                         = 1000;
 
 	private static final String COUNT      = "Count";
 	private static final String TOTAL_TIME = "Overall time (s)";
 	private static final String MAX_TIME   = "Maximum time (s)";
 	private static final String MIN_TIME   = "Minimum time (s)";
 	private static final String AVG_TIME   = "Average time (s)";
+	private static final String P50_TIME   = "50th percentile (s)";
+	private static final String P95_TIME   = "95th percentile (s)";
+	private static final String P99_TIME   = "99th percentile (s)";
+	private static final String P999_TIME  = "99.9th percentile (s)";
+
+	public static void record(final String statement, final long nanos) {
+		record(statement, System.currentTimeMillis(), nanos);
+	}
 
-	public static synchronized QueryTimer newTimer() {
+	static void record(final String statement, final long timestamp, final long nanos) {
 
-		final QueryTimer timer = new QueryTimer();
+		StatementHistogram histogram = histograms.get(statement);
+		if (histogram == null) {
 
-		// remove first element
-		if (timers.size() > HISTOGRAM_SIZE) {
-			timers.remove(0);
-		}
+			// limit the number of distinct statements to keep the memory footprint bounded
+			final String key = histograms.size() < MAX_STATEMENTS ? statement : OTHER_STATEMENTS;
 
-		timers.add(timer);
+			histogram = histograms.computeIfAbsent(key, k -> new StatementHistogram());
+		}
 
-		return timer;
+		histogram.record(timestamp, nanos);
 	}
 
-	public static synchronized void clear() {
-		timers.clear();
+	public static void clear() {
+		histograms.clear();
 	}
 
-	public static synchronized List<Map<String, Object>> analyze(final String sortKey, final int topCount) {
+	public static List<Map<String, Object>> analyze(final String sortKey, final int topCount) {
+		return analyze(sortKey, topCount, false);
+	}
 
-		final Map<String, Map<String, Object>> data = new LinkedHashMap<>();
-		final List<Map<String, Object>> sorted      = new LinkedList<>();
-		String actualSortKey                        = TOTAL_TIME;
+	/**
+	 * Returns the statistics of the slowest statements.
+	 *
+	 * @param sortKey the value to sort by (min, max, avg, count, p50, p95, p99, p999 or total)
+	 * @param topCount the number of statements to return
+	 * @param recentOnly whether only the queries of the last few minutes should be analyzed
+	 *
+	 * @return a list of statistics
+	 */
+	public static List<Map<String, Object>> analyze(final String sortKey, final int topCount, final boolean recentOnly) {
+
+		final List<Map<String, Object>> sorted = new LinkedList<>();
+		final long now                         = System.currentTimeMillis();
+		String actualSortKey                   = TOTAL_TIME;
 
 		if (sortKey != null) {
 
@@ -80,56 +112,46 @@ public class QueryHistogram {
 				case "count":
 					actualSortKey = COUNT;
 					break;
-			}
-		}
-
-		for (final QueryTimer timer : timers) {
-
-			if (!timer.isEmpty()) {
 
-				final String statement    = timer.getStatement();
-				final double duration     = timer.getOverallDuration();
-				Map<String, Object> value = data.get(statement);
-
-				if (value == null) {
+				case "p50":
+					actualSortKey = P50_TIME;
+					break;
 
-					value = new LinkedHashMap<>();
-					data.put(statement, value);
+				case "p95":
+					actualSortKey = P95_TIME;
+					break;
 
-					// store statement in map as well
-					value.put("Query", statement);
-				}
+				case "p99":
+					actualSortKey = P99_TIME;
+					break;
 
-				value.put(COUNT,      get(value, COUNT, 0.0) + 1.0);
-				value.put(TOTAL_TIME, get(value, TOTAL_TIME, 0.0) + duration);
-				value.put(MAX_TIME,   Math.max(get(value, MAX_TIME, Double.MIN_VALUE), duration));
-				value.put(MIN_TIME,   Math.min(get(value, MIN_TIME, Double.MAX_VALUE), duration));
+				case "p999":
+					actualSortKey = P999_TIME;
+					break;
 			}
 		}
 
-		for (final Map<String, Object> value : data.values()) {
+		for (final Map.Entry<String, StatementHistogram> entry : histograms.entrySet()) {
 
-			// calculate average
-			final double count = get(value, COUNT,      1.0);
-			final double time  = get(value, TOTAL_TIME, 0.0);
+			final LatencyHistogram histogram = recentOnly ? entry.getValue().getRecent(now) : entry.getValue().total;
+			if (histogram.getCount() > 0L) {
 
-			if (count > 0) {
+				final Map<String, Object> value = new LinkedHashMap<>();
 
-				value.put(AVG_TIME, (time / count));
+				value.put("Query", entry.getKey());
 
-			} else {
+				value.put(COUNT,      new BigDecimal(histogram.getCount()));
+				value.put(TOTAL_TIME, seconds(histogram.getTotal()));
+				value.put(MAX_TIME,   seconds(histogram.getMax()));
+				value.put(MIN_TIME,   seconds(histogram.getMin()));
+				value.put(AVG_TIME,   seconds(histogram.getAverage()));
+				value.put(P50_TIME,   seconds(histogram.getPercentile(50.0)));
+				value.put(P95_TIME,   seconds(histogram.getPercentile(95.0)));
+				value.put(P99_TIME,   seconds(histogram.getPercentile(99.0)));
+				value.put(P999_TIME,  seconds(histogram.getPercentile(99.9)));
 
-				value.put(AVG_TIME, 0L);
+				sorted.add(value);
 			}
-
-			// round values to 4 decimal places
-			round(value, COUNT,      0);
-			round(value, TOTAL_TIME, 8);
-			round(value, MAX_TIME,   8);
-			round(value, MIN_TIME,   8);
-			round(value, AVG_TIME,   8);
-
-			sorted.add(value);
 		}
 
 		final String finalActualSortKey = actualSortKey;
@@ -145,21 +167,74 @@ public class QueryHistogram {
 		return sorted.subList(0, Math.max(0, Math.min(sorted.size(), topCount)));
 	}
 
-	private static double get(final Map<String, Object> value, final String key, final double defaultValue) {
+	// ----- private methods -----
+	private static BigDecimal seconds(final double nanos) {
+
+		// round values to 8 decimal places
+		return BigDecimal.valueOf(nanos / 1000000000.0).setScale(8, RoundingMode.CEILING);
+	}
+
+	// ----- nested classes -----
+	private static class StatementHistogram {
 
-		final Double data = (Double)value.get(key);
-		if (data != null) {
+		private final AtomicReferenceArray<Window> windows = new AtomicReferenceArray<>(WINDOW_COUNT);
+		private final LatencyHistogram total               = new LatencyHistogram();
 
-			return data;
+		void record(final long timestamp, final long nanos) {
+
+			final long epoch = timestamp / WINDOW_LENGTH;
+			final int index  = (int)(epoch % WINDOW_COUNT);
+			Window window    = windows.get(index);
+
+			// the oldest window is replaced by a new one instead of being reset, so a
+			// value is never recorded into a window of another epoch
+			while (window == null || window.epoch < epoch) {
+
+				final Window next = new Window(epoch);
+
+				if (windows.compareAndSet(index, window, next)) {
+
+					window = next;
+
+				} else {
+
+					window = windows.get(index);
+				}
+			}
+
+			// a value with an outdated timestamp is only recorded in the overall histogram
+			if (window.epoch == epoch) {
+				window.histogram.record(nanos);
+			}
+
+			total.record(nanos);
 		}
 
-		return defaultValue;
+		LatencyHistogram getRecent(final long timestamp) {
+
+			final LatencyHistogram recent = new LatencyHistogram();
+			final long epoch              = timestamp / WINDOW_LENGTH;
+
+			for (int i=0; i<WINDOW_COUNT; i++) {
+
+				final Window window = windows.get(i);
+				if (window != null && window.epoch > epoch - WINDOW_COUNT) {
+
+					recent.add(window.histogram);
+				}
+			}
+
+			return recent;
+		}
 	}
 
-	private static void round(final Map<String, Object> value, final String key, final int scale) {
+	private static class Window {
 
-		final BigDecimal decimal = BigDecimal.valueOf(get(value, key, 0.0));
+		private final LatencyHistogram histogram = new LatencyHistogram();
+		private long epoch                       = 0L;
 
-		value.put(key, decimal.setScale(scale, RoundingMode.CEILING));
+		Window(final long epoch) {
+			this.epoch = epoch;
+		}
 	}
 }
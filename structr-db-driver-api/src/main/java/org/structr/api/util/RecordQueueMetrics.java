@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.api.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the queue depth and stall times of the record queues that
+ * connect asynchronous database results with the consuming threads.
+ */
+public class RecordQueueMetrics {
+
+	private static final LongAdder queuedRecords     = new LongAdder();
+	private static final AtomicLong maxQueueDepth    = new AtomicLong();
+	private static final LongAdder producerPauses    = new LongAdder();
+	private static final LongAdder producerStallTime = new LongAdder();
+	private static final LongAdder consumerStalls    = new LongAdder();
+	private static final LongAdder consumerStallTime = new LongAdder();
+	private static final LongAdder timeouts          = new LongAdder();
+
+	public static void recordsQueued(final int count, final int depth) {
+
+		queuedRecords.add(count);
+
+		long max = maxQueueDepth.get();
+		while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+			max = maxQueueDepth.get();
+		}
+	}
+
+	public static void recordsConsumed(final int count) {
+		queuedRecords.add(-count);
+	}
+
+	/**
+	 * Called when the producer stopped fetching records because the
+	 * queue was full, and again with the pause duration on resume.
+	 *
+	 * @param nanos the pause duration or 0 when the pause starts
+	 */
+	public static void producerPaused(final long nanos) {
+
+		if (nanos == 0L) {
+
+			producerPauses.increment();
+
+		} else {
+
+			producerStallTime.add(nanos);
+		}
+	}
+
+	public static void consumerStalled(final long nanos) {
+
+		consumerStalls.increment();
+		consumerStallTime.add(nanos);
+	}
+
+	public static void timeout() {
+		timeouts.increment();
+	}
+
+	public static Map<String, Object> getStatus() {
+
+		final Map<String, Object> status = new LinkedHashMap<>();
+
+		status.put("queuedRecords",       queuedRecords.sum());
+		status.put("maxQueueDepth",       maxQueueDepth.get());
+		status.put("producerPauses",      producerPauses.sum());
+		status.put("producerStallTimeMs", producerStallTime.sum() / 1_000_000L);
+		status.put("consumerStalls",      consumerStalls.sum());
+		status.put("consumerStallTimeMs", consumerStallTime.sum() / 1_000_000L);
+		status.put("timeouts",            timeouts.sum());
+
+		return status;
+	}
+}
@@ -54,6 +54,17 @@ public interface ResultStream<T> extends Iterable<T>, AutoCloseable {
 	void setQueryTime(final String formattedTime);
 	String getQueryTime();
 
+	/**
+	 * Returns an opaque cursor that can be used to request the page that
+	 * follows the current one without the cost of skipping all previous
+	 * results, or null if no such cursor is available.
+	 *
+	 * @return the cursor or null
+	 */
+	default String getNextCursor() {
+		return null;
+	}
+
 	@Override
 	public void close(); // hide the exception to make closing easier
 }
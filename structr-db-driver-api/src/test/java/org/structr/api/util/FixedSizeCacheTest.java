@@ -18,8 +18,17 @@
  */
 package org.structr.api.util;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
 import org.testng.annotations.Test;
 
 /**
@@ -58,4 +67,297 @@ public class FixedSizeCacheTest {
 		}
 
 	}
+
+	@Test
+	public void testEvictionCallbackAndCounters() {
+
+		final FixedSizeCache<Integer, TestCachable> test = new FixedSizeCache<>("Test cache", 100);
+		final AtomicInteger removed                      = new AtomicInteger();
+
+		for (int i=0; i<1000; i++) {
+
+			test.put(i, new TestCachable(removed));
+		}
+
+		assertEquals("Invalid FixedSizeCache size", 100, test.size());
+		assertEquals("Evicted entries must be notified", 900, removed.get());
+
+		assertNotNull("Most recent entry must be cached", test.get(999));
+		assertNull("Evicted entry must not be cached", test.get(0));
+
+		final Map<String, Integer> info = test.getCacheInfo();
+
+		assertEquals("Invalid hit count", 1, (int)info.get("hits"));
+		assertEquals("Invalid miss count", 1, (int)info.get("misses"));
+		assertEquals("Invalid eviction count", 900, (int)info.get("evictions"));
+	}
+
+	@Test
+	public void testNullKeys() {
+
+		final FixedSizeCache<String, String> test = new FixedSizeCache<>("Test cache", 100);
+
+		test.put(null, "value");
+		test.put("key", "value");
+
+		assertNull("Null keys must not be cached", test.get(null));
+		assertFalse("Null keys must not be cached", test.containsKey(null));
+		assertNull("Removing a null key must not fail", test.remove(null));
+		assertEquals("Invalid FixedSizeCache size", 1, test.size());
+		assertEquals("Invalid miss count", 1, (int)test.getCacheInfo().get("misses"));
+	}
+
+	@Test
+	public void testResize() {
+
+		final FixedSizeCache<Integer, TestCachable> test = new FixedSizeCache<>("Test cache", 100);
+		final AtomicInteger removed                      = new AtomicInteger();
+
+		for (int i=0; i<100; i++) {
+
+			test.put(i, new TestCachable(removed));
+		}
+
+		test.resize(50);
+
+		assertEquals("Invalid FixedSizeCache size after resize", 50, test.size());
+		assertEquals("Evicted entries must be notified", 50, removed.get());
+		assertNotNull("Most recent entry must be kept", test.get(99));
+
+		test.resize(100);
+
+		for (int i=100; i<150; i++) {
+
+			test.put(i, new TestCachable(removed));
+		}
+
+		assertEquals("Invalid FixedSizeCache size after resize", 100, test.size());
+	}
+
+	@Test
+	public void testCacheGovernor() {
+
+		final CacheGovernor governor                = CacheGovernor.getInstance();
+		final FixedSizeCache<Integer, Integer> test = new FixedSizeCache<>("Governed cache", 10000, true);
+
+		for (int i=0; i<10000; i++) {
+			test.put(i, i);
+		}
+
+		// memory pressure lowers the limit gradually, without dropping the whole cache
+		governor.update(950_000_000L, 1_000_000_000L);
+
+		final int limit = test.getMaxSize();
+
+		assertTrue("Memory pressure must lower the cache limit", limit < 10000);
+		assertTrue("Memory pressure must not drop the whole cache", limit >= 7500);
+		assertEquals("Invalid FixedSizeCache size after shrinking", limit, test.size());
+
+		// further pressure never goes below the minimum size
+		for (int i=0; i<100; i++) {
+			governor.update(950_000_000L, 1_000_000_000L);
+		}
+
+		assertEquals("Cache limit must not go below the minimum size", 1000, test.getMaxSize());
+
+		// limits grow back when the pressure subsides
+		for (int i=0; i<100; i++) {
+			governor.update(500_000_000L, 1_000_000_000L);
+		}
+
+		assertEquals("Cache limit must return to the configured size", 10000, test.getMaxSize());
+
+		final Map<String, Object> status = governor.getStatus();
+
+		assertTrue("Decisions must be recorded", !((List)status.get("decisions")).isEmpty());
+	}
+
+	@Test
+	public void testCacheGovernorIgnoresUnusedCapacity() {
+
+		final CacheGovernor governor                = CacheGovernor.getInstance();
+		final FixedSizeCache<Integer, Integer> test = new FixedSizeCache<>("Half-filled cache", 10000, true);
+
+		for (int i=0; i<5000; i++) {
+			test.put(i, i);
+		}
+
+		governor.update(950_000_000L, 1_000_000_000L);
+
+		assertEquals("Lowering the limit of a cache that is below the new limit releases no memory", 10000, test.getMaxSize());
+
+		for (int i=5000; i<10000; i++) {
+			test.put(i, i);
+		}
+
+		governor.update(950_000_000L, 1_000_000_000L);
+
+		assertTrue("Memory pressure must lower the cache limit", test.getMaxSize() < 10000);
+		assertTrue("Limit must be lowered by at most a fraction of the previous limit", test.getMaxSize() >= 7500);
+
+		// restore the limits for other tests
+		for (int i=0; i<100; i++) {
+			governor.update(500_000_000L, 1_000_000_000L);
+		}
+	}
+
+	@Test
+	public void testFrequentEntriesAreKept() {
+
+		final FixedSizeCache<Integer, Integer> test = new FixedSizeCache<>("Test cache", 100);
+
+		for (int i=0; i<50; i++) {
+			test.put(i, i);
+		}
+
+		// access the first 50 entries frequently
+		for (int j=0; j<10; j++) {
+
+			for (int i=0; i<50; i++) {
+				test.get(i);
+			}
+		}
+
+		// a scan of rarely used entries must not evict the frequently used ones
+		for (int i=1000; i<2000; i++) {
+			test.put(i, i);
+		}
+
+		for (int i=0; i<50; i++) {
+			assertNotNull("Frequently used entry was evicted by a scan", test.get(i));
+		}
+	}
+
+	@Test
+	public void testWeightedCache() {
+
+		final FixedSizeCache<Integer, String> test = new FixedSizeCache<>("Test cache", 1000, (k, v) -> v.length());
+
+		for (int i=0; i<100; i++) {
+
+			test.put(i, "0123456789012345678901234567890123456789");
+		}
+
+		// 1000 / 40 = 25 entries fit
+		assertTrue("Weighted cache exceeds its maximum weight", test.size() <= 25);
+		assertTrue("Weighted cache should be filled", test.size() >= 20);
+	}
+
+	@Test
+	public void testOneHitWondersAreRejected() {
+
+		// a single segment with an admission window of one entry
+		final FixedSizeCache<Integer, Integer> test = new FixedSizeCache<>("Test cache", 100);
+
+		for (int i=0; i<100; i++) {
+			test.put(i, i);
+		}
+
+		for (int j=0; j<5; j++) {
+
+			for (int i=0; i<100; i++) {
+				test.get(i);
+			}
+		}
+
+		// each new entry pushes the previous one out of the admission window
+		test.put(1000, 1000);
+		test.put(1001, 1001);
+		test.put(1002, 1002);
+
+		assertFalse("Entry that was used only once must not replace a frequently used entry", test.containsKey(1000));
+		assertFalse("Entry that was used only once must not replace a frequently used entry", test.containsKey(1001));
+		assertTrue("Most recent entry must be kept in the admission window", test.containsKey(1002));
+		assertEquals("Invalid FixedSizeCache size", 100, test.size());
+	}
+
+	@Test
+	public void testFrequentEntryIsAdmitted() {
+
+		final FixedSizeCache<Integer, Integer> test = new FixedSizeCache<>("Test cache", 100);
+
+		for (int i=0; i<100; i++) {
+			test.put(i, i);
+		}
+
+		// an entry that was requested often before it was cached
+		for (int j=0; j<10; j++) {
+			test.get(1000);
+		}
+
+		test.put(1000, 1000);
+		test.put(1001, 1001);
+
+		assertTrue("Frequently requested entry must be admitted to the main area", test.containsKey(1000));
+		assertEquals("Invalid FixedSizeCache size", 100, test.size());
+	}
+
+	@Test
+	public void testConcurrentAccess() throws InterruptedException {
+
+		final FixedSizeCache<Integer, Integer> test = new FixedSizeCache<>("Test cache", 50000);
+		final int threadCount                       = Math.max(4, Runtime.getRuntime().availableProcessors());
+		final AtomicInteger mismatches              = new AtomicInteger();
+
+		runWorkload(threadCount, 100000, 200000, k -> {
+
+			final Integer value = test.get(k);
+			if (value == null) {
+
+				test.put(k, k);
+
+			} else if (value != k) {
+
+				mismatches.incrementAndGet();
+			}
+		});
+
+		assertEquals("Cache returned values for different keys", 0, mismatches.get());
+		assertTrue("Cache exceeds its maximum size", test.size() <= 50000);
+		assertTrue("Cache should be filled", test.size() > 0);
+	}
+
+	// ----- private methods -----
+	private void runWorkload(final int threadCount, final int operations, final int keySpace, final IntConsumer operation) throws InterruptedException {
+
+		final List<Thread> threads = new ArrayList<>();
+
+		for (int i=0; i<threadCount; i++) {
+
+			final long seed = i;
+
+			threads.add(new Thread(() -> {
+
+				final Random random = new Random(seed);
+
+				for (int j=0; j<operations; j++) {
+
+					// skewed access pattern: a small set of keys is accessed most of the time
+					final double r = random.nextDouble();
+					operation.accept((int)(r * r * r * keySpace));
+				}
+			}));
+		}
+
+		threads.forEach(Thread::start);
+
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	// ----- nested classes -----
+	private static class TestCachable implements Cachable {
+
+		private AtomicInteger removed = null;
+
+		public TestCachable(final AtomicInteger removed) {
+			this.removed = removed;
+		}
+
+		@Override
+		public void onRemoveFromCache() {
+			removed.incrementAndGet();
+		}
+	}
 }
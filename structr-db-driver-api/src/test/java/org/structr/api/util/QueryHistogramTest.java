@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.api.util;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ */
+public class QueryHistogramTest {
+
+	@Test
+	public void testBuckets() {
+
+		for (long value=0; value<1_000_000; value++) {
+
+			final int index = LatencyHistogram.getIndex(value);
+
+			assertTrue("Value must not be below its bucket", LatencyHistogram.getLowerBound(index) <= value);
+			assertTrue("Value must not be above its bucket", LatencyHistogram.getLowerBound(index + 1) > value);
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		// 1 to 1000 milliseconds
+		for (int i=1; i<=1000; i++) {
+			histogram.record(i * 1_000_000L);
+		}
+
+		assertEquals("Invalid count", 1000, histogram.getCount());
+		assertEquals("Invalid minimum", 1_000_000L, histogram.getMin());
+		assertEquals("Invalid maximum", 1_000_000_000L, histogram.getMax());
+
+		assertPercentile(histogram, 50.0, 500_000_000L);
+		assertPercentile(histogram, 95.0, 950_000_000L);
+		assertPercentile(histogram, 99.0, 990_000_000L);
+		assertPercentile(histogram, 99.9, 999_000_000L);
+	}
+
+	@Test
+	public void testAnalyze() {
+
+		QueryHistogram.clear();
+
+		for (int i=1; i<=100; i++) {
+
+			QueryHistogram.record("MATCH (n) RETURN n", i * 1_000_000L);
+			QueryHistogram.record("MATCH (n)-[r]->(m) RETURN r", 1_000_000L);
+		}
+
+		final List<Map<String, Object>> result = QueryHistogram.analyze("p99", 10);
+
+		assertEquals("Invalid number of statements", 2, result.size());
+		assertEquals("Invalid sort order", "MATCH (n) RETURN n", result.get(0).get("Query"));
+		assertEquals("Invalid count", new BigDecimal(100), result.get(0).get("Count"));
+
+		assertEquals("Recent queries must be included in the recent window", 2, QueryHistogram.analyze("total", 10, true).size());
+
+		QueryHistogram.clear();
+
+		assertTrue("Histogram must be empty after clear()", QueryHistogram.analyze("total", 10).isEmpty());
+	}
+
+	@Test
+	public void testWindowReplacement() throws InterruptedException {
+
+		QueryHistogram.clear();
+
+		final String statement = "MATCH (n) RETURN n";
+		final long now         = System.currentTimeMillis();
+		final Thread[] threads = new Thread[8];
+
+		// an old window in the same slot as the current one
+		for (int i=0; i<100; i++) {
+			QueryHistogram.record(statement, now - 6 * 60_000L, 1_000_000L);
+		}
+
+		// threads that enter the new window concurrently must not lose values
+		for (int i=0; i<threads.length; i++) {
+
+			threads[i] = new Thread(() -> {
+
+				for (int j=0; j<10_000; j++) {
+					QueryHistogram.record(statement, now, 1_000_000L);
+				}
+			});
+
+			threads[i].start();
+		}
+
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals("Old window must be replaced without losing values", new BigDecimal(80_000), QueryHistogram.analyze("total", 10, true).get(0).get("Count"));
+		assertEquals("Overall histogram must contain all values", new BigDecimal(80_100), QueryHistogram.analyze("total", 10).get(0).get("Count"));
+
+		QueryHistogram.clear();
+	}
+
+	// ----- private methods -----
+	private void assertPercentile(final LatencyHistogram histogram, final double percentile, final long expected) {
+
+		final long value = histogram.getPercentile(percentile);
+
+		// values are stored with a relative error of at most 12.5%
+		assertTrue("Invalid " + percentile + "th percentile " + value, value >= expected && value <= expected * 1.125);
+	}
+}
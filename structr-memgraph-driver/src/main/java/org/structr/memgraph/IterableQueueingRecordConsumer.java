@@ -18,41 +18,59 @@
  */
 package org.structr.memgraph;
 
+import java.util.ArrayDeque;
 import java.util.Iterator;
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.StatementResultCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.structr.api.config.Settings;
+import org.structr.api.util.RecordQueueMetrics;
 
 /**
- *
+ * Connects an asynchronous result cursor with the consuming thread. The
+ * records are requested one by one from the cursor and buffered in a
+ * bounded queue. Requesting stops when the queue is full and is resumed
+ * by the consuming thread when the queue has been drained to half of its
+ * capacity, so the driver only fetches as much as can be consumed.
  */
-public class IterableQueueingRecordConsumer implements Iterable<Record>, Iterator<Record>, AutoCloseable, Consumer<Record> {
-
-	private static final Logger logger        = LoggerFactory.getLogger(IterableQueueingRecordConsumer.class);
-	private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
-	private final AtomicInteger elementCount  = new AtomicInteger(0);
-	private final AtomicInteger queueSize     = new AtomicInteger(0);
-	private final AtomicBoolean aborted       = new AtomicBoolean(false);
-	private final AtomicBoolean finished      = new AtomicBoolean(false);
-	private final AtomicBoolean added         = new AtomicBoolean(false);
-	private final AtomicBoolean started       = new AtomicBoolean(false);
-	private MemgraphDatabaseService db            = null;
-	private StatementResultCursor cursor      = null;
-	private AdvancedCypherQuery query         = null;
-	private Throwable throwable               = null;
+public class IterableQueueingRecordConsumer implements Iterable<Record>, Iterator<Record>, AutoCloseable {
+
+	private static final Logger logger         = LoggerFactory.getLogger(IterableQueueingRecordConsumer.class);
+	private static final long TIMEOUT          = TimeUnit.MINUTES.toNanos(2);
+	private final ReentrantLock lock           = new ReentrantLock();
+	private final Condition changed            = lock.newCondition();
+	private final Queue<Record> queue          = new ArrayDeque<>();
+	private final AtomicBoolean requesting     = new AtomicBoolean(false);
+	private final AtomicBoolean aborted        = new AtomicBoolean(false);
+	private final AtomicBoolean started        = new AtomicBoolean(false);
+	private CompletableFuture<Void> pageResult = null;
+	private MemgraphDatabaseService db         = null;
+	private volatile StatementResultCursor cursor = null;
+	private AdvancedCypherQuery query          = null;
+	private volatile Throwable throwable       = null;
+	private Record nextRecord                  = null;
+	private volatile int elementCount          = 0;
+	private boolean finished                   = false;
+	private boolean paused                     = false;
+	private boolean isClosed                   = false;
+	private long pauseStart                    = 0L;
+	private int capacity                       = 0;
 
 	public IterableQueueingRecordConsumer(final MemgraphDatabaseService db, final AdvancedCypherQuery query) {
 
-		this.query = query;
-		this.db    = db;
+		this.capacity = Math.max(2, Settings.ResultQueueSize.getValue(10_000));
+		this.query    = query;
+		this.db       = db;
 	}
 
 	public void start() {
@@ -71,8 +89,52 @@ public class IterableQueueingRecordConsumer implements Iterable<Record>, Iterato
 
 	@Override
 	public void close() {
-		aborted.set(true);
-		cursor.consumeAsync();
+
+		if (!isClosed) {
+
+			aborted.set(true);
+
+			if (cursor != null) {
+				cursor.consumeAsync();
+			}
+
+			lock.lock();
+			try {
+
+				RecordQueueMetrics.recordsConsumed(queue.size());
+				queue.clear();
+
+				// a paused page would never complete otherwise
+				if (paused) {
+
+					paused = false;
+					RecordQueueMetrics.producerPaused(System.nanoTime() - pauseStart);
+					pageResult.complete(null);
+				}
+
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		isClosed = true;
+	}
+
+	/**
+	 * Starts requesting the records of the given cursor.
+	 *
+	 * @param cursor the cursor
+	 *
+	 * @return a stage that completes when all records of the cursor have been queued
+	 */
+	public CompletionStage<Void> start(final StatementResultCursor cursor) {
+
+		this.pageResult = new CompletableFuture<>();
+		this.cursor     = cursor;
+
+		requestRecords();
+
+		return pageResult;
 	}
 
 	public void finish() {
@@ -81,107 +143,317 @@ public class IterableQueueingRecordConsumer implements Iterable<Record>, Iterato
 		// result cursor have been consumed. We now need to decide whether we want
 		// to fetch more.
 
-		// This method will be called from a different Thread, so there is no
+		// This method will be called from a different thread, so there is no
 		// transaction context..
 
-		if (elementCount.get() == query.pageSize() && !aborted.get()) {
+		lock.lock();
+		try {
+
+			if (elementCount == query.pageSize() && !aborted.get()) {
 
-			query.nextPage();
+				query.nextPage();
 
-			// there are probably more results available
-			elementCount.set(0);
-			finished.set(false);
+				// there are probably more results available
+				elementCount = 0;
 
-			// signal other thread that new results should be fetched
-			started.set(false);
+				// signal other thread that new results should be fetched
+				started.set(false);
 
-		} else {
+			} else {
 
-			finished.set(true);
-			added.set(true);
+				finished = true;
+			}
+
+			changed.signalAll();
+
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	@Override
 	public boolean hasNext() {
 
-		// make the consuming thread wait for results util elements have been
+		if (nextRecord != null) {
+			return true;
+		}
+
+		// make the consuming thread wait for results until elements have been
 		// added OR the producer has no more results (finished == true)
-		final long yieldStart = System.currentTimeMillis();
+		final long waitStart = System.nanoTime();
+		boolean resume       = false;
+		boolean stalled      = false;
+
+		lock.lock();
+		try {
 
-		while (!added.get() || (!finished.get() && queue.isEmpty())) {
+			while ((nextRecord = queue.poll()) == null) {
 
-			if (throwable != null) {
+				if (throwable != null) {
 
-				if (throwable instanceof RuntimeException) {
+					if (throwable instanceof RuntimeException) {
 
-					throw (RuntimeException)throwable;
+						throw (RuntimeException)throwable;
 
-				} else {
+					} else {
 
-					throw new RuntimeException(throwable);
+						throw new RuntimeException(throwable);
+					}
 				}
-			}
 
-			// start fetching of next result portion while waiting for results
-			if (!started.getAndSet(true)) {
+				if (finished || aborted.get()) {
+					return false;
+				}
+
+				// start fetching of next result portion while waiting for results
+				if (!started.getAndSet(true)) {
+
+					lock.unlock();
+					try {
+
+						final SessionTransaction tx = db.getCurrentTransaction(false);
+						if (tx != null && !tx.isClosed()) {
 
-				final SessionTransaction tx = db.getCurrentTransaction(false);
-				if (tx != null && !tx.isClosed()) {
+							tx.collectRecords(query.getStatement(true), query.getParameters(), this);
+						}
 
-					tx.collectRecords(query.getStatement(true), query.getParameters(), this);
+					} finally {
+						lock.lock();
+					}
+
+					continue;
 				}
-			}
 
-			// wait for data (or exception)
-			try { Thread.yield(); } catch (Throwable t) {}
+				final long remaining = waitStart + TIMEOUT - System.nanoTime();
+				if (remaining <= 0L) {
+
+					logger.warn("#######################################################################################################");
+					logger.warn("IterableQueueingRecordConsumer waited for 2 minutes, aborting");
+					logger.warn("statement:  {}", query.getStatement(true));
+					logger.warn("parameters: {}", query.getParameters());
+					logger.warn("throwable:  {}", throwable);
+					logger.warn("finished:   {}", finished);
+					logger.warn("paused:     {}", paused);
+					logger.warn("queue:      {}", queue.size());
+					logger.warn("#######################################################################################################");
+
+					RecordQueueMetrics.timeout();
+
+					return false;
+				}
+
+				stalled = true;
+
+				try {
 
-			if (System.currentTimeMillis() > yieldStart + 180_000) {
+					changed.awaitNanos(remaining);
 
-				logger.warn("#######################################################################################################");
-				logger.warn("IterableQueueingRecordConsumer waited for 2 minutes, aborting");
-				logger.warn("statement: {}", query.getStatement(true));
-				logger.warn("throwable: {}", throwable);
-				logger.warn("finished:  {}", finished.get());
-				logger.warn("added:     {}", added.get());
-				logger.warn("queue:     {}", queue);
-				logger.warn("#######################################################################################################");
+				} catch (InterruptedException iex) {
 
-				break;
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+
+			// resume fetching when the queue is drained to half of its capacity
+			if (paused && queue.size() <= capacity / 2) {
+
+				RecordQueueMetrics.producerPaused(System.nanoTime() - pauseStart);
+
+				paused = false;
+				resume = true;
 			}
+
+		} finally {
+			lock.unlock();
 		}
 
-		return !queue.isEmpty();
+		RecordQueueMetrics.recordsConsumed(1);
+
+		if (stalled) {
+			RecordQueueMetrics.consumerStalled(System.nanoTime() - waitStart);
+		}
+
+		if (resume) {
+			requestRecords();
+		}
+
+		return true;
 	}
 
 	@Override
 	public Record next() {
 
-		queueSize.decrementAndGet();
-		return queue.poll();
+		if (hasNext()) {
+
+			final Record record = nextRecord;
+			nextRecord          = null;
+
+			return record;
+		}
+
+		return null;
 	}
 
-	@Override
-	public void accept(final Record t) {
+	public Void exception(final Throwable t) {
+
+		lock.lock();
+		try {
+
+			this.throwable = t;
+			changed.signalAll();
 
-		if (aborted.get()) {
+		} finally {
+			lock.unlock();
+		}
+
+		return null;
+	}
+
+	// ----- private methods -----
+	private void requestRecords() {
+
+		// only one thread may request records at a time to keep the order
+		if (!requesting.compareAndSet(false, true)) {
 			return;
 		}
 
-		queue.add(t);
-		added.set(true);
+		boolean release = true;
+
+		try {
+
+			while (true) {
+
+				if (pauseIfFull()) {
+
+					// the flag has already been released
+					release = false;
+					return;
+				}
+
+				final CompletableFuture<Record> future = cursor.nextAsync().toCompletableFuture();
+
+				if (!future.isDone()) {
+
+					// continue asynchronously when the next record arrives
+					release = false;
+
+					future.whenComplete((record, t) -> {
+
+						if (handle(record, t)) {
+
+							requesting.set(false);
+							requestRecords();
+						}
+					});
+
+					return;
+				}
 
-		queueSize.incrementAndGet();
-		elementCount.incrementAndGet();
+				// buffered records are handled in a loop to avoid deep recursion
+				if (!handle(future)) {
+
+					// the flag has already been released
+					release = false;
+					return;
+				}
+			}
+
+		} finally {
+
+			if (release) {
+				requesting.set(false);
+			}
+		}
 	}
 
-	public CompletionStage<StatementResultCursor> start(final StatementResultCursor cursor) {
-		this.cursor = cursor;
-		return CompletableFuture.completedFuture(cursor);
+	/**
+	 * Stops requesting records if the queue is full or the consumer was
+	 * closed. The requesting flag is released while holding the lock, so
+	 * the consuming thread can only see the paused state when it is able
+	 * to resume.
+	 */
+	private boolean pauseIfFull() {
+
+		lock.lock();
+		try {
+
+			if (aborted.get()) {
+
+				requesting.set(false);
+				pageResult.complete(null);
+
+				return true;
+			}
+
+			if (queue.size() >= capacity) {
+
+				RecordQueueMetrics.producerPaused(0L);
+
+				pauseStart = System.nanoTime();
+				paused     = true;
+
+				requesting.set(false);
+
+				return true;
+			}
+
+			return false;
+
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	public Void exception(final Throwable t) {
-		this.throwable = t;
-		return null;
+	private boolean handle(final CompletableFuture<Record> future) {
+
+		try {
+
+			return handle(future.join(), null);
+
+		} catch (CompletionException | CancellationException ex) {
+
+			return handle(null, ex.getCause() != null ? ex.getCause() : ex);
+		}
+	}
+
+	/**
+	 * Queues the given record. Releases the requesting flag and completes
+	 * the current page if there are no more records.
+	 */
+	private boolean handle(final Record record, final Throwable t) {
+
+		if (t != null) {
+
+			requesting.set(false);
+			pageResult.completeExceptionally(t);
+
+			return false;
+		}
+
+		if (record == null || aborted.get()) {
+
+			// release before completing, the next page may be requested immediately
+			requesting.set(false);
+			pageResult.complete(null);
+
+			return false;
+		}
+
+		lock.lock();
+		try {
+
+			queue.add(record);
+			elementCount++;
+
+			RecordQueueMetrics.recordsQueued(1, queue.size());
+
+			changed.signalAll();
+
+		} finally {
+			lock.unlock();
+		}
+
+		return true;
 	}
-}
\ No newline at end of file
+}
@@ -57,7 +57,7 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Node> implemen
 	}
 
 	public static void initialize(final int cacheSize) {
-		nodeCache = new FixedSizeCache<>("Node cache", cacheSize);
+		nodeCache = new FixedSizeCache<>("Node cache", cacheSize, true);
 	}
 
 	@Override
@@ -53,7 +53,7 @@ class RelationshipWrapper extends EntityWrapper<org.neo4j.driver.v1.types.Relati
 	}
 
 	public static void initialize(final int cacheSize) {
-		relationshipCache = new FixedSizeCache<>("Relationship cache", cacheSize);
+		relationshipCache = new FixedSizeCache<>("Relationship cache", cacheSize, true);
 	}
 
 	@Override
@@ -356,8 +356,7 @@ class SessionTransaction implements org.structr.api.Transaction {
 
 		tx.runAsync(statement, map)
 			.thenCompose(cursor -> consumer.start(cursor))
-			.thenCompose(cursor -> cursor.forEachAsync(consumer::accept))
-			.thenAccept(summary -> consumer.finish())
+			.thenAccept(done -> consumer.finish())
 			.exceptionally(t -> consumer.exception(t));
 	}
 
@@ -18,38 +18,82 @@
  */
 package org.structr.memory;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.structr.memory.index.PropertyIndex;
 
 /**
  */
 public abstract class EntityRepository {
 
-	protected static final int STORAGE_FORMAT_VERSION = 1;
+	protected final Map<String, PropertyIndex> propertyIndexes = new ConcurrentHashMap<>();
 
-	protected ZipOutputStream getZipOutputStream(final File dbFile) throws IOException {
+	public PropertyIndex getPropertyIndex(final String key) {
+		return propertyIndexes.get(key);
+	}
+
+	public Set<String> getIndexedKeys() {
+		return propertyIndexes.keySet();
+	}
+
+	protected abstract Iterable<? extends MemoryEntity> getIndexableEntities();
+
+	void createPropertyIndex(final String key) {
+
+		if (!propertyIndexes.containsKey(key)) {
+
+			final PropertyIndex index = new PropertyIndex(key);
+
+			// register index before populating it so that concurrent commits are not lost
+			propertyIndexes.put(key, index);
+
+			for (final MemoryEntity entity : getIndexableEntities()) {
+
+				index.add(entity.getIdentity(), entity.getCommittedProperty(key));
+			}
+		}
+	}
 
-		final ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(dbFile, false)));
+	void dropPropertyIndex(final String key) {
 
-		zos.putNextEntry(new ZipEntry("data"));
+		final PropertyIndex index = propertyIndexes.remove(key);
+		if (index != null) {
 
-		return zos;
+			index.clear();
+		}
 	}
 
-	protected ZipInputStream getZipInputStream(final File dbFile) throws IOException {
+	void updatePropertyIndex(final MemoryIdentity id, final String key, final Object oldValue, final Object newValue) {
 
-		final ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(dbFile)));
+		final PropertyIndex index = propertyIndexes.get(key);
+		if (index != null) {
+
+			index.remove(id, oldValue);
+			index.add(id, newValue);
+		}
+	}
+
+	protected void addToPropertyIndexes(final MemoryEntity entity) {
+
+		for (final PropertyIndex index : propertyIndexes.values()) {
+
+			index.add(entity.getIdentity(), entity.getCommittedProperty(index.getKey()));
+		}
+	}
+
+	protected void removeFromPropertyIndexes(final MemoryEntity entity) {
+
+		for (final PropertyIndex index : propertyIndexes.values()) {
+
+			index.remove(entity.getIdentity(), entity.getCommittedProperty(index.getKey()));
+		}
+	}
 
-		// there should be only one entry named "data"..
-		zis.getNextEntry();
+	protected void clearPropertyIndexes() {
 
-		return zis;
+		for (final PropertyIndex index : propertyIndexes.values()) {
+			index.clear();
+		}
 	}
 }
@@ -18,15 +18,29 @@
  */
 package org.structr.memory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.structr.api.AbstractDatabaseService;
 import org.structr.api.DatabaseFeature;
 import org.structr.api.NativeQuery;
 import org.structr.api.NotInTransactionException;
 import org.structr.api.Transaction;
+import org.structr.api.UnknownDatabaseException;
+import org.structr.api.config.Settings;
 import org.structr.api.graph.Direction;
 import org.structr.api.graph.GraphProperties;
 import org.structr.api.graph.Identity;
@@ -39,30 +53,67 @@ import org.structr.api.util.Iterables;
 import org.structr.api.util.NodeWithOwnerResult;
 import org.structr.memory.index.MemoryNodeIndex;
 import org.structr.memory.index.MemoryRelationshipIndex;
+import org.structr.memory.index.PropertyIndex;
 import org.structr.memory.index.filter.Filter;
 import org.structr.memory.index.filter.MemoryLabelFilter;
 import org.structr.memory.index.filter.MemoryTypeFilter;
 import org.structr.memory.index.filter.SourceNodeFilter;
 import org.structr.memory.index.filter.TargetNodeFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  */
 public class MemoryDatabaseService extends AbstractDatabaseService implements GraphProperties {
 
+	private static final Logger logger                                  = LoggerFactory.getLogger(MemoryDatabaseService.class.getName());
 	private static final ThreadLocal<MemoryTransaction> transactions    = new ThreadLocal<>();
 	private static final Map<String, Object> graphProperties            = new HashMap<>();
 	private final MemoryRelationshipRepository relationships            = new MemoryRelationshipRepository();
 	private final MemoryNodeRepository nodes                            = new MemoryNodeRepository();
 	private MemoryRelationshipIndex relIndex                            = null;
 	private MemoryNodeIndex nodeIndex                                   = null;
+	private final Map<Long, Long> activeSnapshots                       = new ConcurrentHashMap<>();
+	private final NavigableMap<Long, Set<MemoryIdentity>> removedNodes  = new ConcurrentSkipListMap<>();
+	private final NavigableMap<Long, Set<MemoryIdentity>> removedRels   = new ConcurrentSkipListMap<>();
+	private final ReentrantLock commitLock                              = new ReentrantLock();
+	private volatile long committedVersion                              = 0L;
+	private MemoryStorage storage                                       = null;
 
 	@Override
 	public boolean initialize(final String serviceName) {
+
+		final String storagePath = Settings.MemoryStoragePath.getPrefixedValue(serviceName);
+		if (StringUtils.isNotBlank(storagePath)) {
+
+			final boolean sync      = Settings.MemoryStorageSync.getPrefixedValue(serviceName);
+			final int threshold     = Settings.MemorySnapshotThreshold.getPrefixedValue(serviceName);
+			final MemoryStorage tmp = new MemoryStorage(this, nodes, relationships, new File(storagePath), sync, threshold);
+
+			try {
+
+				tmp.open();
+
+				storage = tmp;
+
+			} catch (IOException ioex) {
+
+				logger.error("Unable to load in-memory database from {}: {}", storagePath, ExceptionUtils.getStackTrace(ioex));
+				return false;
+			}
+		}
+
 		return true;
 	}
 
 	@Override
 	public void shutdown() {
+
+		if (storage != null) {
+
+			storage.close();
+			storage = null;
+		}
 	}
 
 	@Override
@@ -74,6 +125,20 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 
 		nodes.clear();
 		relationships.clear();
+		removedNodes.clear();
+		removedRels.clear();
+
+		if (storage != null) {
+
+			try {
+
+				// an empty snapshot replaces all existing data
+				storage.snapshot();
+
+			} catch (IOException ioex) {
+				logger.error(ExceptionUtils.getStackTrace(ioex));
+			}
+		}
 	}
 
 	@Override
@@ -103,19 +168,19 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 		final String tenantId      = getTenantIdentifier();
 
 		// base type is always a label
-		newNode.addLabel(type, false);
+		newNode.addLabel(type);
 
 		// add tenant identifier here
 		if (tenantId != null) {
 
-			newNode.addLabel(tenantId, false);
+			newNode.addLabel(tenantId);
 		}
 
 		// add labels
 		if (labels != null) {
 
 			for (final String label : labels) {
-				newNode.addLabel(label, false);
+				newNode.addLabel(label);
 			}
 		}
 
@@ -236,6 +301,38 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 
 	@Override
 	public void updateIndexConfiguration(final Map<String, Map<String, Boolean>> schemaIndexConfig, final Map<String, Map<String, Boolean>> removedClasses, final boolean createOnly) {
+
+		// property indexes are not type-specific, a key is indexed if any type declares it as indexed
+		final Set<String> indexedKeys = new LinkedHashSet<>();
+
+		for (final Map<String, Boolean> typeConfig : schemaIndexConfig.values()) {
+
+			for (final Map.Entry<String, Boolean> entry : typeConfig.entrySet()) {
+
+				if (Boolean.TRUE.equals(entry.getValue())) {
+
+					indexedKeys.add(entry.getKey());
+				}
+			}
+		}
+
+		for (final String key : indexedKeys) {
+
+			nodes.createPropertyIndex(key);
+			relationships.createPropertyIndex(key);
+		}
+
+		if (!createOnly) {
+
+			for (final String key : new LinkedHashSet<>(nodes.getIndexedKeys())) {
+
+				if (!indexedKeys.contains(key)) {
+
+					nodes.dropPropertyIndex(key);
+					relationships.dropPropertyIndex(key);
+				}
+			}
+		}
 	}
 
 	@Override
@@ -284,6 +381,58 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 		});
 	}
 
+	public Iterable<MemoryNode> getIndexedNodes(final Filter<MemoryNode> filter, final Set<MemoryIdentity> candidates) {
+
+		return new LazyAccessor<>(() -> {
+
+			final MemoryTransaction tx = getCurrentTransaction();
+			return tx.getNodes(filter, candidates);
+		});
+	}
+
+	public Iterable<MemoryRelationship> getIndexedRelationships(final Filter<MemoryRelationship> filter, final Set<MemoryIdentity> candidates) {
+
+		return new LazyAccessor<>(() -> {
+
+			final MemoryTransaction tx = getCurrentTransaction();
+			return tx.getRelationships(filter, candidates);
+		});
+	}
+
+	/**
+	 * Indicates whether the property indexes contain exactly the data that
+	 * is visible to the current transaction, i.e. no other transaction
+	 * has committed since it started and it has no changes of its own.
+	 */
+	public boolean isIndexVisible() {
+
+		final MemoryTransaction tx = transactions.get();
+
+		return tx == null || (tx.getSnapshotVersion() == committedVersion && !tx.hasChanges());
+	}
+
+	/**
+	 * Indicates whether the property indexes contain the committed data
+	 * that is visible to the current transaction, i.e. no other transaction
+	 * has committed since it started. Changes of the current transaction
+	 * itself are not contained in the indexes, callers that use index
+	 * candidates must merge them separately.
+	 */
+	public boolean isIndexCurrent() {
+
+		final MemoryTransaction tx = transactions.get();
+
+		return tx == null || tx.getSnapshotVersion() == committedVersion;
+	}
+
+	public PropertyIndex getNodePropertyIndex(final String key) {
+		return nodes.getPropertyIndex(key);
+	}
+
+	public PropertyIndex getRelationshipPropertyIndex(final String key) {
+		return relationships.getPropertyIndex(key);
+	}
+
 	public Iterable<MemoryRelationship> getFilteredRelationships(final Filter<MemoryRelationship> filter) {
 
 		return new LazyAccessor<>(() -> {
@@ -328,9 +477,6 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 	// ----- graph repository methods -----
 	public Relationship createRelationship(final MemoryNode sourceNode, final MemoryNode targetNode, final RelationshipType relType) {
 
-		sourceNode.lock();
-		targetNode.lock();
-
 		final MemoryTransaction tx               = getCurrentTransaction();
 		final MemoryIdentity id                  = new MemoryIdentity(false, relType.name());
 		final MemoryRelationship newRelationship = new MemoryRelationship(this, id, relType, (MemoryIdentity)sourceNode.getId(), (MemoryIdentity)targetNode.getId());
@@ -432,17 +578,143 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 		return tx;
 	}
 
-	void commitTransaction(final Map<MemoryIdentity, MemoryNode> newNodes, final Map<MemoryIdentity, MemoryRelationship> newRelationships, Set<MemoryIdentity> deletedNodes, Map<MemoryIdentity, MemoryRelationship> deletedRelationships) {
-
-		newNodes.keySet().removeAll(deletedNodes);
-		nodes.remove(deletedNodes);
-		nodes.add(newNodes.values());
+	void commitTransaction(final MemoryTransaction tx) {
 
-		newRelationships.keySet().removeAll(deletedRelationships.keySet());
-		relationships.remove(deletedRelationships);
-		relationships.add(newRelationships.values());
+		final Map<MemoryIdentity, MemoryRelationship> newRelationships     = tx.getCreatedRelationships();
+		final Map<MemoryIdentity, MemoryRelationship> deletedRelationships = tx.getDeletedRelationships();
+		final Map<MemoryIdentity, MemoryNode> newNodes                     = tx.getCreatedNodes();
+		final Set<MemoryIdentity> deletedNodes                             = tx.getDeletedNodes();
+		long sequence                                                      = -1L;
 
+		// reads during commit must see the committed state
 		transactions.remove();
+
+		if (storage != null) {
+			storage.beginCommit();
+		}
+
+		try {
+
+			commitLock.lock();
+			try {
+
+				tx.validate();
+
+				final long version              = committedVersion + 1;
+				final Set<MemoryEntity> changed = tx.prepareChanges(version);
+
+				newNodes.keySet().removeAll(deletedNodes);
+				newRelationships.keySet().removeAll(deletedRelationships.keySet());
+
+				// the log record must be durable before the changes become visible
+				if (storage != null) {
+
+					final List<MemoryRelationship> changedRelationships = new LinkedList<>(newRelationships.values());
+					final List<MemoryNode> changedNodes                 = new LinkedList<>(newNodes.values());
+
+					for (final MemoryEntity entity : changed) {
+
+						final MemoryIdentity id = entity.getIdentity();
+
+						// new entities are already contained in the lists above
+						if (entity instanceof MemoryNode && !deletedNodes.contains(id) && !newNodes.containsKey(id)) {
+							changedNodes.add((MemoryNode)entity);
+						}
+
+						if (entity instanceof MemoryRelationship && !deletedRelationships.containsKey(id) && !newRelationships.containsKey(id)) {
+							changedRelationships.add((MemoryRelationship)entity);
+						}
+					}
+
+					try {
+
+						sequence = storage.append(changedNodes, changedRelationships, deletedNodes, deletedRelationships.keySet());
+
+						storage.sync(sequence);
+
+					} catch (IOException | RuntimeException ex) {
+
+						storage.discard(sequence);
+						tx.discardChanges();
+
+						throw ex;
+					}
+				}
+
+				tx.publishChanges(getOldestSnapshot());
+
+				// deleted entities stay visible to older snapshots until they are removed
+				nodes.markDeleted(deletedNodes, version);
+				nodes.add(newNodes.values());
+
+				relationships.markDeleted(deletedRelationships, version);
+				relationships.add(newRelationships.values());
+
+				if (!deletedNodes.isEmpty()) {
+					removedNodes.put(version, new LinkedHashSet<>(deletedNodes));
+				}
+
+				if (!deletedRelationships.isEmpty()) {
+					removedRels.put(version, new LinkedHashSet<>(deletedRelationships.keySet()));
+				}
+
+				// make the new versions visible to new transactions
+				committedVersion = version;
+
+				removeDeletedEntities();
+
+			} finally {
+				commitLock.unlock();
+			}
+
+		} catch (IOException ioex) {
+
+			throw new UnknownDatabaseException(ioex, "Memory.StorageError", "Unable to write transaction log: " + ioex.getMessage());
+
+		} finally {
+
+			if (storage != null) {
+				storage.endCommit();
+			}
+		}
+	}
+
+	long beginSnapshot(final long transactionId) {
+
+		// register under the commit lock so that a concurrent commit cannot prune the versions of this snapshot
+		commitLock.lock();
+		try {
+
+			final long version = committedVersion;
+
+			activeSnapshots.put(transactionId, version);
+
+			return version;
+
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	void endSnapshot(final long transactionId) {
+
+		activeSnapshots.remove(transactionId);
+
+		// the next commit removes the deleted entities if the lock is busy
+		if ((!removedNodes.isEmpty() || !removedRels.isEmpty()) && commitLock.tryLock()) {
+
+			try {
+
+				removeDeletedEntities();
+
+			} finally {
+				commitLock.unlock();
+			}
+		}
+	}
+
+	boolean isDuplicate(final MemoryRelationship relationship) {
+		return relationships.isDuplicate(relationship);
 	}
 
 	void rollbackTransaction() {
@@ -467,12 +739,9 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 
 	boolean exists(final MemoryIdentity id) {
 
-		if (id.isNode()) {
-
-			return nodes.contains(id);
-		}
+		final MemoryEntity entity = id.isNode() ? nodes.get(id) : relationships.get(id);
 
-		return relationships.contains(id);
+		return entity != null && !entity.hasBeenDeleted();
 	}
 
 	void updateCache(final MemoryNode node) {
@@ -483,6 +752,71 @@ public class MemoryDatabaseService extends AbstractDatabaseService implements Gr
 		relationships.updateCache(relationship);
 	}
 
+	void updateIndex(final MemoryNode node, final String key, final Object oldValue, final Object newValue) {
+
+		final MemoryIdentity id = node.getIdentity();
+
+		// new nodes are indexed when they are added to the repository
+		if (nodes.contains(id)) {
+
+			nodes.updatePropertyIndex(id, key, oldValue, newValue);
+		}
+	}
+
+	void updateIndex(final MemoryRelationship relationship, final String key, final Object oldValue, final Object newValue) {
+
+		final MemoryIdentity id = relationship.getIdentity();
+
+		// new relationships are indexed when they are added to the repository
+		if (relationships.contains(id)) {
+
+			relationships.updatePropertyIndex(id, key, oldValue, newValue);
+		}
+	}
+
+	// ----- private methods -----
+	/**
+	 * Removes the entities that are not visible to any active snapshot
+	 * anymore from the repositories. Must be called while the commit lock
+	 * is held.
+	 */
+	private void removeDeletedEntities() {
+
+		final long oldestSnapshot = getOldestSnapshot();
+
+		// entities deleted in a given version are not visible to snapshots of that version or newer
+		while (!removedNodes.isEmpty() && removedNodes.firstKey() <= oldestSnapshot) {
+			nodes.remove(removedNodes.pollFirstEntry().getValue());
+		}
+
+		while (!removedRels.isEmpty() && removedRels.firstKey() <= oldestSnapshot) {
+
+			final Map<MemoryIdentity, MemoryRelationship> deleted = new LinkedHashMap<>();
+
+			for (final MemoryIdentity id : removedRels.pollFirstEntry().getValue()) {
+
+				final MemoryRelationship rel = relationships.get(id);
+				if (rel != null) {
+
+					deleted.put(id, rel);
+				}
+			}
+
+			relationships.remove(deleted);
+		}
+	}
+
+	private long getOldestSnapshot() {
+
+		long oldest = committedVersion;
+
+		for (final long version : activeSnapshots.values()) {
+			oldest = Math.min(oldest, version);
+		}
+
+		return oldest;
+	}
+
 	// ----- nested classes -----
 	private class LazyAccessor<T> implements Iterable<T> {
 
@@ -18,28 +18,35 @@
  */
 package org.structr.memory;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 import org.structr.api.NotFoundException;
 import org.structr.api.graph.Identity;
 import org.structr.api.graph.PropertyContainer;
 import org.structr.api.util.ChangeAwareMap;
 
 /**
+ * Base class for nodes and relationships of the in-memory database.
+ *
+ * The committed state of an entity is stored in a chain of immutable
+ * versions. A transaction reads the newest version that was committed
+ * before the transaction started, and writes to a private copy that is
+ * turned into a new version when the transaction commits. Readers never
+ * block, and two transactions only conflict if they modify the same
+ * entity concurrently, which is detected on commit.
  */
 public abstract class MemoryEntity implements PropertyContainer {
 
-	private final Map<Long, ChangeAwareMap> txData = new LinkedHashMap<>();
-	private final ChangeAwareMap data              = new ChangeAwareMap();
-	private final Set<String> labels               = new LinkedHashSet<>();
-	private ReentrantLock lock                     = new ReentrantLock();
+	private final Map<Long, ChangeAwareMap> txData = new ConcurrentHashMap<>();
+	private final Map<Long, Set<String>> txLabels  = new ConcurrentHashMap<>();
+	private volatile Version head                  = null;
+	private Version pending                        = null;
+	private volatile long createdVersion           = 0L;
+	private volatile long deletedVersion           = Long.MAX_VALUE;
 	protected MemoryDatabaseService db             = null;
 	private MemoryIdentity id                      = null;
 
@@ -51,12 +58,12 @@ public abstract class MemoryEntity implements PropertyContainer {
 
 		this.id = identity;
 		this.db = db;
-
-		lock();
 	}
 
 	protected abstract void updateCache();
 
+	protected abstract void updateIndex(final String key, final Object oldValue, final Object newValue);
+
 	@Override
 	public Identity getId() {
 		return id;
@@ -68,12 +75,12 @@ public abstract class MemoryEntity implements PropertyContainer {
 
 	@Override
 	public boolean hasProperty(final String name) {
-		return getData(true).containsKey(name);
+		return getVisibleData().containsKey(name);
 	}
 
 	@Override
 	public Object getProperty(String name) {
-		return getData(true).get(name);
+		return getVisibleData().get(name);
 	}
 
 	@Override
@@ -90,25 +97,22 @@ public abstract class MemoryEntity implements PropertyContainer {
 
 	@Override
 	public void setProperty(final String name, final Object value) {
-		lock();
-		getData(false).put(name, value);
+		getWritableData().put(name, value);
 	}
 
 	@Override
 	public void setProperties(final Map<String, Object> values) {
-		lock();
-		getData(false).putAll(values);
+		getWritableData().putAll(values);
 	}
 
 	@Override
 	public void removeProperty(final String name) {
-		lock();
-		getData(false).put(name, null);
+		getWritableData().put(name, null);
 	}
 
 	@Override
 	public Iterable<String> getPropertyKeys() {
-		return getData(true).keySet();
+		return getVisibleData().keySet();
 	}
 
 	@Override
@@ -122,173 +126,357 @@ public abstract class MemoryEntity implements PropertyContainer {
 	}
 
 	public void addLabel(final String label) {
-		addLabel(label, true);
+		getWritableLabels().add(label);
 	}
 
-	void addLabel(final String label, final boolean updateCache) {
-
-		lock();
-		labels.add(label);
-
-		if (updateCache) {
-			updateCache();
-		}
+	public void removeLabel(final String label) {
+		getWritableLabels().remove(label);
 	}
 
-	public void removeLabel(final String label) {
-		removeLabel(label, true);
+	public boolean hasLabel(final String label) {
+		return getVisibleLabels().contains(label);
 	}
 
-	public void removeLabel(final String label, final boolean updateCache) {
+	public Iterable<String> getLabels() {
+		return getVisibleLabels();
+	}
 
-		lock();
-		labels.remove(label);
+	// ----- package-private methods -----
+	/**
+	 * Indicates whether this entity existed at the given snapshot version,
+	 * i.e. whether it was created by a transaction that committed before
+	 * the snapshot was taken and not deleted by one.
+	 *
+	 * Deleted entities stay in the repositories until no snapshot that can
+	 * see them is active anymore.
+	 */
+	boolean existsAt(final long snapshotVersion) {
+		return createdVersion <= snapshotVersion && snapshotVersion < deletedVersion;
+	}
 
-		if (updateCache) {
-			updateCache();
-		}
+	/**
+	 * Indicates whether this entity was deleted by a committed transaction.
+	 */
+	boolean hasBeenDeleted() {
+		return deletedVersion != Long.MAX_VALUE;
 	}
 
-	public boolean hasLabel(final String label) {
-		return labels.contains(label);
+	/**
+	 * Marks this entity as deleted by the transaction that committed the
+	 * given version. Must only be called while the commit lock is held.
+	 */
+	void markDeleted(final long version) {
+		deletedVersion = version;
 	}
 
-	public Iterable<String> getLabels() {
-		return labels;
+	/**
+	 * Indicates whether a version of this entity was committed after the
+	 * given snapshot version, i.e. whether a transaction that started at
+	 * the given version would overwrite a concurrent change.
+	 */
+	boolean isModifiedAfter(final long snapshotVersion) {
+
+		final Version current = head;
+
+		return (current != null && current.version > snapshotVersion) || (hasBeenDeleted() && deletedVersion > snapshotVersion);
 	}
 
-	// ----- package-private methods -----
-	void commit(final long transactionId) {
+	/**
+	 * Creates the next version from the changes of the given transaction
+	 * without making it visible, so that it can be written to the log
+	 * first. Must only be called while the commit lock is held.
+	 *
+	 * @return whether any property or label was changed
+	 */
+	boolean prepareCommit(final long transactionId, final long version) {
 
 		final ChangeAwareMap changes = txData.get(transactionId);
-		if (changes != null) {
+		final Set<String> newLabels  = txLabels.get(transactionId);
+		final Version current        = head;
+		Map<String, Object> data     = current != null ? current.data : Collections.emptyMap();
+		Set<String> labels           = current != null ? current.labels : Collections.emptySet();
+		boolean hasChanges           = false;
+
+		if (changes != null && !changes.getModifiedKeys().isEmpty()) {
+
+			final Map<String, Object> copy = new LinkedHashMap<>(data);
 
 			for (final String key : changes.getModifiedKeys()) {
 
 				final Object value = changes.get(key);
+
 				if (value != null) {
 
-					data.put(key, value);
+					copy.put(key, value);
 
 				} else {
 
-					data.remove(key);
+					copy.remove(key);
+				}
+			}
+
+			data       = Collections.unmodifiableMap(copy);
+			hasChanges = true;
+		}
+
+		if (newLabels != null && !newLabels.equals(labels)) {
+
+			labels     = Collections.unmodifiableSet(newLabels);
+			hasChanges = true;
+		}
+
+		if (hasChanges || current == null) {
+
+			pending = new Version(version, data, labels, current);
+		}
+
+		return hasChanges;
+	}
+
+	/**
+	 * Makes the version created by prepareCommit visible. Must only be
+	 * called while the commit lock is held.
+	 */
+	void publishCommit(final long transactionId, final long oldestSnapshot) {
+
+		final ChangeAwareMap changes = txData.remove(transactionId);
+		final Version current        = head;
+		final Version next           = pending;
+
+		txLabels.remove(transactionId);
+
+		pending = null;
+
+		if (next != null) {
+
+			final Map<String, Object> data = current != null ? current.data : Collections.emptyMap();
+			final Set<String> labels       = current != null ? current.labels : Collections.emptySet();
+
+			if (changes != null) {
+
+				for (final String key : changes.getModifiedKeys()) {
+
+					updateIndex(key, data.get(key), next.data.get(key));
 				}
 			}
 
-			txData.remove(transactionId);
+			if (current == null) {
+				createdVersion = next.version;
+			}
+
+			head = next;
+			head.prune(oldestSnapshot);
+
+			if (!next.labels.equals(labels)) {
+				updateCache();
+			}
 		}
+	}
 
-		unlock();
+	/**
+	 * Discards the version created by prepareCommit. Must only be called
+	 * while the commit lock is held.
+	 */
+	void discardCommit() {
+		pending = null;
 	}
 
 	void rollback(final long transactionId) {
+
 		txData.remove(transactionId);
-		unlock();
+		txLabels.remove(transactionId);
 	}
 
-	void lock() {
+	Object getCommittedProperty(final String key) {
+
+		final Version current = head;
+		if (current != null) {
 
-		if (!lock.isHeldByCurrentThread()) {
-			lock.lock();
+			return current.data.get(key);
 		}
+
+		return null;
+	}
+
+	void copyCommittedState(final Set<String> labelsTarget, final Map<String, Object> dataTarget) {
+		copyState(head, labelsTarget, dataTarget);
 	}
 
-	void unlock() {
+	/**
+	 * Copies the version created by prepareCommit, or the committed state
+	 * if this entity was not changed. Must only be called while the commit
+	 * lock is held.
+	 */
+	void copyPreparedState(final Set<String> labelsTarget, final Map<String, Object> dataTarget) {
+		copyState(pending != null ? pending : head, labelsTarget, dataTarget);
+	}
+
+	void loadCommittedState(final Set<String> newLabels, final Map<String, Object> newData) {
+
+		// loaded state is visible to all transactions
+		head = new Version(0L, Collections.unmodifiableMap(new LinkedHashMap<>(newData)), Collections.unmodifiableSet(new LinkedHashSet<>(newLabels)), null);
+	}
 
-		if (lock.isHeldByCurrentThread()) {
-			lock.unlock();
+	void setIdentity(final MemoryIdentity id) {
+		this.id = id;
+	}
+
+	// ----- private methods -----
+	private void copyState(final Version version, final Set<String> labelsTarget, final Map<String, Object> dataTarget) {
+
+		if (version != null) {
+
+			labelsTarget.addAll(version.labels);
+			dataTarget.putAll(version.data);
 		}
 	}
 
-	// ----- package-private methods -----
-	void loadFromStorage(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+	private Map<String, Object> getVisibleData() {
 
-		// read identity first
-		id = MemoryIdentity.loadFromStorage(in);
+		final MemoryTransaction tx = getTransaction(false);
+		if (tx != null) {
 
-		// read label count
-		final int labelCount = in.readInt();
+			final ChangeAwareMap copy = txData.get(tx.getTransactionId());
+			if (copy != null) {
 
-		// read labels
-		for (int i=0; i<labelCount; i++) {
+				return copy.asMap();
+			}
 
-			labels.add(in.readUTF());
+			return getVersion(tx.getSnapshotVersion()).data;
 		}
 
-		// read properties
-		final int propertyCount = in.readInt();
+		return getVersion(Long.MAX_VALUE).data;
+	}
 
-		for (int i=0; i<propertyCount; i++) {
+	private Set<String> getVisibleLabels() {
 
-			final String key   = in.readUTF();
-			final Object value = in.readObject();
+		// labels are accessed while new entities are registered, so there is no existence check here
+		final MemoryTransaction tx = db.getCurrentTransaction(false);
+		if (tx != null) {
 
-			if (key != null && value != null) {
+			final Set<String> copy = txLabels.get(tx.getTransactionId());
+			if (copy != null) {
 
-				data.put(key, value);
+				return copy;
 			}
+
+			return getVersion(tx.getSnapshotVersion()).labels;
 		}
+
+		return getVersion(Long.MAX_VALUE).labels;
 	}
 
-	void writeToStorage(final ObjectOutputStream out) throws IOException {
+	private ChangeAwareMap getWritableData() {
 
-		// write identity first
-		id.writeToStorage(out);
+		final MemoryTransaction tx = getTransaction(true);
+		final long transactionId   = tx.getTransactionId();
+		ChangeAwareMap copy        = txData.get(transactionId);
 
-		// then label count
-		out.writeInt(labels.size());
+		if (copy == null) {
 
-		// and labels
-		for (final String label : labels) {
+			copy = new ChangeAwareMap(getVersion(tx.getSnapshotVersion()).data);
+			txData.put(transactionId, copy);
 
-			out.writeUTF(label);
+			tx.modify(this);
 		}
 
-		// then properties
-		out.writeInt(data.size());
+		return copy;
+	}
+
+	private Set<String> getWritableLabels() {
+
+		final MemoryTransaction tx = db.getCurrentTransaction(true);
+		final long transactionId   = tx.getTransactionId();
+		Set<String> copy           = txLabels.get(transactionId);
 
-		for (final Entry<String, Object> entry : data.entrySet()) {
+		if (copy == null) {
 
-			out.writeUTF(entry.getKey());
-			out.writeObject(entry.getValue());
+			copy = new LinkedHashSet<>(getVersion(tx.getSnapshotVersion()).labels);
+			txLabels.put(transactionId, copy);
+
+			tx.modify(this);
 		}
+
+		return copy;
 	}
 
-
-	// ----- private methods -----
-	private ChangeAwareMap getData(final boolean read) {
+	private MemoryTransaction getTransaction(final boolean write) {
 
 		// read-only access does not need a transaction
-		final MemoryTransaction tx = db.getCurrentTransaction(!read);
+		final MemoryTransaction tx = db.getCurrentTransaction(write);
 		if (tx != null) {
 
 			if (tx.isDeleted(id)) {
-				tx.isDeleted(id);
 				throw new NotFoundException("Entity with ID " + id + " not found.");
 			}
 
 			if (!tx.exists(id)) {
-				tx.exists(id);
 				throw new NotFoundException("Entity with ID " + id + " not found.");
 			}
+		}
+
+		return tx;
+	}
 
-			final long transactionId = tx.getTransactionId();
-			ChangeAwareMap copy      = txData.get(transactionId);
-			if (copy == null) {
+	private Version getVersion(final long snapshotVersion) {
 
-				copy = new ChangeAwareMap(data);
-				txData.put(transactionId, copy);
+		Version version = head;
+		if (version == null) {
 
-				tx.modify(this);
-			}
+			return Version.EMPTY;
+		}
 
-			return copy;
+		while (version.version > snapshotVersion) {
 
-		} else {
+			final Version previous = version.previous;
+			if (previous == null) {
 
-			return data;
+				// entity was created after the snapshot, use the oldest version
+				break;
+			}
+
+			version = previous;
 		}
+
+		return version;
 	}
 
+	// ----- nested classes -----
+	private static class Version {
+
+		private static final Version EMPTY = new Version(0L, Collections.emptyMap(), Collections.emptySet(), null);
+
+		private final Map<String, Object> data;
+		private final Set<String> labels;
+		private final long version;
+		private volatile Version previous;
+
+		Version(final long version, final Map<String, Object> data, final Set<String> labels, final Version previous) {
+
+			this.version  = version;
+			this.data     = data;
+			this.labels   = labels;
+			this.previous = previous;
+		}
+
+		/**
+		 * Removes all versions that are not visible to any transaction
+		 * that started at or after the given version.
+		 */
+		void prune(final long oldestSnapshot) {
+
+			Version current = this;
+
+			while (current != null) {
+
+				if (current.version <= oldestSnapshot) {
+
+					current.previous = null;
+					break;
+				}
+
+				current = current.previous;
+			}
+		}
+	}
 }
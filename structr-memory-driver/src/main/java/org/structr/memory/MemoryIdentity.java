@@ -18,9 +18,6 @@
  */
 package org.structr.memory;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.concurrent.atomic.AtomicLong;
 import org.structr.api.graph.Identity;
 
@@ -33,9 +30,6 @@ public class MemoryIdentity implements Identity {
 	private String type                       = null;
 	private long id                           = -1L;
 
-	private MemoryIdentity() throws IOException {
-	}
-
 	public MemoryIdentity(final boolean isNode, final String type) {
 
 		this.id     = idCounter.getAndIncrement();
@@ -43,6 +37,16 @@ public class MemoryIdentity implements Identity {
 		this.type   = type;
 	}
 
+	MemoryIdentity(final long id, final boolean isNode, final String type) {
+
+		this.id     = id;
+		this.isNode = isNode;
+		this.type   = type;
+
+		// make sure that new identities do not collide with restored ones
+		idCounter.accumulateAndGet(id + 1, Math::max);
+	}
+
 	@Override
 	public String toString() {
 		return Long.toString(id);
@@ -86,23 +90,4 @@ public class MemoryIdentity implements Identity {
 		return isNode;
 	}
 
-
-	// ----- package-private methods -----
-	static MemoryIdentity loadFromStorage(final ObjectInputStream in) throws IOException {
-
-		final MemoryIdentity identity = new MemoryIdentity();
-
-		identity.isNode = in.readBoolean();
-		identity.type   = in.readUTF();
-		identity.id     = in.readLong();
-
-		return identity;
-	}
-
-	void writeToStorage(final ObjectOutputStream out) throws IOException {
-
-		out.writeBoolean(isNode);
-		out.writeUTF(type);
-		out.writeLong(id);
-	}
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent set of identities, stored in fixed-size blocks of adjacent
+ * IDs with a membership bitmap per block. Since identities are created
+ * from a monotonic counter, blocks are filled densely and add / remove
+ * are constant-time operations that only lock a single block. Iteration
+ * is weakly consistent and returns the identities in ascending ID (i.e.
+ * creation) order, without copying the whole set.
+ */
+public class MemoryIdentitySet extends AbstractSet<MemoryIdentity> {
+
+	private static final int BLOCK_SHIFT = 6;
+	private static final int BLOCK_SIZE  = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK  = BLOCK_SIZE - 1;
+
+	private final ConcurrentSkipListMap<Long, Block> blocks = new ConcurrentSkipListMap<>();
+	private final AtomicInteger size                        = new AtomicInteger();
+
+	@Override
+	public boolean add(final MemoryIdentity identity) {
+
+		final long id  = identity.getId();
+		final Long key = id >>> BLOCK_SHIFT;
+
+		while (true) {
+
+			final Block block = blocks.computeIfAbsent(key, k -> new Block());
+
+			synchronized (block) {
+
+				// block was removed concurrently, try again
+				if (block.removed) {
+					continue;
+				}
+
+				if (block.set((int)(id & BLOCK_MASK), identity)) {
+
+					size.incrementAndGet();
+					return true;
+				}
+
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public boolean remove(final Object o) {
+
+		if (!(o instanceof MemoryIdentity)) {
+			return false;
+		}
+
+		final MemoryIdentity identity = (MemoryIdentity)o;
+		final long id     = identity.getId();
+		final Long key    = id >>> BLOCK_SHIFT;
+		final Block block = blocks.get(key);
+
+		if (block != null) {
+
+			synchronized (block) {
+
+				if (block.clear((int)(id & BLOCK_MASK))) {
+
+					size.decrementAndGet();
+
+					if (block.isEmpty()) {
+
+						block.removed = true;
+						blocks.remove(key, block);
+					}
+
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+
+		if (!(o instanceof MemoryIdentity)) {
+			return false;
+		}
+
+		final MemoryIdentity identity = (MemoryIdentity)o;
+		final long id     = identity.getId();
+		final Block block = blocks.get(id >>> BLOCK_SHIFT);
+
+		if (block != null) {
+
+			synchronized (block) {
+
+				return block.get((int)(id & BLOCK_MASK)) != null;
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size.get() == 0;
+	}
+
+	@Override
+	public void clear() {
+
+		for (final Block block : blocks.values()) {
+
+			synchronized (block) {
+
+				block.removed = true;
+			}
+		}
+
+		blocks.clear();
+		size.set(0);
+	}
+
+	@Override
+	public Iterator<MemoryIdentity> iterator() {
+		return new BlockIterator(blocks.values().iterator());
+	}
+
+	// ----- nested classes -----
+	private static class Block {
+
+		private final MemoryIdentity[] slots = new MemoryIdentity[BLOCK_SIZE];
+		private boolean removed              = false;
+		private long bits                    = 0L;
+
+		boolean set(final int index, final MemoryIdentity identity) {
+
+			final long mask = 1L << index;
+
+			slots[index] = identity;
+
+			if ((bits & mask) == 0) {
+
+				bits |= mask;
+				return true;
+			}
+
+			return false;
+		}
+
+		boolean clear(final int index) {
+
+			final long mask = 1L << index;
+
+			if ((bits & mask) != 0) {
+
+				bits        &= ~mask;
+				slots[index] = null;
+
+				return true;
+			}
+
+			return false;
+		}
+
+		MemoryIdentity get(final int index) {
+			return slots[index];
+		}
+
+		boolean isEmpty() {
+			return bits == 0L;
+		}
+
+		synchronized List<MemoryIdentity> snapshot() {
+
+			final List<MemoryIdentity> list = new ArrayList<>(Long.bitCount(bits));
+			long remaining                  = bits;
+
+			while (remaining != 0L) {
+
+				final int index = Long.numberOfTrailingZeros(remaining);
+
+				list.add(slots[index]);
+
+				remaining &= remaining - 1;
+			}
+
+			return list;
+		}
+	}
+
+	private static class BlockIterator implements Iterator<MemoryIdentity> {
+
+		private Iterator<MemoryIdentity> current = null;
+		private Iterator<Block> blocks           = null;
+
+		public BlockIterator(final Iterator<Block> blocks) {
+			this.blocks = blocks;
+		}
+
+		@Override
+		public boolean hasNext() {
+
+			while (current == null || !current.hasNext()) {
+
+				if (!blocks.hasNext()) {
+					return false;
+				}
+
+				current = blocks.next().snapshot().iterator();
+			}
+
+			return true;
+		}
+
+		@Override
+		public MemoryIdentity next() {
+
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			return current.next();
+		}
+	}
+}
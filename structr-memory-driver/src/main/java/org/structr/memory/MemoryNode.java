@@ -18,8 +18,6 @@
  */
 package org.structr.memory;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.Map;
 import org.structr.api.NotInTransactionException;
 import org.structr.api.graph.Direction;
@@ -43,18 +41,6 @@ public class MemoryNode extends MemoryEntity implements Node {
 
 	@Override
 	public Relationship createRelationshipTo(final Node endNode, final RelationshipType relationshipType) {
-
-		if (getId().compareTo(endNode.getId()) == -1) {
-
-			((MemoryNode)endNode).lock();
-			lock();
-
-		} else {
-
-			lock();
-			((MemoryNode)endNode).lock();
-		}
-
 		return db.createRelationship(this, (MemoryNode)endNode, relationshipType);
 	}
 
@@ -108,7 +94,6 @@ public class MemoryNode extends MemoryEntity implements Node {
 
 	@Override
 	public void delete(boolean deleteRelationships) throws NotInTransactionException {
-		lock();
 		db.delete(this);
 	}
 
@@ -117,14 +102,17 @@ public class MemoryNode extends MemoryEntity implements Node {
 		db.updateCache(this);
 	}
 
+	@Override
+	protected void updateIndex(final String key, final Object oldValue, final Object newValue) {
+		db.updateIndex(this, key, oldValue, newValue);
+	}
+
 	// ----- package-private methods -----
-	static MemoryNode createFromStorage(final MemoryDatabaseService db, final ObjectInputStream is) throws IOException, ClassNotFoundException {
+	static MemoryNode createFromStorage(final MemoryDatabaseService db, final MemoryIdentity identity) {
 
-		// use empty constructor
 		final MemoryNode node = new MemoryNode(db);
 
-		// everything is handled by MemoryEntity
-		node.loadFromStorage(is);
+		node.setIdentity(identity);
 
 		return node;
 	}
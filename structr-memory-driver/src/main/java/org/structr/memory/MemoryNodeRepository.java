@@ -18,20 +18,14 @@
  */
 package org.structr.memory;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
-import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.util.Iterables;
-import static org.structr.memory.EntityRepository.STORAGE_FORMAT_VERSION;
 import org.structr.memory.index.filter.Filter;
 import org.structr.memory.index.filter.MemoryLabelFilter;
 import org.structr.memory.index.filter.MemoryTypeFilter;
@@ -42,9 +36,11 @@ public class MemoryNodeRepository extends EntityRepository {
 
 	private static final Logger logger = LoggerFactory.getLogger(MemoryNodeRepository.class);
 
-	final Map<MemoryIdentity, MemoryNode> masterData  = new ConcurrentHashMap<>();
-	final Map<String, Set<MemoryIdentity>> labelCache = new ConcurrentHashMap<>();
-	final Map<String, Set<MemoryIdentity>> typeCache  = new ConcurrentHashMap<>();
+	final Map<MemoryIdentity, MemoryNode> masterData   = new ConcurrentHashMap<>();
+	final Map<String, MemoryIdentitySet> labelCache    = new ConcurrentHashMap<>();
+	final Map<String, MemoryIdentitySet> typeCache     = new ConcurrentHashMap<>();
+	final Map<MemoryIdentity, Set<String>> labelsById  = new ConcurrentHashMap<>();
+	final Map<MemoryIdentity, String> typeById         = new ConcurrentHashMap<>();
 
 	MemoryNode get(final MemoryIdentity id) {
 		return masterData.get(id);
@@ -54,6 +50,9 @@ public class MemoryNodeRepository extends EntityRepository {
 		masterData.clear();
 		labelCache.clear();
 		typeCache.clear();
+		labelsById.clear();
+		typeById.clear();
+		clearPropertyIndexes();
 	}
 
 	Iterable<MemoryNode> values(final Filter<MemoryNode> filter) {
@@ -63,15 +62,22 @@ public class MemoryNodeRepository extends EntityRepository {
 			if (filter instanceof MemoryLabelFilter) {
 
 				final MemoryLabelFilter<MemoryNode> mt = (MemoryLabelFilter<MemoryNode>)filter;
-				final Set<MemoryIdentity> cache        = new LinkedHashSet<>();
+				final Set<String> labels               = mt.getLabels();
+
+				if (labels.size() == 1) {
+
+					return resolve(getCacheForLabel(labels.iterator().next()));
+				}
 
 				// multiple labels result in OR not AND query
-				for (final String label : mt.getLabels()) {
+				final Set<MemoryIdentity> cache = new TreeSet<>();
+
+				for (final String label : labels) {
 
 					cache.addAll(getCacheForLabel(label));
 				}
 
-				return Iterables.map(i -> masterData.get(i), cache);
+				return resolve(cache);
 			}
 
 			if (filter instanceof MemoryTypeFilter) {
@@ -79,7 +85,7 @@ public class MemoryNodeRepository extends EntityRepository {
 				final MemoryTypeFilter<MemoryNode> mt = (MemoryTypeFilter<MemoryNode>)filter;
 				final String type                     = mt.getType();
 
-				return Iterables.map(i -> masterData.get(i), new LinkedHashSet<>(getCacheForType(type)));
+				return resolve(getCacheForType(type));
 			}
 		}
 
@@ -100,16 +106,12 @@ public class MemoryNodeRepository extends EntityRepository {
 	void add(final MemoryNode node) {
 
 		final MemoryIdentity id = node.getIdentity();
-		final String type       = id.getType();
 
-		for (final String label : node.getLabels()) {
-
-			getCacheForLabel(label).add(id);
-		}
+		masterData.put(id, node);
 
-		getCacheForType(type).add(id);
+		register(id, node.getLabels(), id.getType());
 
-		masterData.put(id, node);
+		addToPropertyIndexes(node);
 	}
 
 	void remove(final Set<MemoryIdentity> ids) {
@@ -117,129 +119,128 @@ public class MemoryNodeRepository extends EntityRepository {
 		// avoid iteration of caches when there are no IDs to remove..
 		if (!ids.isEmpty()) {
 
-			masterData.keySet().removeAll(ids);
+			if (!propertyIndexes.isEmpty()) {
+
+				for (final MemoryIdentity id : ids) {
 
-			for (final Set<MemoryIdentity> cache : labelCache.values()) {
-				cache.removeAll(ids);
+					final MemoryNode node = masterData.get(id);
+					if (node != null) {
+
+						removeFromPropertyIndexes(node);
+					}
+				}
 			}
 
-			for (final Set<MemoryIdentity> cache : typeCache.values()) {
-				cache.removeAll(ids);
+			masterData.keySet().removeAll(ids);
+
+			// use reverse mapping to remove the identities from their caches only
+			for (final MemoryIdentity id : ids) {
+				unregister(id);
 			}
 		}
 	}
 
-	void updateCache(final MemoryNode node) {
-
-		final MemoryIdentity id = node.getIdentity();
-		final String type       = (String)node.getProperty("type");
+	/**
+	 * Marks the nodes with the given IDs as deleted. The nodes stay in
+	 * this repository until they are removed when no snapshot that can
+	 * see them is active anymore.
+	 */
+	void markDeleted(final Set<MemoryIdentity> ids, final long version) {
 
+		for (final MemoryIdentity id : ids) {
 
-		// remove identity from all caches
-		for (final Set<MemoryIdentity> cache : labelCache.values()) {
-			cache.remove(id);
-		}
+			final MemoryNode node = masterData.get(id);
+			if (node != null) {
 
-		for (final Set<MemoryIdentity> cache : typeCache.values()) {
-			cache.remove(id);
+				node.markDeleted(version);
+			}
 		}
-
-		// add identity to type cache again
-		getCacheForLabel(type).add(id);
-		getCacheForType(type).add(id);
 	}
 
-	void loadFromStorage(final MemoryDatabaseService db, final File storageDirectory) {
+	void updateCache(final MemoryNode node) {
 
-		final File nodesFile = getNodeStorageFile(storageDirectory);
+		final MemoryIdentity id = node.getIdentity();
+		final String type       = (String)node.getProperty("type");
 
-		if (nodesFile.exists()) {
+		// nodes that are not (yet) part of this repository are registered when they are added
+		if (masterData.containsKey(id)) {
 
-			try (final ObjectInputStream in = new ObjectInputStream(getZipInputStream(nodesFile))) {
+			final Set<String> labels = new LinkedHashSet<>();
 
-				final int formatVersion = in.readInt();
+			for (final String label : node.getLabels()) {
+				labels.add(label);
+			}
 
-				if (STORAGE_FORMAT_VERSION == formatVersion) {
+			if (type != null) {
+				labels.add(type);
+			}
 
-					final int nodeCount = in.readInt();
+			unregister(id);
+			register(id, labels, type != null ? type : id.getType());
+		}
+	}
 
-					for (int i=0; i<nodeCount; i++) {
+	Map<MemoryIdentity, MemoryNode> getMasterData() {
+		return masterData;
+	}
 
-						final MemoryNode node = MemoryNode.createFromStorage(db, in);
-						if (node != null) {
+	@Override
+	protected Iterable<MemoryNode> getIndexableEntities() {
+		return masterData.values();
+	}
 
-							add(node);
-						}
-					}
+	// ----- private methods -----
+	private void register(final MemoryIdentity id, final Iterable<String> labels, final String type) {
 
-				} else {
+		final Set<String> registeredLabels = new LinkedHashSet<>();
 
-					throw new IllegalStateException("Storage format " + formatVersion + " of " + nodesFile.getAbsolutePath() + " does not match current format " + STORAGE_FORMAT_VERSION);
-				}
+		for (final String label : labels) {
 
-			} catch (final Throwable t) {
-				logger.error(ExceptionUtils.getStackTrace(t));
-			}
+			getCacheForLabel(label).add(id);
+			registeredLabels.add(label);
 		}
-	}
 
-	void writeToStorage(final File storageDirectory) {
-
-		final File nodesFile = getNodeStorageFile(storageDirectory);
+		getCacheForType(type).add(id);
 
-		try (final ObjectOutputStream out = new ObjectOutputStream(getZipOutputStream(nodesFile))) {
+		labelsById.put(id, registeredLabels);
+		typeById.put(id, type);
+	}
 
-			final int nodeCount = masterData.size();
+	private void unregister(final MemoryIdentity id) {
 
-			// first value: data format version
-			out.writeInt(STORAGE_FORMAT_VERSION);
+		final Set<String> labels = labelsById.remove(id);
+		if (labels != null) {
 
-			// second value: node count
-			out.writeInt(nodeCount);
+			for (final String label : labels) {
 
-			for (final MemoryNode node : masterData.values()) {
+				final MemoryIdentitySet cache = labelCache.get(label);
+				if (cache != null) {
 
-				node.writeToStorage(out);
+					cache.remove(id);
+				}
 			}
-
-			// flush
-			out.flush();
-
-		} catch (final IOException ex) {
-			logger.error(ExceptionUtils.getStackTrace(ex));
 		}
-	}
 
-	Map<MemoryIdentity, MemoryNode> getMasterData() {
-		return masterData;
-	}
+		final String type = typeById.remove(id);
+		if (type != null) {
 
-	// ----- private methods -----
-	private synchronized Set<MemoryIdentity> getCacheForLabel(final String type) {
+			final MemoryIdentitySet cache = typeCache.get(type);
+			if (cache != null) {
 
-		Set<MemoryIdentity> cache = labelCache.get(type);
-		if (cache == null) {
-
-			cache = new CopyOnWriteArraySet<>();
-			labelCache.put(type, cache);
+				cache.remove(id);
+			}
 		}
-
-		return cache;
 	}
 
-	private synchronized Set<MemoryIdentity> getCacheForType(final String type) {
-
-		Set<MemoryIdentity> cache = typeCache.get(type);
-		if (cache == null) {
-
-			cache = new CopyOnWriteArraySet<>();
-			typeCache.put(type, cache);
-		}
+	private Iterable<MemoryNode> resolve(final Iterable<MemoryIdentity> ids) {
+		return Iterables.filter(n -> n != null, Iterables.map(i -> masterData.get(i), ids));
+	}
 
-		return cache;
+	private MemoryIdentitySet getCacheForLabel(final String label) {
+		return labelCache.computeIfAbsent(label, k -> new MemoryIdentitySet());
 	}
 
-	private File getNodeStorageFile(final File storageDirectory) {
-		return storageDirectory.toPath().resolve("nodes.bin.zip").toFile();
+	private MemoryIdentitySet getCacheForType(final String type) {
+		return typeCache.computeIfAbsent(type, k -> new MemoryIdentitySet());
 	}
 }
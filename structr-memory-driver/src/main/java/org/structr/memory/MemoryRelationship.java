@@ -18,9 +18,6 @@
  */
 package org.structr.memory;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import org.structr.api.NotInTransactionException;
 import org.structr.api.graph.Node;
@@ -105,39 +102,22 @@ public class MemoryRelationship extends MemoryEntity implements Relationship {
 		db.updateCache(this);
 	}
 
-	// ----- package-private methods -----
-	static MemoryRelationship createFromStorage(final MemoryDatabaseService db, final ObjectInputStream is) throws IOException, ClassNotFoundException {
-
-		// use empty constructor
-		final MemoryRelationship relationship = new MemoryRelationship(db);
-
-		relationship.loadFromStorage(is);
-
-		return relationship;
-	}
-
 	@Override
-	void loadFromStorage(final ObjectInputStream in) throws IOException, ClassNotFoundException {
-
-		// let MemoryEntity handle the data
-		super.loadFromStorage(in);
-
-		sourceNode = MemoryIdentity.loadFromStorage(in);
-		targetNode = MemoryIdentity.loadFromStorage(in);
-
-		relType = db.forName(RelationshipType.class, in.readUTF());
+	protected void updateIndex(final String key, final Object oldValue, final Object newValue) {
+		db.updateIndex(this, key, oldValue, newValue);
 	}
 
-	@Override
-	void writeToStorage(final ObjectOutputStream out) throws IOException {
+	// ----- package-private methods -----
+	static MemoryRelationship createFromStorage(final MemoryDatabaseService db, final MemoryIdentity identity, final RelationshipType relType, final MemoryIdentity sourceNode, final MemoryIdentity targetNode) {
 
-		// let MemoryEntity handle the data
-		super.writeToStorage(out);
+		final MemoryRelationship relationship = new MemoryRelationship(db);
 
-		sourceNode.writeToStorage(out);
-		targetNode.writeToStorage(out);
+		relationship.setIdentity(identity);
 
-		out.writeUTF(relType.name());
-	}
+		relationship.sourceNode = sourceNode;
+		relationship.targetNode = targetNode;
+		relationship.relType    = relType;
 
+		return relationship;
+	}
 }
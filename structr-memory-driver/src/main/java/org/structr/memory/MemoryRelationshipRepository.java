@@ -18,17 +18,12 @@
  */
 package org.structr.memory;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.Collections;
-import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.CopyOnWriteArraySet;
-import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.util.Iterables;
@@ -44,10 +39,10 @@ public class MemoryRelationshipRepository extends EntityRepository {
 	private static final Logger logger = LoggerFactory.getLogger(MemoryRelationshipRepository.class);
 
 	final Map<MemoryIdentity, MemoryRelationship> masterData   = new ConcurrentSkipListMap<>();
-	final Map<String, Set<MemoryIdentity>> typeCache           = new ConcurrentSkipListMap<>();
-	final Map<MemoryIdentity, Set<MemoryIdentity>> sourceCache = new ConcurrentSkipListMap<>();
-	final Map<MemoryIdentity, Set<MemoryIdentity>> targetCache = new ConcurrentSkipListMap<>();
-	final Set<String> duplicatesCheckCache                     = new LinkedHashSet<>();
+	final Map<String, MemoryIdentitySet> typeCache             = new ConcurrentHashMap<>();
+	final Map<MemoryIdentity, MemoryIdentitySet> sourceCache   = new ConcurrentHashMap<>();
+	final Map<MemoryIdentity, MemoryIdentitySet> targetCache   = new ConcurrentHashMap<>();
+	final Set<String> duplicatesCheckCache                     = ConcurrentHashMap.newKeySet();
 	boolean disableDuplicatesCheck                             = false;
 
 	public MemoryRelationshipRepository() {
@@ -67,6 +62,8 @@ public class MemoryRelationshipRepository extends EntityRepository {
 		typeCache.clear();
 		sourceCache.clear();
 		targetCache.clear();
+		duplicatesCheckCache.clear();
+		clearPropertyIndexes();
 	}
 
 	Iterable<MemoryRelationship> values(final Filter<MemoryRelationship> filter) {
@@ -76,18 +73,31 @@ public class MemoryRelationshipRepository extends EntityRepository {
 			if (filter instanceof MemoryLabelFilter) {
 
 				final MemoryLabelFilter<MemoryRelationship> mt = (MemoryLabelFilter<MemoryRelationship>)filter;
-				final Set<MemoryIdentity> cache                = new LinkedHashSet<>();
+				final Set<String> labels                       = mt.getLabels();
 
-				for (final String label : mt.getLabels()) {
+				if (labels.size() == 1) {
 
-					final Set<MemoryIdentity> set = getCacheForType(label, false);
+					final MemoryIdentitySet set = getCacheForType(labels.iterator().next(), false);
+					if (set != null) {
+
+						return resolve(set);
+					}
+
+					return Collections.EMPTY_LIST;
+				}
+
+				final Set<MemoryIdentity> cache = new TreeSet<>();
+
+				for (final String label : labels) {
+
+					final MemoryIdentitySet set = getCacheForType(label, false);
 					if (set != null) {
 
 						cache.addAll(set);
 					}
 				}
 
-				return Iterables.map(i -> masterData.get(i), cache);
+				return resolve(cache);
 			}
 
 			if (filter instanceof SourceNodeFilter) {
@@ -95,10 +105,10 @@ public class MemoryRelationshipRepository extends EntityRepository {
 				final SourceNodeFilter<MemoryRelationship> s = (SourceNodeFilter<MemoryRelationship>)filter;
 				final MemoryIdentity id                      = s.getIdentity();
 
-				final Set<MemoryIdentity> set = getCacheForSource(id, false);
+				final MemoryIdentitySet set = getCacheForSource(id, false);
 				if (set != null) {
 
-					return Iterables.map(i -> masterData.get(i), new LinkedHashSet<>(set));
+					return resolve(set);
 				}
 
 				return Collections.EMPTY_LIST;
@@ -109,10 +119,10 @@ public class MemoryRelationshipRepository extends EntityRepository {
 				final TargetNodeFilter<MemoryRelationship> s = (TargetNodeFilter<MemoryRelationship>)filter;
 				final MemoryIdentity id                      = s.getIdentity();
 
-				final Set<MemoryIdentity> set = getCacheForTarget(id, false);
+				final MemoryIdentitySet set = getCacheForTarget(id, false);
 				if (set != null) {
 
-					return Iterables.map(i -> masterData.get(i), new LinkedHashSet<>(set));
+					return resolve(set);
 				}
 
 				return Collections.EMPTY_LIST;
@@ -156,6 +166,8 @@ public class MemoryRelationshipRepository extends EntityRepository {
 		getCacheForTarget(relationship.getTargetNodeIdentity()).add(id);
 
 		masterData.put(id, relationship);
+
+		addToPropertyIndexes(relationship);
 	}
 
 	void remove(final Map<MemoryIdentity, MemoryRelationship> relationships) {
@@ -165,149 +177,135 @@ public class MemoryRelationshipRepository extends EntityRepository {
 
 			final Set<MemoryIdentity> ids = relationships.keySet();
 
+			for (final MemoryRelationship rel : relationships.values()) {
+
+				removeFromPropertyIndexes(rel);
+				removeFromCaches(rel);
+			}
+
 			masterData.keySet().removeAll(ids);
 
 			if (!disableDuplicatesCheck) {
 
-				// clear uniqueness check cache as well
+				// clear uniqueness check cache as well, deleted relationships have released their key already
 				for (final MemoryRelationship rel : relationships.values()) {
 
-					duplicatesCheckCache.remove(rel.getUniquenessKey());
+					if (!rel.hasBeenDeleted()) {
+						duplicatesCheckCache.remove(rel.getUniquenessKey());
+					}
 				}
 			}
+		}
+	}
 
-			for (final Set<MemoryIdentity> cache : typeCache.values()) {
-				cache.removeAll(ids);
-			}
+	/**
+	 * Marks the given relationships as deleted. The relationships stay in
+	 * this repository until they are removed when no snapshot that can
+	 * see them is active anymore, but their uniqueness keys are released
+	 * immediately.
+	 */
+	void markDeleted(final Map<MemoryIdentity, MemoryRelationship> relationships, final long version) {
 
-			for (final Set<MemoryIdentity> cache : sourceCache.values()) {
-				cache.removeAll(ids);
-			}
+		for (final MemoryIdentity id : relationships.keySet()) {
 
-			for (final Set<MemoryIdentity> cache : targetCache.values()) {
-				cache.removeAll(ids);
+			final MemoryRelationship rel = masterData.get(id);
+			if (rel != null && !rel.hasBeenDeleted()) {
+
+				rel.markDeleted(version);
+
+				if (!disableDuplicatesCheck) {
+					duplicatesCheckCache.remove(rel.getUniquenessKey());
+				}
 			}
 		}
 	}
 
+	boolean isDuplicate(final MemoryRelationship relationship) {
+		return !disableDuplicatesCheck && duplicatesCheckCache.contains(relationship.getUniquenessKey());
+	}
+
 	void updateCache(final MemoryRelationship relationship) {
 		// relationship type cannot be changed => no-op
 	}
 
-	void loadFromStorage(final MemoryDatabaseService db, final File storageDirectory) {
-
-		final File dbFile = getRelationshipStorageFile(storageDirectory);
-		if (dbFile.exists()) {
-
-			try (final ObjectInputStream in = new ObjectInputStream(getZipInputStream(dbFile))) {
-
-				final int formatVersion = in.readInt();
-
-				if (STORAGE_FORMAT_VERSION == formatVersion) {
-
-					final int relationshipCount = in.readInt();
+	Map<MemoryIdentity, MemoryRelationship> getMasterData() {
+		return masterData;
+	}
 
-					for (int i=0; i<relationshipCount; i++) {
+	@Override
+	protected Iterable<MemoryRelationship> getIndexableEntities() {
+		return masterData.values();
+	}
 
-						final MemoryRelationship relationship = MemoryRelationship.createFromStorage(db, in);
-						if (relationship != null) {
+	// ----- private methods -----
+	private void removeFromCaches(final MemoryRelationship relationship) {
 
-							add(relationship);
-						}
-					}
+		// relationship type, source and target cannot change, so the caches
+		// that contain this relationship are known
+		final MemoryIdentity id = relationship.getIdentity();
 
-				} else {
+		for (final String label : relationship.getLabels()) {
 
-					throw new IllegalStateException("Storage format " + formatVersion + " of " + dbFile.getAbsolutePath() + " does not match current format " + STORAGE_FORMAT_VERSION);
-				}
+			final MemoryIdentitySet cache = getCacheForType(label, false);
+			if (cache != null) {
 
-			} catch (final Throwable t) {
-				logger.error(ExceptionUtils.getStackTrace(t));
+				cache.remove(id);
 			}
 		}
-	}
-
-	void writeToStorage(final File storageDirectory) {
-
-		final File relationshipsFile = getRelationshipStorageFile(storageDirectory);
-
-		try (final ObjectOutputStream out = new ObjectOutputStream(getZipOutputStream(relationshipsFile))) {
 
-			final int relationshipCount = masterData.size();
+		final MemoryIdentitySet sources = getCacheForSource(relationship.getSourceNodeIdentity(), false);
+		if (sources != null) {
 
-			// first value: data format version
-			out.writeInt(STORAGE_FORMAT_VERSION);
-
-			// second value: node count
-			out.writeInt(relationshipCount);
-
-			for (final MemoryRelationship relationship : masterData.values()) {
-
-				relationship.writeToStorage(out);
-			}
+			sources.remove(id);
+		}
 
-			// flush
-			out.flush();
+		final MemoryIdentitySet targets = getCacheForTarget(relationship.getTargetNodeIdentity(), false);
+		if (targets != null) {
 
-		} catch (final IOException ex) {
-			logger.error(ExceptionUtils.getStackTrace(ex));
+			targets.remove(id);
 		}
 	}
 
-	Map<MemoryIdentity, MemoryRelationship> getMasterData() {
-		return masterData;
+	private Iterable<MemoryRelationship> resolve(final Iterable<MemoryIdentity> ids) {
+		return Iterables.filter(r -> r != null, Iterables.map(i -> masterData.get(i), ids));
 	}
 
-	// ----- private methods -----
-	private Set<MemoryIdentity> getCacheForType(final String type) {
+	private MemoryIdentitySet getCacheForType(final String type) {
 		return getCacheForType(type, true);
 	}
 
-	private synchronized Set<MemoryIdentity> getCacheForType(final String type, final boolean create) {
-
-		Set<MemoryIdentity> cache = typeCache.get(type);
-		if (cache == null && create) {
+	private MemoryIdentitySet getCacheForType(final String type, final boolean create) {
 
-			cache = new CopyOnWriteArraySet<>();
-			typeCache.put(type, cache);
+		if (create) {
+			return typeCache.computeIfAbsent(type, k -> new MemoryIdentitySet());
 		}
 
-		return cache;
+		return typeCache.get(type);
 	}
 
-	private Set<MemoryIdentity> getCacheForSource(final MemoryIdentity source) {
+	private MemoryIdentitySet getCacheForSource(final MemoryIdentity source) {
 		return getCacheForSource(source, true);
 	}
 
-	private synchronized Set<MemoryIdentity> getCacheForSource(final MemoryIdentity source, final boolean create) {
-
-		Set<MemoryIdentity> cache = sourceCache.get(source);
-		if (cache == null && create) {
+	private MemoryIdentitySet getCacheForSource(final MemoryIdentity source, final boolean create) {
 
-			cache = new CopyOnWriteArraySet<>();
-			sourceCache.put(source, cache);
+		if (create) {
+			return sourceCache.computeIfAbsent(source, k -> new MemoryIdentitySet());
 		}
 
-		return cache;
+		return sourceCache.get(source);
 	}
 
-	private Set<MemoryIdentity> getCacheForTarget(final MemoryIdentity target) {
+	private MemoryIdentitySet getCacheForTarget(final MemoryIdentity target) {
 		return getCacheForTarget(target, true);
 	}
 
-	private synchronized Set<MemoryIdentity> getCacheForTarget(final MemoryIdentity target, final boolean create) {
+	private MemoryIdentitySet getCacheForTarget(final MemoryIdentity target, final boolean create) {
 
-		Set<MemoryIdentity> cache = targetCache.get(target);
-		if (cache == null && create) {
-
-			cache = new CopyOnWriteArraySet<>();
-			targetCache.put(target, cache);
+		if (create) {
+			return targetCache.computeIfAbsent(target, k -> new MemoryIdentitySet());
 		}
 
-		return cache;
-	}
-
-	private File getRelationshipStorageFile(final File storageDirectory) {
-		return storageDirectory.toPath().resolve("relationships.bin.zip").toFile();
+		return targetCache.get(target);
 	}
 }
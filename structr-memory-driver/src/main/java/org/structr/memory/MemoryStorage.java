@@ -0,0 +1,697 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable storage for the in-memory database, consisting of a binary
+ * snapshot and an append-only write-ahead log of committed change sets.
+ *
+ * Every commit appends one record to the current log segment before its
+ * changes become visible. If sync is enabled, the commit also waits until
+ * the record is forced to disk, and a record whose commit fails is removed
+ * from the log again. When the current segment exceeds the configured
+ * size, a new segment is started and a snapshot is written in the
+ * background, after which the older segments are deleted. On startup, the
+ * snapshot is loaded and all newer segments are replayed.
+ *
+ * Log records contain the complete committed state of the created and
+ * modified entities, so replaying a record is idempotent. This allows the
+ * snapshot to be written while commits are running.
+ */
+class MemoryStorage {
+
+	private static final Logger logger = LoggerFactory.getLogger(MemoryStorage.class.getName());
+
+	private static final String SNAPSHOT_FILE_NAME = "snapshot.bin";
+	private static final String SEGMENT_PREFIX     = "wal-";
+	private static final String SEGMENT_SUFFIX     = ".log";
+	private static final int SNAPSHOT_MAGIC        = 0x53544d53;
+	private static final int FORMAT_VERSION        = 2;
+
+	private final ReentrantReadWriteLock rotationLock = new ReentrantReadWriteLock();
+	private final AtomicBoolean snapshotRunning       = new AtomicBoolean(false);
+	private final Object syncLock                     = new Object();
+	private final Object snapshotLock                 = new Object();
+	private MemoryRelationshipRepository relationships = null;
+	private MemoryNodeRepository nodes                 = null;
+	private MemoryStorageCodec codec                   = null;
+	private ExecutorService snapshotExecutor           = null;
+	private volatile FileChannel channel               = null;
+	private volatile long writtenSequence              = 0L;
+	private boolean syncInProgress                     = false;
+	private long syncedSequence                        = 0L;
+	private long segmentSize                           = 0L;
+	private long lastRecordPosition                    = -1L;
+	private long segment                               = 0L;
+	private long snapshotThreshold                     = 0L;
+	private boolean sync                               = true;
+	private File directory                             = null;
+
+	MemoryStorage(final MemoryDatabaseService db, final MemoryNodeRepository nodes, final MemoryRelationshipRepository relationships, final File directory, final boolean sync, final int snapshotThresholdMB) {
+
+		this.codec             = new MemoryStorageCodec(db);
+		this.relationships     = relationships;
+		this.nodes             = nodes;
+		this.directory         = directory;
+		this.sync              = sync;
+		this.snapshotThreshold = snapshotThresholdMB * 1024L * 1024L;
+	}
+
+	void open() throws IOException {
+
+		directory.mkdirs();
+
+		final long t0                  = System.currentTimeMillis();
+		final long firstSegment        = loadSnapshot();
+		final Map<Long, File> segments = getSegments();
+		long lastSegment               = firstSegment;
+		long records                   = 0L;
+
+		for (final Map.Entry<Long, File> entry : segments.entrySet()) {
+
+			final long number = entry.getKey();
+			if (number >= firstSegment) {
+
+				records    += replay(entry.getValue());
+				lastSegment = Math.max(lastSegment, number);
+			}
+		}
+
+		// never append to an existing segment, it might end with a partial record
+		segment = segments.isEmpty() ? firstSegment : lastSegment + 1;
+
+		openSegment();
+
+		snapshotExecutor = Executors.newSingleThreadExecutor(r -> {
+
+			final Thread thread = new Thread(r, "MemoryStorageSnapshot");
+			thread.setDaemon(true);
+
+			return thread;
+		});
+
+		logger.info("Loaded {} nodes and {} relationships from {}, replayed {} log records in {} ms", nodes.getMasterData().size(), relationships.getMasterData().size(), directory.getAbsolutePath(), records, System.currentTimeMillis() - t0);
+	}
+
+	void close() {
+
+		if (snapshotExecutor != null) {
+
+			snapshotExecutor.shutdown();
+
+			try {
+
+				// a running background snapshot must be finished before the final one is written
+				if (!snapshotExecutor.awaitTermination(10, TimeUnit.MINUTES)) {
+					logger.warn("Background snapshot did not finish in time");
+				}
+
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		try {
+
+			snapshot();
+
+			rotationLock.writeLock().lock();
+			try {
+
+				closeSegment();
+
+			} finally {
+				rotationLock.writeLock().unlock();
+			}
+
+		} catch (IOException ioex) {
+			logger.error(ExceptionUtils.getStackTrace(ioex));
+		}
+	}
+
+	/**
+	 * Must be called before the changes of a transaction are applied,
+	 * so that a snapshot rotation never separates the in-memory state
+	 * from the log record of a commit.
+	 */
+	void beginCommit() {
+		rotationLock.readLock().lock();
+	}
+
+	void endCommit() {
+		rotationLock.readLock().unlock();
+	}
+
+	/**
+	 * Appends a change set to the log. Must be called between
+	 * beginCommit() and endCommit(), while the commit lock is held and
+	 * before the changes are published.
+	 *
+	 * @return the sequence number of the record, or -1 if the change set
+	 * is empty
+	 */
+	long append(final Iterable<MemoryNode> changedNodes, final Iterable<MemoryRelationship> changedRelationships, final Set<MemoryIdentity> deletedNodes, final Set<MemoryIdentity> deletedRelationships) throws IOException {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out        = new DataOutputStream(bytes);
+		int count                         = 0;
+
+		for (final MemoryNode node : changedNodes) {
+			codec.writeNode(out, node, true);
+			count++;
+		}
+
+		for (final MemoryRelationship relationship : changedRelationships) {
+			codec.writeRelationship(out, relationship, true);
+			count++;
+		}
+
+		for (final MemoryIdentity id : deletedRelationships) {
+			codec.writeDeletion(out, id);
+			count++;
+		}
+
+		for (final MemoryIdentity id : deletedNodes) {
+			codec.writeDeletion(out, id);
+			count++;
+		}
+
+		if (count > 0) {
+
+			// end of record
+			out.writeByte(0);
+			out.flush();
+
+			return append(bytes.toByteArray());
+		}
+
+		return -1L;
+	}
+
+	/**
+	 * Removes the record with the given sequence number from the log after
+	 * its commit failed. Must be called between beginCommit() and
+	 * endCommit(), while the commit lock is held, so the record is still
+	 * the last one in the current segment.
+	 */
+	synchronized void discard(final long sequence) {
+
+		if (sequence >= 0 && sequence == writtenSequence && lastRecordPosition >= 0) {
+
+			truncateTo(lastRecordPosition);
+
+			segmentSize        = lastRecordPosition;
+			lastRecordPosition = -1L;
+		}
+	}
+
+	/**
+	 * Waits until the record with the given sequence number is durable,
+	 * if sync is enabled. Must be called between beginCommit() and
+	 * endCommit().
+	 */
+	void sync(final long sequence) throws IOException {
+
+		if (!sync || sequence < 0) {
+			return;
+		}
+
+		while (true) {
+
+			final long target;
+
+			synchronized (syncLock) {
+
+				// wait for a running sync, it might already include this record
+				while (syncInProgress && syncedSequence < sequence) {
+
+					try {
+						syncLock.wait();
+
+					} catch (InterruptedException iex) {
+						Thread.currentThread().interrupt();
+						throw new IOException(iex);
+					}
+				}
+
+				if (syncedSequence >= sequence) {
+					return;
+				}
+
+				syncInProgress = true;
+				target         = writtenSequence;
+			}
+
+			boolean success = false;
+
+			try {
+
+				channel.force(false);
+				success = true;
+
+			} finally {
+
+				synchronized (syncLock) {
+
+					if (success) {
+						syncedSequence = Math.max(syncedSequence, target);
+					}
+
+					syncInProgress = false;
+					syncLock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a new snapshot and removes all log segments that are
+	 * contained in it. Snapshots are mutually exclusive, so a background
+	 * snapshot can never replace a newer one or delete segments that a
+	 * newer snapshot depends on.
+	 */
+	void snapshot() throws IOException {
+
+		synchronized (snapshotLock) {
+
+			writeSnapshot();
+		}
+	}
+
+	// ----- private methods -----
+	private void writeSnapshot() throws IOException {
+
+		final long firstSegment;
+
+		// start a new segment, all commits after this point will be replayed on top of the snapshot
+		rotationLock.writeLock().lock();
+		try {
+
+			closeSegment();
+
+			segment++;
+			firstSegment = segment;
+
+			openSegment();
+
+		} finally {
+			rotationLock.writeLock().unlock();
+		}
+
+		final long t0          = System.currentTimeMillis();
+		final File snapshot    = new File(directory, SNAPSHOT_FILE_NAME);
+		final File tmpSnapshot = new File(directory, SNAPSHOT_FILE_NAME + ".tmp");
+		final CRC32 checksum   = new CRC32();
+
+		try (final FileOutputStream fos = new FileOutputStream(tmpSnapshot)) {
+
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fos, checksum), 65536));
+
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(firstSegment);
+
+			for (final MemoryNode node : nodes.getMasterData().values()) {
+
+				// deleted entities are only kept for active snapshots
+				if (!node.hasBeenDeleted()) {
+					codec.writeNode(out, node);
+				}
+			}
+
+			for (final MemoryRelationship relationship : relationships.getMasterData().values()) {
+
+				if (!relationship.hasBeenDeleted()) {
+					codec.writeRelationship(out, relationship);
+				}
+			}
+
+			// end of snapshot
+			out.writeByte(0);
+			out.flush();
+
+			// checksum is not part of the checksum
+			new DataOutputStream(fos).writeLong(checksum.getValue());
+
+			fos.getFD().sync();
+		}
+
+		Files.move(tmpSnapshot.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		// remove segments that are contained in the snapshot
+		for (final Map.Entry<Long, File> entry : getSegments().entrySet()) {
+
+			if (entry.getKey() < firstSegment) {
+
+				entry.getValue().delete();
+			}
+		}
+
+		logger.info("Wrote snapshot of in-memory database in {} ms", System.currentTimeMillis() - t0);
+	}
+
+	private synchronized long append(final byte[] payload) throws IOException {
+
+		final CRC32 crc         = new CRC32();
+		final ByteBuffer buffer = ByteBuffer.allocate(payload.length + 8);
+		final long position     = channel.position();
+
+		crc.update(payload);
+
+		buffer.putInt(payload.length);
+		buffer.putInt((int)crc.getValue());
+		buffer.put(payload);
+		buffer.flip();
+
+		try {
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+		} catch (IOException ioex) {
+
+			// a partial record would hide all later records from recovery
+			truncateTo(position);
+
+			throw ioex;
+		}
+
+		lastRecordPosition = position;
+		segmentSize       += payload.length + 8;
+
+		if (snapshotThreshold > 0 && segmentSize > snapshotThreshold) {
+			scheduleSnapshot();
+		}
+
+		return ++writtenSequence;
+	}
+
+	private void scheduleSnapshot() {
+
+		if (snapshotExecutor != null && snapshotRunning.compareAndSet(false, true)) {
+
+			try {
+
+				snapshotExecutor.submit(() -> {
+
+					try {
+
+						snapshot();
+
+					} catch (Throwable t) {
+
+						logger.error("Unable to write snapshot of in-memory database: {}", ExceptionUtils.getStackTrace(t));
+
+					} finally {
+
+						snapshotRunning.set(false);
+					}
+				});
+
+			} catch (RejectedExecutionException rex) {
+
+				// storage is closing, the final snapshot is written by close()
+				snapshotRunning.set(false);
+			}
+		}
+	}
+
+	private void openSegment() throws IOException {
+
+		final File file = new File(directory, SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+
+		channel            = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		segmentSize        = channel.size();
+		lastRecordPosition = -1L;
+	}
+
+	private void truncateTo(final long position) {
+
+		try {
+
+			channel.truncate(position);
+
+		} catch (IOException ioex) {
+
+			logger.error("Unable to remove failed record from transaction log: {}", ioex.getMessage());
+		}
+	}
+
+	private void closeSegment() throws IOException {
+
+		if (channel != null && channel.isOpen()) {
+
+			channel.force(false);
+			channel.close();
+
+			// everything that was written to the old segment is durable now
+			synchronized (syncLock) {
+				syncedSequence = writtenSequence;
+			}
+		}
+	}
+
+	private long loadSnapshot() throws IOException {
+
+		final File snapshot = new File(directory, SNAPSHOT_FILE_NAME);
+		if (!snapshot.exists()) {
+
+			return 0L;
+		}
+
+		verifySnapshot(snapshot);
+
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot), 65536))) {
+
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Invalid snapshot file " + snapshot.getAbsolutePath());
+			}
+
+			final int formatVersion = in.readInt();
+			if (formatVersion != FORMAT_VERSION) {
+				throw new IOException("Storage format " + formatVersion + " of " + snapshot.getAbsolutePath() + " does not match current format " + FORMAT_VERSION);
+			}
+
+			final long firstSegment = in.readLong();
+
+			apply(in);
+
+			return firstSegment;
+		}
+	}
+
+	private void verifySnapshot(final File snapshot) throws IOException {
+
+		final CRC32 checksum = new CRC32();
+		final byte[] buffer  = new byte[65536];
+
+		try (final RandomAccessFile file = new RandomAccessFile(snapshot, "r")) {
+
+			// the last eight bytes contain the checksum
+			long remaining = file.length() - 8;
+			if (remaining < 0) {
+				throw new IOException("Invalid snapshot file " + snapshot.getAbsolutePath());
+			}
+
+			while (remaining > 0) {
+
+				final int count = file.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+				if (count < 0) {
+					break;
+				}
+
+				checksum.update(buffer, 0, count);
+				remaining -= count;
+			}
+
+			if (file.readLong() != checksum.getValue()) {
+				throw new IOException("Checksum mismatch in snapshot file " + snapshot.getAbsolutePath());
+			}
+		}
+	}
+
+	private long replay(final File segmentFile) throws IOException {
+
+		long count = 0L;
+
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile), 65536))) {
+
+			while (true) {
+
+				final int length;
+				final int crc;
+
+				try {
+
+					length = in.readInt();
+					crc    = in.readInt();
+
+				} catch (EOFException eof) {
+					break;
+				}
+
+				final byte[] payload = new byte[length];
+				final CRC32 check    = new CRC32();
+
+				try {
+
+					in.readFully(payload);
+
+				} catch (EOFException eof) {
+
+					logger.warn("Ignoring incomplete record at the end of {}", segmentFile.getName());
+					break;
+				}
+
+				check.update(payload);
+
+				if ((int)check.getValue() != crc) {
+
+					logger.warn("Ignoring corrupt record at the end of {}", segmentFile.getName());
+					break;
+				}
+
+				apply(new DataInputStream(new ByteArrayInputStream(payload)));
+
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private void apply(final DataInputStream in) throws IOException {
+
+		while (true) {
+
+			final byte type = in.readByte();
+
+			switch (type) {
+
+				case 0:
+					return;
+
+				case MemoryStorageCodec.RECORD_NODE:
+					applyNode(codec.readNode(in));
+					break;
+
+				case MemoryStorageCodec.RECORD_RELATIONSHIP:
+					applyRelationship(codec.readRelationship(in));
+					break;
+
+				case MemoryStorageCodec.RECORD_DELETE_NODE:
+					nodes.remove(Collections.singleton(new MemoryIdentity(in.readLong(), true, null)));
+					break;
+
+				case MemoryStorageCodec.RECORD_DELETE_RELATIONSHIP:
+					final MemoryRelationship existing = relationships.get(new MemoryIdentity(in.readLong(), false, null));
+					if (existing != null) {
+						relationships.remove(Collections.singletonMap(existing.getIdentity(), existing));
+					}
+					break;
+
+				default:
+					throw new IOException("Unknown record type " + type);
+			}
+		}
+	}
+
+	private void applyNode(final MemoryNode node) {
+
+		final MemoryIdentity id = node.getIdentity();
+
+		if (nodes.contains(id)) {
+			nodes.remove(Collections.singleton(id));
+		}
+
+		nodes.add(node);
+	}
+
+	private void applyRelationship(final MemoryRelationship relationship) {
+
+		final MemoryRelationship existing = relationships.get(relationship.getIdentity());
+		if (existing != null) {
+
+			relationships.remove(Collections.singletonMap(existing.getIdentity(), existing));
+		}
+
+		relationships.add(relationship);
+	}
+
+	private Map<Long, File> getSegments() {
+
+		final Map<Long, File> segments = new TreeMap<>();
+		final File[] files             = directory.listFiles();
+
+		if (files != null) {
+
+			for (final File file : files) {
+
+				final String name = file.getName();
+
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+
+					try {
+
+						segments.put(Long.valueOf(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+
+					} catch (NumberFormatException nfex) {
+						logger.warn("Ignoring unknown file {} in storage directory", name);
+					}
+				}
+			}
+		}
+
+		return segments;
+	}
+}
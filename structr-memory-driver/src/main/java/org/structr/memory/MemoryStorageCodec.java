@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.structr.api.graph.RelationshipType;
+
+/**
+ * Compact binary encoding of entities and property values for the
+ * write-ahead log and the snapshots of the in-memory database. Only
+ * values that are not one of the supported property types (strings,
+ * numbers, booleans, dates and arrays of those) fall back to Java
+ * serialization.
+ */
+class MemoryStorageCodec {
+
+	static final byte RECORD_NODE                = 1;
+	static final byte RECORD_RELATIONSHIP        = 2;
+	static final byte RECORD_DELETE_NODE         = 3;
+	static final byte RECORD_DELETE_RELATIONSHIP = 4;
+
+	private static final byte TYPE_NULL         = 0;
+	private static final byte TYPE_STRING       = 1;
+	private static final byte TYPE_BOOLEAN      = 2;
+	private static final byte TYPE_INTEGER      = 3;
+	private static final byte TYPE_LONG         = 4;
+	private static final byte TYPE_DOUBLE       = 5;
+	private static final byte TYPE_FLOAT        = 6;
+	private static final byte TYPE_SHORT        = 7;
+	private static final byte TYPE_BYTE         = 8;
+	private static final byte TYPE_DATE         = 9;
+	private static final byte TYPE_ARRAY        = 10;
+	private static final byte TYPE_SERIALIZABLE = 99;
+
+	private MemoryDatabaseService db = null;
+
+	MemoryStorageCodec(final MemoryDatabaseService db) {
+		this.db = db;
+	}
+
+	// ----- entities -----
+	void writeNode(final DataOutput out, final MemoryNode node) throws IOException {
+		writeNode(out, node, false);
+	}
+
+	/**
+	 * Writes the given node, using the state prepared for the running
+	 * commit if prepared is true.
+	 */
+	void writeNode(final DataOutput out, final MemoryNode node, final boolean prepared) throws IOException {
+
+		final MemoryIdentity id = node.getIdentity();
+
+		out.writeByte(RECORD_NODE);
+		out.writeLong(id.getId());
+		writeString(out, id.getType());
+
+		writeEntityData(out, node, prepared);
+	}
+
+	void writeRelationship(final DataOutput out, final MemoryRelationship relationship) throws IOException {
+		writeRelationship(out, relationship, false);
+	}
+
+	/**
+	 * Writes the given relationship, using the state prepared for the
+	 * running commit if prepared is true.
+	 */
+	void writeRelationship(final DataOutput out, final MemoryRelationship relationship, final boolean prepared) throws IOException {
+
+		final MemoryIdentity id = relationship.getIdentity();
+
+		out.writeByte(RECORD_RELATIONSHIP);
+		out.writeLong(id.getId());
+		writeString(out, id.getType());
+
+		writeIdentity(out, relationship.getSourceNodeIdentity());
+		writeIdentity(out, relationship.getTargetNodeIdentity());
+
+		writeString(out, relationship.getType().name());
+
+		writeEntityData(out, relationship, prepared);
+	}
+
+	void writeDeletion(final DataOutput out, final MemoryIdentity id) throws IOException {
+
+		out.writeByte(id.isNode() ? RECORD_DELETE_NODE : RECORD_DELETE_RELATIONSHIP);
+		out.writeLong(id.getId());
+	}
+
+	MemoryNode readNode(final DataInput in) throws IOException {
+
+		final MemoryIdentity id = new MemoryIdentity(in.readLong(), true, readString(in));
+		final MemoryNode node   = MemoryNode.createFromStorage(db, id);
+
+		readEntityData(in, node);
+
+		return node;
+	}
+
+	MemoryRelationship readRelationship(final DataInput in) throws IOException {
+
+		final MemoryIdentity id                = new MemoryIdentity(in.readLong(), false, readString(in));
+		final MemoryIdentity source            = readIdentity(in, true);
+		final MemoryIdentity target            = readIdentity(in, true);
+		final RelationshipType relType         = db.forName(RelationshipType.class, readString(in));
+		final MemoryRelationship relationship  = MemoryRelationship.createFromStorage(db, id, relType, source, target);
+
+		readEntityData(in, relationship);
+
+		return relationship;
+	}
+
+	// ----- values -----
+	void writeValue(final DataOutput out, final Object value) throws IOException {
+
+		final byte type = getTypeTag(value);
+
+		out.writeByte(type);
+
+		switch (type) {
+
+			case TYPE_NULL:
+				break;
+
+			case TYPE_STRING:
+				writeString(out, (String)value);
+				break;
+
+			case TYPE_BOOLEAN:
+				out.writeBoolean((Boolean)value);
+				break;
+
+			case TYPE_INTEGER:
+				out.writeInt((Integer)value);
+				break;
+
+			case TYPE_LONG:
+				out.writeLong((Long)value);
+				break;
+
+			case TYPE_DOUBLE:
+				out.writeDouble((Double)value);
+				break;
+
+			case TYPE_FLOAT:
+				out.writeFloat((Float)value);
+				break;
+
+			case TYPE_SHORT:
+				out.writeShort((Short)value);
+				break;
+
+			case TYPE_BYTE:
+				out.writeByte((Byte)value);
+				break;
+
+			case TYPE_DATE:
+				out.writeLong(((Date)value).getTime());
+				break;
+
+			case TYPE_ARRAY:
+				final Object[] array = (Object[])value;
+				out.writeByte(getTypeTag(value.getClass().getComponentType()));
+				out.writeInt(array.length);
+				for (final Object element : array) {
+					writeValue(out, element);
+				}
+				break;
+
+			case TYPE_SERIALIZABLE:
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try (final ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+					oos.writeObject(value);
+				}
+				out.writeInt(bytes.size());
+				out.write(bytes.toByteArray());
+				break;
+		}
+	}
+
+	Object readValue(final DataInput in) throws IOException {
+
+		final byte type = in.readByte();
+
+		switch (type) {
+
+			case TYPE_NULL:
+				return null;
+
+			case TYPE_STRING:
+				return readString(in);
+
+			case TYPE_BOOLEAN:
+				return in.readBoolean();
+
+			case TYPE_INTEGER:
+				return in.readInt();
+
+			case TYPE_LONG:
+				return in.readLong();
+
+			case TYPE_DOUBLE:
+				return in.readDouble();
+
+			case TYPE_FLOAT:
+				return in.readFloat();
+
+			case TYPE_SHORT:
+				return in.readShort();
+
+			case TYPE_BYTE:
+				return in.readByte();
+
+			case TYPE_DATE:
+				return new Date(in.readLong());
+
+			case TYPE_ARRAY:
+				final Class componentType = getClassForTypeTag(in.readByte());
+				final int length          = in.readInt();
+				final Object[] array      = (Object[])Array.newInstance(componentType, length);
+				for (int i=0; i<length; i++) {
+					array[i] = readValue(in);
+				}
+				return array;
+
+			case TYPE_SERIALIZABLE:
+				final byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+					return ois.readObject();
+				} catch (ClassNotFoundException cnfex) {
+					throw new IOException(cnfex);
+				}
+		}
+
+		throw new IOException("Unknown value type " + type);
+	}
+
+	void writeString(final DataOutput out, final String value) throws IOException {
+
+		// DataOutput.writeUTF is limited to 64k
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	String readString(final DataInput in) throws IOException {
+
+		final byte[] bytes = new byte[in.readInt()];
+
+		in.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// ----- private methods -----
+	private void writeEntityData(final DataOutput out, final MemoryEntity entity, final boolean prepared) throws IOException {
+
+		final Set<String> labels       = new LinkedHashSet<>();
+		final Map<String, Object> data = new LinkedHashMap<>();
+
+		if (prepared) {
+
+			entity.copyPreparedState(labels, data);
+
+		} else {
+
+			entity.copyCommittedState(labels, data);
+		}
+
+		out.writeInt(labels.size());
+
+		for (final String label : labels) {
+			writeString(out, label);
+		}
+
+		out.writeInt(data.size());
+
+		for (final Map.Entry<String, Object> entry : data.entrySet()) {
+
+			writeString(out, entry.getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	private void readEntityData(final DataInput in, final MemoryEntity entity) throws IOException {
+
+		final Set<String> labels       = new LinkedHashSet<>();
+		final Map<String, Object> data = new LinkedHashMap<>();
+		final int labelCount           = in.readInt();
+
+		for (int i=0; i<labelCount; i++) {
+			labels.add(readString(in));
+		}
+
+		final int propertyCount = in.readInt();
+
+		for (int i=0; i<propertyCount; i++) {
+
+			final String key   = readString(in);
+			final Object value = readValue(in);
+
+			if (value != null) {
+				data.put(key, value);
+			}
+		}
+
+		entity.loadCommittedState(labels, data);
+	}
+
+	private void writeIdentity(final DataOutput out, final MemoryIdentity id) throws IOException {
+
+		out.writeLong(id.getId());
+		writeString(out, id.getType());
+	}
+
+	private MemoryIdentity readIdentity(final DataInput in, final boolean isNode) throws IOException {
+		return new MemoryIdentity(in.readLong(), isNode, readString(in));
+	}
+
+	private byte getTypeTag(final Object value) {
+
+		if (value == null) {
+			return TYPE_NULL;
+		}
+
+		// arrays of simple types only, all other arrays are serialized
+		if (value.getClass().isArray() && isSimpleType(value.getClass().getComponentType())) {
+			return TYPE_ARRAY;
+		}
+
+		return getTypeTag(value.getClass());
+	}
+
+	private byte getTypeTag(final Class type) {
+
+		if (String.class.equals(type))  { return TYPE_STRING; }
+		if (Boolean.class.equals(type)) { return TYPE_BOOLEAN; }
+		if (Integer.class.equals(type)) { return TYPE_INTEGER; }
+		if (Long.class.equals(type))    { return TYPE_LONG; }
+		if (Double.class.equals(type))  { return TYPE_DOUBLE; }
+		if (Float.class.equals(type))   { return TYPE_FLOAT; }
+		if (Short.class.equals(type))   { return TYPE_SHORT; }
+		if (Byte.class.equals(type))    { return TYPE_BYTE; }
+		if (Date.class.equals(type))    { return TYPE_DATE; }
+
+		if (Serializable.class.isAssignableFrom(type)) {
+			return TYPE_SERIALIZABLE;
+		}
+
+		throw new IllegalArgumentException("Values of type " + type.getName() + " cannot be stored.");
+	}
+
+	private boolean isSimpleType(final Class type) {
+
+		try {
+			return getClassForTypeTag(getTypeTag(type)) != null;
+
+		} catch (IllegalArgumentException | IOException ex) {
+			return false;
+		}
+	}
+
+	private Class getClassForTypeTag(final byte type) throws IOException {
+
+		switch (type) {
+
+			case TYPE_STRING:  return String.class;
+			case TYPE_BOOLEAN: return Boolean.class;
+			case TYPE_INTEGER: return Integer.class;
+			case TYPE_LONG:    return Long.class;
+			case TYPE_DOUBLE:  return Double.class;
+			case TYPE_FLOAT:   return Float.class;
+			case TYPE_SHORT:   return Short.class;
+			case TYPE_BYTE:    return Byte.class;
+			case TYPE_DATE:    return Date.class;
+		}
+
+		throw new IOException("Unknown array component type " + type);
+	}
+}
@@ -18,16 +18,21 @@
  */
 package org.structr.memory;
 
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicLong;
+import org.structr.api.RetryException;
 import org.structr.api.Transaction;
 import org.structr.api.util.Iterables;
 import org.structr.memory.index.filter.Filter;
+import org.structr.memory.index.filter.SourceNodeFilter;
+import org.structr.memory.index.filter.TargetNodeFilter;
 
 /**
  */
@@ -46,9 +51,12 @@ public class MemoryTransaction implements Transaction {
 	private final long transactionId                                           = idCounter.incrementAndGet();
 	private MemoryDatabaseService db                                           = null;
 	private boolean success                                                    = false;
+	private long snapshotVersion                                               = 0L;
 
 	public MemoryTransaction(final MemoryDatabaseService db) {
-		this.db = db;
+
+		this.db              = db;
+		this.snapshotVersion = db.beginSnapshot(transactionId);
 	}
 
 	@Override
@@ -68,27 +76,41 @@ public class MemoryTransaction implements Transaction {
 	@Override
 	public void close() {
 
-		if (success) {
+		boolean committed = false;
+
+		try {
+
+			if (success) {
+
+				db.commitTransaction(this);
+				committed = true;
 
-			for (final MemoryEntity entity : modifiedEntities) {
+			} else {
 
-				entity.commit(transactionId);
+				db.rollbackTransaction();
 			}
 
-			db.commitTransaction(createdNodes.getMasterData(), createdRelationships.getMasterData(), deletedNodes, deletedRelationships);
+		} finally {
 
-		} else {
+			// discard private copies, also if the commit failed
+			if (!committed) {
 
-			for (final MemoryEntity entity : modifiedEntities) {
+				for (final MemoryEntity entity : modifiedEntities) {
 
-				entity.rollback(transactionId);
+					entity.rollback(transactionId);
+				}
 			}
 
-			db.rollbackTransaction();
+			db.endSnapshot(transactionId);
 		}
+	}
+
+	public long getSnapshotVersion() {
+		return snapshotVersion;
+	}
 
-		createdNodes.getMasterData().values().stream().forEach(n -> n.unlock());
-		createdRelationships.getMasterData().values().stream().forEach(r -> r.unlock());
+	public boolean hasChanges() {
+		return !modifiedEntities.isEmpty() || !deletedNodes.isEmpty() || !deletedRelationships.isEmpty();
 	}
 
 	public void create(final MemoryNode newNode) {
@@ -118,6 +140,141 @@ public class MemoryTransaction implements Transaction {
 	}
 
 	// ----- package-private methods -----
+	/**
+	 * Validates that none of the entities modified or deleted in this
+	 * transaction were changed by a transaction that committed after
+	 * this transaction started. Must be called while the commit lock
+	 * is held.
+	 */
+	void validate() {
+
+		for (final MemoryEntity entity : modifiedEntities) {
+
+			final MemoryIdentity id = entity.getIdentity();
+
+			if (isCreated(id)) {
+				continue;
+			}
+
+			if (!db.exists(id)) {
+				throw new RetryException("Entity with ID " + id + " was deleted by a concurrent transaction.");
+			}
+
+			if (entity.isModifiedAfter(snapshotVersion)) {
+				throw new RetryException("Entity with ID " + id + " was modified by a concurrent transaction.");
+			}
+		}
+
+		for (final MemoryIdentity id : deletedNodes) {
+
+			final MemoryNode node = db.getNodeFromRepository(id);
+			if (node != null) {
+
+				if (node.isModifiedAfter(snapshotVersion)) {
+					throw new RetryException("Node with ID " + id + " was modified by a concurrent transaction.");
+				}
+
+				// relationships created by concurrent transactions would be left without a node
+				final Iterable<MemoryRelationship> outgoing = db.getRelationships(new SourceNodeFilter<>(id));
+				final Iterable<MemoryRelationship> incoming = db.getRelationships(new TargetNodeFilter<>(id));
+
+				for (final MemoryRelationship rel : Iterables.flatten(Arrays.asList(outgoing, incoming))) {
+
+					if (!rel.hasBeenDeleted() && !deletedRelationships.containsKey(rel.getIdentity())) {
+						throw new RetryException("Node with ID " + id + " was connected by a concurrent transaction.");
+					}
+				}
+			}
+		}
+
+		for (final MemoryRelationship rel : deletedRelationships.values()) {
+
+			if (rel.isModifiedAfter(snapshotVersion)) {
+				throw new RetryException("Relationship with ID " + rel.getIdentity() + " was modified by a concurrent transaction.");
+			}
+		}
+
+		final Set<String> deletedKeys = new LinkedHashSet<>();
+
+		for (final MemoryRelationship rel : deletedRelationships.values()) {
+			deletedKeys.add(rel.getUniquenessKey());
+		}
+
+		for (final MemoryRelationship rel : createdRelationships.getMasterData().values()) {
+
+			final MemoryIdentity sourceId = rel.getSourceNodeIdentity();
+			final MemoryIdentity targetId = rel.getTargetNodeIdentity();
+
+			if (!isCreated(sourceId) && !db.exists(sourceId) || !isCreated(targetId) && !db.exists(targetId)) {
+				throw new RetryException("Node of relationship with ID " + rel.getIdentity() + " was deleted by a concurrent transaction.");
+			}
+
+			if (!deletedRelationships.containsKey(rel.getIdentity()) && !deletedKeys.contains(rel.getUniquenessKey()) && db.isDuplicate(rel)) {
+				throw new RetryException("Relationship " + rel.getUniquenessKey() + " was created by a concurrent transaction.");
+			}
+		}
+	}
+
+	/**
+	 * Creates new versions of all entities modified in this transaction
+	 * without making them visible. Must be called while the commit lock
+	 * is held.
+	 *
+	 * @return the entities whose properties or labels were changed
+	 */
+	Set<MemoryEntity> prepareChanges(final long version) {
+
+		final Set<MemoryEntity> changed = new LinkedHashSet<>();
+
+		for (final MemoryEntity entity : modifiedEntities) {
+
+			if (entity.prepareCommit(transactionId, version)) {
+
+				changed.add(entity);
+			}
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Makes the versions created by prepareChanges visible. Must be
+	 * called while the commit lock is held.
+	 */
+	void publishChanges(final long oldestSnapshot) {
+
+		for (final MemoryEntity entity : modifiedEntities) {
+			entity.publishCommit(transactionId, oldestSnapshot);
+		}
+	}
+
+	/**
+	 * Discards the versions created by prepareChanges. Must be called
+	 * while the commit lock is held.
+	 */
+	void discardChanges() {
+
+		for (final MemoryEntity entity : modifiedEntities) {
+			entity.discardCommit();
+		}
+	}
+
+	Map<MemoryIdentity, MemoryNode> getCreatedNodes() {
+		return createdNodes.getMasterData();
+	}
+
+	Map<MemoryIdentity, MemoryRelationship> getCreatedRelationships() {
+		return createdRelationships.getMasterData();
+	}
+
+	Set<MemoryIdentity> getDeletedNodes() {
+		return deletedNodes;
+	}
+
+	Map<MemoryIdentity, MemoryRelationship> getDeletedRelationships() {
+		return deletedRelationships;
+	}
+
 	Iterable<MemoryNode> getNodes(final Filter<MemoryNode> filter) {
 
 		final List<Iterable<MemoryNode>> sources = new LinkedList<>();
@@ -127,7 +284,7 @@ public class MemoryTransaction implements Transaction {
 		sources.add(db.getNodes(filter));
 
 		// return union of new and existing nodes, filtered for deleted nodes
-		return Iterables.filter(n -> !deletedNodes.contains(n.getIdentity()), Iterables.flatten(sources));
+		return Iterables.filter(n -> !deletedNodes.contains(n.getIdentity()) && n.existsAt(snapshotVersion), Iterables.flatten(sources));
 	}
 
 	Iterable<MemoryRelationship> getRelationships(final Filter<MemoryRelationship> filter) {
@@ -138,7 +295,40 @@ public class MemoryTransaction implements Transaction {
 		sources.add(db.getRelationships(filter));
 
 		// return union of new and existing nodes
-		return Iterables.filter(r -> !deletedRelationships.containsKey(r.getIdentity()), Iterables.flatten(sources));
+		return Iterables.filter(r -> !deletedRelationships.containsKey(r.getIdentity()) && r.existsAt(snapshotVersion), Iterables.flatten(sources));
+	}
+
+	/**
+	 * Returns the nodes created in this transaction that match the given
+	 * filter, followed by the existing nodes from the given candidate set
+	 * and the existing nodes modified in this transaction.
+	 */
+	Iterable<MemoryNode> getNodes(final Filter<MemoryNode> filter, final Set<MemoryIdentity> candidates) {
+
+		final List<Iterable<MemoryNode>> sources = new LinkedList<>();
+		final Set<MemoryIdentity> ids            = getCandidates(candidates, true);
+
+		sources.add(createdNodes.values(filter));
+		sources.add(Iterables.map(id -> db.getNodeFromRepository(id), ids));
+
+		return Iterables.filter(n -> n != null && !deletedNodes.contains(n.getIdentity()) && n.existsAt(snapshotVersion), Iterables.flatten(sources));
+	}
+
+	/**
+	 * Returns the relationships created in this transaction that match the
+	 * given filter, followed by the existing relationships from the given
+	 * candidate set and the existing relationships modified in this
+	 * transaction.
+	 */
+	Iterable<MemoryRelationship> getRelationships(final Filter<MemoryRelationship> filter, final Set<MemoryIdentity> candidates) {
+
+		final List<Iterable<MemoryRelationship>> sources = new LinkedList<>();
+		final Set<MemoryIdentity> ids                    = getCandidates(candidates, false);
+
+		sources.add(createdRelationships.values(filter));
+		sources.add(Iterables.map(id -> db.getRelationshipFromRepository(id), ids));
+
+		return Iterables.filter(r -> r != null && !deletedRelationships.containsKey(r.getIdentity()) && r.existsAt(snapshotVersion), Iterables.flatten(sources));
 	}
 
 	MemoryNode getNodeById(final MemoryIdentity id) {
@@ -155,7 +345,7 @@ public class MemoryTransaction implements Transaction {
 		}
 
 		candidate = db.getNodeFromRepository(id);
-		if (candidate != null) {
+		if (candidate != null && candidate.existsAt(snapshotVersion)) {
 
 			return candidate;
 		}
@@ -177,7 +367,7 @@ public class MemoryTransaction implements Transaction {
 		}
 
 		candidate = db.getRelationshipFromRepository(id);
-		if (candidate != null) {
+		if (candidate != null && candidate.existsAt(snapshotVersion)) {
 
 			return candidate;
 		}
@@ -195,13 +385,64 @@ public class MemoryTransaction implements Transaction {
 		return deletedRelationships.containsKey(id);
 	}
 
+	boolean isCreated(final MemoryIdentity id) {
+
+		if (id.isNode()) {
+
+			return createdNodes.contains(id);
+		}
+
+		return createdRelationships.contains(id);
+	}
+
 	boolean exists(final MemoryIdentity id) {
 
 		if (id.isNode()) {
 
-			return createdNodes.contains(id) || db.exists(id);
+			if (createdNodes.contains(id)) {
+				return true;
+			}
+
+			final MemoryNode node = db.getNodeFromRepository(id);
+
+			return node != null && node.existsAt(snapshotVersion);
+		}
+
+		if (createdRelationships.contains(id)) {
+			return true;
+		}
+
+		final MemoryRelationship relationship = db.getRelationshipFromRepository(id);
+
+		return relationship != null && relationship.existsAt(snapshotVersion);
+	}
+
+	// ----- private methods -----
+	private Set<MemoryIdentity> getCandidates(final Set<MemoryIdentity> candidates, final boolean nodes) {
+
+		// the index contains committed values only, so entities that were modified
+		// in this transaction must be added to the candidates (sorted by ID to keep
+		// the creation order of the label and type caches)
+		final Set<MemoryIdentity> ids = new TreeSet<>(candidates);
+
+		for (final MemoryEntity entity : modifiedEntities) {
+
+			final MemoryIdentity id = entity.getIdentity();
+			if (id.isNode() == nodes) {
+
+				ids.add(id);
+			}
+		}
+
+		if (nodes) {
+
+			ids.removeAll(createdNodes.getMasterData().keySet());
+
+		} else {
+
+			ids.removeAll(createdRelationships.getMasterData().keySet());
 		}
 
-		return createdRelationships.contains(id) || db.exists(id);
+		return ids;
 	}
 }
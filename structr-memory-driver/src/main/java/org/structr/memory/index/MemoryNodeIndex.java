@@ -19,11 +19,15 @@
 package org.structr.memory.index;
 
 import java.util.Set;
+import java.util.function.Function;
 import org.structr.api.graph.Node;
 import org.structr.api.search.QueryContext;
 import org.structr.api.util.Iterables;
 import org.structr.api.util.PagingIterable;
 import org.structr.memory.MemoryDatabaseService;
+import org.structr.memory.MemoryIdentity;
+import org.structr.memory.MemoryNode;
+import org.structr.memory.index.filter.Filter;
 import org.structr.memory.index.filter.MemoryLabelFilter;
 
 /**
@@ -39,17 +43,37 @@ public class MemoryNodeIndex extends AbstractMemoryIndex<Node> {
 	@Override
 	public Iterable<Node> getResult(final MemoryQuery query) {
 
-		final QueryContext queryContext = query.getQueryContext();
-		final Set<String> labels        = query.getTypeLabels();
-		Iterable<Node> result           = null;
+		final Function<String, PropertyIndex> indexes = db::getNodePropertyIndex;
+		final QueryContext queryContext               = query.getQueryContext();
+		final Set<String> labels                      = query.getTypeLabels();
+		final Set<MemoryIdentity> candidates          = query.getIndexCandidates(indexes);
+		final PropertyIndex sortIndex                 = query.getSortIndex(indexes);
+		Iterable<Node> result                         = null;
 
-		if (labels.isEmpty()) {
+		if (candidates != null && db.isIndexCurrent()) {
 
-			result = Iterables.filter(query, query.sort(db.getAllNodes()));
+			// index-backed plan: the query predicate (including labels) is applied to the candidates only,
+			// which is only valid if no other transaction has committed since this snapshot was taken
+			final Filter<MemoryNode> filter = labels.isEmpty() ? null : new MemoryLabelFilter<>(labels);
+			final Iterable<Node> source     = Iterables.map(n -> n, db.getIndexedNodes(filter, candidates));
+
+			result = query.sort(Iterables.filter(query, source));
+
+		} else if (sortIndex != null && db.isIndexVisible()) {
+
+			// index-ordered plan: stream the results in the order of the first sort key
+			final Function<Set<MemoryIdentity>, Iterable<Node>> resolver = ids -> Iterables.map(n -> n, db.getIndexedNodes(null, ids));
+			final Iterable<Node> source                                  = labels.isEmpty() ? db.getAllNodes() : Iterables.map(n -> n, db.getFilteredNodes(new MemoryLabelFilter<>(labels)));
+
+			result = query.sortByIndex(sortIndex, resolver, source);
+
+		} else if (labels.isEmpty()) {
+
+			result = query.sort(Iterables.filter(query, db.getAllNodes()));
 
 		} else {
 
-			result = Iterables.filter(query, query.sort(db.getFilteredNodes(new MemoryLabelFilter<>(labels))));
+			result = query.sort(Iterables.filter(query, db.getFilteredNodes(new MemoryLabelFilter<>(labels))));
 		}
 
 		if (queryContext.isSliced()) {
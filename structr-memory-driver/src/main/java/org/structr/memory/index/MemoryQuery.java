@@ -18,11 +18,16 @@
  */
 package org.structr.memory.index;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.function.Function;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +38,7 @@ import org.structr.api.index.DatabaseQuery;
 import org.structr.api.search.SortOrder;
 import org.structr.api.search.SortSpec;
 import org.structr.api.util.Iterables;
+import org.structr.memory.MemoryIdentity;
 import org.structr.memory.index.predicate.Conjunction;
 import org.structr.memory.index.predicate.GroupPredicate;
 import org.structr.memory.index.predicate.NotPredicate;
@@ -122,12 +128,23 @@ public class MemoryQuery<T extends PropertyContainer> implements DatabaseQuery,
 		currentPredicate = currentPredicate.getParent();
 	}
 
+	/**
+	 * Sorts the given (filtered) source. If the query context requests a
+	 * slice of the result, only the elements up to the end of the slice
+	 * are sorted, using a bounded heap. The remaining elements follow in
+	 * their original order so that the total result count stays correct.
+	 */
 	public Iterable<T> sort(final Iterable<T> source) {
 
 		if (sortOrder != null) {
 
 			try {
 
+				if (queryContext != null && queryContext.isSliced() && queryContext.getLimit() >= 0) {
+
+					return sortTopK(source, Math.max(0, queryContext.getSkip()) + queryContext.getLimit());
+				}
+
 				final List<T> list = Iterables.toList(source);
 
 				Collections.sort(list, new Sorter(sortOrder));
@@ -142,16 +159,155 @@ public class MemoryQuery<T extends PropertyContainer> implements DatabaseQuery,
 		return source;
 	}
 
+	/**
+	 * Returns the property index for the first sort key of this query,
+	 * or null if the query is not sorted or the key is not indexed.
+	 */
+	public PropertyIndex getSortIndex(final Function<String, PropertyIndex> indexes) {
+
+		if (sortOrder != null && !sortOrder.isEmpty()) {
+
+			return indexes.apply(sortOrder.getSortElements().get(0).getSortKey());
+		}
+
+		return null;
+	}
+
+	/**
+	 * Streams the results of this query in the order of the given index
+	 * for the first sort key, so that the first page of a sorted query
+	 * is available without sorting the whole result. Entities that have
+	 * the same value are sorted by the remaining sort keys. Entities that
+	 * are not contained in the sorted index (null values, arrays) follow
+	 * at the end (or come first for descending order), like in sort().
+	 *
+	 * @param index the index for the first sort key
+	 * @param resolver function that resolves a set of identities
+	 * @param source all entities, to find the ones without an indexed value
+	 */
+	public Iterable<T> sortByIndex(final PropertyIndex index, final Function<Set<MemoryIdentity>, Iterable<T>> resolver, final Iterable<T> source) {
+
+		final SortSpec spec                                     = sortOrder.getSortElements().get(0);
+		final NavigableMap<Object, Set<MemoryIdentity>> ordered = spec.sortDescending() ? index.getSortedValues().descendingMap() : index.getSortedValues();
+		final boolean sortGroups                                = sortOrder.getSortElements().size() > 1;
+		final Sorter sorter                                     = new Sorter(sortOrder);
+		final String key                                        = spec.getSortKey();
+
+		final Iterable<T> indexed = Iterables.flatten(Iterables.map(entry -> {
+
+			final Object value  = entry.getKey();
+			final List<T> group = new ArrayList<>();
+
+			for (final T entity : resolver.apply(entry.getValue())) {
+
+				// skip entities whose visible value does not belong to this index entry
+				if (accept(entity) && value.equals(PropertyIndex.normalize(entity.getProperty(key)))) {
+					group.add(entity);
+				}
+			}
+
+			if (sortGroups && group.size() > 1) {
+				Collections.sort(group, sorter);
+			}
+
+			return group;
+
+		}, ordered.entrySet()));
+
+		final Iterable<T> unordered = Iterables.filter(e -> accept(e) && !PropertyIndex.isOrdered(e.getProperty(key)), source);
+
+		if (spec.sortDescending()) {
+
+			return Iterables.flatten(Arrays.asList(unordered, indexed));
+		}
+
+		return Iterables.flatten(Arrays.asList(indexed, unordered));
+	}
+
 	@Override
 	public boolean accept(final T value) {
 		return rootPredicate.accept(value);
 	}
 
+	/**
+	 * Returns a superset of the identities of the committed entities that
+	 * match this query, or null if the query cannot be answered from the
+	 * given property indexes.
+	 */
+	public Set<MemoryIdentity> getIndexCandidates(final Function<String, PropertyIndex> indexes) {
+		return rootPredicate.getCandidates(indexes);
+	}
+
 	public QueryContext getQueryContext() {
 		return queryContext;
 	}
 
+	// ----- private methods -----
+	private List<T> sortTopK(final Iterable<T> source, final int k) {
+
+		final Sorter sorter                    = new Sorter(sortOrder);
+		final Comparator<Ranked<T>> comparator = (r1, r2) -> {
+
+			final int result = sorter.compare(r1.element, r2.element);
+			if (result != 0) {
+
+				return result;
+			}
+
+			// keep the original order of equal elements, like a stable sort
+			return Long.compare(r1.position, r2.position);
+		};
+
+		final PriorityQueue<Ranked<T>> heap = new PriorityQueue<>(Math.min(k, 1024) + 1, comparator.reversed());
+		final List<T> overflow              = new ArrayList<>();
+		long position                       = 0L;
+
+		for (final T element : source) {
+
+			final Ranked<T> ranked = new Ranked<>(element, position++);
+
+			if (heap.size() < k) {
+
+				heap.add(ranked);
+
+			} else if (k > 0 && comparator.compare(ranked, heap.peek()) < 0) {
+
+				overflow.add(heap.poll().element);
+				heap.add(ranked);
+
+			} else {
+
+				overflow.add(element);
+			}
+		}
+
+		final List<Ranked<T>> top = new ArrayList<>(heap);
+		final List<T> result      = new ArrayList<>(top.size() + overflow.size());
+
+		Collections.sort(top, comparator);
+
+		for (final Ranked<T> ranked : top) {
+			result.add(ranked.element);
+		}
+
+		result.addAll(overflow);
+
+		return result;
+	}
+
 	// ----- nested classes -----
+	private static class Ranked<T> {
+
+		private final T element;
+		private final long position;
+
+		Ranked(final T element, final long position) {
+
+			this.element  = element;
+			this.position = position;
+		}
+	}
+
 	private class Sorter implements Comparator<T> {
 
 		private SortOrder sortOrder = null;
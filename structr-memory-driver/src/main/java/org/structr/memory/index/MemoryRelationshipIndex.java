@@ -19,9 +19,13 @@
 package org.structr.memory.index;
 
 import java.util.Set;
+import java.util.function.Function;
 import org.structr.api.graph.Relationship;
 import org.structr.api.util.Iterables;
 import org.structr.memory.MemoryDatabaseService;
+import org.structr.memory.MemoryIdentity;
+import org.structr.memory.MemoryRelationship;
+import org.structr.memory.index.filter.Filter;
 import org.structr.memory.index.filter.MemoryLabelFilter;
 
 /**
@@ -36,15 +40,35 @@ public class MemoryRelationshipIndex extends AbstractMemoryIndex<Relationship> {
 	@Override
 	public Iterable<Relationship> getResult(final MemoryQuery query) {
 
-		final Set<String> labels = query.getTypeLabels();
+		final Function<String, PropertyIndex> indexes = db::getRelationshipPropertyIndex;
+		final Set<String> labels                      = query.getTypeLabels();
+		final Set<MemoryIdentity> candidates          = query.getIndexCandidates(indexes);
+		final PropertyIndex sortIndex                 = query.getSortIndex(indexes);
 
-		if (labels.isEmpty()) {
+		if (candidates != null && db.isIndexCurrent()) {
 
-			return Iterables.filter(query, query.sort(db.getAllRelationships()));
+			// index-backed plan: the query predicate (including labels) is applied to the candidates only,
+			// which is only valid if no other transaction has committed since this snapshot was taken
+			final Filter<MemoryRelationship> filter = labels.isEmpty() ? null : new MemoryLabelFilter<>(labels);
+			final Iterable<Relationship> source     = Iterables.map(r -> r, db.getIndexedRelationships(filter, candidates));
+
+			return query.sort(Iterables.filter(query, source));
+
+		} else if (sortIndex != null && db.isIndexVisible()) {
+
+			// index-ordered plan: stream the results in the order of the first sort key
+			final Function<Set<MemoryIdentity>, Iterable<Relationship>> resolver = ids -> Iterables.map(r -> r, db.getIndexedRelationships(null, ids));
+			final Iterable<Relationship> source                                  = labels.isEmpty() ? db.getAllRelationships() : Iterables.map(r -> r, db.getFilteredRelationships(new MemoryLabelFilter<>(labels)));
+
+			return query.sortByIndex(sortIndex, resolver, source);
+
+		} else if (labels.isEmpty()) {
+
+			return query.sort(Iterables.filter(query, db.getAllRelationships()));
 
 		} else {
 
-			return Iterables.filter(query, query.sort(db.getFilteredRelationships(new MemoryLabelFilter<>(labels))));
+			return query.sort(Iterables.filter(query, db.getFilteredRelationships(new MemoryLabelFilter<>(labels))));
 		}
 	}
 }
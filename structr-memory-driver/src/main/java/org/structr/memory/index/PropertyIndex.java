@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory.index;
+
+import java.lang.reflect.Array;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+import org.structr.memory.MemoryIdentity;
+
+/**
+ * Secondary index for a single property key. Every value is stored in a
+ * hash map for exact lookups and, if it is comparable, in a sorted map for
+ * range lookups and index-ordered iteration. Both maps share the identity
+ * sets, so the sorted view only costs the skip list nodes.
+ *
+ * Values are normalized before indexing (numbers and dates are stored as
+ * doubles, array values are indexed element-wise), so a lookup result is
+ * always a superset of the matching entities and must be filtered with the
+ * original predicate.
+ */
+public class PropertyIndex {
+
+	private static final Comparator<Object> VALUE_COMPARATOR = new ValueComparator();
+
+	private final Map<Object, Set<MemoryIdentity>> hashIndex             = new ConcurrentHashMap<>();
+	private final NavigableMap<Object, Set<MemoryIdentity>> sortedIndex = new ConcurrentSkipListMap<>(VALUE_COMPARATOR);
+	private String key                                                   = null;
+
+	public PropertyIndex(final String key) {
+		this.key = key;
+	}
+
+	@Override
+	public String toString() {
+		return "PropertyIndex(" + key + ", " + hashIndex.size() + " values)";
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public void add(final MemoryIdentity id, final Object value) {
+
+		if (value != null) {
+
+			if (value.getClass().isArray()) {
+
+				// primitive arrays can't be cast to Object[]
+				final int length = Array.getLength(value);
+
+				for (int i=0; i<length; i++) {
+					addValue(id, Array.get(value, i));
+				}
+
+			} else {
+
+				addValue(id, value);
+			}
+		}
+	}
+
+	public void remove(final MemoryIdentity id, final Object value) {
+
+		if (value != null) {
+
+			if (value.getClass().isArray()) {
+
+				// primitive arrays can't be cast to Object[]
+				final int length = Array.getLength(value);
+
+				for (int i=0; i<length; i++) {
+					removeValue(id, Array.get(value, i));
+				}
+
+			} else {
+
+				removeValue(id, value);
+			}
+		}
+	}
+
+	public void clear() {
+		hashIndex.clear();
+		sortedIndex.clear();
+	}
+
+	/**
+	 * Returns the identities of all entities with the given value, or
+	 * null if the value cannot be looked up in this index.
+	 */
+	public Set<MemoryIdentity> get(final Object value) {
+
+		final Object normalized = normalize(value);
+		if (normalized == null || normalized.getClass().isArray()) {
+
+			return null;
+		}
+
+		final Set<MemoryIdentity> result = hashIndex.get(normalized);
+		if (result != null) {
+
+			return result;
+		}
+
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Returns the identities of all entities with a value in the given
+	 * range, or null if the range cannot be looked up in this index.
+	 */
+	public Set<MemoryIdentity> getRange(final Object start, final boolean startInclusive, final Object end, final boolean endInclusive) {
+
+		final Object normalizedStart = normalize(start);
+		final Object normalizedEnd   = normalize(end);
+
+		if (normalizedStart == null && normalizedEnd == null) {
+			return null;
+		}
+
+		if (!isSortable(normalizedStart) || !isSortable(normalizedEnd)) {
+			return null;
+		}
+
+		final NavigableMap<Object, Set<MemoryIdentity>> range;
+
+		if (normalizedStart == null) {
+
+			range = sortedIndex.headMap(normalizedEnd, endInclusive);
+
+		} else if (normalizedEnd == null) {
+
+			range = sortedIndex.tailMap(normalizedStart, startInclusive);
+
+		} else {
+
+			if (VALUE_COMPARATOR.compare(normalizedStart, normalizedEnd) > 0) {
+				return Collections.emptySet();
+			}
+
+			range = sortedIndex.subMap(normalizedStart, startInclusive, normalizedEnd, endInclusive);
+		}
+
+		return collect(range.values());
+	}
+
+	/**
+	 * Returns the identities of all entities whose value (in its string
+	 * representation) matches the given filter. This iterates the distinct
+	 * values of this index instead of all entities.
+	 */
+	public Set<MemoryIdentity> getMatching(final Predicate<String> filter) {
+
+		final Set<Set<MemoryIdentity>> matches = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		for (final Map.Entry<Object, Set<MemoryIdentity>> entry : hashIndex.entrySet()) {
+
+			if (filter.test(entry.getKey().toString())) {
+
+				matches.add(entry.getValue());
+			}
+		}
+
+		return collect(matches);
+	}
+
+	/**
+	 * Returns the indexed values in ascending order, each mapped to the
+	 * identities of the entities that have this value.
+	 */
+	public NavigableMap<Object, Set<MemoryIdentity>> getSortedValues() {
+		return sortedIndex;
+	}
+
+	/**
+	 * Indicates whether entities with the given value are contained in
+	 * the sorted view of this index under exactly one key.
+	 */
+	public static boolean isOrdered(final Object value) {
+		return value != null && !value.getClass().isArray() && normalize(value) instanceof Comparable;
+	}
+
+	// ----- private methods -----
+	private void addValue(final MemoryIdentity id, final Object value) {
+
+		final Object normalized = normalize(value);
+		if (normalized != null) {
+
+			// modifications of a single value are atomic in the hash index
+			hashIndex.compute(normalized, (k, existing) -> {
+
+				final Set<MemoryIdentity> ids = existing != null ? existing : new ConcurrentSkipListSet<>();
+
+				ids.add(id);
+
+				if (existing == null && isSortable(k)) {
+
+					sortedIndex.put(k, ids);
+				}
+
+				return ids;
+			});
+		}
+	}
+
+	private void removeValue(final MemoryIdentity id, final Object value) {
+
+		final Object normalized = normalize(value);
+		if (normalized != null) {
+
+			hashIndex.computeIfPresent(normalized, (k, ids) -> {
+
+				ids.remove(id);
+
+				if (ids.isEmpty()) {
+
+					sortedIndex.remove(k);
+					return null;
+				}
+
+				return ids;
+			});
+		}
+	}
+
+	private Set<MemoryIdentity> collect(final Iterable<Set<MemoryIdentity>> sets) {
+
+		final Set<MemoryIdentity> result = new TreeSet<>();
+
+		for (final Set<MemoryIdentity> ids : sets) {
+			result.addAll(ids);
+		}
+
+		return result;
+	}
+
+	private boolean isSortable(final Object value) {
+		return value == null || value instanceof Comparable;
+	}
+
+	static Object normalize(final Object value) {
+
+		if (value instanceof Number) {
+			return ((Number)value).doubleValue();
+		}
+
+		if (value instanceof Date) {
+			return (double)((Date)value).getTime();
+		}
+
+		return value;
+	}
+
+	// ----- nested classes -----
+	private static class ValueComparator implements Comparator<Object> {
+
+		@Override
+		public int compare(final Object o1, final Object o2) {
+
+			final int r1 = rank(o1);
+			final int r2 = rank(o2);
+
+			if (r1 != r2) {
+				return Integer.compare(r1, r2);
+			}
+
+			if (o1.getClass().equals(o2.getClass())) {
+				return ((Comparable)o1).compareTo(o2);
+			}
+
+			// different comparable types of the same rank are ordered by class name
+			return o1.getClass().getName().compareTo(o2.getClass().getName());
+		}
+
+		private int rank(final Object value) {
+
+			if (value instanceof Boolean) {
+				return 0;
+			}
+
+			if (value instanceof Double) {
+				return 1;
+			}
+
+			if (value instanceof String) {
+				return 2;
+			}
+
+			return 3;
+		}
+	}
+}
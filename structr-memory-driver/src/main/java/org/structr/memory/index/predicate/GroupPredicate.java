@@ -20,13 +20,18 @@ package org.structr.memory.index.predicate;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
 import org.structr.api.Predicate;
+import org.structr.memory.MemoryIdentity;
+import org.structr.memory.index.PropertyIndex;
 import static org.structr.memory.index.predicate.Conjunction.And;
 import static org.structr.memory.index.predicate.Conjunction.Or;
 
 /**
  */
-public class GroupPredicate<T> implements Predicate<T> {
+public class GroupPredicate<T> implements Predicate<T>, IndexedPredicate {
 
 	private final List<Predicate<T>> predicates = new LinkedList<>();
 	private Conjunction conjunction             = Conjunction.And;
@@ -97,4 +102,55 @@ public class GroupPredicate<T> implements Predicate<T> {
 
 		return result;
 	}
+
+	@Override
+	public Set<MemoryIdentity> getCandidates(final Function<String, PropertyIndex> indexes) {
+
+		switch (conjunction) {
+
+			case And:
+				// any indexed child restricts the result, use the smallest candidate set
+				Set<MemoryIdentity> smallest = null;
+
+				for (final Predicate<T> predicate : predicates) {
+
+					if (predicate instanceof IndexedPredicate) {
+
+						final Set<MemoryIdentity> candidates = ((IndexedPredicate)predicate).getCandidates(indexes);
+						if (candidates != null && (smallest == null || candidates.size() < smallest.size())) {
+
+							smallest = candidates;
+						}
+					}
+				}
+
+				return smallest;
+
+			case Or:
+				// all children must be indexed, the result is the union of all candidate sets
+				final Set<MemoryIdentity> union = new TreeSet<>();
+
+				for (final Predicate<T> predicate : predicates) {
+
+					if (predicate instanceof IndexedPredicate) {
+
+						final Set<MemoryIdentity> candidates = ((IndexedPredicate)predicate).getCandidates(indexes);
+						if (candidates == null) {
+
+							return null;
+						}
+
+						union.addAll(candidates);
+
+					} else {
+
+						return null;
+					}
+				}
+
+				return predicates.isEmpty() ? null : union;
+		}
+
+		return null;
+	}
 }
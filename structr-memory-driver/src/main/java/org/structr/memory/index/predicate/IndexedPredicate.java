@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.memory.index.predicate;
+
+import java.util.Set;
+import java.util.function.Function;
+import org.structr.memory.MemoryIdentity;
+import org.structr.memory.index.PropertyIndex;
+
+/**
+ * A predicate that can provide a candidate set from the secondary
+ * property indexes instead of being evaluated on every entity.
+ */
+public interface IndexedPredicate {
+
+	/**
+	 * Returns a superset of the identities of the committed entities that
+	 * match this predicate, or null if the predicate cannot be answered
+	 * from the available indexes.
+	 *
+	 * @param indexes function that returns the index for a property key, or null
+	 *
+	 * @return the candidate set or null
+	 */
+	Set<MemoryIdentity> getCandidates(final Function<String, PropertyIndex> indexes);
+}
@@ -19,12 +19,16 @@
 package org.structr.memory.index.predicate;
 
 import java.util.Date;
+import java.util.Set;
+import java.util.function.Function;
 import org.structr.api.Predicate;
 import org.structr.api.graph.PropertyContainer;
+import org.structr.memory.MemoryIdentity;
+import org.structr.memory.index.PropertyIndex;
 
 /**
  */
-public class RangePredicate<T extends PropertyContainer, V extends Comparable> implements Predicate<T> {
+public class RangePredicate<T extends PropertyContainer, V extends Comparable> implements Predicate<T>, IndexedPredicate {
 
 	private Class typeHint         = null;
 	private String key             = null;
@@ -87,6 +91,18 @@ public class RangePredicate<T extends PropertyContainer, V extends Comparable> i
 		return false;
 	}
 
+	@Override
+	public Set<MemoryIdentity> getCandidates(final Function<String, PropertyIndex> indexes) {
+
+		final PropertyIndex index = indexes.apply(key);
+		if (index != null) {
+
+			return index.getRange(rangeStart, startInclusive, rangeEnd, endInclusive);
+		}
+
+		return null;
+	}
+
 	// ----- private methods -----
 	private boolean greaterThan(final Comparable actual, final Comparable expected) {
 
@@ -18,12 +18,16 @@
  */
 package org.structr.memory.index.predicate;
 
+import java.util.Set;
+import java.util.function.Function;
 import org.structr.api.Predicate;
 import org.structr.api.graph.PropertyContainer;
+import org.structr.memory.MemoryIdentity;
+import org.structr.memory.index.PropertyIndex;
 
 /**
  */
-public class StringContainsPredicate<T extends PropertyContainer> implements Predicate<T> {
+public class StringContainsPredicate<T extends PropertyContainer> implements Predicate<T>, IndexedPredicate {
 
 	private String key          = null;
 	private String desiredValue = null;
@@ -47,4 +51,19 @@ public class StringContainsPredicate<T extends PropertyContainer> implements Pre
 
 		return false;
 	}
+
+	@Override
+	public Set<MemoryIdentity> getCandidates(final Function<String, PropertyIndex> indexes) {
+
+		final PropertyIndex index = indexes.apply(key);
+		if (index != null && desiredValue != null) {
+
+			final String lowerCaseValue = desiredValue.toLowerCase();
+
+			// scan the distinct values of the index instead of all entities
+			return index.getMatching(s -> s.toLowerCase().contains(lowerCaseValue));
+		}
+
+		return null;
+	}
 }
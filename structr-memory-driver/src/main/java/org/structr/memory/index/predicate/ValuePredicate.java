@@ -19,12 +19,16 @@
 package org.structr.memory.index.predicate;
 
 import java.util.Arrays;
+import java.util.Set;
+import java.util.function.Function;
 import org.structr.api.Predicate;
 import org.structr.api.graph.PropertyContainer;
+import org.structr.memory.MemoryIdentity;
+import org.structr.memory.index.PropertyIndex;
 
 /**
  */
-public class ValuePredicate<T extends PropertyContainer, V> implements Predicate<T> {
+public class ValuePredicate<T extends PropertyContainer, V> implements Predicate<T>, IndexedPredicate {
 
 	private String key     = null;
 	private V desiredValue = null;
@@ -72,4 +76,17 @@ public class ValuePredicate<T extends PropertyContainer, V> implements Predicate
 
 		return false;
 	}
+
+	@Override
+	public Set<MemoryIdentity> getCandidates(final Function<String, PropertyIndex> indexes) {
+
+		final PropertyIndex index = indexes.apply(key);
+		if (index != null) {
+
+			// returns null for values that cannot be looked up (null, arrays)
+			return index.get(desiredValue);
+		}
+
+		return null;
+	}
 }
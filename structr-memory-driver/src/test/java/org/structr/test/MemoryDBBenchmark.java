@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test;
+
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.api.Transaction;
+import org.structr.api.util.Iterables;
+import org.structr.memory.MemoryDatabaseService;
+import static org.testng.AssertJUnit.assertEquals;
+import org.testng.annotations.Test;
+
+/**
+ * Measurements for the in-memory database that take too long or depend too
+ * much on the machine to run as part of the regular test suite. Run with
+ * mvn test -Pbenchmark.
+ */
+public class MemoryDBBenchmark {
+
+	private static final Logger logger = LoggerFactory.getLogger(MemoryDBBenchmark.class);
+
+	/**
+	 * Imports one million nodes in batches and reports the time per batch,
+	 * which should not grow with the size of the database.
+	 */
+	@Test
+	public void benchmarkBulkImport() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final int batchCount                = 10;
+		final int batchSize                 = 100000;
+
+		for (int i=0; i<batchCount; i++) {
+
+			final long t0 = System.currentTimeMillis();
+
+			try (final Transaction tx = service.beginTx()) {
+
+				for (int j=0; j<batchSize; j++) {
+
+					service.createNode("Test", null, Map.of("type", "Test", "name", "node" + j));
+				}
+
+				tx.success();
+			}
+
+			logger.info("Batch {}: imported {} nodes in {} ms", i, batchSize, System.currentTimeMillis() - t0);
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Invalid number of imported nodes", batchCount * batchSize, Iterables.count(service.getNodesByLabel("Test")));
+
+			tx.success();
+		}
+	}
+}
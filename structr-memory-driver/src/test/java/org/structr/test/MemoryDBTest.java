@@ -18,13 +18,46 @@
  */
 package org.structr.test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.structr.api.RetryException;
 import org.structr.api.Transaction;
+import org.structr.api.config.Settings;
 import org.structr.api.graph.Identity;
 import org.structr.api.graph.Node;
+import org.structr.api.graph.PropertyContainer;
+import org.structr.api.graph.Relationship;
+import org.structr.api.graph.RelationshipType;
+import org.structr.api.search.QueryContext;
+import org.structr.api.search.SortOrder;
+import org.structr.api.search.SortSpec;
+import org.structr.api.search.SortType;
+import org.structr.api.util.Iterables;
 import org.structr.memory.MemoryDatabaseService;
+import org.structr.memory.MemoryIdentity;
+import org.structr.memory.index.MemoryNodeIndex;
+import org.structr.memory.index.MemoryQuery;
+import org.structr.memory.index.PropertyIndex;
 import org.structr.memory.index.filter.MemoryLabelFilter;
+import org.structr.memory.index.predicate.LabelPredicate;
+import org.structr.memory.index.predicate.RangePredicate;
+import org.structr.memory.index.predicate.ValuePredicate;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
 import org.testng.annotations.Test;
 
 /**
@@ -66,4 +99,819 @@ public class MemoryDBTest {
 		}
 
 	}
+
+	@Test
+	public void testPropertyIndexes() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+
+		service.updateIndexConfiguration(Map.of("Test", Map.of("name", true, "age", true)), Map.of(), false);
+
+		assertNotNull("Index configuration should create a property index", service.getNodePropertyIndex("name"));
+		assertNull("Non-indexed property should not have a property index", service.getNodePropertyIndex("other"));
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (int i=0; i<100; i++) {
+
+				service.createNode("Test", null, Map.of("type", "Test", "name", "node" + i, "age", i));
+			}
+
+			tx.success();
+		}
+
+		final MemoryNodeIndex index = (MemoryNodeIndex)service.nodeIndex();
+
+		try (final Transaction tx = service.beginTx()) {
+
+			final MemoryQuery exact = new MemoryQuery(new QueryContext());
+
+			exact.addPredicate(new LabelPredicate<>("Test"));
+			exact.addPredicate(new ValuePredicate<>("name", "node42"));
+
+			final List<Node> exactResult = Iterables.toList(index.getResult(exact));
+
+			assertEquals("Invalid index lookup result", 1, exactResult.size());
+			assertEquals("Invalid index lookup result", 42, exactResult.get(0).getProperty("age"));
+
+			final MemoryQuery range = new MemoryQuery(new QueryContext());
+
+			range.addPredicate(new LabelPredicate<>("Test"));
+			range.addPredicate(new RangePredicate<>("age", 10, 19, Integer.class));
+
+			assertEquals("Invalid index range result", 10, Iterables.count(index.getResult(range)));
+
+			// modify a node in the transaction, the index must reflect the uncommitted value
+			exactResult.get(0).setProperty("name", "modified");
+
+			assertEquals("Uncommitted value must be visible to index lookups", 1, Iterables.count(index.getResult(exact("modified"))));
+			assertEquals("Uncommitted value must be visible to index lookups", 0, Iterables.count(index.getResult(exact("node42"))));
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Committed value must be indexed", 1, Iterables.count(index.getResult(exact("modified"))));
+			assertEquals("Old value must be removed from index", 0, Iterables.count(index.getResult(exact("node42"))));
+
+			for (final Node node : index.getResult(exact("modified"))) {
+				node.delete(true);
+			}
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Deleted node must be removed from index", 0, Iterables.count(index.getResult(exact("modified"))));
+
+			tx.success();
+		}
+	}
+
+	@Test
+	public void testPrimitiveArrayValues() {
+
+		final PropertyIndex index   = new PropertyIndex("values");
+		final MemoryIdentity first  = new MemoryIdentity(true, "Test");
+		final MemoryIdentity second = new MemoryIdentity(true, "Test");
+
+		index.add(first,  new int[] { 1, 2, 3 });
+		index.add(second, new String[] { "a", "b" });
+
+		assertTrue("Elements of primitive arrays must be indexed", index.get(2).contains(first));
+		assertTrue("Elements of object arrays must be indexed", index.get("b").contains(second));
+
+		index.remove(first, new int[] { 1, 2, 3 });
+
+		assertEquals("Elements of primitive arrays must be removed from the index", 0, index.get(2).size());
+		assertTrue("Other values must not be removed from the index", index.get("a").contains(second));
+	}
+
+	/**
+	 * Verifies that a transaction does not see the effects of a transaction
+	 * that committed after it started, neither through index lookups nor
+	 * through newly created nodes.
+	 */
+	@Test
+	public void testSnapshotVisibility() throws InterruptedException {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final MemoryNodeIndex index         = (MemoryNodeIndex)service.nodeIndex();
+		final AtomicBoolean success         = new AtomicBoolean(false);
+		final Identity[] createdId          = new Identity[1];
+
+		service.updateIndexConfiguration(Map.of("Test", Map.of("name", true)), Map.of(), false);
+
+		try (final Transaction tx = service.beginTx()) {
+
+			service.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "before"));
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Invalid index lookup result", 1, Iterables.count(index.getResult(exact("before"))));
+
+			// concurrent transaction renames the node and creates a new one
+			final Thread writer = new Thread(() -> {
+
+				try (final Transaction tx2 = service.beginTx()) {
+
+					for (final Node node : index.getResult(exact("before"))) {
+						node.setProperty("name", "after");
+					}
+
+					createdId[0] = service.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "new")).getId();
+
+					tx2.success();
+				}
+
+				success.set(true);
+			});
+
+			writer.start();
+			writer.join();
+
+			assertTrue("Concurrent transaction should commit", success.get());
+
+			assertEquals("Index lookup must use the value visible in the snapshot", 1, Iterables.count(index.getResult(exact("before"))));
+			assertEquals("Index lookup must not return values committed after the snapshot", 0, Iterables.count(index.getResult(exact("after"))));
+			assertEquals("Node created after the snapshot must not be visible", 0, Iterables.count(index.getResult(exact("new"))));
+			assertEquals("Node created after the snapshot must not be visible", 1, Iterables.count(service.getNodesByLabel("Test")));
+			assertNull("Node created after the snapshot must not be visible", service.getNodeById(createdId[0]));
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Committed value must be visible", 1, Iterables.count(index.getResult(exact("after"))));
+			assertEquals("Committed node must be visible", 2, Iterables.count(service.getNodesByLabel("Test")));
+			assertNotNull("Committed node must be visible", service.getNodeById(createdId[0]));
+
+			tx.success();
+		}
+	}
+
+	/**
+	 * Verifies that a transaction still sees nodes and relationships that
+	 * were deleted by a transaction that committed after it started, and
+	 * that the deletion is visible to transactions that start afterwards.
+	 */
+	@Test
+	public void testDeletionVisibility() throws InterruptedException {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final MemoryNodeIndex index         = (MemoryNodeIndex)service.nodeIndex();
+		final RelationshipType knows        = service.forName(RelationshipType.class, "KNOWS");
+		final AtomicBoolean success         = new AtomicBoolean(false);
+		final Identity[] ids                = new Identity[2];
+		Identity relId                      = null;
+
+		service.updateIndexConfiguration(Map.of("Test", Map.of("name", true)), Map.of(), false);
+
+		try (final Transaction tx = service.beginTx()) {
+
+			final Node source = service.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "source"));
+			final Node target = service.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "deleted"));
+			final Node other  = service.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "other"));
+
+			relId  = source.createRelationshipTo(target, knows, Map.of("type", "KNOWS")).getId();
+			ids[0] = source.getId();
+			ids[1] = other.getId();
+
+			source.createRelationshipTo(other, knows, Map.of("type", "KNOWS", "name", "old"));
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			// concurrent transactions delete a node with its relationship and replace another relationship
+			final Thread writer = new Thread(() -> {
+
+				try (final Transaction tx2 = service.beginTx()) {
+
+					for (final Node node : index.getResult(exact("deleted"))) {
+						node.delete(true);
+					}
+
+					tx2.success();
+				}
+
+				try (final Transaction tx2 = service.beginTx()) {
+
+					final Node source = service.getNodeById(ids[0]);
+					final Node other  = service.getNodeById(ids[1]);
+
+					for (final Relationship rel : source.getRelationships()) {
+						rel.delete(true);
+					}
+
+					source.createRelationshipTo(other, knows, Map.of("type", "KNOWS", "name", "new"));
+
+					tx2.success();
+				}
+
+				success.set(true);
+			});
+
+			writer.start();
+			writer.join();
+
+			assertTrue("Concurrent transactions should commit", success.get());
+
+			assertEquals("Node deleted after the snapshot must be visible", 1, Iterables.count(index.getResult(exact("deleted"))));
+			assertEquals("Node deleted after the snapshot must be visible", 3, Iterables.count(service.getNodesByLabel("Test")));
+			assertNotNull("Relationship deleted after the snapshot must be visible", service.getRelationshipById(relId));
+			assertEquals("Relationship deleted after the snapshot must be visible", "deleted", service.getRelationshipById(relId).getEndNode().getProperty("name"));
+			assertEquals("Relationships deleted after the snapshot must be visible", 2, Iterables.count(service.getNodeById(ids[0]).getRelationships()));
+
+			for (final Relationship rel : service.getNodeById(ids[1]).getRelationships()) {
+				assertEquals("Relationship created after the snapshot must not be visible", "old", rel.getProperty("name"));
+			}
+
+			tx.success();
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Deleted node must not be visible", 0, Iterables.count(index.getResult(exact("deleted"))));
+			assertEquals("Deleted node must not be visible", 2, Iterables.count(service.getNodesByLabel("Test")));
+			assertNull("Deleted relationship must not be visible", service.getRelationshipById(relId));
+			assertEquals("Deleted relationship must not be visible", 1, Iterables.count(service.getNodeById(ids[0]).getRelationships()));
+
+			for (final Relationship rel : service.getNodeById(ids[1]).getRelationships()) {
+				assertEquals("Replaced relationship must be visible", "new", rel.getProperty("name"));
+			}
+
+			tx.success();
+		}
+	}
+
+	/**
+	 * Verifies that sorted and paged queries return the same pages with
+	 * the top-K path, the index-ordered path and a full sort.
+	 */
+	@Test
+	public void testSortedPaging() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final Random random                 = new Random(42L);
+
+		service.updateIndexConfiguration(Map.of("Test", Map.of("age", true)), Map.of(), false);
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (int i=0; i<1000; i++) {
+
+				final Map<String, Object> data = new LinkedHashMap<>();
+
+				data.put("type", "Test");
+				data.put("name", "node" + random.nextInt(100));
+
+				// leave some values empty to test null ordering
+				if (i % 10 != 0) {
+					data.put("age", random.nextInt(50));
+				}
+
+				service.createNode("Test", null, data);
+			}
+
+			tx.success();
+		}
+
+		final MemoryNodeIndex index = (MemoryNodeIndex)service.nodeIndex();
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (final boolean descending : new boolean[] { false, true }) {
+
+				for (final String key : new String[] { "age", "name" }) {
+
+					final List<Node> expected = getSorted(index, null, key, descending);
+					final SortOrder sortOrder = sortBy(descending, key, key.equals("age") ? "name" : "age");
+
+					for (int i=1; i<expected.size(); i++) {
+						assertTrue("Invalid sort order for " + key + (descending ? " desc" : " asc"), sortOrder.compare(expected.get(i - 1), expected.get(i)) <= 0);
+					}
+
+					for (int page=1; page<=5; page++) {
+
+						final List<Node> actual = getSorted(index, new QueryContext().page(20, page), key, descending);
+
+						assertEquals("Invalid page size", 20, actual.size());
+						assertEquals("Invalid page " + page + " for " + key + (descending ? " desc" : " asc"), expected.subList((page - 1) * 20, page * 20), actual);
+					}
+				}
+			}
+
+			// paging must not change the total result count
+			final MemoryQuery query = new MemoryQuery(new QueryContext().page(20, 1));
+
+			query.sort(sortBy(false, "name", "age"));
+
+			assertEquals("Sorted paging must not change the result count", 1000, Iterables.count(query.sort(service.getAllNodes())));
+
+			tx.success();
+		}
+	}
+
+	/**
+	 * Imports nodes in several batches and verifies that all of them are
+	 * visible afterwards. The scalability of large imports is measured by
+	 * MemoryDBBenchmark, which only runs in the benchmark profile.
+	 */
+	@Test
+	public void testBulkImport() {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final int batchCount                = 5;
+		final int batchSize                 = 1000;
+
+		for (int i=0; i<batchCount; i++) {
+
+			try (final Transaction tx = service.beginTx()) {
+
+				for (int j=0; j<batchSize; j++) {
+
+					service.createNode("Test", null, Map.of("type", "Test", "name", "node" + i + "-" + j));
+				}
+
+				tx.success();
+			}
+		}
+
+		try (final Transaction tx = service.beginTx()) {
+
+			assertEquals("Invalid number of imported nodes", batchCount * batchSize, Iterables.count(service.getNodesByLabel("Test")));
+
+			final MemoryQuery query = new MemoryQuery(new QueryContext());
+
+			query.addPredicate(new LabelPredicate<>("Test"));
+			query.addPredicate(new ValuePredicate<>("name", "node3-42"));
+
+			assertEquals("Imported node must be found by property", 1, Iterables.count(((MemoryNodeIndex)service.nodeIndex()).getResult(query)));
+
+			tx.success();
+		}
+	}
+
+	/**
+	 * Writes data to a persistent database, simulates a crash by opening
+	 * a second instance without shutting down the first, and verifies that
+	 * the write-ahead log is replayed. Then verifies that the data survives
+	 * a regular shutdown, which writes a snapshot.
+	 */
+	@Test
+	public void testPersistence() throws IOException {
+
+		final Path storagePath = Files.createTempDirectory("structr-memory-test");
+		Identity nodeId        = null;
+		Identity deletedId     = null;
+
+		Settings.MemoryStoragePath.setValue(storagePath.toString());
+
+		try {
+
+			final MemoryDatabaseService service1 = new MemoryDatabaseService();
+			final RelationshipType knows         = service1.forName(RelationshipType.class, "KNOWS");
+
+			assertTrue("Persistent database should initialize", service1.initialize(null));
+
+			try (final Transaction tx = service1.beginTx()) {
+
+				final Node node1   = service1.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "node1", "age", 42));
+				final Node node2   = service1.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "node2", "tags", new String[] { "a", "b" }));
+				final Node deleted = service1.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "deleted"));
+
+				node1.createRelationshipTo(node2, knows, Map.of("type", "KNOWS", "since", new Date(1000L)));
+
+				nodeId    = node1.getId();
+				deletedId = deleted.getId();
+
+				tx.success();
+			}
+
+			try (final Transaction tx = service1.beginTx()) {
+
+				final Node node = service1.getNodeById(nodeId);
+
+				node.setProperty("name", "changed");
+				node.removeProperty("age");
+				node.addLabel("Changed");
+
+				service1.getNodeById(deletedId).delete(true);
+
+				tx.success();
+			}
+
+			// second instance replays the log
+			final MemoryDatabaseService service2 = new MemoryDatabaseService();
+
+			assertTrue("Persistent database should initialize", service2.initialize(null));
+
+			verifyPersistedData(service2, nodeId);
+
+			service2.shutdown();
+
+			// third instance loads the snapshot
+			final MemoryDatabaseService service3 = new MemoryDatabaseService();
+
+			assertTrue("Persistent database should initialize", service3.initialize(null));
+
+			verifyPersistedData(service3, nodeId);
+
+			service3.shutdown();
+
+		} finally {
+
+			Settings.MemoryStoragePath.setValue("");
+
+			Files.walk(storagePath).sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	/**
+	 * Commits a transaction whose log record cannot be written and verifies
+	 * that none of its changes become visible, neither in the running
+	 * database nor after recovery.
+	 */
+	@Test
+	public void testFailedLogWriteIsNotPublished() throws IOException {
+
+		final Path storagePath = Files.createTempDirectory("structr-memory-test");
+		boolean failed         = false;
+		Identity nodeId        = null;
+
+		Settings.MemoryStoragePath.setValue(storagePath.toString());
+
+		try {
+
+			final MemoryDatabaseService service1 = new MemoryDatabaseService();
+
+			assertTrue("Persistent database should initialize", service1.initialize(null));
+
+			try (final Transaction tx = service1.beginTx()) {
+
+				nodeId = service1.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "node1")).getId();
+
+				tx.success();
+			}
+
+			try (final Transaction tx = service1.beginTx()) {
+
+				service1.getNodeById(nodeId).setProperty("name", "changed");
+				service1.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "node2", "value", new Object()));
+
+				tx.success();
+
+			} catch (IllegalArgumentException expected) {
+				failed = true;
+			}
+
+			assertTrue("Commit with a value that cannot be stored should fail", failed);
+
+			try (final Transaction tx = service1.beginTx()) {
+
+				assertEquals("Changes of a failed commit must not be visible", 1, Iterables.count(service1.getNodesByLabel("Test")));
+				assertEquals("Changes of a failed commit must not be visible", "node1", service1.getNodeById(nodeId).getProperty("name"));
+
+				service1.createNode("Test", Set.of("Test"), Map.of("type", "Test", "name", "node3"));
+
+				tx.success();
+			}
+
+			final MemoryDatabaseService service2 = new MemoryDatabaseService();
+
+			assertTrue("Persistent database should initialize", service2.initialize(null));
+
+			try (final Transaction tx = service2.beginTx()) {
+
+				assertEquals("Invalid number of recovered nodes", 2, Iterables.count(service2.getNodesByLabel("Test")));
+				assertEquals("Changes of a failed commit must not be recovered", "node1", service2.getNodeById(nodeId).getProperty("name"));
+
+				tx.success();
+			}
+
+			service2.shutdown();
+
+		} finally {
+
+			Settings.MemoryStoragePath.setValue("");
+
+			Files.walk(storagePath).sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	/**
+	 * Writes enough data to trigger background snapshots and shuts the
+	 * database down immediately after the last commit, while a background
+	 * snapshot is still being written. Verifies that the final snapshot is
+	 * not replaced by the background snapshot and that no commit is lost.
+	 */
+	@Test
+	public void testCloseDuringBackgroundSnapshot() throws IOException {
+
+		final Path storagePath = Files.createTempDirectory("structr-memory-test");
+		final String payload   = "x".repeat(1024);
+		final int commits      = 20;
+		final int nodesPerTx   = 500;
+
+		Settings.MemoryStoragePath.setValue(storagePath.toString());
+		Settings.MemoryStorageSync.setValue(false);
+		Settings.MemorySnapshotThreshold.setValue(1);
+
+		try {
+
+			for (int run=0; run<3; run++) {
+
+				final MemoryDatabaseService service1 = new MemoryDatabaseService();
+
+				assertTrue("Persistent database should initialize", service1.initialize(null));
+
+				for (int i=0; i<commits; i++) {
+
+					try (final Transaction tx = service1.beginTx()) {
+
+						for (int j=0; j<nodesPerTx; j++) {
+							service1.createNode("Test", Set.of("Test"), Map.of("type", "Test", "run", run, "payload", payload));
+						}
+
+						tx.success();
+					}
+				}
+
+				// the last commit exceeded the threshold, so a background snapshot is running now
+				service1.shutdown();
+
+				assertFalse("Snapshot was still being written after shutdown", storagePath.resolve("snapshot.bin.tmp").toFile().exists());
+
+				final MemoryDatabaseService service2 = new MemoryDatabaseService();
+
+				assertTrue("Persistent database should initialize", service2.initialize(null));
+
+				try (final Transaction tx = service2.beginTx()) {
+
+					assertEquals("Commits were lost during shutdown", (run + 1) * commits * nodesPerTx, Iterables.count(service2.getNodesByLabel("Test")));
+
+					tx.success();
+				}
+
+				service2.shutdown();
+			}
+
+		} finally {
+
+			Settings.MemoryStoragePath.setValue("");
+			Settings.MemoryStorageSync.setValue(true);
+			Settings.MemorySnapshotThreshold.setValue(64);
+
+			Files.walk(storagePath).sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	/**
+	 * Transfers amounts between random nodes from multiple threads while
+	 * other threads read the sum of all nodes, and verifies that readers
+	 * always see a consistent snapshot and that no update is lost.
+	 */
+	@Test
+	public void testConcurrentSnapshotIsolation() throws InterruptedException {
+
+		final MemoryDatabaseService service = new MemoryDatabaseService();
+		final List<Identity> ids            = new ArrayList<>();
+		final AtomicBoolean running         = new AtomicBoolean(true);
+		final AtomicInteger inconsistencies = new AtomicInteger();
+		final AtomicInteger transfers       = new AtomicInteger();
+		final List<Thread> writers          = new ArrayList<>();
+		final List<Thread> readers          = new ArrayList<>();
+		final int nodeCount                 = 20;
+		final int writerCount               = 8;
+		final int transfersPerWriter        = 2000;
+
+		try (final Transaction tx = service.beginTx()) {
+
+			for (int i=0; i<nodeCount; i++) {
+
+				ids.add(service.createNode("Account", null, Map.of("type", "Account", "balance", 100, "updates", 0)).getId());
+			}
+
+			tx.success();
+		}
+
+		for (int i=0; i<writerCount; i++) {
+
+			writers.add(new Thread(() -> {
+
+				final Random random = new Random();
+
+				for (int j=0; j<transfersPerWriter; j++) {
+
+					final Identity from = ids.get(random.nextInt(nodeCount));
+					final Identity to   = ids.get(random.nextInt(nodeCount));
+
+					while (true) {
+
+						try (final Transaction tx = service.beginTx()) {
+
+							update(service.getNodeById(from), -1);
+							update(service.getNodeById(to), 1);
+
+							tx.success();
+						} catch (RetryException rex) {
+							continue;
+						}
+
+						transfers.incrementAndGet();
+						break;
+					}
+				}
+			}));
+		}
+
+		for (int i=0; i<2; i++) {
+
+			readers.add(new Thread(() -> {
+
+				while (running.get()) {
+
+					try (final Transaction tx = service.beginTx()) {
+
+						int sum = 0;
+
+						for (final Identity id : ids) {
+
+							sum += (Integer)service.getNodeById(id).getProperty("balance");
+						}
+
+						if (sum != nodeCount * 100) {
+							inconsistencies.incrementAndGet();
+						}
+
+						tx.success();
+					}
+				}
+			}));
+		}
+
+		readers.forEach(Thread::start);
+		writers.forEach(Thread::start);
+
+		for (final Thread writer : writers) {
+			writer.join();
+		}
+
+		running.set(false);
+
+		for (final Thread reader : readers) {
+			reader.join();
+		}
+
+		assertEquals("Readers saw inconsistent snapshots", 0, inconsistencies.get());
+		assertEquals("Invalid number of transfers", writerCount * transfersPerWriter, transfers.get());
+
+		try (final Transaction tx = service.beginTx()) {
+
+			int balance = 0;
+			int updates = 0;
+
+			for (final Identity id : ids) {
+
+				final Node node = service.getNodeById(id);
+
+				balance += (Integer)node.getProperty("balance");
+				updates += (Integer)node.getProperty("updates");
+			}
+
+			assertEquals("Total balance changed", nodeCount * 100, balance);
+			assertEquals("Updates were lost", writerCount * transfersPerWriter * 2, updates);
+
+			tx.success();
+		}
+	}
+
+	// ----- private methods -----
+	private List<Node> getSorted(final MemoryNodeIndex index, final QueryContext queryContext, final String key, final boolean descending) {
+
+		final MemoryQuery query = new MemoryQuery(queryContext != null ? queryContext : new QueryContext());
+
+		query.addPredicate(new LabelPredicate<>("Test"));
+
+		// secondary sort key to get a deterministic order
+		query.sort(sortBy(descending, key, key.equals("age") ? "name" : "age"));
+
+		return Iterables.toList(index.getResult(query));
+	}
+
+	private SortOrder sortBy(final boolean descending, final String... keys) {
+
+		final List<SortSpec> specs = new ArrayList<>();
+
+		for (final String key : keys) {
+
+			specs.add(new SortSpec() {
+
+				@Override
+				public SortType getSortType() {
+					return SortType.Default;
+				}
+
+				@Override
+				public String getSortKey() {
+					return key;
+				}
+
+				@Override
+				public boolean sortDescending() {
+					return descending;
+				}
+			});
+		}
+
+		return new SortOrder() {
+
+			@Override
+			public List<SortSpec> getSortElements() {
+				return specs;
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return specs.isEmpty();
+			}
+
+			@Override
+			public int compare(final Object o1, final Object o2) {
+
+				final PropertyContainer c1 = (PropertyContainer)o1;
+				final PropertyContainer c2 = (PropertyContainer)o2;
+
+				for (final SortSpec spec : specs) {
+
+					final Object v1 = c1.getProperty(spec.getSortKey());
+					final Object v2 = c2.getProperty(spec.getSortKey());
+
+					// null values are sorted like in MemoryQuery, last in ascending and first
+					// in descending order, and entities without values are not sorted further
+					if (v1 == null && v2 == null) {
+						return 0;
+					}
+
+					final int result = v1 == null ? 1 : v2 == null ? -1 : ((Comparable)v1).compareTo(v2);
+					if (result != 0) {
+
+						return descending ? -result : result;
+					}
+				}
+
+				return 0;
+			}
+		};
+	}
+
+	private void update(final Node node, final int amount) {
+
+		node.setProperty("balance", (Integer)node.getProperty("balance") + amount);
+		node.setProperty("updates", (Integer)node.getProperty("updates") + 1);
+	}
+
+	private void verifyPersistedData(final MemoryDatabaseService service, final Identity nodeId) {
+
+		try (final Transaction tx = service.beginTx()) {
+
+			final Node node               = service.getNodeById(nodeId);
+			final List<Relationship> rels = Iterables.toList(service.getAllRelationships());
+
+			assertEquals("Invalid number of restored nodes", 2, Iterables.count(service.getNodesByLabel("Test")));
+			assertEquals("Invalid number of restored relationships", 1, rels.size());
+
+			assertNotNull("Node was not restored", node);
+			assertEquals("Modified property was not restored", "changed", node.getProperty("name"));
+			assertNull("Removed property was restored", node.getProperty("age"));
+			assertTrue("Added label was not restored", Iterables.toList(node.getLabels()).contains("Changed"));
+
+			final Relationship rel = rels.get(0);
+			final Node target      = rel.getEndNode();
+
+			assertEquals("Invalid relationship source", nodeId, rel.getStartNode().getId());
+			assertEquals("Invalid relationship type", "KNOWS", rel.getType().name());
+			assertEquals("Date property was not restored", new Date(1000L), rel.getProperty("since"));
+			assertEquals("Array property was not restored", List.of("a", "b"), List.of((String[])target.getProperty("tags")));
+
+			tx.success();
+		}
+	}
+
+	private MemoryQuery exact(final String name) {
+
+		final MemoryQuery query = new MemoryQuery(new QueryContext());
+
+		query.addPredicate(new LabelPredicate<>("Test"));
+		query.addPredicate(new ValuePredicate<>("name", name));
+
+		return query;
+	}
 }
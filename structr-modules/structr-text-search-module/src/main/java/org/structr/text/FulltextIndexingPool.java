@@ -0,0 +1,726 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.tika.detect.DefaultDetector;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MimeTypes;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.EmptyParser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.api.config.Settings;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.common.fulltext.FulltextIndexingMetrics;
+import org.structr.common.fulltext.Indexable;
+import org.structr.common.fulltext.IndexedWord;
+import org.structr.core.GraphObject;
+import org.structr.core.app.App;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.Person;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.Tx;
+import org.structr.text.index.SegmentedIndex;
+import org.structr.web.entity.File;
+
+/**
+ * Extracts and tokenizes the content of indexable nodes on a bounded pool
+ * of worker threads, smallest documents first. The results are handed to a
+ * single writer thread that stores them in batched transactions, so slow
+ * documents do not hold a database transaction open, and the number of
+ * extracted documents waiting to be written is limited.
+ */
+public class FulltextIndexingPool {
+
+	private static final Logger logger                              = LoggerFactory.getLogger(FulltextIndexingPool.class.getName());
+	private static final Map<String, ExtractionJob> pending         = new ConcurrentHashMap<>();
+	private static final Set<ExtractionJob> running                 = ConcurrentHashMap.newKeySet();
+	private static final AtomicLong sequence                        = new AtomicLong();
+	private static final Detector detector                          = new DefaultDetector(MimeTypes.getDefaultMimeTypes());
+	private static volatile BlockingQueue<ExtractionResult> results = null;
+	private static ThreadPoolExecutor executor                      = null;
+	private static ScheduledExecutorService scheduler               = null;
+	private static ResultWriter writer                              = null;
+
+	/**
+	 * Queues the given node for extraction. A node that is already waiting
+	 * for extraction is only queued once.
+	 *
+	 * @param indexable the node to index
+	 */
+	public static void add(final Indexable indexable) {
+		add(indexable.getUuid(), getFileSize(indexable));
+	}
+
+	/**
+	 * Queues the node with the given id for extraction.
+	 *
+	 * @param uuid the id of the node to index
+	 * @param size the size of the content, used for prioritization, or -1 if unknown
+	 */
+	public static void add(final String uuid, final long size) {
+
+		final ExtractionJob job = new ExtractionJob(uuid, size, 0);
+
+		if (pending.putIfAbsent(uuid, job) == null) {
+
+			FulltextIndexingMetrics.documentQueued();
+
+			getExecutor().execute(job);
+		}
+	}
+
+	/**
+	 * Stops the worker, writer and watchdog threads. Running extractions
+	 * are cancelled and queued documents are discarded. The pool is
+	 * restarted when the next document is added.
+	 */
+	public static synchronized void shutdown() {
+
+		if (executor != null) {
+
+			executor.shutdown();
+			executor.getQueue().clear();
+
+			for (final ExtractionJob job : running) {
+				job.cancel();
+			}
+
+			scheduler.shutdownNow();
+			writer.shutdown();
+
+			pending.clear();
+
+			executor  = null;
+			scheduler = null;
+			writer    = null;
+			results   = null;
+		}
+	}
+
+	static long getFileSize(final Indexable indexable) {
+
+		if (indexable instanceof File) {
+
+			final File file     = (File)indexable;
+			final Long fileSize = file.getSize();
+
+			if (fileSize != null) {
+
+				return fileSize;
+			}
+
+			final java.io.File fileOnDisk = file.getFileOnDisk(false);
+			if (fileOnDisk != null) {
+
+				return fileOnDisk.length();
+			}
+		}
+
+		return -1L;
+	}
+
+	// ----- private methods -----
+	private static synchronized ThreadPoolExecutor getExecutor() {
+
+		if (executor == null) {
+
+			final int threads           = Math.max(1, Settings.IndexingThreads.getValue());
+			final AtomicInteger counter = new AtomicInteger();
+
+			// the number of extracted documents waiting to be written is bounded,
+			// workers block when the writer cannot keep up
+			results   = new ArrayBlockingQueue<>(Math.max(1, Settings.IndexingBatchSize.getValue()) * 2);
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+
+				final Thread thread = new Thread(r, "FulltextIndexingWatchdog");
+				thread.setDaemon(true);
+
+				return thread;
+			});
+
+			// jobs are compared by size, so small documents are extracted first
+			executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r -> {
+
+				final Thread thread = new Thread(r, "FulltextIndexing-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			});
+
+			executor.allowCoreThreadTimeOut(true);
+
+			scheduler.scheduleWithFixedDelay(FulltextIndexingPool::checkTimeouts, 1, 1, TimeUnit.SECONDS);
+
+			writer = new ResultWriter(results);
+			writer.start();
+		}
+
+		return executor;
+	}
+
+	private static void checkTimeouts() {
+
+		final long timeout = TimeUnit.SECONDS.toNanos(Math.max(1, Settings.IndexingTimeout.getValue()));
+		final long now     = System.nanoTime();
+
+		for (final ExtractionJob job : running) {
+
+			if (now - job.startTime > timeout) {
+
+				job.cancel();
+			}
+		}
+	}
+
+	private static synchronized void retry(final ExtractionJob job) {
+
+		if (scheduler == null || job.cancelled) {
+			return;
+		}
+
+		final ThreadPoolExecutor _executor = executor;
+
+		try {
+
+			scheduler.schedule(() -> {
+
+				final ExtractionJob next = new ExtractionJob(job.uuid, job.size, job.attempt + 1);
+
+				if (pending.putIfAbsent(job.uuid, next) == null) {
+
+					FulltextIndexingMetrics.documentQueued();
+
+					try {
+
+						_executor.execute(next);
+
+					} catch (RejectedExecutionException rex) {
+
+						// pool was shut down in the meantime
+						pending.remove(job.uuid, next);
+					}
+				}
+
+			}, 1, TimeUnit.SECONDS);
+
+		} catch (RejectedExecutionException rex) {
+
+			// pool was shut down in the meantime
+		}
+	}
+
+	private static ExtractionResult extract(final ExtractionJob job) throws Throwable {
+
+		final SecurityContext securityContext = SecurityContext.getSuperUserInstance();
+		final App app                         = StructrApp.getInstance(securityContext);
+		final List<String> names              = new LinkedList<>();
+		InputStream inputStream               = null;
+		int minLength                         = 0;
+		int maxLength                         = 0;
+		int maxWords                          = 0;
+
+		// collect everything that needs the database in a short transaction
+		try (final Tx tx = app.tx(false, false, false)) {
+
+			final Indexable indexable = app.nodeQuery(Indexable.class).and(GraphObject.id, job.uuid).getFirst();
+			if (indexable == null) {
+
+				// deleted or not committed (yet)
+				if (job.attempt < 2) {
+					retry(job);
+				}
+
+				return null;
+			}
+
+			if (indexable instanceof File && ((File)indexable).isTemplate()) {
+				return null;
+			}
+
+			// skip files that are larger than the indexing file size limit
+			if (getFileSize(indexable) > Settings.IndexingMaxFileSize.getValue() * 1024 * 1024) {
+				return null;
+			}
+
+			indexable.getSecurityContext().disableModificationOfAccessTime();
+
+			minLength   = indexable.indexedWordMinLength();
+			maxLength   = indexable.indexedWordMaxLength();
+			maxWords    = indexable.maximumIndexedWords();
+			inputStream = indexable.getInputStream();
+
+			names.add(indexable.getName());
+
+			final Principal _owner = indexable.getOwnerNode();
+			if (_owner != null) {
+
+				names.add(_owner.getName());
+				names.add(_owner.getEMail());
+				names.add(_owner.getProperty(StructrApp.key(Person.class, "twitterName")));
+			}
+
+			tx.success();
+		}
+
+		if (inputStream == null) {
+			return null;
+		}
+
+		final Metadata metadata = new Metadata();
+
+		try (final FulltextTokenizer tokenizer = new FulltextTokenizer(minLength, maxLength)) {
+
+			job.setTokenizer(tokenizer, inputStream);
+
+			try (final InputStream is = inputStream) {
+
+				final AutoDetectParser parser = new AutoDetectParser(detector);
+
+				parser.parse(is, new BodyContentHandler(tokenizer), metadata);
+			}
+
+			// only do indexing when parsing was successful
+			if (EmptyParser.class.getName().equals(metadata.get("X-Parsed-By"))) {
+				return null;
+			}
+
+			// the raw text must not contain the names
+			final String rawText = tokenizer.getRawText();
+
+			for (final String name : names) {
+
+				if (name != null) {
+
+					tokenizer.write(name);
+					tokenizer.flush();
+				}
+			}
+
+			// index document excluding stop words
+			final Set<String> stopWords             = FulltextIndexingAgent.languageStopwordMap.get(tokenizer.getLanguage());
+			final Iterator<String> wordIterator     = tokenizer.getWords().iterator();
+			final Iterator<Integer> offsetIterator  = tokenizer.getOffsets().iterator();
+			final Map<String, Integer> indexedWords = new LinkedHashMap<>();
+			final ExtractionResult result           = new ExtractionResult(job.uuid, rawText);
+
+			while (wordIterator.hasNext()) {
+
+				// strip quotes
+				final String word    = StringUtils.strip(wordIterator.next(), "\"\'");
+				final Integer offset = offsetIterator.next();
+
+				if (stopWords == null || !stopWords.contains(word)) {
+
+					add(indexedWords, word);
+
+					result.words.add(word);
+					result.offsets.add(offset);
+				}
+			}
+
+			result.topWords.addAll(getFrequencySortedTopWords(indexedWords, maxWords));
+
+			return result;
+		}
+	}
+
+	private static void write(final List<ExtractionResult> batch) {
+
+		final long start = System.nanoTime();
+
+		try {
+
+			writeBatch(batch);
+
+		} catch (Throwable t) {
+
+			logger.info("Unable to store {} fulltext indexing results in a single transaction, storing them separately: {}", batch.size(), t.getMessage());
+
+			for (final ExtractionResult result : batch) {
+
+				try {
+
+					writeBatch(Collections.singletonList(result));
+
+				} catch (Throwable t2) {
+
+					logger.warn("Unable to store fulltext indexing result for {}: {}", result.uuid, t2.getMessage());
+				}
+			}
+		}
+
+		FulltextIndexingMetrics.batchWritten(batch.size(), System.nanoTime() - start);
+	}
+
+	private static void writeBatch(final List<ExtractionResult> batch) throws FrameworkException {
+
+		final SecurityContext securityContext = SecurityContext.getSuperUserInstance();
+		final App app                         = StructrApp.getInstance(securityContext);
+		final Map<String, IndexedWord> words  = new HashMap<>();
+		final boolean createWordNodes         = Settings.IndexingWordNodes.getValue();
+		final SegmentedIndex index            = TextSearchModule.getIndex();
+
+		securityContext.disablePreventDuplicateRelationships();
+
+		try (final Tx tx = app.tx(true, false, false)) {
+
+			for (final ExtractionResult result : batch) {
+
+				final Indexable indexable = app.nodeQuery(Indexable.class).and(GraphObject.id, result.uuid).getFirst();
+				if (indexable != null) {
+
+					indexable.getSecurityContext().disableModificationOfAccessTime();
+
+					// save raw extracted text
+					indexable.setProperty(StructrApp.key(File.class, "extractedContent"), result.rawText);
+
+					// the node is locked by the modification above, so a concurrent
+					// deletion removes it from the index only after this update
+					if (index != null) {
+
+						try {
+
+							index.update(result.uuid, result.words, result.offsets);
+
+						} catch (IOException ioex) {
+
+							logger.warn("Unable to update fulltext index for {}: {}", result.uuid, ioex.getMessage());
+						}
+					}
+
+					if (createWordNodes) {
+
+						final List<IndexedWord> wordNodes = new LinkedList<>();
+
+						for (final String word : result.topWords) {
+
+							IndexedWord wordNode = words.get(word);
+							if (wordNode == null) {
+
+								wordNode = app.nodeQuery(IndexedWord.class).andName(word).getFirst();
+								if (wordNode == null) {
+
+									wordNode = app.create(IndexedWord.class, word);
+								}
+
+								words.put(word, wordNode);
+							}
+
+							wordNodes.add(wordNode);
+						}
+
+						// store indexed words
+						indexable.setProperty(StructrApp.key(File.class, "words"), wordNodes);
+					}
+				}
+			}
+
+			tx.success();
+		}
+	}
+
+	private static void add(final Map<String, Integer> frequencyMap, final String word) {
+
+		Integer count = frequencyMap.get(word);
+		if (count == null) {
+
+			frequencyMap.put(word, 1);
+
+		} else {
+
+			frequencyMap.put(word, count + 1);
+		}
+	}
+
+	private static List<String> getFrequencySortedTopWords(final Map<String, Integer> frequency, final Integer maxEntries) {
+
+		final Map<Integer, Set<String>> words = new TreeMap<>(Collections.reverseOrder());
+		final ArrayList<String> resultList    = new ArrayList<>();
+
+		for (final Entry<String, Integer> frequencyEntry : frequency.entrySet()) {
+
+			final String word   = frequencyEntry.getKey();
+			final Integer count = frequencyEntry.getValue();
+
+			Set<String> wordSet = words.get(count);
+			if (wordSet == null) {
+
+				wordSet = new TreeSet<>();
+				words.put(count, wordSet);
+			}
+
+			wordSet.add(word);
+		}
+
+		for (final Set<String> set : words.values()) {
+
+			for (final String word : set) {
+
+				resultList.add(word);
+
+				if (resultList.size() >= maxEntries) {
+					break;
+				}
+			}
+
+			if (resultList.size() >= maxEntries) {
+				break;
+			}
+		}
+
+		return resultList;
+	}
+
+	// ----- nested classes -----
+	private static class ExtractionJob implements Runnable, Comparable<ExtractionJob> {
+
+		private final long order                     = sequence.incrementAndGet();
+		private volatile FulltextTokenizer tokenizer = null;
+		private volatile InputStream inputStream     = null;
+		private volatile boolean cancelled           = false;
+		private volatile long startTime              = 0L;
+		private String uuid                          = null;
+		private long size                            = -1L;
+		private int attempt                          = 0;
+
+		public ExtractionJob(final String uuid, final long size, final int attempt) {
+
+			this.uuid    = uuid;
+			this.size    = size;
+			this.attempt = attempt;
+		}
+
+		@Override
+		public void run() {
+
+			// changes after this point need a new extraction
+			pending.remove(uuid, this);
+
+			FulltextIndexingMetrics.extractionStarted();
+
+			final BlockingQueue<ExtractionResult> queue = results;
+
+			startTime = System.nanoTime();
+
+			running.add(this);
+
+			ExtractionResult result = null;
+
+			try {
+
+				result = extract(this);
+
+				// the parser may have swallowed the exception of the tokenizer
+				if (cancelled) {
+					throw new IOException("Text extraction cancelled");
+				}
+
+			} catch (Throwable t) {
+
+				FulltextIndexingMetrics.extractionFailed(cancelled);
+
+				if (cancelled) {
+
+					logger.warn("Indexing of {} aborted after {} seconds", uuid, Settings.IndexingTimeout.getValue());
+
+				} else {
+
+					logger.warn("Indexing of {} failed: {}", uuid, t.getMessage());
+				}
+
+				return;
+
+			} finally {
+
+				running.remove(this);
+			}
+
+			if (result != null && queue != null) {
+
+				FulltextIndexingMetrics.extractionFinished(System.nanoTime() - startTime, size);
+
+				try {
+
+					// wait for the writer, unless the pool is shut down
+					while (!cancelled && queue == results && !queue.offer(result, 1, TimeUnit.SECONDS)) {}
+
+				} catch (InterruptedException iex) {
+
+					Thread.currentThread().interrupt();
+				}
+
+			} else {
+
+				FulltextIndexingMetrics.extractionSkipped();
+			}
+		}
+
+		@Override
+		public int compareTo(final ExtractionJob other) {
+
+			// unknown sizes go last
+			final long size1 = size < 0 ? Long.MAX_VALUE : size;
+			final long size2 = other.size < 0 ? Long.MAX_VALUE : other.size;
+
+			if (size1 == size2) {
+				return Long.compare(order, other.order);
+			}
+
+			return Long.compare(size1, size2);
+		}
+
+		public void setTokenizer(final FulltextTokenizer tokenizer, final InputStream inputStream) {
+
+			this.tokenizer   = tokenizer;
+			this.inputStream = inputStream;
+
+			if (cancelled) {
+				tokenizer.cancel();
+			}
+		}
+
+		public synchronized void cancel() {
+
+			if (!cancelled) {
+
+				cancelled = true;
+
+				final FulltextTokenizer _tokenizer = tokenizer;
+				if (_tokenizer != null) {
+
+					_tokenizer.cancel();
+				}
+
+				final InputStream _inputStream = inputStream;
+				if (_inputStream != null) {
+
+					try { _inputStream.close(); } catch (IOException ignore) {}
+				}
+			}
+		}
+	}
+
+	private static class ExtractionResult {
+
+		private final List<String> topWords = new ArrayList<>();
+		private final List<String> words    = new ArrayList<>();
+		private final List<Integer> offsets = new ArrayList<>();
+		private String rawText              = null;
+		private String uuid                 = null;
+
+		public ExtractionResult(final String uuid, final String rawText) {
+
+			this.uuid    = uuid;
+			this.rawText = rawText;
+		}
+	}
+
+	private static class ResultWriter extends Thread {
+
+		private BlockingQueue<ExtractionResult> queue = null;
+		private volatile boolean doRun                = true;
+
+		public ResultWriter(final BlockingQueue<ExtractionResult> queue) {
+
+			super("FulltextIndexingWriter");
+
+			this.queue = queue;
+
+			setDaemon(true);
+		}
+
+		public void shutdown() {
+			doRun = false;
+		}
+
+		@Override
+		public void run() {
+
+			final List<ExtractionResult> batch = new ArrayList<>();
+
+			while (doRun) {
+
+				try {
+
+					// wake up regularly to check whether the pool was shut down
+					final ExtractionResult first = queue.poll(1, TimeUnit.SECONDS);
+					if (first == null) {
+
+						continue;
+					}
+
+					batch.add(first);
+
+					// give the workers a moment to fill the batch
+					final ExtractionResult next = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (next != null) {
+
+						batch.add(next);
+					}
+
+					queue.drainTo(batch, Math.max(1, Settings.IndexingBatchSize.getValue()) - batch.size());
+
+					write(batch);
+
+				} catch (InterruptedException iex) {
+
+					return;
+
+				} catch (Throwable t) {
+
+					logger.warn("Unable to store fulltext indexing results: {}", t.getMessage());
+
+				} finally {
+
+					batch.clear();
+				}
+			}
+		}
+	}
+}
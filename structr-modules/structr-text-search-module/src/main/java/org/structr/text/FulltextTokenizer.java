@@ -20,6 +20,7 @@ package org.structr.text;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -46,10 +47,12 @@ public class FulltextTokenizer extends Writer {
 	private final StringBuilder rawText      = new StringBuilder();
 	private final StringBuilder wordBuffer   = new StringBuilder();
 	private final List<String> words         = new LinkedList<>();
+	private final List<Integer> offsets      = new LinkedList<>();
 	private String language                  = "en";
 	private char lastCharacter               = 0;
 	private int consecutiveCharCount         = 0;
 	private int wordCount                    = 0;
+	private volatile boolean cancelled       = false;
 
 	static {
 
@@ -77,6 +80,12 @@ public class FulltextTokenizer extends Writer {
 	@Override
 	public void write(final char[] cbuf, final int off, final int len) throws IOException {
 
+		// the parser calls this method for all extracted text, so this
+		// is the place to stop it when extraction takes too long
+		if (cancelled) {
+			throw new IOException("Text extraction cancelled");
+		}
+
 		final int limit  = off + len;
 		final int length = Math.min(limit, cbuf.length);
 
@@ -131,6 +140,30 @@ public class FulltextTokenizer extends Writer {
 		return words;
 	}
 
+	/**
+	 * Returns the character offset of each word in the raw text, in the
+	 * order of {@link #getWords()}.
+	 *
+	 * @return the offsets
+	 */
+	public List<Integer> getOffsets() {
+
+		final List<Integer> result = new ArrayList<>(offsets.size());
+		final int length           = rawText.length();
+		int leadingWhitespace      = 0;
+
+		// getRawText() is trimmed
+		while (leadingWhitespace < length && rawText.charAt(leadingWhitespace) <= ' ') {
+			leadingWhitespace++;
+		}
+
+		for (final Integer offset : offsets) {
+			result.add(offset - leadingWhitespace);
+		}
+
+		return result;
+	}
+
 	@Override
 	public void flush() throws IOException {
 
@@ -139,16 +172,21 @@ public class FulltextTokenizer extends Writer {
 		if (accept(word)) {
 
 			final String[] parts = word.split("[\\.,]+");
+			final int start      = rawText.length() - wordBuffer.length();
 			final int len        = parts.length;
+			int position         = 0;
 
 			for (int i=0; i<len; i++) {
 
-				String part = parts[i].trim();
-				part        = part.replaceAll("[\\-/]+", "");
+				final int offset = word.indexOf(parts[i], position);
+				String part      = parts[i].trim();
+				part             = part.replaceAll("[\\-/]+", "");
+
+				position = offset + parts[i].length();
 
 				if (StringUtils.isNotBlank(part) && !StringUtils.isNumeric(part)) {
 
-					addWord(part.toLowerCase());
+					addWord(part.toLowerCase(), start + offset);
 				}
 			}
 		}
@@ -175,13 +213,18 @@ public class FulltextTokenizer extends Writer {
 		return wordCount;
 	}
 
+	public void cancel() {
+		this.cancelled = true;
+	}
+
 	// ----- private methods -----
-	private void addWord(final String word) {
+	private void addWord(final String word, final int offset) {
 
 		final int length = word.length();
 		if (length >= wordMinLength && length <= wordMaxLength) {
 
 			words.add(word);
+			offsets.add(offset);
 
 			wordCount++;
 		}
@@ -18,8 +18,14 @@
  */
 package org.structr.text;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
@@ -30,21 +36,29 @@ import org.apache.tika.parser.ocr.TesseractOCRConfig;
 import org.codehaus.plexus.util.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.structr.api.Predicate;
+import org.structr.api.config.Settings;
+import org.structr.api.search.FulltextIndex;
 import org.structr.api.service.LicenseManager;
+import org.structr.common.SecurityContext;
 import org.structr.common.error.FrameworkException;
 import org.structr.common.fulltext.ContentAnalyzer;
 import org.structr.common.fulltext.FulltextIndexer;
 import org.structr.common.fulltext.Indexable;
 import org.structr.core.GraphObjectMap;
+import org.structr.core.StructrTransactionListener;
 import org.structr.core.app.App;
 import org.structr.core.app.StructrApp;
 import org.structr.core.entity.AbstractSchemaNode;
 import org.structr.core.function.Functions;
+import org.structr.core.graph.ModificationEvent;
 import org.structr.core.graph.NodeAttribute;
+import org.structr.core.graph.TransactionCommand;
 import org.structr.core.property.GenericProperty;
 import org.structr.module.StructrModule;
 import org.structr.schema.SourceFile;
 import org.structr.schema.action.Actions;
+import org.structr.text.index.SegmentedIndex;
 import org.structr.text.model.MetadataNode;
 import org.structr.text.model.StructuredDocument;
 import org.structr.text.model.StructuredTextNode;
@@ -54,11 +68,24 @@ import org.structr.text.model.StructuredTextNode;
  */
 public class TextSearchModule implements FulltextIndexer, ContentAnalyzer, StructrModule {
 
-	private static final Logger logger              = LoggerFactory.getLogger(TextSearchModule.class);
-	private static final GenericProperty contextKey = new GenericProperty("context");
+	private static final Logger logger                = LoggerFactory.getLogger(TextSearchModule.class);
+	private static final GenericProperty contextKey   = new GenericProperty("context");
+	private static SegmentedIndex index               = null;
+	private final StructrTransactionListener listener = new IndexMaintenanceListener();
 
 	@Override
 	public void onLoad(final LicenseManager licenseManager) {
+		TransactionCommand.registerTransactionListener(listener);
+	}
+
+	@Override
+	public void onShutdown() {
+
+		TransactionCommand.removeTransactionListener(listener);
+
+		FulltextIndexingPool.shutdown();
+
+		closeIndex();
 	}
 
 	@Override
@@ -68,7 +95,24 @@ public class TextSearchModule implements FulltextIndexer, ContentAnalyzer, Struc
 
 	@Override
 	public void addToFulltextIndex(final Indexable node) throws FrameworkException {
-		StructrApp.getInstance(node.getSecurityContext()).processTasks(new FulltextIndexingTask(node.getUuid()));
+
+		if (TransactionCommand.inTransaction()) {
+
+			final String uuid = node.getUuid();
+			final long size   = FulltextIndexingPool.getFileSize(node);
+
+			// the indexing pool can only see the node after the transaction is closed
+			TransactionCommand.queuePostProcessProcedure(() -> FulltextIndexingPool.add(uuid, size));
+
+		} else {
+
+			FulltextIndexingPool.add(node);
+		}
+	}
+
+	@Override
+	public FulltextIndex getFulltextIndex() {
+		return getIndex();
 	}
 
 	@Override
@@ -311,7 +355,51 @@ public class TextSearchModule implements FulltextIndexer, ContentAnalyzer, Struc
 	public void insertSaveAction(final AbstractSchemaNode schemaNode, final SourceFile buf, final Actions.Type type) {
 	}
 
+	/**
+	 * Returns the embedded fulltext index, opening it on first access, or
+	 * null if the embedded index is disabled or cannot be opened.
+	 *
+	 * @return the index or null
+	 */
+	public static synchronized SegmentedIndex getIndex() {
+
+		if (index == null && Settings.IndexingEmbeddedIndex.getValue()) {
+
+			final SegmentedIndex newIndex = new SegmentedIndex(Paths.get(Settings.FulltextIndexPath.getValue()), Settings.IndexingMergeFactor.getValue(), Settings.IndexingFlushSize.getValue(), Settings.IndexingFlushInterval.getValue());
+
+			try {
+
+				newIndex.open();
+
+				index = newIndex;
+
+			} catch (IOException ioex) {
+
+				logger.warn("Unable to open fulltext index in {}: {}", Settings.FulltextIndexPath.getValue(), ioex.getMessage());
+			}
+		}
+
+		return index;
+	}
+
 	//~--- private methods --------------------------------------------------------
+	private static synchronized void closeIndex() {
+
+		if (index != null) {
+
+			try {
+
+				index.close();
+
+			} catch (IOException ioex) {
+
+				logger.warn("Unable to close fulltext index: {}", ioex.getMessage());
+			}
+
+			index = null;
+		}
+	}
+
 	private static int flushWordBuffer(final StringBuilder lineBuffer, final StringBuilder wordBuffer, final boolean prepend) {
 
 		int wordCount = 0;
@@ -339,4 +427,54 @@ public class TextSearchModule implements FulltextIndexer, ContentAnalyzer, Struc
 
 		return wordCount;
 	}
+
+	// ----- nested classes -----
+	private static class IndexMaintenanceListener implements StructrTransactionListener {
+
+		@Override
+		public void beforeCommit(final SecurityContext securityContext, final Collection<ModificationEvent> modificationEvents) throws FrameworkException {
+		}
+
+		@Override
+		public void afterCommit(final SecurityContext securityContext, final Collection<ModificationEvent> modificationEvents) {
+		}
+
+		@Override
+		public void simpleBroadcast(final String messageName, final Map<String, Object> data, final Predicate<String> sessionIdPredicate) {
+		}
+
+		@Override
+		public void afterClose(final Collection<ModificationEvent> modificationEvents, final boolean committed) {
+
+			// must not depend on the notification settings of the transaction, deleted nodes would remain in the index
+			if (!committed) {
+				return;
+			}
+
+			final List<String> deleted = new LinkedList<>();
+
+			for (final ModificationEvent event : modificationEvents) {
+
+				if (event.isNode() && event.isDeleted()) {
+					deleted.add(event.getUuid());
+				}
+			}
+
+			if (!deleted.isEmpty()) {
+
+				final SegmentedIndex segmentedIndex = getIndex();
+				if (segmentedIndex != null) {
+
+					try {
+
+						segmentedIndex.delete(deleted);
+
+					} catch (IOException ioex) {
+
+						logger.warn("Unable to remove deleted nodes from fulltext index: {}", ioex.getMessage());
+					}
+				}
+			}
+		}
+	}
 }
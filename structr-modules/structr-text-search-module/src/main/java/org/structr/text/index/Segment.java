@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.text.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable part of the fulltext index: the term dictionary and the
+ * postings of a number of documents. Documents are never modified in a
+ * segment, they can only be marked as deleted, which creates a new
+ * instance that shares the postings with this one. Deleted documents are
+ * removed when segments are merged.
+ */
+public class Segment {
+
+	private static final int MAGIC = 0x53545853;
+
+	private final Map<String, Integer> ordinals;
+	private final long generation;
+	private final String[] ids;
+	private final int[] lengths;
+	private final String[] terms;
+	private final int[][] docs;
+	private final int[][] freqs;
+	private final int[][][] offsets;
+	private final BitSet deleted;
+	private final long totalLength;
+	private long deletedLength = 0L;
+	private int deletedCount   = 0;
+
+	Segment(final long generation, final String[] ids, final int[] lengths, final String[] terms, final int[][] docs, final int[][] freqs, final int[][][] offsets) {
+
+		this.ordinals   = new HashMap<>();
+		this.generation = generation;
+		this.ids        = ids;
+		this.lengths    = lengths;
+		this.terms      = terms;
+		this.docs       = docs;
+		this.freqs      = freqs;
+		this.offsets    = offsets;
+		this.deleted    = new BitSet(Math.max(1, ids.length));
+
+		long length = 0L;
+
+		for (int i=0; i<ids.length; i++) {
+
+			ordinals.put(ids[i], i);
+			length += lengths[i];
+		}
+
+		this.totalLength = length;
+	}
+
+	private Segment(final Segment source) {
+
+		this.ordinals      = source.ordinals;
+		this.generation    = source.generation;
+		this.ids           = source.ids;
+		this.lengths       = source.lengths;
+		this.terms         = source.terms;
+		this.docs          = source.docs;
+		this.freqs         = source.freqs;
+		this.offsets       = source.offsets;
+		this.totalLength   = source.totalLength;
+		this.deleted       = (BitSet)source.deleted.clone();
+		this.deletedLength = source.deletedLength;
+		this.deletedCount  = source.deletedCount;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	public int getDocumentCount() {
+		return ids.length;
+	}
+
+	public int getLiveDocumentCount() {
+		return ids.length - deletedCount;
+	}
+
+	public long getLiveLength() {
+		return totalLength - deletedLength;
+	}
+
+	public int getTermCount() {
+		return terms.length;
+	}
+
+	// ----- package-private methods -----
+	boolean contains(final String id) {
+
+		final Integer ordinal = ordinals.get(id);
+
+		return ordinal != null && !deleted.get(ordinal);
+	}
+
+	/**
+	 * Returns a copy of this segment in which the documents with the given
+	 * ids are marked as deleted, or this segment if none of the documents
+	 * is contained. This segment is not modified, so readers of a snapshot
+	 * never see a partial update.
+	 */
+	Segment withDeleted(final Collection<String> ids) {
+
+		Segment copy = null;
+
+		for (final String id : ids) {
+
+			if (contains(id)) {
+
+				if (copy == null) {
+					copy = new Segment(this);
+				}
+
+				copy.markDeleted(id);
+			}
+		}
+
+		return copy != null ? copy : this;
+	}
+
+	boolean isDeleted(final int doc) {
+		return deleted.get(doc);
+	}
+
+	String getId(final int doc) {
+		return ids[doc];
+	}
+
+	int getLength(final int doc) {
+		return lengths[doc];
+	}
+
+	String getTerm(final int term) {
+		return terms[term];
+	}
+
+	int[] getDocs(final int term) {
+		return docs[term];
+	}
+
+	int[] getFreqs(final int term) {
+		return freqs[term];
+	}
+
+	int[][] getOffsets(final int term) {
+		return offsets[term];
+	}
+
+	/**
+	 * Returns the position of the given term in the dictionary, or a
+	 * negative value if the term is not in this segment.
+	 */
+	int findTerm(final String term) {
+		return Arrays.binarySearch(terms, term);
+	}
+
+	int getDocumentFrequency(final int term) {
+
+		final int[] postings = docs[term];
+		int count            = postings.length;
+
+		if (deletedCount > 0) {
+
+			for (final int doc : postings) {
+
+				if (deleted.get(doc)) {
+					count--;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	void write(final Path directory) throws IOException {
+
+		final Path file = directory.resolve(getFileName(generation));
+		final Path tmp  = directory.resolve(getFileName(generation) + ".tmp");
+
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+
+			out.writeInt(MAGIC);
+			out.writeLong(generation);
+			out.writeInt(ids.length);
+
+			for (int i=0; i<ids.length; i++) {
+
+				out.writeUTF(ids[i]);
+				out.writeInt(lengths[i]);
+			}
+
+			out.writeInt(terms.length);
+
+			for (int t=0; t<terms.length; t++) {
+
+				final int[] termDocs   = docs[t];
+				final int[] termFreqs  = freqs[t];
+
+				out.writeUTF(terms[t]);
+				out.writeInt(termDocs.length);
+
+				for (int p=0; p<termDocs.length; p++) {
+
+					final int[] termOffsets = offsets[t][p];
+
+					out.writeInt(termDocs[p]);
+					out.writeInt(termFreqs[p]);
+
+					for (final int offset : termOffsets) {
+						out.writeInt(offset);
+					}
+				}
+			}
+		}
+
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	void writeDeletions(final Path directory) throws IOException {
+
+		final Path file = directory.resolve(getDeletionsFileName(generation));
+		final Path tmp  = directory.resolve(getDeletionsFileName(generation) + ".tmp");
+
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+
+			out.writeInt(deletedCount);
+
+			for (int i = deleted.nextSetBit(0); i >= 0; i = deleted.nextSetBit(i + 1)) {
+				out.writeInt(i);
+			}
+		}
+
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	void removeFiles(final Path directory) throws IOException {
+
+		Files.deleteIfExists(directory.resolve(getFileName(generation)));
+		Files.deleteIfExists(directory.resolve(getDeletionsFileName(generation)));
+	}
+
+	static Segment read(final Path file) throws IOException {
+
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a fulltext index segment: " + file);
+			}
+
+			final long generation = in.readLong();
+			final int docCount    = in.readInt();
+			final String[] ids    = new String[docCount];
+			final int[] lengths   = new int[docCount];
+
+			for (int i=0; i<docCount; i++) {
+
+				ids[i]     = in.readUTF();
+				lengths[i] = in.readInt();
+			}
+
+			final int termCount     = in.readInt();
+			final String[] terms    = new String[termCount];
+			final int[][] docs      = new int[termCount][];
+			final int[][] freqs     = new int[termCount][];
+			final int[][][] offsets = new int[termCount][][];
+
+			for (int t=0; t<termCount; t++) {
+
+				terms[t] = in.readUTF();
+
+				final int postingCount = in.readInt();
+
+				docs[t]    = new int[postingCount];
+				freqs[t]   = new int[postingCount];
+				offsets[t] = new int[postingCount][];
+
+				for (int p=0; p<postingCount; p++) {
+
+					docs[t][p]    = in.readInt();
+					freqs[t][p]   = in.readInt();
+					offsets[t][p] = new int[freqs[t][p]];
+
+					for (int o=0; o<freqs[t][p]; o++) {
+						offsets[t][p][o] = in.readInt();
+					}
+				}
+			}
+
+			final Segment segment = new Segment(generation, ids, lengths, terms, docs, freqs, offsets);
+			final Path deletions  = file.resolveSibling(getDeletionsFileName(generation));
+
+			if (Files.exists(deletions)) {
+
+				try (final DataInputStream del = new DataInputStream(new BufferedInputStream(Files.newInputStream(deletions)))) {
+
+					final int count = del.readInt();
+					for (int i=0; i<count; i++) {
+
+						segment.markDeleted(ids[del.readInt()]);
+					}
+				}
+			}
+
+			return segment;
+		}
+	}
+
+	static String getFileName(final long generation) {
+		return "segment-" + generation + ".seg";
+	}
+
+	static String getDeletionsFileName(final long generation) {
+		return "segment-" + generation + ".del";
+	}
+
+	// ----- private methods -----
+	/**
+	 * Marks the document with the given id as deleted, must only be called
+	 * before the segment is visible to other threads.
+	 */
+	private void markDeleted(final String id) {
+
+		final Integer ordinal = ordinals.get(id);
+		if (ordinal != null && !deleted.get(ordinal)) {
+
+			deleted.set(ordinal);
+
+			deletedLength += lengths[ordinal];
+			deletedCount++;
+		}
+	}
+}
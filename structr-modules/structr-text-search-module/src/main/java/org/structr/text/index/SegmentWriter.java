@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.text.index;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Collects documents and builds an immutable {@link Segment} from them.
+ */
+public class SegmentWriter {
+
+	private final TreeMap<String, PostingsBuilder> postings = new TreeMap<>();
+	private final List<String> ids                         = new ArrayList<>();
+	private final List<Integer> lengths                    = new ArrayList<>();
+
+	/**
+	 * Adds a document with the given words. The lists must be of the same
+	 * size, each offset is the character position of the corresponding word
+	 * in the text of the document.
+	 *
+	 * @param id the id of the document
+	 * @param words the words of the document
+	 * @param offsets the character offsets of the words
+	 */
+	public void addDocument(final String id, final List<String> words, final List<Integer> offsets) {
+
+		final Map<String, List<Integer>> termOffsets = new LinkedHashMap<>();
+		final Iterator<Integer> offsetIterator       = offsets.iterator();
+		final int doc                                = addDocument(id, words.size());
+
+		for (final String word : words) {
+
+			final int offset = offsetIterator.hasNext() ? offsetIterator.next() : -1;
+
+			termOffsets.computeIfAbsent(word, k -> new ArrayList<>()).add(offset);
+		}
+
+		for (final Entry<String, List<Integer>> entry : termOffsets.entrySet()) {
+
+			final List<Integer> list = entry.getValue();
+			final int[] array        = new int[list.size()];
+
+			for (int i=0; i<array.length; i++) {
+				array[i] = list.get(i);
+			}
+
+			addPosting(entry.getKey(), doc, array);
+		}
+	}
+
+	public int getDocumentCount() {
+		return ids.size();
+	}
+
+	public Segment build(final long generation) {
+
+		final int docCount      = ids.size();
+		final int termCount     = postings.size();
+		final String[] docIds   = ids.toArray(new String[docCount]);
+		final int[] docLengths  = new int[docCount];
+		final String[] terms    = new String[termCount];
+		final int[][] docs      = new int[termCount][];
+		final int[][] freqs     = new int[termCount][];
+		final int[][][] offsets = new int[termCount][][];
+		int t                   = 0;
+
+		for (int i=0; i<docCount; i++) {
+			docLengths[i] = lengths.get(i);
+		}
+
+		// TreeMap iteration order is the sort order of the term dictionary
+		for (final Entry<String, PostingsBuilder> entry : postings.entrySet()) {
+
+			final PostingsBuilder builder = entry.getValue();
+			final int size                = builder.docs.size();
+
+			terms[t]   = entry.getKey();
+			docs[t]    = new int[size];
+			freqs[t]   = new int[size];
+			offsets[t] = new int[size][];
+
+			for (int p=0; p<size; p++) {
+
+				docs[t][p]    = builder.docs.get(p);
+				offsets[t][p] = builder.offsets.get(p);
+				freqs[t][p]   = offsets[t][p].length;
+			}
+
+			t++;
+		}
+
+		return new Segment(generation, docIds, docLengths, terms, docs, freqs, offsets);
+	}
+
+	/**
+	 * Merges the given segments into a new segment, leaving out all
+	 * documents that are marked as deleted.
+	 *
+	 * @param generation the generation of the new segment
+	 * @param segments the segments to merge, in ascending generation order
+	 *
+	 * @return the merged segment
+	 */
+	public static Segment merge(final long generation, final List<Segment> segments) {
+
+		final SegmentWriter writer = new SegmentWriter();
+
+		for (final Segment segment : segments) {
+
+			final int docCount = segment.getDocumentCount();
+			final int[] docMap = new int[docCount];
+
+			// assign new ordinals to live documents
+			for (int doc=0; doc<docCount; doc++) {
+
+				docMap[doc] = segment.isDeleted(doc) ? -1 : writer.addDocument(segment.getId(doc), segment.getLength(doc));
+			}
+
+			// postings are appended per segment, so they stay sorted by ordinal
+			for (int term=0; term<segment.getTermCount(); term++) {
+
+				final int[] docs      = segment.getDocs(term);
+				final int[][] offsets = segment.getOffsets(term);
+				final String word     = segment.getTerm(term);
+
+				for (int p=0; p<docs.length; p++) {
+
+					final int doc = docMap[docs[p]];
+					if (doc >= 0) {
+
+						writer.addPosting(word, doc, offsets[p]);
+					}
+				}
+			}
+		}
+
+		return writer.build(generation);
+	}
+
+	// ----- private methods -----
+	private int addDocument(final String id, final int length) {
+
+		ids.add(id);
+		lengths.add(length);
+
+		return ids.size() - 1;
+	}
+
+	private void addPosting(final String term, final int doc, final int[] offsets) {
+
+		final PostingsBuilder builder = postings.computeIfAbsent(term, k -> new PostingsBuilder());
+
+		builder.docs.add(doc);
+		builder.offsets.add(offsets);
+	}
+
+	// ----- nested classes -----
+	private static class PostingsBuilder {
+
+		private final List<Integer> docs   = new ArrayList<>();
+		private final List<int[]> offsets  = new ArrayList<>();
+	}
+}
@@ -0,0 +1,699 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.text.index;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.api.search.FulltextHit;
+import org.structr.api.search.FulltextIndex;
+
+/**
+ * An embedded inverted index that consists of immutable segments. Updates
+ * are buffered in memory and written to a new segment by a background
+ * thread when the buffer is full or the flush interval has elapsed, so
+ * that updates become visible to queries after a short delay. The same
+ * thread merges segments of similar size, so the number of segments grows
+ * logarithmically with the number of documents. Queries read a snapshot
+ * of the segment list and never block writers. Segments are never
+ * modified after they have been published, so new documents and their
+ * deletion marks become visible with a single swap of the list.
+ *
+ * Hits are ranked with BM25, using document frequencies and lengths over
+ * all live documents of all segments, deleted documents are not counted.
+ */
+public class SegmentedIndex implements FulltextIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(SegmentedIndex.class);
+	private static final double K1     = 1.2;
+	private static final double B      = 0.75;
+
+	private final Map<String, PendingDocument> pending = new LinkedHashMap<>();
+	private final Map<String, Long> liveDocuments      = new HashMap<>();
+	private volatile List<Segment> segments            = Collections.emptyList();
+	private ScheduledExecutorService flusher           = null;
+	private Path directory                             = null;
+	private int mergeFactor                            = 10;
+	private int flushSize                              = 1000;
+	private long flushInterval                         = 1000L;
+	private long nextGeneration                        = 1L;
+	private boolean mergeRequired                      = false;
+
+	/**
+	 * Creates a new index that stores its segments in the given directory,
+	 * or keeps them in memory only if the directory is null.
+	 *
+	 * @param directory the index directory or null
+	 * @param mergeFactor the number of segments of similar size that are merged
+	 */
+	public SegmentedIndex(final Path directory, final int mergeFactor) {
+		this(directory, mergeFactor, 1000, 1000L);
+	}
+
+	/**
+	 * Creates a new index that stores its segments in the given directory,
+	 * or keeps them in memory only if the directory is null.
+	 *
+	 * @param directory the index directory or null
+	 * @param mergeFactor the number of segments of similar size that are merged
+	 * @param flushSize the number of buffered updates that triggers a flush
+	 * @param flushInterval the time in milliseconds after which buffered updates are flushed
+	 */
+	public SegmentedIndex(final Path directory, final int mergeFactor, final int flushSize, final long flushInterval) {
+
+		this.directory     = directory;
+		this.mergeFactor   = Math.max(2, mergeFactor);
+		this.flushSize     = Math.max(1, flushSize);
+		this.flushInterval = Math.max(1L, flushInterval);
+	}
+
+	public synchronized void open() throws IOException {
+
+		if (directory == null) {
+			return;
+		}
+
+		Files.createDirectories(directory);
+
+		final List<Segment> loaded = new ArrayList<>();
+
+		try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+
+			for (final Path file : files) {
+
+				final String name = file.getFileName().toString();
+
+				if (name.endsWith(".tmp")) {
+
+					// incomplete write, the previous state is still valid
+					Files.deleteIfExists(file);
+
+				} else if (name.endsWith(".seg")) {
+
+					try {
+
+						loaded.add(Segment.read(file));
+
+					} catch (IOException ioex) {
+
+						logger.warn("Unable to read fulltext index segment {}: {}", name, ioex.getMessage());
+					}
+				}
+			}
+		}
+
+		loaded.sort(Comparator.comparingLong(Segment::getGeneration));
+
+		final Map<Long, Set<String>> superseded = new HashMap<>();
+
+		for (final Segment segment : loaded) {
+
+			for (int doc=0; doc<segment.getDocumentCount(); doc++) {
+
+				final String id = segment.getId(doc);
+				if (!segment.isDeleted(doc)) {
+
+					// a newer segment supersedes older versions that were not marked
+					// as deleted, e.g. after a crash between two writes
+					final Long previous = liveDocuments.put(id, segment.getGeneration());
+					if (previous != null) {
+
+						superseded.computeIfAbsent(previous, k -> new LinkedHashSet<>()).add(id);
+					}
+				}
+			}
+
+			nextGeneration = Math.max(nextGeneration, segment.getGeneration() + 1);
+		}
+
+		markDeleted(loaded, superseded);
+
+		segments = Collections.unmodifiableList(mergeSegments(loaded));
+
+		logger.info("Fulltext index opened with {} documents in {} segments", getDocumentCount(), segments.size());
+	}
+
+	/**
+	 * Adds or replaces the document with the given id. The update is
+	 * buffered and becomes visible to queries with the next flush.
+	 *
+	 * @param id the id of the document
+	 * @param words the words of the document
+	 * @param offsets the character offsets of the words in the text of the document
+	 *
+	 * @throws IOException
+	 */
+	public void update(final String id, final List<String> words, final List<Integer> offsets) throws IOException {
+
+		final PendingDocument document = new PendingDocument(new ArrayList<>(words), new ArrayList<>(offsets));
+
+		synchronized (pending) {
+
+			pending.put(id, document);
+
+			if (pending.size() == flushSize) {
+
+				getFlusher().execute(this::flushInBackground);
+			}
+		}
+	}
+
+	public synchronized void delete(final Collection<String> ids) throws IOException {
+
+		final Map<Long, Set<String>> deletions = new HashMap<>();
+
+		synchronized (pending) {
+
+			for (final String id : ids) {
+				pending.remove(id);
+			}
+		}
+
+		for (final String id : ids) {
+
+			final Long generation = liveDocuments.remove(id);
+			if (generation != null) {
+
+				deletions.computeIfAbsent(generation, k -> new LinkedHashSet<>()).add(id);
+			}
+		}
+
+		if (!deletions.isEmpty()) {
+
+			final List<Segment> list = new ArrayList<>(segments);
+
+			markDeleted(list, deletions);
+
+			segments      = Collections.unmodifiableList(list);
+			mergeRequired = true;
+		}
+	}
+
+	/**
+	 * Writes all buffered updates to a single new segment, publishes it and
+	 * merges segments if necessary. Called by the background thread, and by
+	 * callers that need the buffered updates to be visible immediately.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+
+		final Map<String, PendingDocument> documents;
+
+		synchronized (pending) {
+
+			documents = new LinkedHashMap<>(pending);
+			pending.clear();
+		}
+
+		if (documents.isEmpty()) {
+
+			// segments with many deletions are rewritten in the background as well
+			if (mergeRequired) {
+
+				segments      = Collections.unmodifiableList(mergeSegments(segments));
+				mergeRequired = false;
+			}
+
+			return;
+		}
+
+		try {
+
+			final SegmentWriter writer = new SegmentWriter();
+
+			for (final Entry<String, PendingDocument> entry : documents.entrySet()) {
+
+				final PendingDocument document = entry.getValue();
+
+				writer.addDocument(entry.getKey(), document.words, document.offsets);
+			}
+
+			final Segment segment = writer.build(nextGeneration++);
+
+			write(segment);
+
+			// the old versions are replaced by copies with the deletion mark, which
+			// are published together with the new versions
+			final List<Segment> list               = new ArrayList<>(segments);
+			final Map<Long, Set<String>> deletions = new HashMap<>();
+
+			for (final String id : documents.keySet()) {
+
+				final Long previous = liveDocuments.put(id, segment.getGeneration());
+				if (previous != null) {
+
+					deletions.computeIfAbsent(previous, k -> new LinkedHashSet<>()).add(id);
+				}
+			}
+
+			markDeleted(list, deletions);
+
+			list.add(segment);
+
+			segments = Collections.unmodifiableList(list);
+
+		} catch (IOException ioex) {
+
+			// keep the updates for the next flush unless they were replaced in the meantime
+			synchronized (pending) {
+
+				for (final Entry<String, PendingDocument> entry : documents.entrySet()) {
+					pending.putIfAbsent(entry.getKey(), entry.getValue());
+				}
+			}
+
+			throw ioex;
+		}
+
+		// merging happens after the new documents have been published
+		segments      = Collections.unmodifiableList(mergeSegments(segments));
+		mergeRequired = false;
+	}
+
+	/**
+	 * Flushes all buffered updates and stops the background thread.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+
+		final ScheduledExecutorService executor;
+
+		synchronized (pending) {
+
+			executor = flusher;
+			flusher  = null;
+		}
+
+		if (executor != null) {
+
+			executor.shutdown();
+
+			try {
+
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+
+			} catch (InterruptedException iex) {
+
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		flush();
+	}
+
+	public boolean contains(final String id) {
+
+		for (final Segment segment : segments) {
+
+			if (segment.contains(id)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	// ----- interface FulltextIndex -----
+	@Override
+	public List<FulltextHit> search(final String queryString, final boolean partial, final int limit) {
+
+		final List<Segment> snapshot = segments;
+		final Set<String> words      = new LinkedHashSet<>();
+		long documentCount           = 0L;
+		long totalLength             = 0L;
+
+		if (queryString != null) {
+
+			for (final String word : queryString.toLowerCase().split("\\s+")) {
+
+				if (!word.isEmpty()) {
+					words.add(word);
+				}
+			}
+		}
+
+		for (final Segment segment : snapshot) {
+
+			documentCount += segment.getLiveDocumentCount();
+			totalLength   += segment.getLiveLength();
+		}
+
+		if (words.isEmpty() || documentCount == 0) {
+			return Collections.emptyList();
+		}
+
+		final double averageLength          = Math.max(1.0, (double)totalLength / (double)documentCount);
+		final Map<String, Integer> docFreqs = new HashMap<>();
+		final List<int[]> matchingTerms     = new ArrayList<>(snapshot.size());
+		final Map<String, Hit> hits         = new HashMap<>();
+
+		// resolve the query words in the term dictionary of each segment,
+		// document frequencies are summed up over all segments
+		for (final Segment segment : snapshot) {
+
+			final int[] terms = findTerms(segment, words, partial);
+
+			for (final int term : terms) {
+				docFreqs.merge(segment.getTerm(term), segment.getDocumentFrequency(term), Integer::sum);
+			}
+
+			matchingTerms.add(terms);
+		}
+
+		for (int i=0; i<snapshot.size(); i++) {
+
+			final Segment segment = snapshot.get(i);
+
+			for (final int term : matchingTerms.get(i)) {
+
+				final int docFreq     = docFreqs.get(segment.getTerm(term));
+				final double idf      = Math.log(1.0 + (documentCount - docFreq + 0.5) / (docFreq + 0.5));
+				final int[] docs      = segment.getDocs(term);
+				final int[] freqs     = segment.getFreqs(term);
+				final int[][] offsets = segment.getOffsets(term);
+
+				for (int p=0; p<docs.length; p++) {
+
+					final int doc = docs[p];
+					if (!segment.isDeleted(doc)) {
+
+						final double tf    = freqs[p];
+						final double norm  = K1 * (1.0 - B + B * segment.getLength(doc) / averageLength);
+						final double score = idf * tf * (K1 + 1.0) / (tf + norm);
+
+						hits.computeIfAbsent(segment.getId(doc), Hit::new).add(score, offsets[p]);
+					}
+				}
+			}
+		}
+
+		final List<Hit> sorted = new ArrayList<>(hits.values());
+		Collections.sort(sorted);
+
+		final int size                 = limit > 0 ? Math.min(limit, sorted.size()) : sorted.size();
+		final List<FulltextHit> result = new ArrayList<>(size);
+
+		for (int i=0; i<size; i++) {
+
+			result.add(sorted.get(i).toFulltextHit());
+		}
+
+		return result;
+	}
+
+	@Override
+	public long getDocumentCount() {
+
+		long count = 0L;
+
+		for (final Segment segment : segments) {
+			count += segment.getLiveDocumentCount();
+		}
+
+		return count;
+	}
+
+	// ----- private methods -----
+	/**
+	 * Returns the executor that flushes the buffer periodically, and
+	 * creates it on first access. Must be called with the buffer lock held.
+	 */
+	private ScheduledExecutorService getFlusher() {
+
+		if (flusher == null) {
+
+			flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+
+				final Thread thread = new Thread(r, "FulltextIndexFlusher");
+
+				thread.setDaemon(true);
+
+				return thread;
+			});
+
+			flusher.scheduleWithFixedDelay(this::flushInBackground, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		}
+
+		return flusher;
+	}
+
+	private void flushInBackground() {
+
+		try {
+
+			flush();
+
+		} catch (Throwable t) {
+
+			logger.warn("Unable to flush fulltext index: {}", t.getMessage());
+		}
+	}
+
+	private int[] findTerms(final Segment segment, final Set<String> words, final boolean partial) {
+
+		final List<Integer> result = new ArrayList<>();
+
+		if (partial) {
+
+			final int termCount = segment.getTermCount();
+
+			for (int term=0; term<termCount; term++) {
+
+				final String value = segment.getTerm(term);
+
+				for (final String word : words) {
+
+					if (value.contains(word)) {
+
+						result.add(term);
+						break;
+					}
+				}
+			}
+
+		} else {
+
+			for (final String word : words) {
+
+				final int term = segment.findTerm(word);
+				if (term >= 0) {
+
+					result.add(term);
+				}
+			}
+		}
+
+		return result.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Replaces the segments of the given list with copies in which the
+	 * given documents are marked as deleted, and writes the deletions.
+	 * Must be called with the write lock held.
+	 */
+	private void markDeleted(final List<Segment> list, final Map<Long, Set<String>> deletions) throws IOException {
+
+		for (int i=0; i<list.size(); i++) {
+
+			final Segment segment = list.get(i);
+			final Set<String> ids = deletions.get(segment.getGeneration());
+
+			if (ids != null) {
+
+				final Segment modified = segment.withDeleted(ids);
+				if (modified != segment) {
+
+					list.set(i, modified);
+					writeDeletions(modified);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges segments until no tier contains mergeFactor segments, and
+	 * rewrites segments in which more than half of the documents are
+	 * deleted. Must be called with the write lock held.
+	 */
+	private List<Segment> mergeSegments(final List<Segment> source) throws IOException {
+
+		final List<Segment> current = new ArrayList<>(source);
+		boolean merged              = true;
+
+		while (merged) {
+
+			final Map<Integer, List<Segment>> tiers = new TreeMap<>();
+			List<Segment> candidates                = null;
+
+			merged = false;
+
+			for (final Segment segment : new ArrayList<>(current)) {
+
+				final int live = segment.getLiveDocumentCount();
+				if (live == 0) {
+
+					current.remove(segment);
+					removeFiles(segment);
+
+				} else if (segment.getDocumentCount() >= mergeFactor && live * 2 < segment.getDocumentCount()) {
+
+					candidates = Arrays.asList(segment);
+
+				} else {
+
+					tiers.computeIfAbsent(getTier(live), k -> new ArrayList<>()).add(segment);
+				}
+			}
+
+			if (candidates == null) {
+
+				for (final List<Segment> tier : tiers.values()) {
+
+					if (tier.size() >= mergeFactor) {
+
+						candidates = tier;
+						break;
+					}
+				}
+			}
+
+			if (candidates != null) {
+
+				final Segment segment = SegmentWriter.merge(nextGeneration++, candidates);
+
+				write(segment);
+
+				for (int doc=0; doc<segment.getDocumentCount(); doc++) {
+					liveDocuments.put(segment.getId(doc), segment.getGeneration());
+				}
+
+				for (final Segment candidate : candidates) {
+
+					current.remove(candidate);
+					removeFiles(candidate);
+				}
+
+				current.add(segment);
+
+				merged = true;
+			}
+		}
+
+		return current;
+	}
+
+	private int getTier(final int documentCount) {
+		return (int)(Math.log(documentCount) / Math.log(mergeFactor));
+	}
+
+	private void write(final Segment segment) throws IOException {
+
+		if (directory != null) {
+			segment.write(directory);
+		}
+	}
+
+	private void writeDeletions(final Segment segment) throws IOException {
+
+		if (directory != null) {
+			segment.writeDeletions(directory);
+		}
+	}
+
+	private void removeFiles(final Segment segment) throws IOException {
+
+		if (directory != null) {
+			segment.removeFiles(directory);
+		}
+	}
+
+	// ----- nested classes -----
+	private static class PendingDocument {
+
+		private List<String> words    = null;
+		private List<Integer> offsets = null;
+
+		public PendingDocument(final List<String> words, final List<Integer> offsets) {
+
+			this.words   = words;
+			this.offsets = offsets;
+		}
+	}
+
+	private static class Hit implements Comparable<Hit> {
+
+		private final List<int[]> offsets = new ArrayList<>();
+		private String id                 = null;
+		private double score              = 0.0;
+
+		public Hit(final String id) {
+			this.id = id;
+		}
+
+		public void add(final double score, final int[] offsets) {
+
+			this.score += score;
+			this.offsets.add(offsets);
+		}
+
+		public FulltextHit toFulltextHit() {
+
+			final int[] result = offsets.stream().flatMapToInt(Arrays::stream).filter(o -> o >= 0).sorted().toArray();
+
+			return new FulltextHit(id, score, result);
+		}
+
+		@Override
+		public int compareTo(final Hit other) {
+
+			final int result = Double.compare(other.score, score);
+			if (result == 0) {
+
+				return id.compareTo(other.id);
+			}
+
+			return result;
+		}
+	}
+}
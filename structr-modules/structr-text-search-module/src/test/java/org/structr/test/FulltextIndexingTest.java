@@ -33,9 +33,13 @@ import org.structr.core.app.StructrApp;
 import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyKey;
 import org.structr.test.web.StructrUiTest;
+import org.structr.text.FulltextIndexingPool;
+import org.structr.text.TextSearchModule;
+import org.structr.text.index.SegmentedIndex;
 import org.structr.web.common.FileHelper;
 import org.structr.web.entity.File;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.fail;
 
@@ -190,7 +194,104 @@ public class FulltextIndexingTest extends StructrUiTest {
 
 	}
 
+	@Test
+	public void testDeletedFileIsNotIndexed() {
+
+		String uuid = null;
+
+		try (final Tx tx = app.tx()) {
+
+			try (final InputStream is = FulltextIndexingTest.class.getResourceAsStream("/test/test.txt")) {
+				uuid = FileHelper.createFile(securityContext, is, "", File.class, "test.txt").getUuid();
+			}
+
+			tx.success();
+
+		} catch (FrameworkException|IOException fex) {
+			fail("Unexpected exception.");
+		}
+
+		// delete the file while it is waiting for extraction
+		try (final Tx tx = app.tx()) {
+
+			app.delete(app.get(File.class, uuid));
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			fail("Unexpected exception.");
+		}
+
+		delay();
+
+		final SegmentedIndex index = TextSearchModule.getIndex();
+		if (index != null) {
+
+			assertFalse("Deleted file must not be in the fulltext index", index.contains(uuid));
+		}
+
+		testResult("lorem");
+	}
+
+	@Test
+	public void testShutdown() {
+
+		try (final Tx tx = app.tx()) {
+
+			try (final InputStream is = FulltextIndexingTest.class.getResourceAsStream("/test/test.txt")) {
+				FileHelper.createFile(securityContext, is, "", File.class, "test.txt");
+			}
+
+			tx.success();
+
+		} catch (FrameworkException|IOException fex) {
+			fail("Unexpected exception.");
+		}
+
+		delay();
+
+		FulltextIndexingPool.shutdown();
+
+		final long deadline = System.currentTimeMillis() + 10000;
+
+		while (!getIndexingThreads().isEmpty()) {
+
+			if (System.currentTimeMillis() > deadline) {
+				fail("Indexing threads must be stopped on shutdown: " + getIndexingThreads());
+			}
+
+			delay(100);
+		}
+
+		// the pool is restarted when the next document is added
+		try (final Tx tx = app.tx()) {
+
+			app.delete(app.nodeQuery(File.class).getFirst());
+
+			try (final InputStream is = FulltextIndexingTest.class.getResourceAsStream("/test/test.txt")) {
+				FileHelper.createFile(securityContext, is, "", File.class, "test.txt");
+			}
+
+			tx.success();
+
+		} catch (FrameworkException|IOException fex) {
+			fail("Unexpected exception.");
+		}
+
+		delay();
+		testFile();
+	}
+
 	// ----- private methods -----
+	private List<String> getIndexingThreads() {
+
+		return Thread.getAllStackTraces().keySet().stream()
+			.filter(Thread::isAlive)
+			.map(Thread::getName)
+			.filter(name -> name.matches("FulltextIndexing(-[0-9]+|Writer|Watchdog)"))
+			.collect(Collectors.toList());
+	}
+
 	private void testFile() {
 
 		// test result
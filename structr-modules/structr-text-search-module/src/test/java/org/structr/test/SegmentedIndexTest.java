@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.structr.api.search.FulltextHit;
+import org.structr.text.index.SegmentedIndex;
+import org.testng.annotations.Test;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ *
+ */
+public class SegmentedIndexTest {
+
+	@Test
+	public void testRanking() throws IOException {
+
+		final SegmentedIndex index = new SegmentedIndex(null, 4);
+
+		add(index, "a", "apple banana cherry");
+		add(index, "b", "apple apple apple banana");
+		add(index, "c", "cherry date elderberry fig grape");
+
+		index.flush();
+
+		final List<FulltextHit> apple = index.search("apple", false, -1);
+
+		assertEquals("Invalid number of hits", 2, apple.size());
+		assertEquals("Document with more occurrences should rank first", "b", apple.get(0).getId());
+		assertEquals("Invalid offsets", Arrays.toString(new int[] { 0, 6, 12 }), Arrays.toString(apple.get(0).getOffsets()));
+
+		final List<FulltextHit> cherry = index.search("cherry", false, -1);
+
+		assertEquals("Invalid number of hits", 2, cherry.size());
+		assertEquals("Shorter document should rank first", "a", cherry.get(0).getId());
+
+		assertEquals("Invalid number of hits for partial match", 1, index.search("elder", true, -1).size());
+		assertEquals("Invalid number of hits for exact match", 0, index.search("elder", false, -1).size());
+		assertEquals("Invalid number of hits with limit", 1, index.search("apple cherry", false, 1).size());
+	}
+
+	@Test
+	public void testUpdateDeleteAndMerge() throws IOException {
+
+		final SegmentedIndex index = new SegmentedIndex(null, 4);
+
+		for (int i=0; i<100; i++) {
+
+			add(index, "doc" + i, "common word" + i);
+
+			// one segment per flush
+			if (i % 5 == 4) {
+				index.flush();
+			}
+		}
+
+		assertEquals("Invalid document count", 100, index.getDocumentCount());
+		assertTrue("Segments should have been merged", index.getSegmentCount() < 10);
+		assertEquals("Invalid number of hits", 100, index.search("common", false, -1).size());
+
+		// replace a document
+		add(index, "doc5", "different content");
+		index.flush();
+
+		assertEquals("Invalid document count", 100, index.getDocumentCount());
+		assertEquals("Old version should be removed", 0, index.search("word5", false, -1).size());
+		assertEquals("New version should be found", "doc5", index.search("different", false, -1).get(0).getId());
+
+		final List<String> deleted = new ArrayList<>();
+		for (int i=0; i<60; i++) {
+			deleted.add("doc" + i);
+		}
+
+		index.delete(deleted);
+
+		assertEquals("Invalid document count", 40, index.getDocumentCount());
+		assertEquals("Invalid number of hits", 40, index.search("common", false, -1).size());
+	}
+
+	@Test
+	public void testUpdateVisibility() throws Exception {
+
+		final SegmentedIndex index   = new SegmentedIndex(null, 4);
+		final AtomicBoolean running  = new AtomicBoolean(true);
+		final AtomicInteger failures = new AtomicInteger();
+
+		add(index, "doc", "stable version0");
+		index.flush();
+
+		final Thread reader = new Thread(() -> {
+
+			while (running.get()) {
+
+				// the document must be found exactly once while it is replaced
+				if (index.search("stable", false, -1).size() != 1) {
+					failures.incrementAndGet();
+				}
+			}
+		});
+
+		reader.start();
+
+		try {
+
+			for (int i=1; i<2000; i++) {
+				add(index, "doc", "stable version" + i);
+				index.flush();
+			}
+
+		} finally {
+
+			running.set(false);
+			reader.join();
+		}
+
+		assertEquals("Replaced document must always be visible exactly once", 0, failures.get());
+		assertEquals("Invalid document count", 1, index.getDocumentCount());
+	}
+
+	@Test
+	public void testPersistence() throws IOException {
+
+		final Path directory = Files.createTempDirectory("fulltext");
+
+		try {
+
+			final SegmentedIndex index = new SegmentedIndex(directory, 3);
+			index.open();
+
+			for (int i=0; i<20; i++) {
+				add(index, "doc" + i, "persistent text number" + i);
+			}
+
+			index.flush();
+			index.delete(Arrays.asList("doc1", "doc2"));
+			add(index, "doc3", "replaced");
+			index.close();
+
+			final SegmentedIndex reopened = new SegmentedIndex(directory, 3);
+			reopened.open();
+
+			assertEquals("Invalid document count after reopen", 18, reopened.getDocumentCount());
+			assertEquals("Invalid number of hits after reopen", 17, reopened.search("persistent", false, -1).size());
+			assertEquals("Invalid number of hits after reopen", 1, reopened.search("replaced", false, -1).size());
+
+		} finally {
+
+			FileUtils.deleteDirectory(directory.toFile());
+		}
+	}
+
+	@Test
+	public void testBufferedUpdates() throws Exception {
+
+		final SegmentedIndex index = new SegmentedIndex(null, 4, 3, 60000L);
+
+		add(index, "a", "buffered text");
+		add(index, "b", "buffered text");
+
+		assertEquals("Buffered updates must not be visible before a flush", 0, index.search("buffered", false, -1).size());
+
+		// deleting a buffered document removes it from the buffer
+		index.delete(Arrays.asList("b"));
+		index.flush();
+
+		assertEquals("Invalid number of hits after flush", 1, index.search("buffered", false, -1).size());
+		assertEquals("Invalid number of segments after flush", 1, index.getSegmentCount());
+
+		// the background thread flushes the buffer when it is full
+		add(index, "c", "background text");
+		add(index, "d", "background text");
+		add(index, "e", "background text");
+
+		for (int i=0; i<100 && index.search("background", false, -1).isEmpty(); i++) {
+			Thread.sleep(50);
+		}
+
+		assertEquals("Full buffer must be flushed in the background", 3, index.search("background", false, -1).size());
+
+		index.close();
+	}
+
+	@Test
+	public void testDeletedDocumentsAreNotCounted() throws IOException {
+
+		final SegmentedIndex index     = new SegmentedIndex(null, 100);
+		final SegmentedIndex reference = new SegmentedIndex(null, 100);
+
+		for (int i=0; i<10; i++) {
+			add(index, "doc" + i, "rare common text" + i);
+		}
+
+		for (int i=10; i<20; i++) {
+			add(index, "doc" + i, "common other text" + i);
+		}
+
+		index.flush();
+		index.delete(Arrays.asList("doc0", "doc1", "doc2", "doc3", "doc4", "doc5", "doc6", "doc7", "doc8"));
+
+		add(reference, "doc9", "rare common text9");
+
+		for (int i=10; i<20; i++) {
+			add(reference, "doc" + i, "common other text" + i);
+		}
+
+		reference.flush();
+
+		final FulltextHit hit      = index.search("rare", false, -1).get(0);
+		final FulltextHit expected = reference.search("rare", false, -1).get(0);
+
+		assertEquals("Invalid hit", expected.getId(), hit.getId());
+		assertTrue("Deleted documents must not change the score", Math.abs(expected.getScore() - hit.getScore()) < 0.000001);
+	}
+
+	// ----- private methods -----
+	private void add(final SegmentedIndex index, final String id, final String text) throws IOException {
+
+		final List<String> words    = new ArrayList<>();
+		final List<Integer> offsets = new ArrayList<>();
+		int offset                  = 0;
+
+		for (final String word : text.split(" ")) {
+
+			words.add(word);
+			offsets.add(offset);
+
+			offset += word.length() + 1;
+		}
+
+		index.update(id, words, offsets);
+	}
+}
@@ -22,10 +22,13 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
+import org.neo4j.driver.Record;
 import org.structr.api.DatabaseService;
+import org.structr.api.InvalidCursorException;
 import org.structr.api.config.Settings;
 import org.structr.api.graph.Direction;
 import org.structr.api.search.Occurrence;
@@ -33,8 +36,6 @@ import org.structr.api.search.QueryContext;
 import org.structr.api.search.SortOrder;
 import org.structr.api.search.SortSpec;
 import org.structr.api.util.Iterables;
-import org.structr.api.util.QueryHistogram;
-import org.structr.api.util.QueryTimer;
 
 /**
  *
@@ -46,7 +47,6 @@ public class AdvancedCypherQuery implements CypherQuery {
 	private final Set<String> typeLabels            = new LinkedHashSet<>();
 	private final Map<String, GraphQueryPart> parts = new LinkedHashMap<>();
 	private final StringBuilder buffer              = new StringBuilder();
-	private QueryTimer queryTimer                   = null;
 	private int fetchSize                           = Settings.FetchSize.getValue();
 	private boolean hasOptionalParts                = false;
 	private String currentGraphPartIdentifier       = "n";
@@ -58,6 +58,11 @@ public class AdvancedCypherQuery implements CypherQuery {
 	private int count                               = 0;
 	private QueryContext queryContext               = null;
 	private boolean timeoutViolated                 = false;
+	private SeekPosition seekPosition               = null;
+	private String cursor                           = null;
+	private long cursorRecordIndex                  = -1L;
+	private long recordCount                        = 0L;
+	private boolean nullRange                       = false;
 
 	public AdvancedCypherQuery(final QueryContext queryContext, final AbstractCypherIndex<?> index, final int requestedPageSize, final int requestedPage) {
 
@@ -82,7 +87,13 @@ public class AdvancedCypherQuery implements CypherQuery {
 
 			// notify query context that we skipped a number of nodes
 			queryContext.setSkipped(firstFetchIndex * fetchSize);
+
+			// the position after the last element of the requested page is returned as a cursor
+			cursorRecordIndex = ((long)requestedPage * requestedPageSize) - (firstFetchIndex * fetchSize);
 		}
+
+		// a cursor from a previous request replaces the offset, see applyCursor()
+		cursor = queryContext.getCursor();
 	}
 
 	@Override
@@ -95,6 +106,88 @@ public class AdvancedCypherQuery implements CypherQuery {
 		fetchPage++;
 	}
 
+	/**
+	 * Continues with the next page after the given record. If the
+	 * query supports seek paging, the next page starts after the sort
+	 * key values and the id of the record, otherwise it is skipped
+	 * to by offset.
+	 *
+	 * @param lastRecord the last record of the current page
+	 */
+	public void nextPage(final Record lastRecord) {
+
+		if (lastRecord != null && isSeekable()) {
+
+			setSeekPosition(SeekPosition.fromRecord(lastRecord, getSortKeyCount()));
+		}
+
+		fetchPage++;
+	}
+
+	/**
+	 * Called when a page contained fewer records than requested. In
+	 * ascending order, the records whose first sort key is null follow
+	 * all other records, but they are not contained in the index-backed
+	 * range of the seek predicate, so they are fetched separately
+	 * afterwards.
+	 *
+	 * @return whether the query continues with these records
+	 */
+	public boolean beginNullRange() {
+
+		if (!nullRange && seekPosition != null && seekPosition.getValue(0) != null && !sortOrder.getSortElements().get(0).sortDescending()) {
+
+			nullRange    = true;
+			seekPosition = null;
+
+			fetchPage++;
+
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Continues after the position of the cursor that was passed in the
+	 * query context, if any. Must be called before the query is executed.
+	 *
+	 * @throws InvalidCursorException if the cursor is invalid or the query can not be continued from a cursor
+	 */
+	public void applyCursor() {
+
+		if (cursor != null) {
+
+			if (cursorRecordIndex < 0 || !isSeekable()) {
+				throw new InvalidCursorException("Cursor pagination is not supported for this query.");
+			}
+
+			final SeekPosition position = SeekPosition.decode(cursor, getSortKeyCount());
+			if (position == null) {
+
+				throw new InvalidCursorException("Invalid cursor.");
+			}
+
+			setSeekPosition(position);
+
+			cursor = null;
+		}
+	}
+
+	/**
+	 * Called for every record of the result, creates the cursor that
+	 * clients can use to continue after the requested page.
+	 *
+	 * @param record the record
+	 */
+	public void recordReceived(final Record record) {
+
+		if (++recordCount == cursorRecordIndex && isSeekable()) {
+
+			queryContext.setNextCursor(SeekPosition.fromRecord(record, getSortKeyCount()).encode());
+		}
+	}
+
 	@Override
 	public int pageSize() {
 		return this.fetchSize;
@@ -110,6 +203,8 @@ public class AdvancedCypherQuery implements CypherQuery {
 		final boolean hasPredicates = buffer.length() > 0;
 		final StringBuilder buf     = new StringBuilder();
 		final int typeCount         = typeLabels.size();
+		final boolean seek          = paged && isSeekable();
+		final String seekPredicate  = seek ? getSeekPredicate() : null;
 
 		switch (typeCount) {
 
@@ -118,12 +213,13 @@ public class AdvancedCypherQuery implements CypherQuery {
 				buf.append(index.getQueryPrefix(getTypeQueryLabel(null), sourceTypeLabel, targetTypeLabel, hasPredicates, hasOptionalParts));
 				buf.append(getGraphPartForMatch());
 
-				if (hasPredicates) {
-					buf.append(" WHERE ");
-					buf.append(buffer);
-				}
+				appendWhereClause(buf, hasPredicates, seekPredicate);
 
 				buf.append(index.getQuerySuffix(this));
+
+				if (seek) {
+					buf.append(", ID(n) AS seekId");
+				}
 				break;
 
 			case 1:
@@ -131,12 +227,13 @@ public class AdvancedCypherQuery implements CypherQuery {
 				buf.append(index.getQueryPrefix(getTypeQueryLabel(Iterables.first(typeLabels)), sourceTypeLabel, targetTypeLabel, hasPredicates, hasOptionalParts));
 				buf.append(getGraphPartForMatch());
 
-				if (hasPredicates) {
-					buf.append(" WHERE ");
-					buf.append(buffer);
-				}
+				appendWhereClause(buf, hasPredicates, seekPredicate);
 
 				buf.append(index.getQuerySuffix(this));
+
+				if (seek) {
+					buf.append(", ID(n) AS seekId");
+				}
 				break;
 
 			default:
@@ -189,10 +286,20 @@ public class AdvancedCypherQuery implements CypherQuery {
 			}
 		}
 
+		if (seek) {
+
+			// the internal id makes the sort order unique
+			buf.append(", seekId");
+		}
+
 		if (paged) {
 
-			buf.append(" SKIP ");
-			buf.append(fetchPage * fetchSize);
+			if (seekPosition == null && !nullRange) {
+
+				buf.append(" SKIP ");
+				buf.append(fetchPage * fetchSize);
+			}
+
 			buf.append(" LIMIT ");
 			buf.append(fetchSize);
 		}
@@ -480,16 +587,125 @@ public class AdvancedCypherQuery implements CypherQuery {
 		return queryContext;
 	}
 
-	public QueryTimer getQueryTimer() {
+	// ----- private methods -----
+	private boolean isSeekable() {
+
+		// UNION queries and optional matches can not be continued with a WHERE clause
+		if (typeLabels.size() > 1 || hasOptionalParts) {
+			return false;
+		}
+
+		// unsorted results are not sorted by id just to be able to continue them
+		if (sortOrder == null || sortOrder.getSortElements().isEmpty()) {
+			return false;
+		}
+
+		for (final SortSpec spec : sortOrder.getSortElements()) {
+
+			if (spec.getSortKey() == null) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private int getSortKeyCount() {
+		return sortOrder != null ? sortOrder.getSortElements().size() : 0;
+	}
+
+	private void setSeekPosition(final SeekPosition position) {
+
+		this.seekPosition = position;
 
-		if (queryTimer == null) {
-			queryTimer = QueryHistogram.newTimer();
+		parameters.put("seekId", position.getId());
+
+		for (int i=0; i<position.size(); i++) {
+
+			parameters.put("seek" + i, position.getValue(i));
 		}
+	}
 
-		return queryTimer;
+	private String getSeekPredicate() {
+
+		final List<SortSpec> specs = sortOrder.getSortElements();
+		final SortSpec first       = specs.get(0);
+		final String key           = "n.`" + first.getSortKey() + "`";
+
+		if (seekPosition == null) {
+
+			// the records whose first sort key is null, see beginNullRange()
+			return nullRange ? key + " IS NULL" : null;
+		}
+
+		final String after = getSeekPredicate(specs, 0);
+
+		if (seekPosition.getValue(0) != null) {
+
+			// a range on the first sort key can be answered by an index, the lexicographic comparison only filters the range
+			return "(" + key + (first.sortDescending() ? " <= " : " >= ") + "$seek0 AND " + after + ")";
+		}
+
+		return after;
+	}
+
+	/**
+	 * Creates the lexicographic comparison of the sort keys starting at
+	 * the given index with the seek position: the first differing sort
+	 * key decides, the id is the final tie breaker. Neo4j sorts null
+	 * values last in ascending and first in descending order.
+	 */
+	private String getSeekPredicate(final List<SortSpec> specs, final int index) {
+
+		if (index == specs.size()) {
+			return "ID(n) > $seekId";
+		}
+
+		final SortSpec spec  = specs.get(index);
+		final String key     = "n.`" + spec.getSortKey() + "`";
+		final String param   = "$seek" + index;
+		final String next    = getSeekPredicate(specs, index + 1);
+
+		if (seekPosition.getValue(index) == null) {
+
+			if (spec.sortDescending()) {
+
+				return "(" + key + " IS NOT NULL OR (" + key + " IS NULL AND " + next + "))";
+			}
+
+			return "(" + key + " IS NULL AND " + next + ")";
+		}
+
+		if (spec.sortDescending()) {
+
+			return "(" + key + " < " + param + " OR (" + key + " = " + param + " AND " + next + "))";
+		}
+
+		return "(" + key + " > " + param + " OR " + key + " IS NULL OR (" + key + " = " + param + " AND " + next + "))";
+	}
+
+	private void appendWhereClause(final StringBuilder buf, final boolean hasPredicates, final String seekPredicate) {
+
+		if (seekPredicate != null) {
+
+			buf.append(" WHERE ");
+
+			if (hasPredicates) {
+
+				buf.append("(");
+				buf.append(buffer);
+				buf.append(") AND ");
+			}
+
+			buf.append(seekPredicate);
+
+		} else if (hasPredicates) {
+
+			buf.append(" WHERE ");
+			buf.append(buffer);
+		}
 	}
 
-	// ----- private methods -----
 	private String getTypeQueryLabel(final String mainType) {
 
 		if (mainType != null) {
@@ -92,6 +92,22 @@ class AsyncSessionTransaction extends SessionTransaction {
 	@Override
 	public void close() {
 
+		RuntimeException flushException = null;
+
+		if (success) {
+
+			try {
+
+				// send buffered changes before the transaction is committed
+				flush();
+
+			} catch (RuntimeException rex) {
+
+				flushException = rex;
+				success        = false;
+			}
+		}
+
 		if (!success) {
 
 			resolveImmediately(tx.rollbackAsync());
@@ -149,6 +165,10 @@ class AsyncSessionTransaction extends SessionTransaction {
 				resolveImmediately(session.closeAsync());
 			//}
 		}
+
+		if (flushException != null) {
+			throw flushException;
+		}
 	}
 
 	public boolean isClosed() {
@@ -164,6 +184,7 @@ class AsyncSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement);
 			return getBoolean(statement, Collections.EMPTY_MAP);
 
@@ -186,6 +207,7 @@ class AsyncSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
 			final ResultCursor cursor = resolveImmediately(tx.runAsync(statement, map));
@@ -211,6 +233,7 @@ class AsyncSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement);
 			return getLong(statement, Collections.EMPTY_MAP);
 
@@ -233,6 +256,7 @@ class AsyncSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
 			final ResultCursor cursor = resolveImmediately(tx.runAsync(statement, map));
@@ -258,6 +282,7 @@ class AsyncSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
 			final ResultCursor cursor = resolveImmediately(tx.runAsync(statement, map));
@@ -283,6 +308,7 @@ class AsyncSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
 			final ResultCursor cursor = resolveImmediately(tx.runAsync(statement, map));
@@ -308,6 +334,7 @@ class AsyncSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
 			final ResultCursor cursor = resolveImmediately(tx.runAsync(statement, map));
@@ -333,6 +360,7 @@ class AsyncSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
 			final ResultCursor cursor = resolveImmediately(tx.runAsync(statement, map));
@@ -356,14 +384,14 @@ class AsyncSessionTransaction extends SessionTransaction {
 	@Override
 	public Object collectRecords(final String statement, final Map<String, Object> map, final Object input) {
 
+		flush();
 		logQuery(statement, map);
 
 		final IterableQueueingRecordConsumer consumer = (IterableQueueingRecordConsumer)input;
 
 		tx.runAsync(statement, map)
 			.thenCompose(cursor -> consumer.start(cursor))
-			.thenCompose(cursor -> cursor.forEachAsync(consumer::accept))
-			.thenAccept(summary -> consumer.finish())
+			.thenAccept(done -> consumer.finish())
 			.exceptionally(t -> consumer.exception(t));
 
 		return consumer;
@@ -374,6 +402,7 @@ class AsyncSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
 			final ResultCursor cursor = resolveImmediately(tx.runAsync(statement, map));
@@ -399,6 +428,7 @@ class AsyncSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
 			final ResultCursor cursor  = resolveImmediately(tx.runAsync(statement, map));
@@ -425,6 +455,7 @@ class AsyncSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
 			resolveImmediately(tx.runAsync(statement, map));
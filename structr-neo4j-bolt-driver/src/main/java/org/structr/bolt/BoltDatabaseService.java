@@ -54,10 +54,12 @@ import org.structr.api.NetworkException;
 import org.structr.api.NotInTransactionException;
 import org.structr.api.Transaction;
 import org.structr.api.config.Settings;
+import org.structr.api.graph.Direction;
 import org.structr.api.graph.GraphProperties;
 import org.structr.api.graph.Identity;
 import org.structr.api.graph.Node;
 import org.structr.api.graph.Relationship;
+import org.structr.api.graph.RelationshipType;
 import org.structr.api.index.Index;
 import org.structr.api.search.ExactQuery;
 import org.structr.api.search.Occurrence;
@@ -448,6 +450,11 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 		return index.query(context, predicate, Integer.MAX_VALUE, 1);
 	}
 
+	@Override
+	public void prefetchRelationships(final Iterable<Node> nodes, final Direction direction, final RelationshipType relationshipType) {
+		NodeWrapper.prefetchRelationships(this, nodes, direction, relationshipType);
+	}
+
 	@Override
 	public GraphProperties getGlobalProperties() {
 		return this;
@@ -558,6 +565,10 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 		return Settings.CypherDebugLoggingPing.getValue();
 	}
 
+	boolean isWriteBehindEnabled() {
+		return Settings.Neo4jWriteBehind.getValue();
+	}
+
 	long unwrap(final Identity identity) {
 
 		if (identity instanceof BoltIdentity) {
@@ -707,6 +718,10 @@ public class BoltDatabaseService extends AbstractDatabaseService implements Grap
 
 			case AuthenticationRequired:
 				return true;
+
+			case CursorPaging:
+				// reactive sessions fetch the whole result with a single statement
+				return !supportsReactive;
 		}
 
 		return false;
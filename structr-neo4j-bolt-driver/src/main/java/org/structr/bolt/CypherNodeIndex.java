@@ -100,6 +100,10 @@ class CypherNodeIndex extends AbstractCypherIndex<Node> {
 
 	@Override
 	public Iterable<Node> getResult(final AdvancedCypherQuery query) {
+
+		// an invalid cursor must be reported before the lazy result is consumed
+		query.applyCursor();
+
 		return Iterables.map(new NodeNodeMapper(db), Iterables.map(new RecordNodeMapper(), new LazyRecordIterable(db, query)));
 	}
 }
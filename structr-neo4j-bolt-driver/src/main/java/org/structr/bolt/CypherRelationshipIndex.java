@@ -106,6 +106,10 @@ class CypherRelationshipIndex extends AbstractCypherIndex<Relationship> {
 
 	@Override
 	public Iterable<Relationship> getResult(final AdvancedCypherQuery query) {
+
+		// an invalid cursor must be reported before the lazy result is consumed
+		query.applyCursor();
+
 		return Iterables.map(new RelationshipRelationshipMapper(db), Iterables.map(new RecordRelationshipMapper(db), new LazyRecordIterable(db, query)));
 	}
 }
@@ -139,14 +139,21 @@ abstract class EntityWrapper<T extends Entity> implements PropertyContainer, Cac
 		// only update values if actually different from what is stored
 		if (needsUpdate(key, value)) {
 
-			final Map<String, Object> map = new HashMap<>();
-			final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n.`" + key + "` = $value";
+			if (tx.isWriteBehind()) {
 
-			map.put("id", id);
-			map.put("value", value);
+				tx.setPropertyDeferred(getQueryPrefix(), id, key, value);
 
-			// update entity handle
-			tx.set(query, map);
+			} else {
+
+				final Map<String, Object> map = new HashMap<>();
+				final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n.`" + key + "` = $value";
+
+				map.put("id", id);
+				map.put("value", value);
+
+				// update entity handle
+				tx.set(query, map);
+			}
 
 			// update data
 			accessData(true).put(key, value);
@@ -167,16 +174,24 @@ abstract class EntityWrapper<T extends Entity> implements PropertyContainer, Cac
 		// only update values if actually different from what is stored
 		if (!values.isEmpty()) {
 
-			final Map<String, Object> map = new HashMap<>();
-			final SessionTransaction tx   = db.getCurrentTransaction();
-			final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n += $properties";
+			final SessionTransaction tx = db.getCurrentTransaction();
 
-			// overwrite a potential "id" property
-			map.put("id", id);
-			map.put("properties", values);
+			if (tx.isWriteBehind()) {
 
-			// execute query
-			tx.set(query, map);
+				tx.setPropertiesDeferred(getQueryPrefix(), id, values);
+
+			} else {
+
+				final Map<String, Object> map = new HashMap<>();
+				final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n += $properties";
+
+				// overwrite a potential "id" property
+				map.put("id", id);
+				map.put("properties", values);
+
+				// execute query
+				tx.set(query, map);
+			}
 
 			// update data
 			update(values);
@@ -190,14 +205,22 @@ abstract class EntityWrapper<T extends Entity> implements PropertyContainer, Cac
 
 		assertNotStale();
 
-		final SessionTransaction tx   = db.getCurrentTransaction();
-		final Map<String, Object> map = new HashMap<>();
-		final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n.`" + key + "` = Null";
+		final SessionTransaction tx = db.getCurrentTransaction();
 
-		map.put("id", id);
+		if (tx.isWriteBehind()) {
+
+			tx.setPropertyDeferred(getQueryPrefix(), id, key, null);
+
+		} else {
 
-		// execute query
-		tx.set(query, map);
+			final Map<String, Object> map = new HashMap<>();
+			final String query            = getQueryPrefix() + " WHERE ID(n) = $id SET n.`" + key + "` = Null";
+
+			map.put("id", id);
+
+			// execute query
+			tx.set(query, map);
+		}
 
 		// remove key from data
 		accessData(true).put(key, null);
@@ -18,8 +18,13 @@
  */
 package org.structr.bolt;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -39,6 +44,7 @@ import org.structr.api.util.Iterables;
  */
 class NodeWrapper extends EntityWrapper<org.neo4j.driver.types.Node> implements Node {
 
+	private static final int PREFETCH_CHUNK_SIZE                                 = 1000;
 	protected static FixedSizeCache<Long, NodeWrapper> nodeCache                 = null;
 
 	private final Map<String, Map<String, RelationshipResult>> relationshipCache = new HashMap<>();
@@ -54,7 +60,7 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.types.Node> implements
 	}
 
 	public static void initialize(final int cacheSize) {
-		nodeCache = new FixedSizeCache<>("Node cache", cacheSize);
+		nodeCache = new FixedSizeCache<>("Node cache", cacheSize, true);
 	}
 
 	@Override
@@ -143,12 +149,20 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.types.Node> implements
 		assertNotStale();
 
 		final SessionTransaction tx   = db.getCurrentTransaction();
-		final Map<String, Object> map = new HashMap<>();
 		final String tenantIdentifier = getTenantIdentifer(db);
 
-		map.put("id", id);
+		if (tx.isWriteBehind()) {
+
+			tx.addLabelDeferred(concat("MATCH (n", tenantIdentifier, ")"), id, label);
+
+		} else {
 
-		tx.set(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id SET n :", label), map);
+			final Map<String, Object> map = new HashMap<>();
+
+			map.put("id", id);
+
+			tx.set(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id SET n :", label), map);
+		}
 
 		setModified();
 	}
@@ -159,12 +173,21 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.types.Node> implements
 		assertNotStale();
 
 		final SessionTransaction tx   = db.getCurrentTransaction();
-		final Map<String, Object> map = new HashMap<>();
 		final String tenantIdentifier = getTenantIdentifer(db);
 
-		map.put("id", id);
+		if (tx.isWriteBehind()) {
+
+			tx.removeLabelDeferred(concat("MATCH (n", tenantIdentifier, ")"), id, label);
+
+		} else {
+
+			final Map<String, Object> map = new HashMap<>();
+
+			map.put("id", id);
+
+			tx.set(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id REMOVE n:", label), map);
+		}
 
-		tx.set(concat("MATCH (n", tenantIdentifier, ") WHERE ID(n) = $id REMOVE n:", label), map);
 		setModified();
 	}
 
@@ -424,6 +447,96 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.types.Node> implements
 		return wrapper;
 	}
 
+	/**
+	 * Loads the relationships with the given direction and type of all
+	 * the given nodes (and the nodes at their other end) with one query
+	 * per chunk of nodes and stores them in the relationship caches.
+	 * Nodes whose relationships are already cached are ignored.
+	 *
+	 * @param db the database
+	 * @param nodes the nodes
+	 * @param direction the direction
+	 * @param relationshipType the relationship type or null for all types
+	 */
+	public static void prefetchRelationships(final BoltDatabaseService db, final Iterable<Node> nodes, final Direction direction, final RelationshipType relationshipType) {
+
+		if (Settings.ForceResultStreaming.getValue()) {
+			return;
+		}
+
+		// getRelationships(BOTH) uses the cache for all relationships
+		final Direction cacheDirection        = (Direction.BOTH.equals(direction) && relationshipType == null) ? null : direction;
+		final Map<Long, NodeWrapper> wrappers = new LinkedHashMap<>();
+
+		for (final Node node : nodes) {
+
+			if (node instanceof NodeWrapper) {
+
+				final NodeWrapper wrapper = (NodeWrapper)node;
+
+				if (!wrapper.dontUseCache && !wrapper.stale && !wrapper.getRelationshipCache(cacheDirection, relationshipType).isLoaded()) {
+
+					wrappers.put(wrapper.id, wrapper);
+				}
+			}
+		}
+
+		if (wrappers.isEmpty()) {
+			return;
+		}
+
+		final SessionTransaction tx   = db.getCurrentTransaction();
+		final String tenantIdentifier = getTenantIdentifer(db);
+		final String rel              = relationshipType != null ? ":" + relationshipType.name() : "";
+		final List<Long> ids          = new ArrayList<>(wrappers.keySet());
+		final String match;
+
+		switch (direction) {
+
+			case OUTGOING:
+				match = concat("(n", tenantIdentifier, ")-[r", rel, "]->(o)");
+				break;
+
+			case INCOMING:
+				match = concat("(n", tenantIdentifier, ")<-[r", rel, "]-(o)");
+				break;
+
+			default:
+				match = concat("(n", tenantIdentifier, ")-[r", rel, "]-(o)");
+				break;
+		}
+
+		final String statement = concat("MATCH ", match, " WHERE ID(n) IN $ids RETURN ID(n) AS id, r, o");
+
+		for (int i=0; i<ids.size(); i+=PREFETCH_CHUNK_SIZE) {
+
+			final List<Long> chunk                        = ids.subList(i, Math.min(ids.size(), i + PREFETCH_CHUNK_SIZE));
+			final Map<Long, List<Relationship>> relations = new HashMap<>();
+			final Map<String, Object> parameters          = new HashMap<>();
+
+			parameters.put("ids", new ArrayList<>(chunk));
+
+			for (final Map<String, Object> row : tx.run(statement, parameters)) {
+
+				final Long id                   = ((Number)row.get("id")).longValue();
+				final Relationship relationship = (Relationship)row.get("r");
+
+				// instantiate the other node so that it is available in the node cache
+				row.get("o");
+
+				relations.computeIfAbsent(id, k -> new LinkedList<>()).add(relationship);
+			}
+
+			// nodes without relationships get an empty result
+			for (final Long id : chunk) {
+
+				final List<Relationship> list = relations.get(id);
+
+				wrappers.get(id).getRelationshipCache(cacheDirection, relationshipType).setPrefetched(list != null ? list : Collections.emptyList());
+			}
+		}
+	}
+
 	// ----- package-private static methods
 	static FixedSizeCache<Long, NodeWrapper> getCache() {
 		return nodeCache;
@@ -509,6 +622,16 @@ class NodeWrapper extends EntityWrapper<org.neo4j.driver.types.Node> implements
 			}
 		}
 
+		public synchronized boolean isLoaded() {
+			return set != null;
+		}
+
+		public synchronized void setPrefetched(final Collection<Relationship> relationships) {
+
+			set = new TreeSet<>((o1, o2) -> { return compare("internalTimestamp", o1, o2); });
+			set.addAll(relationships);
+		}
+
 		public synchronized Iterable<Relationship> getResult(final BoltDatabaseService db, final long id, final String match, final String returnStatement) {
 
 			final String whereStatement         = " WHERE ID(n) = $id ";
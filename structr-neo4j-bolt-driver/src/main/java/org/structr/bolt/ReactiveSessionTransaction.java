@@ -89,6 +89,22 @@ class ReactiveSessionTransaction extends SessionTransaction {
 	@Override
 	public void close() {
 
+		RuntimeException flushException = null;
+
+		if (success) {
+
+			try {
+
+				// send buffered changes before the transaction is committed
+				flush();
+
+			} catch (RuntimeException rex) {
+
+				flushException = rex;
+				success        = false;
+			}
+		}
+
 		if (!success) {
 
 			Mono.from(tx.rollback()).block();
@@ -143,6 +159,10 @@ class ReactiveSessionTransaction extends SessionTransaction {
 			// make sure that the resources are freed
 			session.close();
 		}
+
+		if (flushException != null) {
+			throw flushException;
+		}
 	}
 
 	public boolean isClosed() {
@@ -154,6 +174,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement);
 			return getBoolean(statement, Collections.EMPTY_MAP);
 
@@ -176,6 +197,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 			return Mono.from(tx.run(statement, map).records()).block().get(0).asBoolean();
 
@@ -198,6 +220,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement);
 			return getLong(statement, Collections.EMPTY_MAP);
 
@@ -220,6 +243,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 			return Mono.from(tx.run(statement, map).records()).block().get(0).asLong();
 
@@ -242,6 +266,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 			return Mono.from(tx.run(statement, map).records()).block().get(0).asObject();
 
@@ -264,6 +289,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 			return Mono.from(tx.run(statement, map).records()).block().get(0).asEntity();
 
@@ -286,6 +312,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
 			final RxResult result = tx.run(statement, map);
@@ -314,6 +341,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 			return Mono.from(tx.run(statement, map).records()).block().get(0).asRelationship();
 
@@ -336,6 +364,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 			return Flux.from(tx.run(statement, map).records());
 
@@ -358,6 +387,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 			return new IteratorWrapper<>(Mono.from(tx.run(statement, map).records()).block().get(0).asList(Values.ofString()).iterator());
 
@@ -380,6 +410,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 
 			final Iterable<Map<String, Object>> iterable = Iterables.map(new RecordMapMapper(db), Flux.from(tx.run(statement, map).records()).toIterable());
@@ -407,6 +438,7 @@ class ReactiveSessionTransaction extends SessionTransaction {
 
 		try {
 
+			flush();
 			logQuery(statement, map);
 			Mono.from(tx.run(statement, map).consume()).block();
 
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.bolt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.neo4j.driver.Record;
+import org.neo4j.driver.Value;
+
+/**
+ * The position of a record in a sorted query result, consisting of the
+ * values of the sort keys and the internal id of the entity. A query can
+ * continue after this position with a WHERE clause instead of SKIP, which
+ * makes the cost of a page independent of its offset.
+ *
+ * The position can be encoded as an opaque cursor string for clients.
+ * Each value is stored with its type and, for strings, its length, so
+ * values can contain arbitrary characters.
+ */
+class SeekPosition {
+
+	private static final byte FORMAT_VERSION = 1;
+	private static final byte TYPE_NULL      = 0;
+	private static final byte TYPE_STRING    = 1;
+	private static final byte TYPE_BOOLEAN   = 2;
+	private static final byte TYPE_DOUBLE    = 3;
+	private static final byte TYPE_LONG      = 4;
+
+	private Object[] values = null;
+	private long id         = -1L;
+
+	SeekPosition(final long id, final Object[] values) {
+
+		this.values = values;
+		this.id     = id;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public Object getValue(final int index) {
+		return values[index];
+	}
+
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * Encodes this position as a cursor.
+	 *
+	 * @return the cursor, or null if a sort key value has a type that
+	 * can not be compared in a seek predicate
+	 */
+	public String encode() {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (final DataOutputStream out = new DataOutputStream(bytes)) {
+
+			out.writeByte(FORMAT_VERSION);
+			out.writeLong(id);
+			out.writeInt(values.length);
+
+			for (final Object value : values) {
+
+				if (value == null) {
+
+					out.writeByte(TYPE_NULL);
+
+				} else if (value instanceof String) {
+
+					final byte[] data = ((String)value).getBytes(StandardCharsets.UTF_8);
+
+					out.writeByte(TYPE_STRING);
+					out.writeInt(data.length);
+					out.write(data);
+
+				} else if (value instanceof Boolean) {
+
+					out.writeByte(TYPE_BOOLEAN);
+					out.writeBoolean((Boolean)value);
+
+				} else if (value instanceof Double || value instanceof Float) {
+
+					out.writeByte(TYPE_DOUBLE);
+					out.writeDouble(((Number)value).doubleValue());
+
+				} else if (value instanceof Number) {
+
+					out.writeByte(TYPE_LONG);
+					out.writeLong(((Number)value).longValue());
+
+				} else {
+
+					// other types cannot be compared in a seek predicate
+					return null;
+				}
+			}
+
+		} catch (IOException ioex) {
+
+			// not possible with an in-memory stream
+			return null;
+		}
+
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+	}
+
+	public static SeekPosition fromRecord(final Record record, final int sortKeyCount) {
+
+		final Object[] values = new Object[sortKeyCount];
+
+		for (int i=0; i<sortKeyCount; i++) {
+
+			final Value value = record.get("sortKey" + i);
+
+			values[i] = value.isNull() ? null : value.asObject();
+		}
+
+		return new SeekPosition(record.get("seekId").asLong(), values);
+	}
+
+	/**
+	 * Decodes a cursor that was created by {@link #encode()}.
+	 *
+	 * @param cursor the cursor
+	 * @param sortKeyCount the expected number of sort key values
+	 *
+	 * @return the position, or null if the cursor is invalid or does not match the sort order
+	 */
+	public static SeekPosition decode(final String cursor, final int sortKeyCount) {
+
+		try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+
+			if (in.readByte() != FORMAT_VERSION) {
+				return null;
+			}
+
+			final long id    = in.readLong();
+			final int length = in.readInt();
+
+			if (length != sortKeyCount) {
+				return null;
+			}
+
+			final Object[] values = new Object[length];
+
+			for (int i=0; i<length; i++) {
+
+				switch (in.readByte()) {
+
+					case TYPE_NULL:
+						values[i] = null;
+						break;
+
+					case TYPE_STRING:
+
+						final int size = in.readInt();
+						if (size < 0 || size > in.available()) {
+							return null;
+						}
+
+						final byte[] data = new byte[size];
+
+						in.readFully(data);
+
+						values[i] = new String(data, StandardCharsets.UTF_8);
+						break;
+
+					case TYPE_BOOLEAN:
+						values[i] = in.readBoolean();
+						break;
+
+					case TYPE_DOUBLE:
+						values[i] = in.readDouble();
+						break;
+
+					case TYPE_LONG:
+						values[i] = in.readLong();
+						break;
+
+					default:
+						return null;
+				}
+			}
+
+			// trailing data means that the cursor was not created by encode()
+			if (in.available() > 0) {
+				return null;
+			}
+
+			return new SeekPosition(id, values);
+
+		} catch (IllegalArgumentException | IOException ex) {
+
+			// invalid cursor
+			return null;
+		}
+	}
+}
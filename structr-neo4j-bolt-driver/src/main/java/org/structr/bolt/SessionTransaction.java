@@ -46,6 +46,7 @@ abstract class SessionTransaction implements org.structr.api.Transaction {
 	protected final Set<EntityWrapper> modifiedEntities = new HashSet<>();
 	protected final Set<Long> deletedNodes              = new HashSet<>();
 	protected final Set<Long> deletedRels               = new HashSet<>();
+	protected final WriteBehindBuffer writeBuffer       = new WriteBehindBuffer();
 	protected final Object transactionKey               = new Object();
 	protected BoltDatabaseService db                    = null;
 	protected long transactionId                        = 0L;
@@ -100,6 +101,54 @@ abstract class SessionTransaction implements org.structr.api.Transaction {
 		}
 	}
 
+	public boolean isWriteBehind() {
+		return db.isWriteBehindEnabled();
+	}
+
+	public void setPropertyDeferred(final String prefix, final long id, final String key, final Object value) {
+
+		writeBuffer.setProperty(prefix, id, key, value);
+
+		flushIfFull();
+	}
+
+	public void setPropertiesDeferred(final String prefix, final long id, final Map<String, Object> values) {
+
+		writeBuffer.setProperties(prefix, id, values);
+
+		flushIfFull();
+	}
+
+	public void addLabelDeferred(final String prefix, final long id, final String label) {
+
+		writeBuffer.addLabel(prefix, id, label);
+
+		flushIfFull();
+	}
+
+	public void removeLabelDeferred(final String prefix, final long id, final String label) {
+
+		writeBuffer.removeLabel(prefix, id, label);
+
+		flushIfFull();
+	}
+
+	/**
+	 * Sends all buffered changes to the database. This method is called
+	 * before each statement that could observe the changes, and before
+	 * the transaction is committed.
+	 */
+	public void flush() {
+
+		if (!writeBuffer.isEmpty()) {
+
+			for (final Map.Entry<String, Map<String, Object>> statement : writeBuffer.drain().entrySet()) {
+
+				set(statement.getKey(), statement.getValue());
+			}
+		}
+	}
+
 	public void deleted(final NodeWrapper wrapper) {
 		deletedNodes.add(wrapper.getDatabaseId());
 	}
@@ -143,6 +192,14 @@ abstract class SessionTransaction implements org.structr.api.Transaction {
 		return transactionKey;
 	}
 
+	// ----- private methods -----
+	private void flushIfFull() {
+
+		if (writeBuffer.isFull()) {
+			flush();
+		}
+	}
+
 	// ----- public static methods -----
 	public static RuntimeException translateClientException(final ClientException cex) {
 
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.bolt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Collects property and label changes of a transaction so that they can be
+ * sent to the database in a few UNWIND statements instead of one statement
+ * per change. Changes are grouped by query prefix (i.e. node or relationship
+ * and tenant), multiple property changes of the same entity are merged.
+ */
+class WriteBehindBuffer {
+
+	private static final int MAX_BUFFERED_ROWS = 10_000;
+
+	private final Map<String, Map<Long, Map<String, Object>>> properties = new LinkedHashMap<>();
+	private final Map<String, Map<String, Set<Long>>> addedLabels        = new LinkedHashMap<>();
+	private final Map<String, Map<String, Set<Long>>> removedLabels      = new LinkedHashMap<>();
+	private int size                                                     = 0;
+
+	public void setProperties(final String prefix, final long id, final Map<String, Object> values) {
+
+		final Map<Long, Map<String, Object>> rows = properties.computeIfAbsent(prefix, k -> new LinkedHashMap<>());
+		Map<String, Object> row                   = rows.get(id);
+
+		if (row == null) {
+
+			row = new HashMap<>();
+			rows.put(id, row);
+
+			size++;
+		}
+
+		// null values remove the property
+		row.putAll(values);
+	}
+
+	public void setProperty(final String prefix, final long id, final String key, final Object value) {
+
+		final Map<String, Object> values = new HashMap<>(2);
+
+		values.put(key, value);
+
+		setProperties(prefix, id, values);
+	}
+
+	public void addLabel(final String prefix, final long id, final String label) {
+		updateLabel(addedLabels, removedLabels, prefix, id, label);
+	}
+
+	public void removeLabel(final String prefix, final long id, final String label) {
+		updateLabel(removedLabels, addedLabels, prefix, id, label);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean isFull() {
+		return size >= MAX_BUFFERED_ROWS;
+	}
+
+	/**
+	 * Returns the statements that apply the buffered changes, together
+	 * with their parameters, and clears this buffer.
+	 *
+	 * @return a map of statements and parameters, in execution order
+	 */
+	public Map<String, Map<String, Object>> drain() {
+
+		final Map<String, Map<String, Object>> statements = new LinkedHashMap<>();
+
+		for (final Entry<String, Map<Long, Map<String, Object>>> entry : properties.entrySet()) {
+
+			final List<Map<String, Object>> rows = new ArrayList<>(entry.getValue().size());
+
+			for (final Entry<Long, Map<String, Object>> row : entry.getValue().entrySet()) {
+
+				final Map<String, Object> data = new HashMap<>(4);
+
+				data.put("id",         row.getKey());
+				data.put("properties", row.getValue());
+
+				rows.add(data);
+			}
+
+			statements.put("UNWIND $rows AS row " + entry.getKey() + " WHERE ID(n) = row.id SET n += row.properties", parameters("rows", rows));
+		}
+
+		drainLabels(statements, addedLabels, "SET");
+		drainLabels(statements, removedLabels, "REMOVE");
+
+		properties.clear();
+		addedLabels.clear();
+		removedLabels.clear();
+
+		size = 0;
+
+		return statements;
+	}
+
+	// ----- private methods -----
+	private void updateLabel(final Map<String, Map<String, Set<Long>>> target, final Map<String, Map<String, Set<Long>>> opposite, final String prefix, final long id, final String label) {
+
+		final Map<String, Set<Long>> oppositeLabels = opposite.get(prefix);
+		if (oppositeLabels != null) {
+
+			final Set<Long> ids = oppositeLabels.get(label);
+
+			// only the last change of a label is relevant
+			if (ids != null && ids.remove(id)) {
+				size--;
+			}
+		}
+
+		if (target.computeIfAbsent(prefix, k -> new LinkedHashMap<>()).computeIfAbsent(label, k -> new LinkedHashSet<>()).add(id)) {
+			size++;
+		}
+	}
+
+	private void drainLabels(final Map<String, Map<String, Object>> statements, final Map<String, Map<String, Set<Long>>> labels, final String operation) {
+
+		for (final Entry<String, Map<String, Set<Long>>> entry : labels.entrySet()) {
+
+			for (final Entry<String, Set<Long>> label : entry.getValue().entrySet()) {
+
+				if (!label.getValue().isEmpty()) {
+
+					statements.put("UNWIND $ids AS id " + entry.getKey() + " WHERE ID(n) = id " + operation + " n:" + label.getKey(), parameters("ids", new ArrayList<>(label.getValue())));
+				}
+			}
+		}
+	}
+
+	private Map<String, Object> parameters(final String key, final Object value) {
+
+		final Map<String, Object> map = new HashMap<>();
+
+		map.put(key, value);
+
+		return map;
+	}
+}
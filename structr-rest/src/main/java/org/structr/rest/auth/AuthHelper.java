@@ -40,6 +40,7 @@ import org.structr.common.error.UnlicensedScriptException;
 import org.structr.common.event.RuntimeEventLog;
 import org.structr.core.app.App;
 import org.structr.core.app.StructrApp;
+import org.structr.core.auth.SessionIdIndex;
 import org.structr.core.auth.exception.*;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.Principal;
@@ -203,8 +204,20 @@ public class AuthHelper {
 
 	public static Principal getPrincipalForSessionId(final String sessionId, final boolean isPing) {
 
-		return getPrincipalForCredential(StructrApp.key(Principal.class, "sessionIds"), new String[]{ sessionId }, isPing);
+		// fast path: verified lookup in the in-memory index
+		final Principal indexed = SessionIdIndex.getPrincipal(sessionId);
+		if (indexed != null) {
 
+			return indexed;
+		}
+
+		final Principal principal = getPrincipalForCredential(StructrApp.key(Principal.class, "sessionIds"), new String[]{ sessionId }, isPing);
+		if (principal != null) {
+
+			SessionIdIndex.put(sessionId, principal);
+		}
+
+		return principal;
 	}
 
 	public static Principal getPrincipalForAccessToken(String token, PropertyKey<String> eMailKey) throws FrameworkException {
@@ -32,6 +32,7 @@ import org.structr.core.Services;
 import org.structr.core.app.App;
 import org.structr.core.app.Query;
 import org.structr.core.app.StructrApp;
+import org.structr.core.auth.SessionIdIndex;
 import org.structr.core.entity.Principal;
 import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyKey;
@@ -120,6 +121,8 @@ public class SessionHelper {
 			return;
 		}
 
+		SessionIdIndex.remove(sessionId);
+
 		final App app                            = StructrApp.getInstance();
 		final PropertyKey<String[]> sessionIdKey = StructrApp.key(Principal.class, "sessionIds");
 		final Query<Principal> query             = app.nodeQuery(Principal.class).and(sessionIdKey, new String[]{sessionId}).disableSorting();
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.rest.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.structr.api.util.LatencyHistogram;
+
+/**
+ * Collects the render queue depth, output stalls and time to first byte
+ * of asynchronously rendered pages.
+ */
+public class AsyncOutputMetrics {
+
+	private static final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+	private static final LongAdder queuedRenderings       = new LongAdder();
+	private static final LongAdder activeRenderings       = new LongAdder();
+	private static final AtomicLong maxQueueDepth         = new AtomicLong();
+	private static final LongAdder rejectedRenderings     = new LongAdder();
+	private static final LongAdder producerPauses         = new LongAdder();
+	private static final LongAdder producerStallTime      = new LongAdder();
+	private static final LongAdder abortedOutputs         = new LongAdder();
+
+	public static void renderQueued(final int depth) {
+
+		queuedRenderings.increment();
+
+		long max = maxQueueDepth.get();
+		while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+			max = maxQueueDepth.get();
+		}
+	}
+
+	public static void renderStarted() {
+
+		queuedRenderings.decrement();
+		activeRenderings.increment();
+	}
+
+	public static void renderFinished() {
+		activeRenderings.decrement();
+	}
+
+	public static void renderRejected() {
+
+		queuedRenderings.decrement();
+		rejectedRenderings.increment();
+	}
+
+	/**
+	 * Called when rendering paused because the output buffer was full,
+	 * and again with the pause duration on resume.
+	 *
+	 * @param nanos the pause duration or 0 when the pause starts
+	 */
+	public static void producerPaused(final long nanos) {
+
+		if (nanos == 0L) {
+
+			producerPauses.increment();
+
+		} else {
+
+			producerStallTime.add(nanos);
+		}
+	}
+
+	public static void firstByteWritten(final long nanos) {
+		timeToFirstByte.record(nanos);
+	}
+
+	public static void outputAborted() {
+		abortedOutputs.increment();
+	}
+
+	public static Map<String, Object> getStatus() {
+
+		final Map<String, Object> status = new LinkedHashMap<>();
+
+		status.put("queuedRenderings",     queuedRenderings.sum());
+		status.put("activeRenderings",     activeRenderings.sum());
+		status.put("maxQueueDepth",        maxQueueDepth.get());
+		status.put("rejectedRenderings",   rejectedRenderings.sum());
+		status.put("producerPauses",       producerPauses.sum());
+		status.put("producerStallTimeMs",  producerStallTime.sum() / 1_000_000L);
+		status.put("abortedOutputs",       abortedOutputs.sum());
+		status.put("timeToFirstByteAvgMs", timeToFirstByte.getAverage() / 1_000_000.0);
+		status.put("timeToFirstByteP99Ms", timeToFirstByte.getPercentile(99.0) / 1_000_000.0);
+		status.put("timeToFirstByteMaxMs", timeToFirstByte.getMax() / 1_000_000.0);
+
+		return status;
+	}
+}
@@ -53,6 +53,7 @@ import org.structr.core.property.PropertyMap;
 import org.structr.rest.RestMethodResult;
 import org.structr.rest.exception.IllegalPathException;
 import org.structr.rest.exception.NotFoundException;
+import org.structr.rest.servlet.JsonRestServlet;
 import org.structr.schema.SchemaHelper;
 
 /**
@@ -126,6 +127,7 @@ public class TypeResource extends WrappingResource {
 			}
 
 			collectSearchAttributes(query);
+			collectPrefetchKeys(query);
 
 			if (virtualType != null) {
 
@@ -390,6 +392,26 @@ public class TypeResource extends WrappingResource {
 	}
 
 	// ----- private methods -----
+	private void collectPrefetchKeys(final Query query) {
+
+		final HttpServletRequest request = securityContext.getRequest();
+		if (request != null) {
+
+			final String prefetch = request.getParameter(JsonRestServlet.REQUEST_PARAMETER_PREFETCH);
+			if (prefetch != null) {
+
+				for (final String name : prefetch.split("[,]+")) {
+
+					final PropertyKey key = StructrApp.getConfiguration().getPropertyKeyForJSONName(entityClass, name.trim(), false);
+					if (key != null) {
+
+						query.prefetch(key);
+					}
+				}
+			}
+		}
+	}
+
 	private Relation getRelationshipTemplate() {
 
 		try {
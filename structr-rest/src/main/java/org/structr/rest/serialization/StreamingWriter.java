@@ -19,28 +19,34 @@
 package org.structr.rest.serialization;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import org.apache.commons.collections4.ListUtils;
-import org.apache.commons.lang3.exception.ExceptionUtils;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.jetty.io.QuietException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.structr.api.NotFoundException;
 import org.structr.api.config.Settings;
 import org.structr.api.util.ProgressWatcher;
 import org.structr.api.util.ResultStream;
@@ -52,6 +58,11 @@ import org.structr.core.Value;
 import org.structr.core.app.StructrApp;
 import org.structr.core.converter.PropertyConverter;
 import org.structr.core.entity.AbstractNode;
+import org.structr.core.entity.Principal;
+import org.structr.core.graph.NodeFactory;
+import org.structr.core.graph.NodeInterface;
+import org.structr.core.graph.RelationshipFactory;
+import org.structr.core.graph.RelationshipInterface;
 import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyKey;
 import org.structr.core.property.PropertyMap;
@@ -65,9 +76,11 @@ public abstract class StreamingWriter {
 
 	private static final Logger logger                   = LoggerFactory.getLogger(StreamingWriter.class.getName());
 	private static final Set<PropertyKey> idTypeNameOnly = new LinkedHashSet<>(Arrays.asList(GraphObject.id, AbstractNode.type, AbstractNode.name));
+	private static final AtomicInteger threadCount       = new AtomicInteger();
+	private static final int parallelChunkSize           = 16;
+	private static ThreadPoolExecutor threadPool         = null;
 
-	private final ExecutorService threadPool              = Executors.newWorkStealingPool();
-	private final Map<String, Serializer> serializerCache = new LinkedHashMap<>();
+	private final Map<String, Serializer> serializerCache = new ConcurrentHashMap<>();
 	private final Map<String, Serializer> serializers     = new LinkedHashMap<>();
 	private final Serializer<GraphObject> root            = new RootSerializer();
 	private final Set<String> nonSerializerClasses        = new LinkedHashSet<>();
@@ -80,7 +93,7 @@ public abstract class StreamingWriter {
 	protected boolean indent                              = true;
 	protected boolean compactNestedProperties             = true;
 	protected boolean wrapSingleResultInArray             = false;
-	private int skippedDeletedObjects                     = 0;
+	private final AtomicInteger skippedDeletedObjects     = new AtomicInteger();
 
 	public abstract RestWriter getRestWriter(final SecurityContext securityContext, final Writer writer);
 
@@ -182,6 +195,11 @@ public abstract class StreamingWriter {
 					rootWriter.name("query_time").value(queryTime);
 				}
 
+				final String nextCursor = result.getNextCursor();
+				if (nextCursor != null) {
+					rootWriter.name("next_cursor").value(nextCursor);
+				}
+
 				if (actualResultCount == Settings.ResultCountSoftLimit.getValue()) {
 
 					rootWriter.name("info").beginObject();
@@ -193,17 +211,18 @@ public abstract class StreamingWriter {
 				}
 
 				// in the future more conditions could be added to show different warnings
-				final boolean hasWarnings = (skippedDeletedObjects > 0);
+				final int skipped         = skippedDeletedObjects.get();
+				final boolean hasWarnings = (skipped > 0);
 
 				if (hasWarnings) {
 
 					rootWriter.name("warnings").beginArray();
 
-					if (skippedDeletedObjects > 0) {
+					if (skipped > 0) {
 						rootWriter.beginObject();
 						rootWriter.name("token").value("SKIPPED_OBJECTS");
-						rootWriter.name("message").value("Skipped serializing " + skippedDeletedObjects + " object(s) because they were deleted between the creation and the serialization of the result. The result_count will differ from the number of returned results");
-						rootWriter.name("skipped").value(skippedDeletedObjects);
+						rootWriter.name("message").value("Skipped serializing " + skipped + " object(s) because they were deleted between the creation and the serialization of the result. The result_count will differ from the number of returned results");
+						rootWriter.name("skipped").value(skipped);
 						rootWriter.endObject();
 					}
 
@@ -237,8 +256,6 @@ public abstract class StreamingWriter {
 		// finished
 		rootWriter.endObject();
 		rootWriter.endDocument();
-
-		threadPool.shutdown();
 	}
 
 	public void setResultKeyName(final String resultKeyName) {
@@ -326,6 +343,17 @@ public abstract class StreamingWriter {
 		return 1;
 	}
 
+	/**
+	 * Indicates whether the {@link RestWriter} of this streaming writer
+	 * supports raw output, which is required to write the buffers of
+	 * parallel serialization.
+	 *
+	 * @return whether parallel serialization is supported
+	 */
+	protected boolean isParallelizable() {
+		return false;
+	}
+
 	private void configureWriter(final RestWriter writer) {
 
 		if (indent && !writer.getSecurityContext().doMultiThreadedJsonOutput()) {
@@ -409,7 +437,7 @@ public abstract class StreamingWriter {
 				visitedObjects.add(hashCode);
 
 				if (source.getPropertyContainer() != null && source.getPropertyContainer().isDeleted()) {
-					skippedDeletedObjects++;
+					skippedDeletedObjects.incrementAndGet();
 					return 1;
 				}
 
@@ -508,27 +536,35 @@ public abstract class StreamingWriter {
 				// prevent endless recursion by pruning at depth n
 				if (depth <= outputNestingDepth) {
 
-					// first value?
-					if (firstValue != null) {
-						serializeRoot(parentWriter, firstValue, localPropertyView, depth, visitedObjects);
-						actualResultCount++;
-					}
+					// large root collections can be serialized in parallel
+					if (depth == 0 && secondValue != null && isParallelizable() && securityContext.doMultiThreadedJsonOutput()) {
 
-					// second value?
-					if (secondValue != null) {
+						actualResultCount = serializeParallel(parentWriter, firstValue, secondValue, iterator, localPropertyView, visitedObjects, softLimit);
 
-						serializeRoot(parentWriter, secondValue, localPropertyView, depth, visitedObjects);
-						actualResultCount++;
+					} else {
 
-						// more values?
-						while (iterator.hasNext()) {
+						// first value?
+						if (firstValue != null) {
+							serializeRoot(parentWriter, firstValue, localPropertyView, depth, visitedObjects);
+							actualResultCount++;
+						}
 
-							serializeRoot(parentWriter, iterator.next(), localPropertyView, depth, visitedObjects);
+						// second value?
+						if (secondValue != null) {
 
+							serializeRoot(parentWriter, secondValue, localPropertyView, depth, visitedObjects);
 							actualResultCount++;
 
- 							if (actualResultCount == softLimit) {
-								break;
+							// more values?
+							while (iterator.hasNext()) {
+
+								serializeRoot(parentWriter, iterator.next(), localPropertyView, depth, visitedObjects);
+
+								actualResultCount++;
+
+								if (actualResultCount == softLimit) {
+									break;
+								}
 							}
 						}
 					}
@@ -600,66 +636,179 @@ public abstract class StreamingWriter {
 	}
 
 	// ----- private methods -----
-	private void doParallel(final List list, final RestWriter parentWriter, final Set<Integer> visitedObjects, final Operation op) {
+	private long serializeParallel(final RestWriter parentWriter, final Object firstValue, final Object secondValue, final Iterator iterator, final String localPropertyView, final Set<Integer> visitedObjects, final int softLimit) throws IOException {
 
-		final SecurityContext securityContext = parentWriter.getSecurityContext();
-		final int numberOfPartitions          = (int)Math.rint(Math.log(list.size())) + 1;
-		final List<List> partitions           = ListUtils.partition(list, numberOfPartitions);
-		final List<Future<String>> futures    = new LinkedList<>();
+		final int threshold      = Settings.JsonParallelizationThreshold.getValue();
+		final List<Object> head  = new ArrayList<>();
+		long actualResultCount   = 0;
 
-		for (final List partition : partitions) {
+		head.add(firstValue);
+		head.add(secondValue);
 
-			futures.add(threadPool.submit(() -> {
+		// read ahead to find out whether the collection is large enough
+		while (head.size() < threshold && head.size() < softLimit && iterator.hasNext()) {
+			head.add(iterator.next());
+		}
 
-				final StringWriter buffer = new StringWriter();
+		if (head.size() < threshold) {
 
-				// avoid deadlocks by preventing writes in this transaction
-				securityContext.setReadOnlyTransaction();
+			for (final Object value : head) {
 
-				try (final Tx tx = StructrApp.getInstance(securityContext).tx(false, false, false)) {
+				root.serializeRoot(parentWriter, value, localPropertyView, 0, visitedObjects);
+				actualResultCount++;
+			}
 
-					final RestWriter bufferingRestWriter = getRestWriter(securityContext, buffer);
-					final Set<Integer> nestedObjects     = new LinkedHashSet<>(visitedObjects);
-					configureWriter(bufferingRestWriter);
+			return actualResultCount;
+		}
 
-					bufferingRestWriter.beginArray();
+		try (final ParallelSerialization parallel = new ParallelSerialization(parentWriter, localPropertyView, visitedObjects)) {
 
-					for (final Object o : partition) {
+			for (final Object value : head) {
 
-						op.run(bufferingRestWriter, o, nestedObjects);
-					}
+				parallel.add(value);
+				actualResultCount++;
+			}
 
-					bufferingRestWriter.endArray();
-					bufferingRestWriter.flush();
+			while (actualResultCount < softLimit && iterator.hasNext()) {
 
-					tx.success();
-				}
+				parallel.add(iterator.next());
+				actualResultCount++;
+			}
 
-				final String data = buffer.toString();
-				final String sub  = data.substring(1, data.length() - 1);
+			parallel.finish();
+		}
 
-				return sub;
+		return actualResultCount;
+	}
 
-			}));
-		}
+	/**
+	 * Returns a copy of the given security context for a worker thread, or
+	 * null if the user of the request is not visible in the transaction of
+	 * the worker. Must be called in the transaction of the worker.
+	 */
+	private SecurityContext getWorkerSecurityContext(final SecurityContext securityContext) {
 
-		for (final Iterator<Future<String>> it = futures.iterator(); it.hasNext();) {
+		final SecurityContext workerContext;
 
-			try {
+		if (securityContext.isSuperUserSecurityContext()) {
 
-				final Future<String> future = it.next();
-				final String raw            = future.get();
+			workerContext = SecurityContext.getSuperUserInstance(securityContext.getRequest());
+
+		} else {
 
-				parentWriter.raw(raw);
+			final Principal user = securityContext.getUser(false);
+			Principal workerUser = null;
 
-				if (it.hasNext()) {
-					parentWriter.raw(",");
+			if (user != null) {
+
+				workerUser = (Principal)rebind(SecurityContext.getSuperUserInstance(), user);
+				if (workerUser == null) {
+
+					return null;
 				}
+			}
+
+			workerContext = SecurityContext.getInstance(workerUser, securityContext.getRequest(), securityContext.getAccessMode());
+		}
+
+		// avoid deadlocks by preventing writes in the worker transactions
+		workerContext.setReadOnlyTransaction();
+
+		return workerContext;
+	}
 
-			} catch (Throwable t) {
-				logger.error(ExceptionUtils.getStackTrace(t));
+	/**
+	 * Instantiates the given node or relationship again in the transaction
+	 * of the current thread, with the given security context. Returns null
+	 * for all other values, and for objects that are not visible in the
+	 * current transaction, e.g. because they were created in a transaction
+	 * that is not committed yet.
+	 */
+	private GraphObject rebind(final SecurityContext securityContext, final Object value) {
+
+		try {
+
+			if (value instanceof NodeInterface) {
+
+				final NodeInterface node = (NodeInterface)value;
+
+				return new NodeFactory<>(securityContext).instantiate(StructrApp.getInstance().getDatabaseService().getNodeById(node.getNode().getId()));
 			}
+
+			if (value instanceof RelationshipInterface) {
+
+				final RelationshipInterface rel = (RelationshipInterface)value;
+
+				return new RelationshipFactory<>(securityContext).instantiate(StructrApp.getInstance().getDatabaseService().getRelationshipById(rel.getRelationship().getId()));
+			}
+
+		} catch (NotFoundException nfex) {
+			// not visible in this transaction
+		}
+
+		return null;
+	}
+
+	/**
+	 * Serializes the given values into a string, without the surrounding
+	 * brackets.
+	 */
+	private String serializeValues(final SecurityContext securityContext, final List<Object> values, final RestWriter parentWriter, final String propertyView, final Set<Integer> visitedObjects) throws IOException {
+
+		final StringWriter buffer            = new StringWriter();
+		final RestWriter bufferingRestWriter = getRestWriter(securityContext, buffer);
+		final Set<Integer> nestedObjects     = new LinkedHashSet<>(visitedObjects);
+
+		configureWriter(bufferingRestWriter);
+		bufferingRestWriter.setPageSize(parentWriter.getPageSize());
+
+		bufferingRestWriter.beginArray();
+
+		for (final Object value : values) {
+
+			root.serializeRoot(bufferingRestWriter, value, propertyView, 0, nestedObjects);
+		}
+
+		bufferingRestWriter.endArray();
+		bufferingRestWriter.flush();
+
+		// strip the surrounding brackets
+		final String data = buffer.toString();
+
+		return data.substring(1, data.length() - 1);
+	}
+
+	/**
+	 * Returns the shared thread pool for parallel serialization, adjusted
+	 * to the given number of threads.
+	 */
+	private static synchronized ThreadPoolExecutor getThreadPool(final int threads) {
+
+		if (threadPool == null) {
+
+			threadPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+
+				final Thread thread = new Thread(r, "JsonSerializer-" + threadCount.incrementAndGet());
+
+				thread.setDaemon(true);
+
+				return thread;
+			});
+
+			threadPool.allowCoreThreadTimeOut(true);
+
+		} else if (threads > threadPool.getMaximumPoolSize()) {
+
+			threadPool.setMaximumPoolSize(threads);
+			threadPool.setCorePoolSize(threads);
+
+		} else if (threads < threadPool.getMaximumPoolSize()) {
+
+			threadPool.setCorePoolSize(threads);
+			threadPool.setMaximumPoolSize(threads);
 		}
+
+		return threadPool;
 	}
 
 	private String getString(final Object value) {
@@ -671,9 +820,171 @@ public abstract class StreamingWriter {
 		throw new NullPointerException();
 	}
 
-	private interface Operation {
+	/**
+	 * Serializes the elements of a collection in chunks on the shared
+	 * thread pool and writes the resulting buffers to the parent writer in
+	 * the original order. Each chunk is serialized in its own read-only
+	 * transaction, with a copy of the security context, and its nodes and
+	 * relationships are instantiated again in that transaction. Chunks that
+	 * can not be serialized by a worker, e.g. because they contain other
+	 * values or objects that were created in the request transaction, are
+	 * serialized in the request thread instead. The number of chunks in
+	 * flight is bounded, so a large result is never buffered completely.
+	 */
+	private class ParallelSerialization implements AutoCloseable {
+
+		private final Deque<Chunk> pending      = new ArrayDeque<>();
+		private ThreadPoolExecutor executor     = null;
+		private List<Object> chunk              = new ArrayList<>(parallelChunkSize);
+		private boolean first                   = true;
+		private Set<Integer> visitedObjects     = null;
+		private SecurityContext securityContext = null;
+		private RestWriter parentWriter         = null;
+		private String propertyView             = null;
+		private int maxPending                  = 0;
+
+		public ParallelSerialization(final RestWriter parentWriter, final String propertyView, final Set<Integer> visitedObjects) {
+
+			final int threads = Math.max(1, Settings.JsonParallelizationThreads.getValue());
+
+			this.securityContext = parentWriter.getSecurityContext();
+			this.executor        = getThreadPool(threads);
+			this.maxPending      = threads * 2;
+			this.visitedObjects  = visitedObjects;
+			this.parentWriter    = parentWriter;
+			this.propertyView    = propertyView;
+		}
+
+		public void add(final Object value) throws IOException {
+
+			chunk.add(value);
+
+			if (chunk.size() >= parallelChunkSize) {
+				submitChunk();
+			}
+		}
+
+		public void finish() throws IOException {
+
+			if (!chunk.isEmpty()) {
+				submitChunk();
+			}
+
+			while (!pending.isEmpty()) {
+				writeNext();
+			}
+		}
+
+		@Override
+		public void close() {
+
+			// only relevant if serialization was aborted
+			for (final Chunk chunk : pending) {
+				chunk.future.cancel(false);
+			}
+
+			pending.clear();
+		}
+
+		// ----- private methods -----
+		private void submitChunk() throws IOException {
+
+			final List<Object> values = chunk;
+
+			chunk = new ArrayList<>(parallelChunkSize);
+
+			pending.add(new Chunk(values, executor.submit(() -> serializeChunk(values))));
+
+			while (pending.size() > maxPending) {
+				writeNext();
+			}
+		}
+
+		private void writeNext() throws IOException {
+
+			try {
+
+				final Chunk next = pending.poll();
+				String data      = next.future.get();
+
+				if (data == null) {
+
+					data = serializeValues(securityContext, next.values, parentWriter, propertyView, visitedObjects);
+				}
+
+				if (!data.isEmpty()) {
+
+					parentWriter.raw(first ? data : "," + data);
+					first = false;
+				}
+
+			} catch (InterruptedException iex) {
+
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for parallel JSON serialization");
+
+			} catch (ExecutionException eex) {
+
+				final Throwable cause = eex.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException)cause;
+				}
+
+				throw new IOException("Error in parallel JSON serialization", cause);
+			}
+		}
+
+		/**
+		 * Serializes the given values in a worker thread, or returns null if
+		 * they must be serialized in the request thread.
+		 */
+		private String serializeChunk(final List<Object> values) throws Exception {
+
+			final SecurityContext txContext = SecurityContext.getSuperUserInstance();
+
+			// avoid deadlocks by preventing writes in the worker transactions
+			txContext.setReadOnlyTransaction();
+
+			try (final Tx tx = StructrApp.getInstance(txContext).tx(false, false, false)) {
+
+				final SecurityContext workerContext = getWorkerSecurityContext(securityContext);
+				if (workerContext == null) {
+
+					return null;
+				}
+
+				final List<Object> workerValues = new ArrayList<>(values.size());
+
+				for (final Object value : values) {
+
+					final GraphObject obj = rebind(workerContext, value);
+					if (obj == null) {
+
+						return null;
+					}
+
+					workerValues.add(obj);
+				}
+
+				final String data = serializeValues(workerContext, workerValues, parentWriter, propertyView, visitedObjects);
+
+				tx.success();
+
+				return data;
+			}
+		}
+	}
+
+	private static class Chunk {
+
+		private List<Object> values   = null;
+		private Future<String> future = null;
 
-		public void run(final RestWriter writer, final Object o, final Set<Integer> visitedObjects) throws IOException;
+		public Chunk(final List<Object> values, final Future<String> future) {
+
+			this.values = values;
+			this.future = future;
+		}
 	}
 
 	private static class JsonProgressWatcher implements ProgressWatcher, AutoCloseable {
@@ -30,14 +30,15 @@ import org.structr.common.error.FrameworkException;
 import org.structr.core.Services;
 import org.structr.core.app.App;
 import org.structr.core.app.StructrApp;
+import org.structr.core.auth.SessionIdIndex;
 import org.structr.core.entity.SessionDataNode;
 import org.structr.core.graph.NodeAttribute;
 import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyMap;
+import org.structr.rest.auth.AuthHelper;
 import java.util.concurrent.ConcurrentHashMap;
 import org.structr.common.SecurityContext;
 import org.structr.core.entity.Principal;
-import org.structr.core.property.PropertyKey;
 
 /**
  */
@@ -58,9 +59,7 @@ public class StructrSessionDataStore extends AbstractSessionDataStore {
 
 		try (final Tx tx = app.tx()) {
 
-			final PropertyKey<String[]> key = StructrApp.key(Principal.class, "sessionIds");
-			final String[] value            = new String[] { id };
-			final Principal user            = StructrApp.getInstance().nodeQuery(Principal.class).and(key, value).disableSorting().getFirst();
+			final Principal user = AuthHelper.getPrincipalForSessionId(id);
 
 			if (user != null) {
 
@@ -197,6 +196,8 @@ public class StructrSessionDataStore extends AbstractSessionDataStore {
 	@Override
 	public boolean delete(final String id) throws Exception {
 
+		SessionIdIndex.remove(id);
+
 		if (anonymousSessionCache.containsKey(id)) {
 			anonymousSessionCache.remove(id);
 			return true;
@@ -38,7 +38,13 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.config.Settings;
+import org.structr.api.util.CacheGovernor;
+import org.structr.api.util.RecordQueueMetrics;
+import org.structr.common.fulltext.FulltextIndexingMetrics;
 import org.structr.core.Services;
+import org.structr.core.graph.TransactionCommand;
+import org.structr.core.script.polyglot.ScriptingMetrics;
+import org.structr.rest.common.AsyncOutputMetrics;
 import org.structr.rest.common.Stats;
 import org.structr.rest.service.HttpService;
 
@@ -143,6 +149,127 @@ public class HealthCheckServlet extends AbstractDataServlet {
 							);
 						}
 
+						{
+							// cache memory governor
+							final List<Map<String, Object>> measurements = new LinkedList<>();
+							final Map<String, Object> status             = CacheGovernor.getInstance().getStatus();
+							final String governorStatus                  = Boolean.TRUE.equals(status.get("underPressure")) ? "warn" : "pass";
+
+							details.put("cache:governor", measurements);
+
+							measurements.add(embedValue("old generation usage", "system", status.get("usage"),          "%",     governorStatus));
+							measurements.add(embedValue("estimated cache size", "system", status.get("estimatedBytes"), "bytes", governorStatus));
+							measurements.add(embedValue("shrink count",         "system", status.get("shrinkCount"),    null,    governorStatus));
+							measurements.add(embedValue("grow count",           "system", status.get("growCount"),      null,    governorStatus));
+
+							for (final Map<String, Object> cache : (List<Map<String, Object>>)status.get("caches")) {
+
+								final String name = (String)cache.get("name");
+
+								measurements.add(embedValue(name, "cache", cache.get("limit"),      null, governorStatus, "limit"));
+								measurements.add(embedValue(name, "cache", cache.get("configured"), null, governorStatus, "configured"));
+								measurements.add(embedValue(name, "cache", cache.get("hits"),       null, governorStatus, "hits"));
+								measurements.add(embedValue(name, "cache", cache.get("misses"),     null, governorStatus, "misses"));
+							}
+
+							for (final Map<String, Object> decision : (List<Map<String, Object>>)status.get("decisions")) {
+
+								measurements.add(embedValue((String)decision.get("cache"), "cache", decision.get("to"), null, governorStatus, decision.get("action") + " from " + decision.get("from")));
+							}
+						}
+
+						{
+							// result streaming queues
+							final Map<String, Object> status = RecordQueueMetrics.getStatus();
+
+							embedGroup(details, "database:recordQueue",
+								embedValue("queued records",      "system", status.get("queuedRecords"),       null, "pass"),
+								embedValue("max queue depth",     "system", status.get("maxQueueDepth"),       null, "pass"),
+								embedValue("producer pauses",     "system", status.get("producerPauses"),      null, "pass"),
+								embedValue("producer stall time", "system", status.get("producerStallTimeMs"), "ms", "pass"),
+								embedValue("consumer stalls",     "system", status.get("consumerStalls"),      null, "pass"),
+								embedValue("consumer stall time", "system", status.get("consumerStallTimeMs"), "ms", "pass"),
+								embedValue("timeouts",            "system", status.get("timeouts"),            null, "pass")
+							);
+						}
+
+						{
+							// commit locks for unique properties
+							final Map<String, Object> status = TransactionCommand.getLockStatus();
+
+							embedGroup(details, "transaction:locks",
+								embedValue("locked stripes",         "system", status.get("locked"),                null, "pass"),
+								embedValue("waiting threads",        "system", status.get("waitingThreads"),        null, "pass"),
+								embedValue("acquisitions",           "system", status.get("acquisitions"),          null, "pass"),
+								embedValue("contended acquisitions", "system", status.get("contendedAcquisitions"), null, "pass"),
+								embedValue("total wait time",        "system", status.get("totalWaitTimeMs"),       "ms", "pass"),
+								embedValue("max wait time",          "system", status.get("maxWaitTimeMs"),         "ms", "pass"),
+								embedValue("timeouts",               "system", status.get("timeouts"),              null, "pass")
+							);
+						}
+
+						{
+							// server-side JavaScript
+							final Map<String, Object> status = ScriptingMetrics.getStatus();
+
+							embedGroup(details, "scripting:javascript",
+								embedValue("compilations",         "system", status.get("compilations"),       null, "pass"),
+								embedValue("avg compile time",     "system", status.get("compileTimeAvgMs"),   "ms", "pass"),
+								embedValue("p99 compile time",     "system", status.get("compileTimeP99Ms"),   "ms", "pass"),
+								embedValue("max compile time",     "system", status.get("compileTimeMaxMs"),   "ms", "pass"),
+								embedValue("executions",           "system", status.get("executions"),         null, "pass"),
+								embedValue("avg execution time",   "system", status.get("executionTimeAvgMs"), "ms", "pass"),
+								embedValue("p99 execution time",   "system", status.get("executionTimeP99Ms"), "ms", "pass"),
+								embedValue("max execution time",   "system", status.get("executionTimeMaxMs"), "ms", "pass"),
+								embedValue("source cache hits",    "system", status.get("sourceCacheHits"),    null, "pass"),
+								embedValue("source cache misses",  "system", status.get("sourceCacheMisses"),  null, "pass"),
+								embedValue("contexts created",     "system", status.get("contextsCreated"),    null, "pass"),
+								embedValue("contexts reused",      "system", status.get("contextsReused"),     null, "pass")
+							);
+						}
+
+						{
+							// asynchronous page rendering
+							final Map<String, Object> status = AsyncOutputMetrics.getStatus();
+
+							embedGroup(details, "html:async",
+								embedValue("queued renderings",      "system", status.get("queuedRenderings"),     null, "pass"),
+								embedValue("active renderings",      "system", status.get("activeRenderings"),     null, "pass"),
+								embedValue("max queue depth",        "system", status.get("maxQueueDepth"),        null, "pass"),
+								embedValue("rejected renderings",    "system", status.get("rejectedRenderings"),   null, "pass"),
+								embedValue("producer pauses",        "system", status.get("producerPauses"),       null, "pass"),
+								embedValue("producer stall time",    "system", status.get("producerStallTimeMs"),  "ms", "pass"),
+								embedValue("aborted outputs",        "system", status.get("abortedOutputs"),       null, "pass"),
+								embedValue("avg time to first byte", "system", status.get("timeToFirstByteAvgMs"), "ms", "pass"),
+								embedValue("p99 time to first byte", "system", status.get("timeToFirstByteP99Ms"), "ms", "pass"),
+								embedValue("max time to first byte", "system", status.get("timeToFirstByteMaxMs"), "ms", "pass")
+							);
+						}
+
+						{
+							// fulltext indexing
+							final Map<String, Object> status = FulltextIndexingMetrics.getStatus();
+
+							embedGroup(details, "indexing:fulltext",
+								embedValue("queued documents",      "system", status.get("queuedDocuments"),      null,   "pass"),
+								embedValue("active extractions",    "system", status.get("activeExtractions"),    null,   "pass"),
+								embedValue("extracted documents",   "system", status.get("extractedDocuments"),   null,   "pass"),
+								embedValue("skipped documents",     "system", status.get("skippedDocuments"),     null,   "pass"),
+								embedValue("failed documents",      "system", status.get("failedDocuments"),      null,   "pass"),
+								embedValue("timed out documents",   "system", status.get("timedOutDocuments"),    null,   "pass"),
+								embedValue("pending writes",        "system", status.get("pendingWrites"),        null,   "pass"),
+								embedValue("written documents",     "system", status.get("writtenDocuments"),     null,   "pass"),
+								embedValue("written batches",       "system", status.get("writtenBatches"),       null,   "pass"),
+								embedValue("extracted data",        "system", status.get("extractedMegabytes"),   "MB",   "pass"),
+								embedValue("extraction throughput", "system", status.get("extractionThroughput"), "MB/s", "pass"),
+								embedValue("avg extraction time",   "system", status.get("extractionTimeAvgMs"),  "ms",   "pass"),
+								embedValue("p99 extraction time",   "system", status.get("extractionTimeP99Ms"),  "ms",   "pass"),
+								embedValue("max extraction time",   "system", status.get("extractionTimeMaxMs"),  "ms",   "pass"),
+								embedValue("avg batch write time",  "system", status.get("batchWriteTimeAvgMs"),  "ms",   "pass"),
+								embedValue("max batch write time",  "system", status.get("batchWriteTimeMaxMs"),  "ms",   "pass")
+							);
+						}
+
 						final HttpService httpService = Services.getInstance().getService(HttpService.class, "default");
 						if (httpService != null) {
 
@@ -60,8 +60,9 @@ public class HistogramServlet extends HealthCheckServlet {
 
 			final String sortKey = request.getParameter("sort");
 			final String top     = request.getParameter("top");
+			final String window  = request.getParameter("window");
 
-			gson.toJson(QueryHistogram.analyze(stringOrDefault(sortKey, "total"), intOrDefault(top, 1000)), writer);
+			gson.toJson(QueryHistogram.analyze(stringOrDefault(sortKey, "total"), intOrDefault(top, 1000), "recent".equals(window)), writer);
 
 			response.setStatus(HttpServletResponse.SC_OK);
 			response.setHeader("Cache-Control", "max-age=60");
@@ -36,6 +36,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jetty.io.QuietException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,9 +69,11 @@ public class JsonRestServlet extends AbstractDataServlet {
 
 	public static final int DEFAULT_VALUE_PAGE_SIZE                     = 20;
 	public static final String DEFAULT_VALUE_SORT_ORDER                 = "asc";
+	public static final String REQUEST_PARAMETER_CURSOR                 = "cursor";
 	public static final String REQUEST_PARAMETER_LOOSE_SEARCH           = "loose";
 	public static final String REQUEST_PARAMETER_PAGE_NUMBER            = "page";
 	public static final String REQUEST_PARAMETER_PAGE_SIZE              = "pageSize";
+	public static final String REQUEST_PARAMETER_PREFETCH               = "prefetch";
 	public static final String REQUEST_PARAMETER_SORT_KEY               = "sort";
 	public static final String REQUEST_PARAMETER_SORT_ORDER             = "order";
 	public static final String REQUEST_PARAMTER_OUTPUT_DEPTH            = "outputNestingDepth";
@@ -79,9 +82,11 @@ public class JsonRestServlet extends AbstractDataServlet {
 
 	static {
 
+		commonRequestParameters.add(REQUEST_PARAMETER_CURSOR);
 		commonRequestParameters.add(REQUEST_PARAMETER_LOOSE_SEARCH);
 		commonRequestParameters.add(REQUEST_PARAMETER_PAGE_NUMBER);
 		commonRequestParameters.add(REQUEST_PARAMETER_PAGE_SIZE);
+		commonRequestParameters.add(REQUEST_PARAMETER_PREFETCH);
 		commonRequestParameters.add(REQUEST_PARAMETER_SORT_KEY);
 		commonRequestParameters.add(REQUEST_PARAMETER_SORT_ORDER);
 		commonRequestParameters.add(REQUEST_PARAMTER_OUTPUT_DEPTH);
@@ -937,13 +942,21 @@ public class JsonRestServlet extends AbstractDataServlet {
 			// add sorting && pagination
 			final String pageSizeParameter          = request.getParameter(REQUEST_PARAMETER_PAGE_SIZE);
 			final String pageParameter              = request.getParameter(REQUEST_PARAMETER_PAGE_NUMBER);
+			final String cursorParameter            = request.getParameter(REQUEST_PARAMETER_CURSOR);
 			final String outputDepth                = request.getParameter(REQUEST_PARAMTER_OUTPUT_DEPTH);
 			final int pageSize                      = Services.parseInt(pageSizeParameter, NodeFactory.DEFAULT_PAGE_SIZE);
-			final int page                          = Services.parseInt(pageParameter, NodeFactory.DEFAULT_PAGE);
 			final int depth                         = Services.parseInt(outputDepth, config.getOutputNestingDepth());
 			final String[] sortKeyNames             = request.getParameterValues(REQUEST_PARAMETER_SORT_KEY);
 			final String[] sortOrders               = request.getParameterValues(REQUEST_PARAMETER_SORT_ORDER);
 			final Class<? extends GraphObject> type = resource.getEntityClassOrDefault();
+			int page                                = Services.parseInt(pageParameter, NodeFactory.DEFAULT_PAGE);
+
+			// a cursor continues after the last element of the previous page
+			if (StringUtils.isNotBlank(cursorParameter)) {
+
+				securityContext.setCursor(cursorParameter);
+				page = 1;
+			}
 
 			// evaluate constraints and measure query time
 			final double queryTimeStart = System.nanoTime();
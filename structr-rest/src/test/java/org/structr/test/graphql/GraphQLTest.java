@@ -2666,6 +2666,67 @@ public class GraphQLTest extends StructrGraphQLTest {
 
 	}
 
+	@Test
+	public void testRelationshipPrefetching() {
+
+		// relationship properties of the root type are prefetched automatically
+		try (final Tx tx = app.tx()) {
+
+			final PropertyKey<List> membersKey = StructrApp.key(Group.class, "members");
+
+			for (int i=0; i<6; i++) {
+
+				final List<Principal> members = new LinkedList<>();
+
+				// every third group has no members
+				for (int j=0; j<i % 3; j++) {
+					members.add(app.create(Principal.class, new NodeAttribute<>(Principal.name, "user-" + i + "-" + j)));
+				}
+
+				app.create(Group.class,
+					new NodeAttribute<>(Group.name, "group" + i),
+					new NodeAttribute<>(membersKey, members)
+				);
+			}
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+			fex.printStackTrace();
+			fail("Unexpected exception.");
+		}
+
+		RestAssured.basePath = "/structr/graphql";
+
+		{
+			final Map<String, Object> result = fetchGraphQL("{ Group(_sort: \"name\") { name, members(_sort: \"name\") { name }}}");
+			assertMapPathValueIs(result, "Group.#",                6);
+			assertMapPathValueIs(result, "Group.0.members",        new LinkedList<>());
+			assertMapPathValueIs(result, "Group.1.members.#",      1);
+			assertMapPathValueIs(result, "Group.1.members.0.name", "user-1-0");
+			assertMapPathValueIs(result, "Group.2.members.#",      2);
+			assertMapPathValueIs(result, "Group.2.members.0.name", "user-2-0");
+			assertMapPathValueIs(result, "Group.2.members.1.name", "user-2-1");
+			assertMapPathValueIs(result, "Group.3.members",        new LinkedList<>());
+			assertMapPathValueIs(result, "Group.4.members.#",      1);
+			assertMapPathValueIs(result, "Group.4.members.0.name", "user-4-0");
+			assertMapPathValueIs(result, "Group.5.members.#",      2);
+			assertMapPathValueIs(result, "Group.5.members.0.name", "user-5-0");
+			assertMapPathValueIs(result, "Group.5.members.1.name", "user-5-1");
+		}
+
+		{
+			// elements before the requested page are not prefetched
+			final Map<String, Object> result = fetchGraphQL("{ Group(_sort: \"name\", _pageSize: 2, _page: 2) { name, members(_sort: \"name\") { name }}}");
+			assertMapPathValueIs(result, "Group.#",                2);
+			assertMapPathValueIs(result, "Group.0.name",           "group2");
+			assertMapPathValueIs(result, "Group.0.members.#",      2);
+			assertMapPathValueIs(result, "Group.0.members.0.name", "user-2-0");
+			assertMapPathValueIs(result, "Group.0.members.1.name", "user-2-1");
+			assertMapPathValueIs(result, "Group.1.name",           "group3");
+			assertMapPathValueIs(result, "Group.1.members",        new LinkedList<>());
+		}
+	}
 
 	// ----- private methods -----
 	private String eq(final String value) {
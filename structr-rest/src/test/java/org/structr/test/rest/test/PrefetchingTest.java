@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.rest.test;
+
+import com.jayway.restassured.RestAssured;
+import java.util.LinkedList;
+import java.util.List;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.graph.NodeAttribute;
+import org.structr.core.graph.Tx;
+import org.structr.test.rest.common.StructrRestTestBase;
+import org.structr.test.rest.entity.TestOne;
+import org.structr.test.rest.entity.TestTwo;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the prefetch request parameter of type resources.
+ */
+public class PrefetchingTest extends StructrRestTestBase {
+
+	@Test
+	public void testPrefetchParameter() {
+
+		try (final Tx tx = app.tx()) {
+
+			for (int i=0; i<10; i++) {
+
+				final List<TestOne> testOnes = new LinkedList<>();
+
+				// every third object has no related objects
+				for (int j=0; j<i % 3; j++) {
+					testOnes.add(app.create(TestOne.class, "TestOne-" + i + "-" + j));
+				}
+
+				app.create(TestTwo.class,
+					new NodeAttribute<>(AbstractNode.name, "TestTwo-" + i),
+					new NodeAttribute<>(TestTwo.testOnes, testOnes)
+				);
+			}
+
+			tx.success();
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		final String resource = "/test_twos?_sort=name";
+
+		assertEquals("Invalid number of results", 10, fetchResult(resource).size());
+
+		// unknown property names are ignored
+		assertEquals("Prefetching must not change the result", fetchResult(resource), fetchResult(resource + "&prefetch=test_ones,unknown"));
+
+		// elements before the requested page are not prefetched
+		assertEquals("Prefetching must not change the result", fetchResult(resource + "&pageSize=3&page=2"), fetchResult(resource + "&pageSize=3&page=2&prefetch=test_ones"));
+		assertEquals("Prefetching must not change the result", fetchResult(resource + "&pageSize=4&page=3"), fetchResult(resource + "&pageSize=4&page=3&prefetch=test_ones"));
+	}
+
+	// ----- private methods -----
+	private List<Object> fetchResult(final String resource) {
+
+		return RestAssured
+
+			.given()
+				.contentType("application/json; charset=UTF-8")
+				.header("Accept", "application/json; charset=UTF-8")
+
+			.expect()
+				.statusCode(200)
+
+			.when()
+				.get(resource)
+				.jsonPath()
+				.getList("result");
+	}
+}
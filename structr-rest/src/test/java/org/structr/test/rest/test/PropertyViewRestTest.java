@@ -21,6 +21,8 @@ package org.structr.test.rest.test;
 
 import com.jayway.restassured.RestAssured;
 import com.jayway.restassured.filter.log.ResponseLoggingFilter;
+import java.util.LinkedList;
+import java.util.List;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.notNullValue;
@@ -33,7 +35,9 @@ import org.structr.core.graph.NodeAttribute;
 import org.structr.core.graph.Tx;
 import org.structr.core.property.StringProperty;
 import org.structr.test.rest.common.StructrRestTestBase;
+import org.structr.test.rest.entity.TestOne;
 import org.structr.test.rest.entity.TestTwo;
+import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.fail;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -348,4 +352,72 @@ public class PropertyViewRestTest extends StructrRestTestBase {
 				.get(resource.concat("/customView"));
 
 	}
+
+	@Test
+	public void testParallelJsonSerialization() {
+
+		final int count = 500;
+
+		try (final Tx tx = app.tx()) {
+
+			for (int i=0; i<count; i++) {
+
+				final List<TestOne> testOnes = new LinkedList<>();
+
+				for (int j=0; j<5; j++) {
+					testOnes.add(app.create(TestOne.class, "TestOne-" + i + "-" + j));
+				}
+
+				app.create(TestTwo.class,
+					new NodeAttribute<>(AbstractNode.name, "TestTwo-" + String.format("%04d", i)),
+					new NodeAttribute<>(TestTwo.testOnes, testOnes)
+				);
+			}
+
+			tx.success();
+
+		} catch (Throwable t) {
+			t.printStackTrace();
+			fail("Unexpected exception");
+		}
+
+		final String resource         = "/test_twos?_sort=name&outputNestingDepth=3";
+		final List<Object> sequential = fetchResult(resource);
+		final int threads             = Settings.JsonParallelizationThreads.getValue();
+
+		assertEquals("Invalid number of serialized objects", count, sequential.size());
+
+		try {
+
+			// the number of threads is read for each request
+			for (final int threadCount : new int[] { 1, 3 }) {
+
+				Settings.JsonParallelizationThreads.setValue(threadCount);
+
+				assertEquals("Parallel JSON serialization should produce the same result as sequential serialization", sequential, fetchResult(resource + "&parallelizeJsonOutput=1"));
+			}
+
+		} finally {
+
+			Settings.JsonParallelizationThreads.setValue(threads);
+		}
+	}
+
+	// ----- private methods -----
+	private List<Object> fetchResult(final String resource) {
+
+		return RestAssured
+
+			.given()
+				.contentType("application/json; charset=UTF-8")
+				.header("Accept", "application/json; charset=UTF-8")
+
+			.expect()
+				.statusCode(200)
+
+			.when()
+				.get(resource)
+				.jsonPath()
+				.getList("result");
+	}
 }
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import org.structr.rest.common.AsyncOutputMetrics;
+
+/**
+ * Buffer for asynchronous output that encodes the rendered output into
+ * UTF-8 byte chunks of a fixed size. The number of chunks per buffer is
+ * limited, so the rendering thread pauses when the client reads slower
+ * than the page is rendered, and resumes when chunks have been written.
+ * If the client does not read any output within the given timeout, the
+ * buffer is aborted and the rendering thread is stopped with a
+ * {@link RenderAbortedException}.
+ *
+ * Chunks are taken from and returned to a shared pool.
+ */
+public class ChunkedOutputBuffer extends AsyncBuffer {
+
+	private static final Queue<byte[]> pool = new ArrayBlockingQueue<>(1024);
+
+	private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+	private Runnable dataListener          = null;
+	private boolean consumerWaiting        = false;
+	private boolean finished               = false;
+	private volatile boolean aborted       = false;
+	private byte[] current                 = null;
+	private int position                   = 0;
+	private int chunkSize                  = 0;
+	private int maxChunks                  = 0;
+	private long timeout                   = 0L;
+
+	public ChunkedOutputBuffer(final int chunkSize, final int maxChunks, final long timeout) {
+
+		this.chunkSize = Math.max(chunkSize, 512);
+		this.maxChunks = Math.max(maxChunks, 1);
+		this.timeout   = Math.max(timeout, 1L);
+	}
+
+	/**
+	 * Sets the callback that is notified when data becomes available
+	 * after a call to {@link #poll} returned null.
+	 *
+	 * @param dataListener
+	 */
+	public void setDataListener(final Runnable dataListener) {
+		this.dataListener = dataListener;
+	}
+
+	/**
+	 * Appends the given string to this buffer.
+	 *
+	 * @param s
+	 * @return this buffer
+	 *
+	 * @throws RenderAbortedException if the buffer was aborted
+	 */
+	@Override
+	public AsyncBuffer append(final String s) {
+
+		if (aborted) {
+			throw new RenderAbortedException();
+		}
+
+		if (s != null && !s.isEmpty()) {
+
+			final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			int offset         = 0;
+
+			while (offset < bytes.length) {
+
+				if (current == null) {
+
+					current  = acquire();
+					position = 0;
+				}
+
+				final int count = Math.min(bytes.length - offset, chunkSize - position);
+
+				System.arraycopy(bytes, offset, current, position, count);
+
+				position += count;
+				offset   += count;
+
+				if (position == chunkSize && !enqueue()) {
+					throw new RenderAbortedException();
+				}
+			}
+		}
+
+		return this;
+	}
+
+	/**
+	 * Signals that the rendering is finished, flushes the last partial
+	 * chunk.
+	 */
+	public void finish() {
+
+		if (current != null) {
+			enqueue();
+		}
+
+		final boolean notify;
+
+		synchronized (this) {
+
+			finished        = true;
+			notify          = consumerWaiting;
+			consumerWaiting = false;
+		}
+
+		if (notify) {
+			notifyListener();
+		}
+	}
+
+	/**
+	 * Discards all buffered output and wakes up the rendering thread,
+	 * called when the client connection fails, times out or the request
+	 * is completed. Calling this method on a buffer that was already
+	 * aborted or completely written has no effect.
+	 */
+	public void abort() {
+
+		final boolean incomplete;
+
+		synchronized (this) {
+
+			incomplete = discard();
+		}
+
+		if (incomplete) {
+			AsyncOutputMetrics.outputAborted();
+		}
+	}
+
+	/**
+	 * Returns the next chunk, or null if no chunk is available. The
+	 * data listener is notified when new data arrives after this method
+	 * returned null.
+	 *
+	 * @return the next chunk or null
+	 */
+	public synchronized Chunk poll() {
+
+		final Chunk chunk = chunks.poll();
+		if (chunk != null) {
+
+			// wake up the rendering thread
+			notifyAll();
+
+		} else {
+
+			consumerWaiting = true;
+		}
+
+		return chunk;
+	}
+
+	/**
+	 * @return whether this buffer was aborted
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * @return whether the rendering is finished and all chunks have been taken
+	 */
+	public synchronized boolean isDone() {
+		return (finished && chunks.isEmpty()) || aborted;
+	}
+
+	/**
+	 * Returns the given chunk to the pool, must only be called when the
+	 * chunk data was completely written.
+	 *
+	 * @param chunk
+	 */
+	public void release(final Chunk chunk) {
+
+		if (chunk.data.length == chunkSize) {
+			pool.offer(chunk.data);
+		}
+	}
+
+	// ----- private methods -----
+	private boolean enqueue() {
+
+		final Chunk chunk = new Chunk(current, position);
+		boolean timedOut  = false;
+		boolean notify    = false;
+
+		current  = null;
+		position = 0;
+
+		synchronized (this) {
+
+			if (chunks.size() >= maxChunks && !aborted) {
+
+				final long t0       = System.nanoTime();
+				final long deadline = System.currentTimeMillis() + timeout;
+				long remaining      = timeout;
+
+				AsyncOutputMetrics.producerPaused(0L);
+
+				try {
+
+					while (chunks.size() >= maxChunks && !aborted) {
+
+						if (remaining <= 0L) {
+
+							// client did not read any output in time
+							timedOut = discard();
+							break;
+						}
+
+						wait(remaining);
+
+						remaining = deadline - System.currentTimeMillis();
+					}
+
+				} catch (InterruptedException iex) {
+
+					Thread.currentThread().interrupt();
+					timedOut = discard();
+				}
+
+				AsyncOutputMetrics.producerPaused(System.nanoTime() - t0);
+			}
+
+			if (aborted) {
+
+				release(chunk);
+
+			} else {
+
+				chunks.add(chunk);
+
+				notify          = consumerWaiting;
+				consumerWaiting = false;
+			}
+		}
+
+		if (timedOut) {
+			AsyncOutputMetrics.outputAborted();
+		}
+
+		if (notify) {
+			notifyListener();
+		}
+
+		return !aborted;
+	}
+
+	/**
+	 * Marks this buffer as aborted and releases all chunks, must be called
+	 * while holding the monitor of this buffer.
+	 *
+	 * @return whether the buffer contained output that was not written
+	 */
+	private boolean discard() {
+
+		if (aborted) {
+			return false;
+		}
+
+		final boolean incomplete = !finished || !chunks.isEmpty();
+
+		aborted = true;
+
+		for (final Chunk chunk : chunks) {
+			release(chunk);
+		}
+
+		chunks.clear();
+		notifyAll();
+
+		return incomplete;
+	}
+
+	private void notifyListener() {
+
+		if (dataListener != null) {
+			dataListener.run();
+		}
+	}
+
+	private byte[] acquire() {
+
+		byte[] data = pool.poll();
+
+		// chunk size could have been changed in the meantime
+		while (data != null && data.length != chunkSize) {
+			data = pool.poll();
+		}
+
+		if (data == null) {
+			data = new byte[chunkSize];
+		}
+
+		return data;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Thrown into the rendering thread when the buffer was aborted, so the
+	 * rendering stops instead of producing output nobody will receive.
+	 */
+	public static class RenderAbortedException extends RuntimeException {
+
+		public RenderAbortedException() {
+			super("Asynchronous output was aborted");
+		}
+	}
+
+	public static class Chunk {
+
+		private byte[] data = null;
+		private int length  = 0;
+
+		private Chunk(final byte[] data, final int length) {
+
+			this.data   = data;
+			this.length = length;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		public int getLength() {
+			return length;
+		}
+	}
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.web.common;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.structr.api.Predicate;
+import org.structr.api.config.Settings;
+import org.structr.api.util.Cachable;
+import org.structr.api.util.FixedSizeCache;
+import org.structr.common.SecurityContext;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.GraphObject;
+import org.structr.core.StructrTransactionListener;
+import org.structr.core.entity.Group;
+import org.structr.core.entity.Principal;
+import org.structr.core.entity.Relation;
+import org.structr.core.graph.ModificationEvent;
+import org.structr.web.common.RenderContext.EditMode;
+import org.structr.web.entity.dom.DOMNode;
+
+/**
+ * Cache for the rendered output of pages and shared components.
+ *
+ * Entries are keyed by node, render depth, request path and parameters,
+ * locale, principal, session, cookies and the request headers configured
+ * in html.rendercache.headers. Each entry records the UUIDs of the DOM nodes that
+ * were rendered, so a modification of a DOM node only invalidates the
+ * entries that contain it. Entries whose rendering evaluated scripts or
+ * repeaters are invalidated by any modification of non-DOM data. Nodes
+ * with the dontCache flag are never cached, neither are their ancestors.
+ */
+public class RenderCache {
+
+	private static final FixedSizeCache<String, CacheEntry> cache = new FixedSizeCache<>("Render cache", Settings.HtmlRenderCacheSize.getValue(), true);
+	private static final Map<String, Set<CacheEntry>> dependents  = new ConcurrentHashMap<>();
+	private static final Set<CacheEntry> dynamicEntries           = ConcurrentHashMap.newKeySet();
+	private static final InvalidationListener listener            = new InvalidationListener();
+	private static final AtomicLong generation                    = new AtomicLong();
+
+	public interface Renderer {
+
+		void render() throws FrameworkException;
+	}
+
+	public static StructrTransactionListener getTransactionListener() {
+		return listener;
+	}
+
+	/**
+	 * Renders the given node using the given renderer, or replays the
+	 * cached output of an earlier rendering.
+	 *
+	 * @param node the node to render
+	 * @param renderContext the render context
+	 * @param depth the render depth
+	 * @param renderer the actual rendering
+	 *
+	 * @throws FrameworkException
+	 */
+	public static void render(final DOMNode node, final RenderContext renderContext, final int depth, final Renderer renderer) throws FrameworkException {
+
+		final String key = getCacheKey(node, renderContext, depth);
+		if (key == null) {
+
+			renderer.render();
+			return;
+		}
+
+		final CacheEntry cached = cache.get(key);
+		if (cached != null) {
+
+			cached.replay(renderContext);
+			return;
+		}
+
+		final long startGeneration = generation.get();
+		final Scope scope          = new Scope(renderContext, key);
+
+		scope.dependencies.add(node.getUuid());
+
+		if (principalId(renderContext) != null) {
+			scope.dependencies.add(principalId(renderContext));
+		}
+
+		try {
+
+			renderer.render();
+
+		} finally {
+
+			scope.close();
+		}
+
+		if (scope.cacheable) {
+			put(new CacheEntry(scope, renderContext), startGeneration);
+		}
+	}
+
+	/**
+	 * Registers the given node as a dependency of all cache scopes that are
+	 * currently being rendered.
+	 *
+	 * @param node the node that is being rendered
+	 * @param renderContext the render context
+	 */
+	public static void track(final DOMNode node, final RenderContext renderContext) {
+
+		final Queue<Scope> scopes = renderContext.getRenderCacheScopes();
+		if (!scopes.isEmpty()) {
+
+			final boolean dontCache = node.dontCache();
+			final boolean dynamic   = StringUtils.isNotBlank(node.getDataKey());
+			final String uuid       = node.getUuid();
+
+			for (final Scope scope : scopes) {
+
+				scope.dependencies.add(uuid);
+				scope.cacheable &= !dontCache;
+				scope.dynamic   |= dynamic;
+			}
+		}
+	}
+
+	/**
+	 * Marks all cache scopes that are currently being rendered as dependent
+	 * on data, called for every script evaluation.
+	 *
+	 * @param renderContext the render context
+	 */
+	public static void trackScriptEvaluation(final RenderContext renderContext) {
+
+		for (final Scope scope : renderContext.getRenderCacheScopes()) {
+			scope.dynamic = true;
+		}
+	}
+
+	public static void invalidate(final Collection<String> uuids) {
+
+		if (!uuids.isEmpty()) {
+
+			generation.incrementAndGet();
+
+			for (final String uuid : uuids) {
+
+				final Set<CacheEntry> entries = dependents.remove(uuid);
+				if (entries != null) {
+
+					for (final CacheEntry entry : entries) {
+						remove(entry);
+					}
+				}
+			}
+		}
+	}
+
+	public static void invalidateDynamic() {
+
+		generation.incrementAndGet();
+
+		for (final CacheEntry entry : dynamicEntries) {
+			remove(entry);
+		}
+	}
+
+	public static void invalidateAll() {
+
+		generation.incrementAndGet();
+
+		cache.clear();
+		dependents.clear();
+		dynamicEntries.clear();
+	}
+
+	public static int size() {
+		return cache.size();
+	}
+
+	// ----- private methods -----
+	private static void put(final CacheEntry entry, final long startGeneration) {
+
+		// don't store output that might be based on data that was modified in the meantime
+		if (generation.get() != startGeneration) {
+			return;
+		}
+
+		cache.put(entry.key, entry);
+
+		for (final String uuid : entry.dependencies) {
+
+			dependents.compute(uuid, (k, entries) -> {
+
+				final Set<CacheEntry> set = entries != null ? entries : ConcurrentHashMap.newKeySet();
+
+				set.add(entry);
+
+				return set;
+			});
+		}
+
+		if (entry.dynamic) {
+			dynamicEntries.add(entry);
+		}
+
+		// an invalidation might have missed the new entry
+		if (generation.get() != startGeneration) {
+			remove(entry);
+		}
+	}
+
+	private static void remove(final CacheEntry entry) {
+
+		cache.remove(entry.key);
+		entry.onRemoveFromCache();
+	}
+
+	private static String getCacheKey(final DOMNode node, final RenderContext renderContext, final int depth) {
+
+		if (!Settings.HtmlRenderCacheEnabled.getValue()) {
+			return null;
+		}
+
+		final HttpServletRequest request = renderContext.getRequest();
+		if (request == null || !"GET".equals(request.getMethod())) {
+			return null;
+		}
+
+		// output in edit modes and in repeaters depends on more than the request
+		if (!EditMode.NONE.equals(renderContext.getEditMode(renderContext.getSecurityContext().getUser(false)))) {
+			return null;
+		}
+
+		if (renderContext.getDataObject() != null || renderContext.getSourceDataObject() != null || renderContext.getListSource() != null || renderContext.hasDataObjects()) {
+			return null;
+		}
+
+		if (node.dontCache()) {
+			return null;
+		}
+
+		final GraphObject details  = renderContext.getDetailsDataObject();
+		final String principalId   = principalId(renderContext);
+		final StringBuilder buf    = new StringBuilder();
+		final Principal user       = renderContext.getSecurityContext().getUser(false);
+
+		buf.append(node.getUuid()).append(".").append(depth);
+		buf.append(".").append(user != null ? user.getClass().getSimpleName() + ":" + principalId : "anonymous");
+		buf.append(".").append(renderContext.getLocale());
+		buf.append(".").append(details != null ? details.getUuid() : "");
+		buf.append(".").append(renderContext.inBody()).append(".").append(renderContext.appLibRendered());
+		buf.append(".").append(request.getServerName());
+		buf.append(".").append(request.getPathInfo());
+
+		for (final Map.Entry<String, String[]> entry : new TreeMap<>(request.getParameterMap()).entrySet()) {
+			buf.append(".").append(entry.getKey()).append("=").append(Arrays.toString(entry.getValue()));
+		}
+
+		// scripts can read session attributes, cookies and headers of the request,
+		// a session that was created for this request has no attributes yet
+		final String sessionId = request.getRequestedSessionId();
+		if (sessionId != null) {
+
+			buf.append(".session=").append(sessionId);
+		}
+
+		final Cookie[] cookies = request.getCookies();
+		if (cookies != null) {
+
+			final Map<String, String> sortedCookies = new TreeMap<>();
+
+			for (final Cookie cookie : cookies) {
+				sortedCookies.put(cookie.getName(), cookie.getValue());
+			}
+
+			buf.append(".cookies=").append(sortedCookies);
+		}
+
+		for (final String header : StringUtils.split(Settings.HtmlRenderCacheHeaders.getValue(), ", ")) {
+			buf.append(".").append(header).append(":").append(request.getHeader(header));
+		}
+
+		return buf.toString();
+	}
+
+	private static String principalId(final RenderContext renderContext) {
+
+		final SecurityContext securityContext = renderContext.getSecurityContext();
+		final Principal user                  = securityContext.getUser(false);
+
+		return user != null ? user.getUuid() : null;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * The state of a node that is being rendered into the cache.
+	 */
+	public static class Scope {
+
+		private final Set<String> dependencies = new HashSet<>();
+		private final StringBuilder output     = new StringBuilder();
+		private RenderContext renderContext    = null;
+		private Set<String> headerNames        = null;
+		private AsyncBuffer previousBuffer     = null;
+		private boolean cacheable              = true;
+		private boolean dynamic                = false;
+		private String key                     = null;
+		private int status                     = 0;
+
+		private Scope(final RenderContext renderContext, final String key) {
+
+			final HttpServletResponse response = renderContext.getResponse();
+
+			this.previousBuffer = renderContext.getBuffer();
+			this.renderContext  = renderContext;
+			this.key            = key;
+
+			if (response != null) {
+
+				this.headerNames = new HashSet<>(response.getHeaderNames());
+				this.status      = response.getStatus();
+			}
+
+			renderContext.setBuffer(new CapturingBuffer(previousBuffer, output));
+			renderContext.getRenderCacheScopes().add(this);
+		}
+
+		private void close() {
+
+			final HttpServletResponse response = renderContext.getResponse();
+
+			renderContext.getRenderCacheScopes().remove(this);
+			renderContext.setBuffer(previousBuffer);
+
+			// output that modifies the response can not be replayed
+			if (response != null && (response.getStatus() != status || !headerNames.containsAll(response.getHeaderNames()))) {
+				cacheable = false;
+			}
+		}
+	}
+
+	private static class CacheEntry implements Cachable {
+
+		private Set<String> dependencies           = null;
+		private boolean anyChildNodeCreatesNewLine = false;
+		private boolean appLibRendered             = false;
+		private boolean dynamic                    = false;
+		private boolean inBody                     = false;
+		private String output                      = null;
+		private String key                         = null;
+
+		public CacheEntry(final Scope scope, final RenderContext renderContext) {
+
+			this.anyChildNodeCreatesNewLine = renderContext.getAnyChildNodeCreatesNewLine();
+			this.appLibRendered             = renderContext.appLibRendered();
+			this.inBody                     = renderContext.inBody();
+			this.dependencies               = scope.dependencies;
+			this.output                     = scope.output.toString();
+			this.dynamic                    = scope.dynamic;
+			this.key                        = scope.key;
+		}
+
+		public void replay(final RenderContext renderContext) {
+
+			renderContext.getBuffer().append(output);
+			renderContext.setAnyChildNodeCreatesNewLine(anyChildNodeCreatesNewLine);
+			renderContext.setAppLibRendered(appLibRendered);
+			renderContext.setInBody(inBody);
+
+			// enclosing scopes inherit the dependencies of this entry
+			for (final Scope scope : renderContext.getRenderCacheScopes()) {
+
+				scope.dependencies.addAll(dependencies);
+				scope.dynamic |= dynamic;
+			}
+		}
+
+		@Override
+		public void onRemoveFromCache() {
+
+			// unregister from the dependency index, also called on eviction
+			for (final String uuid : dependencies) {
+
+				dependents.computeIfPresent(uuid, (k, entries) -> {
+
+					entries.remove(this);
+
+					return entries.isEmpty() ? null : entries;
+				});
+			}
+
+			dynamicEntries.remove(this);
+		}
+	}
+
+	private static class CapturingBuffer extends AsyncBuffer {
+
+		private StringBuilder output = null;
+		private AsyncBuffer delegate = null;
+
+		public CapturingBuffer(final AsyncBuffer delegate, final StringBuilder output) {
+
+			this.delegate = delegate;
+			this.output   = output;
+		}
+
+		@Override
+		public AsyncBuffer append(final String s) {
+
+			if (s != null) {
+				output.append(s);
+			}
+
+			delegate.append(s);
+
+			return this;
+		}
+
+		@Override
+		public Queue<String> getQueue() {
+			return delegate.getQueue();
+		}
+	}
+
+	private static class InvalidationListener implements StructrTransactionListener {
+
+		@Override
+		public void beforeCommit(final SecurityContext securityContext, final Collection<ModificationEvent> modificationEvents) throws FrameworkException {
+		}
+
+		@Override
+		public void afterCommit(final SecurityContext securityContext, final Collection<ModificationEvent> modificationEvents) {
+		}
+
+		@Override
+		public void simpleBroadcast(final String messageName, final Map<String, Object> data, final Predicate<String> sessionIdPredicate) {
+		}
+
+		@Override
+		public void afterClose(final Collection<ModificationEvent> modificationEvents, final boolean committed) {
+
+			final Set<String> uuids = new HashSet<>();
+			boolean dataModified    = false;
+
+			for (final ModificationEvent event : modificationEvents) {
+
+				final GraphObject obj = event.getGraphObject();
+
+				if (event.isNode()) {
+
+					if (obj instanceof Group) {
+
+						// group membership affects the visibility for all members
+						invalidateAll();
+						return;
+					}
+
+					if (obj instanceof DOMNode || obj instanceof Principal) {
+						uuids.add(event.getUuid());
+					}
+
+					dataModified |= !(obj instanceof DOMNode);
+
+				} else if (obj instanceof Relation && DOMNode.class.isAssignableFrom(((Relation)obj).getSourceType())) {
+
+					// structural changes, e.g. the position of a child node
+					invalidateAll();
+					return;
+
+				} else {
+
+					dataModified = true;
+				}
+			}
+
+			invalidate(uuids);
+
+			if (dataModified) {
+				invalidateDynamic();
+			}
+		}
+	}
+}
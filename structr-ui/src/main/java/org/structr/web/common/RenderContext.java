@@ -19,7 +19,9 @@
 package org.structr.web.common;
 
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Stack;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -50,6 +52,7 @@ public class RenderContext extends ActionContext {
 
 	private final Map<String, GraphObject> dataObjects = new LinkedHashMap<>();
 	private final Stack<SecurityContext> scStack       = new Stack<>();
+	private Queue<RenderCache.Scope> renderCacheScopes = new LinkedList<>();
 	private EditMode editMode                          = EditMode.NONE;
 	private AsyncBuffer buffer                         = null;
 	private int depth                                  = 0;
@@ -108,6 +111,7 @@ public class RenderContext extends ActionContext {
 		this.locale                     = other.locale;
 		this.indentHtml                 = other.indentHtml;
 		this.buffer                     = other.buffer;
+		this.renderCacheScopes          = other.renderCacheScopes;
 
 	}
 
@@ -347,6 +351,23 @@ public class RenderContext extends ActionContext {
 		return dataObjects.containsKey(key);
 	}
 
+	public boolean hasDataObjects() {
+		return !dataObjects.isEmpty();
+	}
+
+	public Queue<RenderCache.Scope> getRenderCacheScopes() {
+		return renderCacheScopes;
+	}
+
+	@Override
+	public void setJavaScriptContext(final boolean javaScriptContext) {
+
+		super.setJavaScriptContext(javaScriptContext);
+
+		// called for each script evaluation, output depends on data
+		RenderCache.trackScriptEvaluation(this);
+	}
+
 	public void setPage(final Page page) {
 		this.page = page;
 	}
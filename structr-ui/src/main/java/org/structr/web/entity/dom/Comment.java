@@ -29,6 +29,7 @@ import org.structr.schema.SchemaService;
 import org.structr.api.schema.JsonObjectType;
 import org.structr.api.schema.JsonSchema;
 import org.structr.web.common.AsyncBuffer;
+import org.structr.web.common.RenderCache;
 import org.structr.web.common.RenderContext;
 
 /**
@@ -51,6 +52,8 @@ public interface Comment extends Content, org.w3c.dom.Comment, NonIndexed {
 
 	static void render(final Comment comment, final RenderContext renderContext, final int depth) throws FrameworkException {
 
+		RenderCache.track(comment, renderContext);
+
 		String _content = comment.getContent();
 
 		// Avoid rendering existing @structr comments since those comments are
@@ -77,6 +77,7 @@ import org.structr.schema.SchemaService;
 import org.structr.schema.action.ActionContext;
 import org.structr.schema.action.Function;
 import org.structr.web.common.AsyncBuffer;
+import org.structr.web.common.RenderCache;
 import org.structr.web.common.RenderContext;
 import org.structr.web.common.RenderContext.EditMode;
 import org.structr.web.common.StringRenderBuffer;
@@ -1521,6 +1522,26 @@ public interface DOMNode extends NodeInterface, Node, Renderable, DOMAdoptable,
 
 	static void render(final DOMNode thisNode, final RenderContext renderContext, final int depth) throws FrameworkException {
 
+		RenderCache.track(thisNode, renderContext);
+
+		final DOMNode sharedComponent = thisNode.getSharedComponent();
+		if (sharedComponent != null) {
+
+			// output of shared components is cached as a whole
+			RenderCache.render(thisNode, renderContext, depth, () -> {
+
+				RenderCache.track(sharedComponent, renderContext);
+				renderNode(thisNode, renderContext, depth);
+			});
+
+		} else {
+
+			renderNode(thisNode, renderContext, depth);
+		}
+	}
+
+	static void renderNode(final DOMNode thisNode, final RenderContext renderContext, final int depth) throws FrameworkException {
+
 		final SecurityContext securityContext = renderContext.getSecurityContext();
 		final EditMode editMode = renderContext.getEditMode(securityContext.getUser(false));
 
@@ -44,6 +44,7 @@ import org.structr.schema.SchemaService;
 import org.structr.api.schema.JsonMethod;
 import org.structr.api.schema.JsonObjectType;
 import org.structr.api.schema.JsonSchema;
+import org.structr.web.common.RenderCache;
 import org.structr.web.common.RenderContext;
 import org.structr.web.common.StringRenderBuffer;
 import org.structr.web.entity.Linkable;
@@ -436,6 +437,11 @@ public interface Page extends DOMNode, Linkable, Document, DOMImplementation {
 
 		renderContext.setPage(thisPage);
 
+		RenderCache.render(thisPage, renderContext, depth, () -> renderPage(thisPage, renderContext, depth));
+	}
+
+	static void renderPage(final Page thisPage, final RenderContext renderContext, final int depth) throws FrameworkException {
+
 		// Skip DOCTYPE node
 		DOMNode subNode = (DOMNode) thisPage.getFirstChild().getNextSibling();
 
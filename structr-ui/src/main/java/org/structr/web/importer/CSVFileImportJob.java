@@ -40,6 +40,7 @@ import org.structr.core.entity.Principal;
 import org.structr.core.entity.Relation;
 import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyMap;
+import org.structr.core.scheduler.JobQueueManager;
 import org.structr.module.StructrModule;
 import org.structr.module.api.APIBuilder;
 import org.structr.rest.common.CsvHelper;
@@ -158,7 +159,8 @@ public class CSVFileImportJob extends FileImportJob {
 
 					int count = 0;
 
-					try (final Tx tx = app.tx()) {
+					// wait for our turn to write, the permit is released after the commit
+					try (final JobQueueManager.WritePermit permit = acquireWritePermit(); final Tx tx = app.tx()) {
 
 						final long chunkStartTime = System.currentTimeMillis();
 
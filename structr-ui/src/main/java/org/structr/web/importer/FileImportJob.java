@@ -84,6 +84,11 @@ abstract class FileImportJob extends ScheduledJob {
 		return processedObjects;
 	}
 
+	@Override
+	public long getProcessedObjectCount() {
+		return processedObjects;
+	}
+
 	@Override
 	public Map<String, Object> getStatusData (final JobStatusMessageSubtype subtype) {
 
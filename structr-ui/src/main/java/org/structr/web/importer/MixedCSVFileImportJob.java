@@ -45,6 +45,7 @@ import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyKey;
 import org.structr.core.property.PropertyMap;
 import org.structr.core.property.RelationProperty;
+import org.structr.core.scheduler.JobQueueManager;
 import org.structr.module.StructrModule;
 import org.structr.module.api.APIBuilder;
 import org.structr.rest.common.CsvHelper;
@@ -132,7 +133,8 @@ public class MixedCSVFileImportJob extends FileImportJob {
 
 					int count = 0;
 
-					try (final Tx tx = app.tx()) {
+					// wait for our turn to write, the permit is released after the commit
+					try (final JobQueueManager.WritePermit permit = acquireWritePermit(); final Tx tx = app.tx()) {
 
 						final long chunkStartTime = System.currentTimeMillis();
 
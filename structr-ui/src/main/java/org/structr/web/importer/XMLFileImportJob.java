@@ -37,6 +37,7 @@ import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.Principal;
 import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyMap;
+import org.structr.core.scheduler.JobQueueManager;
 import org.structr.module.StructrModule;
 import org.structr.module.xml.XMLModule;
 import org.structr.rest.common.XMLHandler;
@@ -115,22 +116,26 @@ public class XMLFileImportJob extends FileImportJob {
 
 						int count = 0;
 
-						// test: open transaction
-						Tx tx = app.tx();
+						// wait for our turn to write, the permit is released after the commit
+						try (final JobQueueManager.WritePermit permit = acquireWritePermit()) {
 
-						// make transaction available in context
-						threadContext.setAttribute("currentTransaction", tx);
+							// test: open transaction
+							Tx tx = app.tx();
 
-						while (iterator.hasNext() && ++count <= batchSize) {
+							// make transaction available in context
+							threadContext.setAttribute("currentTransaction", tx);
 
-							app.create(AbstractNode.class, PropertyMap.inputTypeToJavaType(threadContext, iterator.next()));
-							overallCount++;
-						}
+							while (iterator.hasNext() && ++count <= batchSize) {
+
+								app.create(AbstractNode.class, PropertyMap.inputTypeToJavaType(threadContext, iterator.next()));
+								overallCount++;
+							}
 
-						// tx might have changed, reload from context
-						tx = (Tx)threadContext.getAttribute("currentTransaction");
-						tx.success();
-						tx.close();
+							// tx might have changed, reload from context
+							tx = (Tx)threadContext.getAttribute("currentTransaction");
+							tx.success();
+							tx.close();
+						}
 
 						chunks++;
 
@@ -34,15 +34,19 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.TimeZone;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
@@ -75,11 +79,13 @@ import org.structr.core.converter.PropertyConverter;
 import org.structr.core.entity.AbstractNode;
 import org.structr.core.entity.Principal;
 import org.structr.core.graph.NodeInterface;
+import org.structr.core.graph.TransactionCommand;
 import org.structr.core.graph.Tx;
 import org.structr.core.property.PropertyKey;
 import org.structr.core.property.PropertyMap;
 import org.structr.core.script.Scripting;
 import org.structr.rest.auth.AuthHelper;
+import org.structr.rest.common.AsyncOutputMetrics;
 import org.structr.rest.service.HttpServiceServlet;
 import org.structr.rest.service.StructrHttpServiceConfig;
 import org.structr.rest.servlet.AbstractServletBase;
@@ -87,7 +93,9 @@ import org.structr.schema.ConfigurationProvider;
 import org.structr.schema.action.ActionContext;
 import org.structr.util.Base64;
 import org.structr.web.auth.UiAuthenticator;
+import org.structr.web.common.ChunkedOutputBuffer;
 import org.structr.web.common.FileHelper;
+import org.structr.web.common.RenderCache;
 import org.structr.web.common.RenderContext;
 import org.structr.web.common.RenderContext.EditMode;
 import org.structr.web.common.StringRenderBuffer;
@@ -119,7 +127,21 @@ public class HtmlServlet extends AbstractServletBase implements HttpServiceServl
 	public static final String OBJECT_RESOLUTION_PROPERTIES = "HtmlServlet.resolveProperties";
 
 	private static final ThreadLocalMatcher threadLocalUUIDMatcher = new ThreadLocalMatcher("[a-fA-F0-9]{32}");
-	private static final ExecutorService threadPool                = Executors.newCachedThreadPool();
+	private static final AtomicInteger threadCount                 = new AtomicInteger();
+	private static final ThreadPoolExecutor threadPool             = new ThreadPoolExecutor(
+		Math.max(1, Settings.AsyncRenderThreads.getValue()),
+		Math.max(1, Settings.AsyncRenderThreads.getValue()),
+		60L, TimeUnit.SECONDS,
+		new ArrayBlockingQueue<>(Math.max(1, Settings.AsyncRenderQueueSize.getValue())),
+		r -> {
+
+			final Thread thread = new Thread(r, "AsyncRenderer-" + threadCount.incrementAndGet());
+
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	);
 
 	private final Pattern FilenameCleanerPattern                      = Pattern.compile("[\n\r]", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
 	private final StructrHttpServiceConfig config                     = new StructrHttpServiceConfig();
@@ -141,6 +163,9 @@ public class HtmlServlet extends AbstractServletBase implements HttpServiceServl
 		}
 
 		this.isAsync = Settings.Async.getValue();
+
+		// invalidates cached output of pages and shared components
+		TransactionCommand.registerTransactionListener(RenderCache.getTransactionListener());
 	}
 
 	@Override
@@ -831,24 +856,38 @@ public class HtmlServlet extends AbstractServletBase implements HttpServiceServl
 
 	protected void renderAsyncOutput(HttpServletRequest request, HttpServletResponse response, App app, RenderContext renderContext, DOMNode rootElement, final long requestStartTime) throws IOException {
 
-		final AsyncContext async      = request.startAsync();
-		final ServletOutputStream out = async.getResponse().getOutputStream();
-		final AtomicBoolean finished  = new AtomicBoolean(false);
-		final DOMNode rootNode        = rootElement;
+		final AsyncContext async         = request.startAsync();
+		final ServletOutputStream out    = async.getResponse().getOutputStream();
+		final long timeout               = TimeUnit.SECONDS.toMillis(Settings.AsyncOutputTimeout.getValue());
+		final ChunkedOutputBuffer buffer = new ChunkedOutputBuffer(Settings.AsyncOutputChunkSize.getValue(), Settings.AsyncOutputMaxChunks.getValue(), timeout);
+		final AsyncOutputWriter writer   = new AsyncOutputWriter(request, renderContext, async, out, buffer, requestStartTime);
+		final DOMNode rootNode           = rootElement;
+
+		renderContext.setBuffer(buffer);
+		buffer.setDataListener(writer::onDataAvailable);
+
+		AsyncOutputMetrics.renderQueued(threadPool.getQueue().size() + 1);
 
-		threadPool.submit(new Runnable() {
+		try {
+
+			threadPool.execute(() -> {
 
-			@Override
-			public void run() {
+				AsyncOutputMetrics.renderStarted();
 
 				try (final Tx tx = app.tx()) {
 
 					// render
 					rootNode.render(renderContext, 0);
-					finished.set(true);
 
 					tx.success();
 
+				} catch (ChunkedOutputBuffer.RenderAbortedException rex) {
+
+					logger.debug("Rendering of page {} aborted, client did not receive the output.", rootNode.getName());
+
+					// release the request, the client did not read the output in time
+					writer.abort();
+
 				} catch (Throwable t) {
 
 					logger.warn("Error while rendering page {}: {}", rootNode.getName(), t.getMessage());
@@ -857,82 +896,39 @@ public class HtmlServlet extends AbstractServletBase implements HttpServiceServl
 					try {
 
 						response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-						finished.set(true);
 
 					} catch (IOException ex) {
 						logger.warn(ExceptionUtils.getStackTrace(ex));
 					}
-				}
-
-				// record async rendering time
-				HtmlServlet.super.stats.recordStatsValue("html", rootElement.getName(), System.currentTimeMillis() - requestStartTime);
-			}
-
-		});
-
-		// start output write listener
-		out.setWriteListener(new WriteListener() {
-
-			@Override
-			public void onWritePossible() throws IOException {
-
-				try {
-
-					final Queue<String> queue = renderContext.getBuffer().getQueue();
-					while (out.isReady()) {
-
-						String buffer = null;
-
-						synchronized (queue) {
-							buffer = queue.poll();
-						}
-
-						if (buffer != null) {
 
-							out.print(buffer);
-
-						} else {
-
-							if (finished.get()) {
-
-								async.complete();
+				} finally {
 
-								// prevent this block from being called again
-								break;
-							}
+					buffer.finish();
 
-							Thread.sleep(1);
-						}
-					}
+					AsyncOutputMetrics.renderFinished();
+				}
 
-				} catch (EofException ee) {
+				// record async rendering time
+				HtmlServlet.super.stats.recordStatsValue("html", rootElement.getName(), System.currentTimeMillis() - requestStartTime);
+			});
 
-					// ignore EofException which (by jettys standards) should be handled less verbosely
+		} catch (RejectedExecutionException rex) {
 
-				} catch (IOException | InterruptedException t) {
-					//logger.warn("Unexpected exception", t);
-				}
-			}
+			AsyncOutputMetrics.renderRejected();
 
-			@Override
-			public void onError(Throwable t) {
+			logger.warn("Unable to render page {}, render queue is full.", rootNode.getName());
 
-				// prevent async from running into default timeout of 30s
-				async.complete();
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			async.complete();
 
-				if (t instanceof QuietException) {
-					// ignore exceptions which (by jettys standards) should be handled less verbosely
-				} else {
+			return;
+		}
 
-					final SecurityContext sc = renderContext.getSecurityContext();
-					final Principal user     = sc.getUser(false);
-					final String username    = (user != null) ? user.getName() : "anonymous";
+		// release the render thread when the request ends before the page is rendered
+		async.addListener(writer);
 
-					logger.warn("Could not flush the response body content to the client, probably because the network connection was terminated.");
-					logger.warn(" -> From: {} | URI: {} | Query: {} | User: {}", request.getRemoteAddr(), request.getRequestURI(), request.getQueryString(), username);
-				}
-			}
-		});
+		// start output write listener
+		out.setWriteListener(writer);
 	}
 
 	protected void writeOutputSteam(HttpServletResponse response, StringRenderBuffer buffer) throws IOException {
@@ -1952,4 +1948,147 @@ public class HtmlServlet extends AbstractServletBase implements HttpServiceServl
 			return rootElement;
 		}
 	}
+
+	/**
+	 * Writes the chunks of an asynchronously rendered page to the client.
+	 * Writing starts when the container signals that the output stream is
+	 * ready, and resumes when the rendering thread provides new chunks after
+	 * the buffer ran empty.
+	 */
+	private static class AsyncOutputWriter implements WriteListener, AsyncListener {
+
+		private final AtomicBoolean completed     = new AtomicBoolean(false);
+		private HttpServletRequest request        = null;
+		private RenderContext renderContext       = null;
+		private AsyncContext async                = null;
+		private ServletOutputStream out           = null;
+		private ChunkedOutputBuffer buffer        = null;
+		private ChunkedOutputBuffer.Chunk pending = null;
+		private boolean firstByteWritten          = false;
+		private long requestStartTime             = 0L;
+
+		public AsyncOutputWriter(final HttpServletRequest request, final RenderContext renderContext, final AsyncContext async, final ServletOutputStream out, final ChunkedOutputBuffer buffer, final long requestStartTime) {
+
+			this.request          = request;
+			this.renderContext    = renderContext;
+			this.async            = async;
+			this.out              = out;
+			this.buffer           = buffer;
+			this.requestStartTime = requestStartTime;
+		}
+
+		@Override
+		public void onWritePossible() throws IOException {
+			write();
+		}
+
+		public void onDataAvailable() {
+
+			try {
+
+				write();
+
+			} catch (IOException ioex) {
+				onError(ioex);
+			}
+		}
+
+		@Override
+		public void onError(Throwable t) {
+
+			buffer.abort();
+
+			// prevent async from running into default timeout of 30s
+			if (completed.compareAndSet(false, true)) {
+				async.complete();
+			}
+
+			if (t instanceof QuietException) {
+				// ignore exceptions which (by jettys standards) should be handled less verbosely
+			} else {
+
+				final SecurityContext sc = renderContext.getSecurityContext();
+				final Principal user     = sc.getUser(false);
+				final String username    = (user != null) ? user.getName() : "anonymous";
+
+				logger.warn("Could not flush the response body content to the client, probably because the network connection was terminated.");
+				logger.warn(" -> From: {} | URI: {} | Query: {} | User: {}", request.getRemoteAddr(), request.getRequestURI(), request.getQueryString(), username);
+			}
+		}
+
+		/**
+		 * Discards the buffered output and completes the request.
+		 */
+		public void abort() {
+
+			buffer.abort();
+
+			if (completed.compareAndSet(false, true)) {
+				async.complete();
+			}
+		}
+
+		// ----- interface AsyncListener -----
+		@Override
+		public void onComplete(final AsyncEvent event) {
+			buffer.abort();
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) {
+			abort();
+		}
+
+		@Override
+		public void onError(final AsyncEvent event) {
+			abort();
+		}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) {
+		}
+
+		// ----- private methods -----
+		private synchronized void write() throws IOException {
+
+			try {
+
+				while (!completed.get() && out.isReady()) {
+
+					// the previous chunk has been written completely
+					if (pending != null) {
+
+						buffer.release(pending);
+						pending = null;
+					}
+
+					final ChunkedOutputBuffer.Chunk chunk = buffer.poll();
+					if (chunk == null) {
+
+						if (buffer.isDone() && completed.compareAndSet(false, true)) {
+							async.complete();
+						}
+
+						// wait for the data listener to be notified
+						return;
+					}
+
+					out.write(chunk.getData(), 0, chunk.getLength());
+
+					pending = chunk;
+
+					if (!firstByteWritten) {
+
+						AsyncOutputMetrics.firstByteWritten((System.currentTimeMillis() - requestStartTime) * 1_000_000L);
+						firstByteWritten = true;
+					}
+				}
+
+			} catch (EofException ee) {
+
+				// ignore EofException which (by jettys standards) should be handled less verbosely
+				buffer.abort();
+			}
+		}
+	}
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.websocket;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.api.Predicate;
+import org.structr.api.config.Settings;
+import org.structr.core.app.StructrApp;
+import org.structr.core.graph.Tx;
+import org.structr.websocket.message.WebSocketMessage;
+
+/**
+ * Sends broadcast messages to the websocket clients in a separate thread,
+ * so that committing transactions don't wait for the serialization and
+ * delivery of the messages. Updates of the same object that arrive within
+ * a short time window are merged into a single message, which is sent at
+ * the position of the latest update. Updates are never merged across a
+ * creation or deletion of the same object.
+ */
+public class BroadcastDispatcher extends Thread {
+
+	private static final Logger logger                     = LoggerFactory.getLogger(BroadcastDispatcher.class);
+
+	private final Map<Long, PendingBroadcast> pending      = new LinkedHashMap<>();
+	private final Map<String, PendingBroadcast> coalescing = new HashMap<>();
+	private final AtomicLong sequence                      = new AtomicLong();
+	private Receiver receiver                              = null;
+	private volatile boolean doRun                         = true;
+
+	public BroadcastDispatcher(final WebsocketController controller) {
+		this(controller::broadcast);
+	}
+
+	public BroadcastDispatcher(final Receiver receiver) {
+
+		super("WebsocketBroadcastDispatcher");
+
+		this.receiver = receiver;
+
+		setDaemon(true);
+	}
+
+	/**
+	 * Schedules the given message for broadcasting.
+	 *
+	 * @param message the message
+	 * @param receiverSessionPredicate optional predicate for the session ids of the receivers
+	 */
+	public void add(final WebSocketMessage message, final Predicate<String> receiverSessionPredicate) {
+
+		final String key = receiverSessionPredicate == null ? WebsocketController.getCoalescingKey(message) : null;
+		final String id  = message.getId();
+
+		synchronized (pending) {
+
+			if (key != null) {
+
+				final PendingBroadcast existing = coalescing.get(key);
+				if (existing != null) {
+
+					existing.merge(message);
+
+					// move the merged message to the position of the latest update
+					pending.remove(existing.position);
+					existing.position = sequence.incrementAndGet();
+					pending.put(existing.position, existing);
+
+					return;
+				}
+
+			} else if (id != null) {
+
+				// updates before and after a creation or deletion must not be merged
+				coalescing.values().removeIf(p -> id.equals(p.message.getId()));
+			}
+
+			final PendingBroadcast broadcast = new PendingBroadcast(sequence.incrementAndGet(), message, receiverSessionPredicate);
+
+			pending.put(broadcast.position, broadcast);
+
+			if (key != null) {
+				coalescing.put(key, broadcast);
+			}
+
+			pending.notifyAll();
+		}
+	}
+
+	/**
+	 * Stops the dispatcher thread, pending messages are discarded.
+	 */
+	public void shutdown() {
+
+		doRun = false;
+		interrupt();
+	}
+
+	@Override
+	public void run() {
+
+		while (doRun) {
+
+			final List<PendingBroadcast> batch = new ArrayList<>();
+
+			try {
+
+				synchronized (pending) {
+
+					while (pending.isEmpty()) {
+						pending.wait();
+					}
+				}
+
+				// collect more modifications of the same objects
+				final int delay = Settings.WebsocketBroadcastDelay.getValue();
+				if (delay > 0) {
+
+					Thread.sleep(delay);
+				}
+
+			} catch (InterruptedException iex) {
+
+				return;
+			}
+
+			synchronized (pending) {
+
+				batch.addAll(pending.values());
+				pending.clear();
+				coalescing.clear();
+			}
+
+			try (final Tx tx = StructrApp.getInstance().tx(false, false, false)) {
+
+				for (final PendingBroadcast broadcast : batch) {
+
+					// a failing message must not prevent the delivery of the others
+					try {
+
+						receiver.broadcast(broadcast.message, broadcast.receiverSessionPredicate);
+
+					} catch (Throwable t) {
+
+						logger.warn("Unable to broadcast websocket message {}: {}", broadcast.message.getCommand(), t.getMessage());
+					}
+				}
+
+				tx.success();
+
+			} catch (Throwable t) {
+
+				logger.warn("Unable to broadcast websocket messages: {}", t.getMessage());
+			}
+		}
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Receives the messages of the dispatcher.
+	 */
+	public interface Receiver {
+
+		void broadcast(final WebSocketMessage message, final Predicate<String> receiverSessionPredicate);
+	}
+
+	private static class PendingBroadcast {
+
+		private Predicate<String> receiverSessionPredicate = null;
+		private WebSocketMessage message                   = null;
+		private long position                              = 0L;
+
+		public PendingBroadcast(final long position, final WebSocketMessage message, final Predicate<String> receiverSessionPredicate) {
+
+			this.receiverSessionPredicate = receiverSessionPredicate;
+			this.message                  = message;
+			this.position                 = position;
+		}
+
+		public void merge(final WebSocketMessage other) {
+
+			message.getModifiedProperties().addAll(other.getModifiedProperties());
+			message.getRemovedProperties().addAll(other.getRemovedProperties());
+			message.setNodeData(other.getNodeData());
+			message.setRelData(other.getRelData());
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.websocket;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of broadcast messages for a single websocket client. Only
+ * one message per client is in flight, the next one is sent when the
+ * previous write has completed. A message with the same key as a queued
+ * message replaces it, so only stale updates are ever discarded. A client
+ * that can not keep up is disconnected, because dropping any other message
+ * would leave it in an inconsistent state.
+ */
+public class OutboundQueue implements WriteCallback {
+
+	private static final Logger logger         = LoggerFactory.getLogger(OutboundQueue.class);
+	private static final AtomicLong sequence   = new AtomicLong();
+
+	private final Map<String, String> messages = new LinkedHashMap<>();
+	private WebsocketController controller     = null;
+	private StructrWebSocket socket            = null;
+	private boolean sending                    = false;
+	private int maxSize                        = 0;
+
+	public OutboundQueue(final WebsocketController controller, final StructrWebSocket socket, final int maxSize) {
+
+		this.controller = controller;
+		this.socket     = socket;
+		this.maxSize    = Math.max(1, maxSize);
+	}
+
+	/**
+	 * Adds the given message to this queue.
+	 *
+	 * @param key the key of the message, or null if the message can not be replaced
+	 * @param message
+	 */
+	public synchronized void add(final String key, final String message) {
+
+		if (key != null) {
+
+			// replace stale update, the new message goes to the end of the queue
+			messages.remove(key);
+			messages.put(key, message);
+
+		} else {
+
+			messages.put("#" + sequence.incrementAndGet(), message);
+		}
+
+		if (messages.size() > maxSize) {
+
+			overflow();
+			return;
+		}
+
+		if (!sending) {
+			sendNext();
+		}
+	}
+
+	// ----- interface WriteCallback -----
+	@Override
+	public synchronized void writeSuccess() {
+		sendNext();
+	}
+
+	@Override
+	public synchronized void writeFailed(final Throwable t) {
+
+		logger.debug("Error sending message to client.", t);
+
+		sendNext();
+	}
+
+	// ----- private methods -----
+	private void sendNext() {
+
+		final Iterator<String> iterator = messages.values().iterator();
+
+		while (iterator.hasNext()) {
+
+			final Session session = socket.getSession();
+			if (session == null || !session.isOpen()) {
+
+				messages.clear();
+				sending = false;
+
+				controller.unregisterClient(socket);
+
+				logger.warn("Client removed from broadcast list: {}", socket);
+
+				return;
+			}
+
+			final String message = iterator.next();
+
+			iterator.remove();
+
+			try {
+
+				sending = true;
+				session.getRemote().sendString(message, this);
+
+				return;
+
+			} catch (Throwable t) {
+
+				// continue with the next message, the callback will not be invoked for this one
+				logger.debug("Error sending message to client.", t);
+			}
+		}
+
+		sending = false;
+	}
+
+	private void overflow() {
+
+		messages.clear();
+		sending = false;
+
+		controller.unregisterClient(socket);
+
+		logger.warn("Client {} does not keep up with broadcast messages, closing connection.", socket);
+
+		final Session session = socket.getSession();
+		if (session != null) {
+
+			try {
+
+				session.close(StatusCode.TRY_AGAIN_LATER, "Client does not keep up with broadcast messages.");
+
+			} catch (Throwable t) {
+
+				logger.debug("Error closing session.", t);
+			}
+		}
+	}
+}
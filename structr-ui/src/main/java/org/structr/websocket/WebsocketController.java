@@ -21,6 +21,7 @@ package org.structr.websocket;
 import com.google.gson.Gson;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -29,12 +30,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.websocket.api.Session;
-import org.eclipse.jetty.websocket.api.WebSocketException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.structr.api.Predicate;
+import org.structr.api.config.Settings;
 import org.structr.api.graph.RelationshipType;
 import org.structr.api.util.Iterables;
 import org.structr.common.AccessControllable;
@@ -65,8 +67,9 @@ public class WebsocketController implements StructrTransactionListener {
 	private static final Logger logger                 = LoggerFactory.getLogger(WebsocketController.class.getName());
 	private static final Set<String> BroadcastCommands = new HashSet<>(Arrays.asList("UPDATE", "ADD", "CREATE"));
 
-	private final Set<StructrWebSocket> clients = ConcurrentHashMap.newKeySet();
-	private Gson gson                           = null;
+	private final Map<StructrWebSocket, OutboundQueue> clients = new ConcurrentHashMap<>();
+	private BroadcastDispatcher dispatcher                     = null;
+	private Gson gson                                          = null;
 
 	private static final Set<String> BroadcastBlacklistForNodeTypes           = new HashSet<>(Arrays.asList("IndexedWord"));
 	private static final Set<PropertyKey> BroadcastBlacklistForNodeProperties = new HashSet<>(Arrays.asList(Principal.grantedNodes, Principal.ownedNodes));
@@ -74,12 +77,15 @@ public class WebsocketController implements StructrTransactionListener {
 
 	public WebsocketController(final Gson gson) {
 
-		this.gson = gson;
+		this.gson       = gson;
+		this.dispatcher = new BroadcastDispatcher(this);
+
+		dispatcher.start();
 	}
 
 	public void registerClient(final StructrWebSocket client) {
 
-		clients.add(client);
+		clients.put(client, new OutboundQueue(this, client, Settings.WebsocketClientQueueSize.getValue()));
 	}
 
 	public void unregisterClient(final StructrWebSocket client) {
@@ -87,27 +93,49 @@ public class WebsocketController implements StructrTransactionListener {
 		clients.remove(client);
 	}
 
-	private void broadcast(final WebSocketMessage webSocketData) {
+	/**
+	 * Stops the broadcast dispatcher of this controller.
+	 */
+	public void shutdown() {
+		dispatcher.shutdown();
+	}
+
+	/**
+	 * Returns the key under which the given message can be merged with
+	 * other messages for the same object, or null if the message must
+	 * be sent as it is.
+	 *
+	 * @param message
+	 * @return the key or null
+	 */
+	public static String getCoalescingKey(final WebSocketMessage message) {
+
+		final String id = message.getId();
+
+		if ("UPDATE".equals(message.getCommand()) && id != null) {
+			return "UPDATE:" + id + ":" + message.getCallback();
+		}
 
-		broadcast(webSocketData, null);
+		return null;
 	}
 
-	private void broadcast(final WebSocketMessage webSocketData, final Predicate<String> receiverSessionPredicate) {
+	void broadcast(final WebSocketMessage webSocketData, final Predicate<String> receiverSessionPredicate) {
 
 		// session must be valid to be received by the client
 		webSocketData.setSessionValid(true);
 
-		final String pagePath                        = webSocketData.getNodeDataStringValue("pagePath");
-		final String encodedPath                     = URIUtil.encodePath(pagePath);
-		final List<StructrWebSocket> clientsToRemove = new LinkedList<>();
-		final Iterable<? extends GraphObject> result = webSocketData.getResult();
-		final String command                         = webSocketData.getCommand();
-		final GraphObject obj                        = webSocketData.getGraphObject();
+		final String pagePath                             = webSocketData.getNodeDataStringValue("pagePath");
+		final String encodedPath                          = URIUtil.encodePath(pagePath);
+		final Iterable<? extends GraphObject> rawResult   = webSocketData.getResult();
+		final List<? extends GraphObject> result          = rawResult != null ? Iterables.toList(rawResult) : null;
+		final String command                              = webSocketData.getCommand();
+		final String key                                  = receiverSessionPredicate == null ? getCoalescingKey(webSocketData) : null;
+		final boolean filterResult                        = result != null && BroadcastCommands.contains(command);
+		final Map<String, String> messagesByVisibleResult = new HashMap<>();
 
-		String message;
+		for (final Map.Entry<StructrWebSocket, OutboundQueue> entry : clients.entrySet()) {
 
-		// create message
-		for (StructrWebSocket socket : clients) {
+			final StructrWebSocket socket = entry.getKey();
 
 			String clientPagePath = socket.getPagePath();
 			if (clientPagePath != null && !clientPagePath.equals(encodedPath)) {
@@ -119,54 +147,49 @@ public class WebsocketController implements StructrTransactionListener {
 			if (session != null && socket.isAuthenticated()) {
 
 				final SecurityContext securityContext = socket.getSecurityContext();
+				final String message;
 
 				if (receiverSessionPredicate != null && !receiverSessionPredicate.accept(securityContext.getSessionId())) {
 					continue;
 				}
 
-				if (result != null && BroadcastCommands.contains(command)) {
-
-					final WebSocketMessage clientData = webSocketData.copy();
-
-					clientData.setResult(filter(securityContext, result));
-
-					message = gson.toJson(clientData, WebSocketMessage.class);
-
-				} else {
-
-					message = gson.toJson(webSocketData, WebSocketMessage.class);
-				}
+				if (filterResult) {
 
-				try {
+					final List<GraphObject> visibleResult = filter(securityContext, result);
+					final String visibilityKey            = visibleResult.size() == result.size() ? "*" : visibleResult.stream().map(GraphObject::getUuid).collect(Collectors.joining(","));
 
-					session.getRemote().sendStringByFuture(message);
+					// clients that can see the same objects receive the same message
+					message = messagesByVisibleResult.computeIfAbsent(visibilityKey, k -> {
 
-				} catch (Throwable t) {
+						final WebSocketMessage clientData = webSocketData.copy();
 
-					if (t instanceof WebSocketException) {
+						clientData.setResult(visibleResult);
 
-						WebSocketException wse = (WebSocketException) t;
+						return gson.toJson(clientData, WebSocketMessage.class);
+					});
 
-						if ("RemoteEndpoint unavailable, current state [CLOSED], expecting [OPEN or CONNECTED]".equals(wse.getMessage())) {
-							clientsToRemove.add(socket);
-						}
-					}
+				} else {
 
-					logger.debug("Error sending message to client.", t);
+					message = messagesByVisibleResult.computeIfAbsent("*", k -> gson.toJson(webSocketData, WebSocketMessage.class));
 				}
+
+				entry.getValue().add(key, message);
 			}
 		}
+	}
+
+	private List<GraphObject> filter(final SecurityContext securityContext, final List<? extends GraphObject> all) {
 
-		for (StructrWebSocket s : clientsToRemove) {
+		final List<GraphObject> visible = new LinkedList<>();
 
-			unregisterClient(s);
+		for (final GraphObject obj : all) {
 
-			logger.warn("Client removed from broadcast list: {}", s);
+			if (securityContext.isVisible((AccessControllable)obj)) {
+				visible.add(obj);
+			}
 		}
-	}
 
-	private <T extends GraphObject> Iterable<T> filter(final SecurityContext securityContext, final Iterable<T> all) {
-		return Iterables.filter(e -> { return securityContext.isVisible((AccessControllable)e); }, all);
+		return visible;
 	}
 
 	// ----- interface StructrTransactionListener -----
@@ -183,7 +206,7 @@ public class WebsocketController implements StructrTransactionListener {
 				final WebSocketMessage message = getMessageForEvent(securityContext, event);
 				if (message != null) {
 
-					broadcast(message);
+					dispatcher.add(message, null);
 				}
 
 			} catch (FrameworkException ignore) {
@@ -193,7 +216,7 @@ public class WebsocketController implements StructrTransactionListener {
 
 	@Override
 	public void simpleBroadcast(final String commandName, final Map<String, Object> data, final Predicate<String> sessionIdPredicate) {
-		broadcast(MessageBuilder.forName(commandName).data(data).build(), sessionIdPredicate);
+		dispatcher.add(MessageBuilder.forName(commandName).data(data).build(), sessionIdPredicate);
 	}
 
 	// ----- private methods -----
@@ -40,6 +40,7 @@ public class WebSocketServlet extends org.eclipse.jetty.websocket.servlet.WebSoc
 	private static final int MAX_TEXT_MESSAGE_SIZE = 1024 * 1024;
 
 	private final StructrHttpServiceConfig config = new StructrHttpServiceConfig();
+	private WebsocketController syncController    = null;
 	protected StatsCallback stats                 = null;
 
 	@Override
@@ -73,7 +74,7 @@ public class WebSocketServlet extends org.eclipse.jetty.websocket.servlet.WebSoc
 
 		final Gson gson = gsonBuilder.create();
 
-		final WebsocketController syncController = new WebsocketController(gson);
+		syncController = new WebsocketController(gson);
 
 		// register (Structr) transaction listener
 		TransactionCommand.registerTransactionListener(syncController);
@@ -90,6 +91,18 @@ public class WebSocketServlet extends org.eclipse.jetty.websocket.servlet.WebSoc
 
 	}
 
+	@Override
+	public void destroy() {
+
+		if (syncController != null) {
+
+			TransactionCommand.removeTransactionListener(syncController);
+			syncController.shutdown();
+		}
+
+		super.destroy();
+	}
+
 	@Override
 	public void registerStatsCallback(final StatsCallback stats) {
 		this.stats = stats;
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.web.advanced;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.property.PropertyKey;
+import org.structr.test.web.StructrUiTest;
+import org.structr.websocket.BroadcastDispatcher;
+import org.structr.websocket.message.MessageBuilder;
+import org.structr.websocket.message.WebSocketMessage;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the coalescing, ordering and error handling of the websocket
+ * broadcast dispatcher. Messages are added before the dispatcher thread
+ * is started, so they are sent in a single batch.
+ */
+public class BroadcastDispatcherTest extends StructrUiTest {
+
+	@Test
+	public void testCoalescing() {
+
+		final List<WebSocketMessage> received = new ArrayList<>();
+		final BroadcastDispatcher dispatcher  = new BroadcastDispatcher((message, predicate) -> add(received, message));
+
+		dispatcher.add(update("a", AbstractNode.name), null);
+		dispatcher.add(update("b", AbstractNode.name), null);
+		dispatcher.add(update("a", AbstractNode.visibleToPublicUsers), null);
+
+		// messages with a receiver predicate are never merged
+		dispatcher.add(update("a", AbstractNode.name), session -> true);
+
+		try {
+
+			dispatcher.start();
+
+			waitFor(received, 3);
+
+		} finally {
+
+			dispatcher.shutdown();
+		}
+
+		assertEquals("Updates of the same object must be merged", "[b, a, a]", ids(received));
+		assertEquals("Merged update must contain all modified properties", Set.of(AbstractNode.name, AbstractNode.visibleToPublicUsers), received.get(1).getModifiedProperties());
+		assertEquals("Update with receiver predicate must not be merged", Set.of(AbstractNode.name), received.get(2).getModifiedProperties());
+	}
+
+	@Test
+	public void testOrderingAcrossCreateAndDelete() {
+
+		final List<WebSocketMessage> received = new ArrayList<>();
+		final BroadcastDispatcher dispatcher  = new BroadcastDispatcher((message, predicate) -> add(received, message));
+
+		dispatcher.add(update("a", AbstractNode.name), null);
+		dispatcher.add(create("b"), null);
+		dispatcher.add(update("a", AbstractNode.name), null);
+		dispatcher.add(update("c", AbstractNode.name), null);
+		dispatcher.add(delete("c"), null);
+		dispatcher.add(update("c", AbstractNode.name), null);
+
+		try {
+
+			dispatcher.start();
+
+			waitFor(received, 5);
+
+		} finally {
+
+			dispatcher.shutdown();
+		}
+
+		// the merged update of "a" must not overtake the creation of "b",
+		// the updates of "c" must not be merged across its deletion
+		assertEquals("Invalid order of broadcast messages", "[CREATE:b, UPDATE:a, UPDATE:c, DELETE:c, UPDATE:c]", commands(received));
+	}
+
+	@Test
+	public void testFailingMessage() {
+
+		final List<WebSocketMessage> received = new ArrayList<>();
+		final BroadcastDispatcher dispatcher  = new BroadcastDispatcher((message, predicate) -> {
+
+			if ("fail".equals(message.getId())) {
+				throw new RuntimeException("Broadcast failed");
+			}
+
+			add(received, message);
+		});
+
+		dispatcher.add(update("a", AbstractNode.name), null);
+		dispatcher.add(update("fail", AbstractNode.name), null);
+		dispatcher.add(update("b", AbstractNode.name), null);
+
+		try {
+
+			dispatcher.start();
+
+			waitFor(received, 2);
+
+			// the dispatcher must keep running after a failure
+			dispatcher.add(update("c", AbstractNode.name), null);
+
+			waitFor(received, 3);
+
+		} finally {
+
+			dispatcher.shutdown();
+		}
+
+		assertEquals("Failing message must not prevent the delivery of the others", "[a, b, c]", ids(received));
+	}
+
+	@Test
+	public void testShutdown() throws InterruptedException {
+
+		final BroadcastDispatcher dispatcher = new BroadcastDispatcher((message, predicate) -> {});
+
+		dispatcher.start();
+		dispatcher.shutdown();
+		dispatcher.join(TimeUnit.SECONDS.toMillis(10));
+
+		assertFalse("Dispatcher thread must be stopped", dispatcher.isAlive());
+	}
+
+	// ----- private methods -----
+	private WebSocketMessage update(final String id, final PropertyKey key) {
+
+		final WebSocketMessage message = MessageBuilder.update().id(id).build();
+
+		message.getModifiedProperties().add(key);
+
+		return message;
+	}
+
+	private WebSocketMessage create(final String id) {
+		return MessageBuilder.create().id(id).build();
+	}
+
+	private WebSocketMessage delete(final String id) {
+		return MessageBuilder.delete().id(id).build();
+	}
+
+	private void add(final List<WebSocketMessage> received, final WebSocketMessage message) {
+
+		synchronized (received) {
+			received.add(message);
+		}
+	}
+
+	private String ids(final List<WebSocketMessage> received) {
+
+		final List<String> ids = new ArrayList<>();
+
+		synchronized (received) {
+
+			for (final WebSocketMessage message : received) {
+				ids.add(message.getId());
+			}
+		}
+
+		return ids.toString();
+	}
+
+	private String commands(final List<WebSocketMessage> received) {
+
+		final List<String> commands = new ArrayList<>();
+
+		synchronized (received) {
+
+			for (final WebSocketMessage message : received) {
+				commands.add(message.getCommand() + ":" + message.getId());
+			}
+		}
+
+		return commands.toString();
+	}
+
+	private void waitFor(final List<WebSocketMessage> received, final int count) {
+
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+
+		while (true) {
+
+			synchronized (received) {
+
+				if (received.size() >= count) {
+					return;
+				}
+			}
+
+			if (System.currentTimeMillis() > deadline) {
+				fail("Broadcast messages were not delivered");
+			}
+
+			try { Thread.sleep(10); } catch (InterruptedException ignore) {}
+		}
+	}
+}
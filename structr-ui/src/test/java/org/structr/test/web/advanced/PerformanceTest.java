@@ -28,6 +28,7 @@ import java.util.Locale;
 import org.testng.annotations.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.structr.api.config.Settings;
 import org.structr.api.util.Iterables;
 import org.structr.common.AccessMode;
 import org.structr.common.SecurityContext;
@@ -178,6 +179,58 @@ public class PerformanceTest extends IndexingTest {
 		}
 	}
 
+	/**
+	 * Compares the throughput of property updates with and without the
+	 * write-behind buffer of the Neo4j driver.
+	 *
+	 * Note that this is just a very rough test as performance is heavily
+	 * depending on hardware and setup, and the setting has no effect on
+	 * other database drivers.
+	 */
+	@Test
+	public void testPerformanceOfPropertyUpdates() {
+
+		final boolean writeBehind = Settings.Neo4jWriteBehind.getValue();
+
+		try {
+
+			final App app             = StructrApp.getInstance(setupSecurityContext());
+			final List<TestOne> nodes = createNodes(app, TestOne.class, 1000);
+
+			Settings.Neo4jWriteBehind.setValue(false);
+
+			final long unbuffered = updateProperties(app, nodes, 1);
+
+			Settings.Neo4jWriteBehind.setValue(true);
+
+			final long buffered = updateProperties(app, nodes, 2);
+
+			logger.info("Updated 10 properties on {} nodes in {} ms without and {} ms with write-behind", nodes.size(), unbuffered, buffered);
+
+			try (final Tx tx = app.tx()) {
+
+				for (final TestOne node : app.nodeQuery(TestOne.class).getAsList()) {
+
+					assertEquals("Invalid property update result", Integer.valueOf(2), node.getProperty(TestOne.anInt));
+					assertEquals("Invalid property update result", "value2", node.getProperty(TestOne.aString));
+				}
+
+				tx.success();
+			}
+
+			assertTrue("Property updates with write-behind are too slow", buffered < unbuffered * 2 + 1000);
+
+		} catch (FrameworkException ex) {
+
+			logger.error(ex.toString());
+			fail("Unexpected exception");
+
+		} finally {
+
+			Settings.Neo4jWriteBehind.setValue(writeBehind);
+		}
+	}
+
 	/**
 	 * Tests basic throughput of reading node properties.
 	 *
@@ -288,7 +341,7 @@ public class PerformanceTest extends IndexingTest {
 
 				try (final Tx tx = app.tx()) {
 
-					for (final TestTwo t : app.nodeQuery(TestTwo.class).getAsList()) {
+					for (final TestTwo t : app.nodeQuery(TestTwo.class).prefetch(TestTwo.testFives).getAsList()) {
 
 						t.getName();
 
@@ -400,6 +453,32 @@ public class PerformanceTest extends IndexingTest {
 		return SecurityContext.getInstance(user, AccessMode.Backend);
 	}
 
+	private long updateProperties(final App app, final List<TestOne> nodes, final int value) throws FrameworkException {
+
+		final long t0 = System.currentTimeMillis();
+
+		try (final Tx tx = app.tx()) {
+
+			for (final TestOne node : nodes) {
+
+				node.setProperty(TestOne.anInt,      value);
+				node.setProperty(TestOne.aLong,      (long)value);
+				node.setProperty(TestOne.aDouble,    (double)value);
+				node.setProperty(TestOne.aDate,      new Date(value));
+				node.setProperty(TestOne.aString,    "value" + value);
+				node.setProperty(TestOne.htmlString, "<b>" + value + "</b>");
+				node.setProperty(AbstractNode.name,  "TestOne" + value);
+				node.setProperty(TestOne.anInt,      value + 1);
+				node.setProperty(TestOne.anInt,      value);
+				node.setProperty(TestOne.aString,    "value" + value);
+			}
+
+			tx.success();
+		}
+
+		return System.currentTimeMillis() - t0;
+	}
+
 	private <T extends NodeInterface> List<T> createNodes(final App app, final Class<T> type, final int number) throws FrameworkException {
 
 		final List<T> nodes = new LinkedList<>();
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.web.advanced;
+
+import com.jayway.restassured.RestAssured;
+import com.jayway.restassured.filter.log.ResponseLoggingFilter;
+import org.hamcrest.Matchers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.structr.api.config.Settings;
+import org.structr.common.error.FrameworkException;
+import org.structr.core.app.StructrApp;
+import org.structr.core.entity.AbstractNode;
+import org.structr.core.graph.NodeAttribute;
+import org.structr.core.graph.Tx;
+import org.structr.test.web.StructrUiTest;
+import org.structr.test.web.entity.TestOne;
+import org.structr.web.common.RenderCache;
+import org.structr.web.entity.User;
+import org.structr.web.entity.dom.Content;
+import org.structr.web.entity.dom.Page;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+
+/**
+ *
+ */
+public class RenderCacheTest extends StructrUiTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(RenderCacheTest.class);
+
+	@Test
+	public void testRenderCacheInvalidation() {
+
+		Settings.HtmlRenderCacheEnabled.setValue(true);
+
+		try {
+
+			Content content = null;
+			TestOne test    = null;
+
+			try (final Tx tx = app.tx()) {
+
+				createTestNode(User.class,
+					new NodeAttribute<>(StructrApp.key(User.class, "name"),     "admin"),
+					new NodeAttribute<>(StructrApp.key(User.class, "password"), "admin"),
+					new NodeAttribute<>(StructrApp.key(User.class, "isAdmin"), true)
+				);
+
+				final Page page1  = Page.createSimplePage(securityContext, "page1");
+				final Element div = (Element)page1.getElementsByTagName("div").item(0);
+
+				content = (Content)div.getFirstChild();
+				test    = createTestNode(TestOne.class, new NodeAttribute<>(AbstractNode.name, "before"));
+
+				tx.success();
+
+			} catch (FrameworkException fex) {
+
+				logger.warn("", fex);
+				fail("Unexpected exception");
+			}
+
+			RestAssured.basePath = "/";
+
+			assertPageContent("Initial body text");
+			assertPageContent("Initial body text");
+
+			assertTrue("Rendered page should be cached", RenderCache.size() > 0);
+
+			// modification of a DOM node
+			try (final Tx tx = app.tx()) {
+
+				content.setProperty(StructrApp.key(Content.class, "content"), "${first(find('TestOne')).name}");
+				tx.success();
+
+			} catch (FrameworkException fex) {
+
+				logger.warn("", fex);
+				fail("Unexpected exception");
+			}
+
+			assertPageContent("before");
+			assertPageContent("before");
+
+			// modification of data the page depends on
+			try (final Tx tx = app.tx()) {
+
+				test.setProperty(AbstractNode.name, "after");
+				tx.success();
+
+			} catch (FrameworkException fex) {
+
+				logger.warn("", fex);
+				fail("Unexpected exception");
+			}
+
+			assertPageContent("after");
+
+		} finally {
+
+			Settings.HtmlRenderCacheEnabled.setValue(false);
+			RenderCache.invalidateAll();
+		}
+	}
+
+	@Test
+	public void testRenderCacheKey() {
+
+		Settings.HtmlRenderCacheEnabled.setValue(true);
+
+		try {
+
+			try (final Tx tx = app.tx()) {
+
+				createTestNode(User.class,
+					new NodeAttribute<>(StructrApp.key(User.class, "name"),     "admin"),
+					new NodeAttribute<>(StructrApp.key(User.class, "password"), "admin"),
+					new NodeAttribute<>(StructrApp.key(User.class, "isAdmin"), true)
+				);
+
+				Page.createSimplePage(securityContext, "page1");
+
+				tx.success();
+
+			} catch (FrameworkException fex) {
+
+				logger.warn("", fex);
+				fail("Unexpected exception");
+			}
+
+			RestAssured.basePath = "/";
+
+			RenderCache.invalidateAll();
+
+			requestPage("test", "value1");
+
+			final int size = RenderCache.size();
+
+			assertTrue("Rendered page should be cached", size > 0);
+
+			requestPage("test", "value1");
+			assertEquals("Identical requests should use the same cache entries", size, RenderCache.size());
+
+			// cookies and configured headers are part of the cache key
+			requestPage("test", "value2");
+			assertEquals("Requests with different cookies must not share cache entries", size * 2, RenderCache.size());
+
+			requestPage("other", "value2");
+			assertEquals("Requests with different headers must not share cache entries", size * 3, RenderCache.size());
+
+		} finally {
+
+			Settings.HtmlRenderCacheEnabled.setValue(false);
+			RenderCache.invalidateAll();
+		}
+	}
+
+	// ----- private methods -----
+	private void requestPage(final String userAgent, final String cookie) {
+
+		RestAssured
+			.given()
+			.header("X-User",     "admin")
+			.header("X-Password", "admin")
+			.header("User-Agent", userAgent)
+			.cookie("test", cookie)
+			.filter(ResponseLoggingFilter.logResponseIfStatusCodeIs(500))
+			.expect()
+			.statusCode(200)
+			.when()
+			.get("/html/page1");
+	}
+
+	private void assertPageContent(final String expected) {
+
+		RestAssured
+			.given()
+			.header("X-User",     "admin")
+			.header("X-Password", "admin")
+			.filter(ResponseLoggingFilter.logResponseIfStatusCodeIs(500))
+			.expect()
+			.statusCode(200)
+			.body("html.head.title", Matchers.equalTo("Page1"))
+			.body("html.body.div",   Matchers.equalTo(expected))
+			.when()
+			.get("/html/page1");
+	}
+}
@@ -421,4 +421,52 @@ public class RendererTest extends StructrUiTest {
 			.get("/html/page1");
 	}
 	*/
+
+	@Test
+	public void testLargeAsyncOutput() {
+
+		final StringBuilder text = new StringBuilder();
+		Content content          = null;
+
+		// multi-byte characters make sure that chunk boundaries split encoded characters
+		while (text.length() < 500000) {
+			text.append("äöü € ").append(text.length()).append(" ");
+		}
+
+		try (final Tx tx = app.tx()) {
+
+			createTestNode(User.class,
+				new NodeAttribute<>(StructrApp.key(User.class, "name"),     "admin"),
+				new NodeAttribute<>(StructrApp.key(User.class, "password"), "admin"),
+				new NodeAttribute<>(StructrApp.key(User.class, "isAdmin"), true)
+			);
+
+			final Page page1  = Page.createSimplePage(securityContext, "page1");
+			final Element div = (Element)page1.getElementsByTagName("div").item(0);
+
+			content = (Content)div.getFirstChild();
+			content.setProperty(StructrApp.key(Content.class, "content"), text.toString());
+
+			tx.success();
+
+		} catch (FrameworkException fex) {
+
+			logger.warn("", fex);
+			fail("Unexpected exception");
+		}
+
+		RestAssured.basePath = "/";
+
+		RestAssured
+			.given()
+			.header("X-User",     "admin")
+			.header("X-Password", "admin")
+			.filter(ResponseLoggingFilter.logResponseIfStatusCodeIs(500))
+			.expect()
+			.statusCode(200)
+			.body("html.head.title", Matchers.equalTo("Page1"))
+			.body("html.body.div",   Matchers.equalTo(text.toString().trim()))
+			.when()
+			.get("/html/page1");
+	}
 }
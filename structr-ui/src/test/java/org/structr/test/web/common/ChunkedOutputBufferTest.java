@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2010-2021 Structr GmbH
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.test.web.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.structr.web.common.ChunkedOutputBuffer;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the backpressure, timeout and abort handling of the chunked
+ * output buffer without a client connection.
+ */
+public class ChunkedOutputBufferTest {
+
+	@Test
+	public void testChunking() {
+
+		final ChunkedOutputBuffer buffer = new ChunkedOutputBuffer(512, 4, 1000);
+
+		buffer.append(StringUtils.repeat("a", 600));
+		buffer.finish();
+
+		final ChunkedOutputBuffer.Chunk first  = buffer.poll();
+		final ChunkedOutputBuffer.Chunk second = buffer.poll();
+
+		assertNotNull("Full chunk must be available", first);
+		assertNotNull("Partial chunk must be flushed on finish", second);
+		assertEquals("Invalid chunk length", 512, first.getLength());
+		assertEquals("Invalid chunk length", 88, second.getLength());
+		assertNull("Buffer must be empty", buffer.poll());
+		assertTrue("Buffer must be done", buffer.isDone());
+		assertFalse("Buffer must not be aborted", buffer.isAborted());
+	}
+
+	@Test
+	public void testTimeoutAbortsRendering() {
+
+		final ChunkedOutputBuffer buffer = new ChunkedOutputBuffer(512, 1, 200);
+		final long t0                    = System.currentTimeMillis();
+
+		// the first chunk fills the buffer
+		buffer.append(StringUtils.repeat("a", 512));
+
+		try {
+
+			// nobody reads from the buffer
+			buffer.append(StringUtils.repeat("a", 512));
+
+			fail("Rendering must be aborted when the client does not read the output");
+
+		} catch (ChunkedOutputBuffer.RenderAbortedException expected) {}
+
+		assertTrue("Rendering thread must wait for the timeout", System.currentTimeMillis() - t0 >= 200);
+		assertTrue("Buffer must be aborted after the timeout", buffer.isAborted());
+		assertNull("Buffered output must be discarded", buffer.poll());
+
+		try {
+
+			buffer.append("a");
+
+			fail("Aborted buffer must not accept output");
+
+		} catch (ChunkedOutputBuffer.RenderAbortedException expected) {}
+
+		// must not throw
+		buffer.finish();
+	}
+
+	@Test
+	public void testAbortWakesRenderingThread() throws Exception {
+
+		final ChunkedOutputBuffer buffer = new ChunkedOutputBuffer(512, 1, TimeUnit.MINUTES.toMillis(1));
+		final ExecutorService executor   = Executors.newSingleThreadExecutor();
+
+		try {
+
+			buffer.append(StringUtils.repeat("a", 512));
+
+			final Future<Boolean> future = executor.submit(() -> {
+
+				try {
+
+					buffer.append(StringUtils.repeat("a", 512));
+
+				} catch (ChunkedOutputBuffer.RenderAbortedException rex) {
+					return true;
+				}
+
+				return false;
+			});
+
+			Thread.sleep(100);
+
+			// called by the async listener when the request fails or times out
+			buffer.abort();
+
+			assertTrue("Rendering thread must be aborted", future.get(10, TimeUnit.SECONDS));
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+
+		final ChunkedOutputBuffer buffer = new ChunkedOutputBuffer(512, 1, TimeUnit.MINUTES.toMillis(1));
+		final ExecutorService executor   = Executors.newSingleThreadExecutor();
+		int count                        = 0;
+
+		try {
+
+			final Future<?> future = executor.submit(() -> {
+
+				for (int i=0; i<10; i++) {
+					buffer.append(StringUtils.repeat("a", 512));
+				}
+
+				buffer.finish();
+			});
+
+			while (!buffer.isDone()) {
+
+				final ChunkedOutputBuffer.Chunk chunk = buffer.poll();
+				if (chunk != null) {
+
+					buffer.release(chunk);
+					count++;
+
+				} else {
+
+					Thread.sleep(1);
+				}
+			}
+
+			future.get(10, TimeUnit.SECONDS);
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+
+		assertEquals("All chunks must be received", 10, count);
+		assertFalse("Buffer must not be aborted", buffer.isAborted());
+	}
+}